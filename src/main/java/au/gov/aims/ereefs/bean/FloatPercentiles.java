@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean;
+
+import java.util.Arrays;
+
+/**
+ * Calculate percentiles of a population of {@code float} values,
+ * without boxing the values.
+ *
+ * <p>It works in one of 2 modes:</p>
+ * <ul>
+ *   <li><em>Exact</em>: the values are stored in a {@code float[]}.
+ *     The value at a given rank is found using a selection algorithm (quickselect),
+ *     in linear time. Used for populations smaller than the exact threshold.</li>
+ *   <li><em>Sketch</em>: the values are counted in a histogram of
+ *     logarithmic buckets, using a fixed amount of memory.
+ *     The bucket of a value is given by its sign, its exponent and the first
+ *     {@code precisionBits} bits of its mantissa, so the relative error
+ *     of the returned values is less than {@code 2^-(precisionBits+1)},
+ *     whatever the range of the values. Outliers do not affect the precision.</li>
+ * </ul>
+ *
+ * <p>The exact mode switches to the sketch mode when the number of values
+ * exceeds the exact threshold.</p>
+ *
+ * <p>Populations can be calculated separately, for example one per thread,
+ * and combined using {@link #merge(FloatPercentiles)}.</p>
+ *
+ * <p>{@code NaN} values are ignored. This class is not thread safe.</p>
+ */
+public class FloatPercentiles {
+    // 4M values, 16 MB
+    public static final int DEFAULT_EXACT_THRESHOLD = 4 * 1024 * 1024;
+    // 65536 buckets (512 kB), relative error < 0.4%
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int FLOAT_MANTISSA_BITS = 23;
+
+    private final int exactThreshold;
+    private final int precisionBits;
+
+    private long size;
+    private float min;
+    private float max;
+
+    // Exact mode
+    private float[] values;
+    // The values before this index are smaller or equal to the values after it. See select(int)
+    private int selectedRank;
+
+    // Sketch mode
+    private long[] bucketCounts;
+
+    /**
+     * Create a {@code FloatPercentiles} using the default exact threshold and precision.
+     *
+     * @param expectedSize the expected number of values. Used to choose the mode
+     *   and to allocate the memory needed by the exact mode.
+     */
+    public FloatPercentiles(long expectedSize) {
+        this(expectedSize, DEFAULT_EXACT_THRESHOLD, DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Create a {@code FloatPercentiles}.
+     *
+     * @param expectedSize the expected number of values. Used to choose the mode
+     *   and to allocate the memory needed by the exact mode.
+     * @param exactThreshold the maximum number of values stored by the exact mode.
+     *   Set to 0 to always use the sketch mode.
+     * @param precisionBits the number of mantissa bits used by the sketch mode, between 1 and 12.
+     *   The sketch uses {@code 2^(precisionBits+9)} buckets.
+     */
+    public FloatPercentiles(long expectedSize, int exactThreshold, int precisionBits) {
+        if (exactThreshold < 0) {
+            throw new IllegalArgumentException("Invalid exact threshold: " + exactThreshold);
+        }
+        if (precisionBits < 1 || precisionBits > 12) {
+            throw new IllegalArgumentException("Invalid precision bits: " + precisionBits + ". Expected value between 1 and 12.");
+        }
+
+        this.exactThreshold = exactThreshold;
+        this.precisionBits = precisionBits;
+
+        this.size = 0;
+        this.min = Float.POSITIVE_INFINITY;
+        this.max = Float.NEGATIVE_INFINITY;
+
+        if (expectedSize <= exactThreshold) {
+            this.values = new float[(int)Math.max(MIN_CAPACITY, expectedSize)];
+            this.selectedRank = -1;
+        } else {
+            this.bucketCounts = new long[1 << (precisionBits + 9)];
+        }
+    }
+
+    /**
+     * Add a value to the population.
+     *
+     * @param value the value. {@code NaN} values are ignored.
+     */
+    public void add(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+
+        if (this.values != null) {
+            if (this.size >= this.exactThreshold) {
+                this.switchToSketch();
+            } else {
+                if (this.size == this.values.length) {
+                    this.values = Arrays.copyOf(this.values,
+                            (int)Math.min(this.exactThreshold, (long)this.values.length * 2));
+                }
+                this.values[(int)this.size] = value;
+                this.selectedRank = -1;
+            }
+        }
+        if (this.bucketCounts != null) {
+            this.bucketCounts[this.getBucket(value)]++;
+        }
+
+        this.size++;
+        if (value < this.min) {
+            this.min = value;
+        }
+        if (value > this.max) {
+            this.max = value;
+        }
+    }
+
+    /**
+     * Add all the values of an other population to this population.
+     *
+     * <p>The result stays exact if both populations are exact and the total number
+     * of values does not exceed the exact threshold of this population.
+     * Otherwise, it switches to the sketch mode.</p>
+     *
+     * @param other the other population. It is not modified.
+     * @throws IllegalArgumentException if both populations use the sketch mode with different precisions.
+     */
+    public void merge(FloatPercentiles other) {
+        if (other == null || other.size == 0) {
+            return;
+        }
+
+        if (other.values == null && this.precisionBits != other.precisionBits) {
+            throw new IllegalArgumentException("Can not merge sketches with different precisions: "
+                    + this.precisionBits + " and " + other.precisionBits);
+        }
+
+        long mergedSize = this.size + other.size;
+        if (this.values != null && (other.values == null || mergedSize > this.exactThreshold)) {
+            this.switchToSketch();
+        }
+
+        if (this.values != null) {
+            if (mergedSize > this.values.length) {
+                this.values = Arrays.copyOf(this.values,
+                        (int)Math.min(this.exactThreshold, Math.max(mergedSize, (long)this.values.length * 2)));
+            }
+            System.arraycopy(other.values, 0, this.values, (int)this.size, (int)other.size);
+            this.selectedRank = -1;
+        } else if (other.values != null) {
+            for (int i=0; i<other.size; i++) {
+                this.bucketCounts[this.getBucket(other.values[i])]++;
+            }
+        } else {
+            for (int bucket=0; bucket<this.bucketCounts.length; bucket++) {
+                this.bucketCounts[bucket] += other.bucketCounts[bucket];
+            }
+        }
+
+        this.size = mergedSize;
+        if (other.min < this.min) {
+            this.min = other.min;
+        }
+        if (other.max > this.max) {
+            this.max = other.max;
+        }
+    }
+
+    private void switchToSketch() {
+        this.bucketCounts = new long[1 << (this.precisionBits + 9)];
+        for (int i=0; i<this.size; i++) {
+            this.bucketCounts[this.getBucket(this.values[i])]++;
+        }
+        this.values = null;
+    }
+
+    /**
+     * Returns the number of values in the population, ignoring {@code NaN}.
+     * @return the number of values.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Returns {@code true} if the percentiles are calculated from the values.
+     * {@code false} if they are estimated using the sketch.
+     *
+     * @return {@code true} if the percentiles are exact.
+     */
+    public boolean isExact() {
+        return this.values != null;
+    }
+
+    /**
+     * Returns the smallest value.
+     * @return the smallest value, or {@code NaN} if there is no values.
+     */
+    public float getMin() {
+        return this.size == 0 ? Float.NaN : this.min;
+    }
+
+    /**
+     * Returns the largest value.
+     * @return the largest value, or {@code NaN} if there is no values.
+     */
+    public float getMax() {
+        return this.size == 0 ? Float.NaN : this.max;
+    }
+
+    /**
+     * Returns the value at a given rank, in ascending order.
+     * The value at rank {@code 0} is the smallest value,
+     * the value at rank {@code size() - 1} is the largest value.
+     *
+     * @param rank the rank of the value.
+     * @return the value at the given rank. It's an approximation in sketch mode.
+     * @throws IndexOutOfBoundsException if the rank is out of range.
+     */
+    public float getValueAtRank(long rank) {
+        if (rank < 0 || rank >= this.size) {
+            throw new IndexOutOfBoundsException("Rank: " + rank + ", Size: " + this.size);
+        }
+
+        if (rank == 0) {
+            return this.min;
+        }
+        if (rank == this.size - 1) {
+            return this.max;
+        }
+
+        if (this.values != null) {
+            return this.select((int)rank);
+        }
+
+        long count = 0;
+        for (int bucket=0; bucket<this.bucketCounts.length; bucket++) {
+            count += this.bucketCounts[bucket];
+            if (count > rank) {
+                return this.getBucketValue(bucket);
+            }
+        }
+
+        // This should not happen
+        return this.max;
+    }
+
+    /**
+     * Returns the value at a given percentile, using the nearest rank method.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value at the given percentile, or {@code NaN} if there is no values.
+     */
+    public float getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        if (this.size == 0) {
+            return Float.NaN;
+        }
+
+        long rank = (long)Math.ceil(percentile / 100 * this.size) - 1;
+        return this.getValueAtRank(Math.max(0, Math.min(this.size - 1, rank)));
+    }
+
+    // Quickselect, using the median of 3 as pivot.
+    // The previous selection is reused: when selecting a larger rank,
+    // only the values after the previously selected rank are considered.
+    private float select(int rank) {
+        int from = 0, to = (int)this.size - 1;
+        if (this.selectedRank >= 0) {
+            if (rank == this.selectedRank) {
+                return this.values[rank];
+            }
+            if (rank > this.selectedRank) {
+                from = this.selectedRank + 1;
+            } else {
+                to = this.selectedRank - 1;
+            }
+        }
+
+        float[] a = this.values;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            // Order a[from], a[middle] and a[to]
+            if (a[middle] < a[from]) {
+                FloatPercentiles.swap(a, from, middle);
+            }
+            if (a[to] < a[from]) {
+                FloatPercentiles.swap(a, from, to);
+            }
+            if (a[to] < a[middle]) {
+                FloatPercentiles.swap(a, middle, to);
+            }
+            float pivot = a[middle];
+
+            // Hoare partition
+            int i = from, j = to;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    FloatPercentiles.swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            if (rank <= j) {
+                to = j;
+            } else if (rank >= i) {
+                from = i;
+            } else {
+                // a[j+1 .. i-1] are equal to the pivot
+                break;
+            }
+        }
+
+        this.selectedRank = rank;
+        return a[rank];
+    }
+
+    private static void swap(float[] a, int i, int j) {
+        float tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+    }
+
+    // The bits of a float, as an int which has the same order as the float
+    private static int toSortableInt(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private static float fromSortableInt(int sortableInt) {
+        return Float.intBitsToFloat(sortableInt ^ ((sortableInt >> 31) & 0x7fffffff));
+    }
+
+    private int getBucket(float value) {
+        int shift = FLOAT_MANTISSA_BITS - this.precisionBits;
+        // Signed shift, then offset to make all buckets positive
+        return (FloatPercentiles.toSortableInt(value) >> shift) + (this.bucketCounts.length >> 1);
+    }
+
+    // Value in the middle of the bucket, within [min, max]
+    private float getBucketValue(int bucket) {
+        int shift = FLOAT_MANTISSA_BITS - this.precisionBits;
+        int lowerBound = (bucket - (this.bucketCounts.length >> 1)) << shift;
+        float value = FloatPercentiles.fromSortableInt(lowerBound + (1 << (shift - 1)));
+
+        if (Float.isNaN(value) || value > this.max) {
+            return this.max;
+        }
+        if (value < this.min) {
+            return this.min;
+        }
+        return value;
+    }
+}
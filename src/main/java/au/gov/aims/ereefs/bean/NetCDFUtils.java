@@ -6,9 +6,11 @@ package au.gov.aims.ereefs.bean;
 
 import au.gov.aims.ereefs.DataScanner;
 import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.metadata.netcdf.TemporalDomainBean;
 import au.gov.aims.ereefs.bean.metadata.netcdf.VariableMetadataBean;
 import au.gov.aims.ereefs.bean.metadata.netcdf.VerticalDomainBean;
 import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
 import ucar.ma2.InvalidRangeException;
 import uk.ac.rdg.resc.edal.dataset.DataReader;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
@@ -19,7 +21,14 @@ import uk.ac.rdg.resc.edal.util.Array4D;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Utility class defining methods which can be used
@@ -121,18 +130,23 @@ public class NetCDFUtils {
      * <p>NOTE:
      *  NetCDF files often contains <a href="https://en.wikipedia.org/wiki/Outlier" target="_blank">outliers</a>.
      *  The outliers tend to stretch the legend to an unusable extent.
-     *  To go around that problem, we store the 1% smaller values in a bin
-     *  and the 1% higher values in an other bin, then we get the 1 percentile
-     *  and 99 percentile from those bins.</p>
+     *  To go around that problem, we ignore the 1% smaller values
+     *  and the 1% higher values, and return the 1 percentile
+     *  and 99 percentile.</p>
      *
      * <pre class="code">
      *   minBin       ignored data        maxBin
      * [(------)-------------------------(------)]
      *        |                           |
      *  1 percentile =              99 percentile =
-     *    minBin.last()               maxBin.first()
+     *    largest value of minBin     smallest value of maxBin
      * </pre>
      *
+     * <p>The percentiles are calculated using {@link FloatPercentiles}.
+     *  They are exact for grids smaller than {@link FloatPercentiles#DEFAULT_EXACT_THRESHOLD}
+     *  values, and estimated with a relative error smaller than 0.4% for larger grids.
+     *  {@code NaN} values are ignored.</p>
+     *
      * @param netCDFFile the NetCDF file containing the dataset.
      * @param variableId the variable ID (aka feature ID) to analise.
      * @param depth the depth or elevation.
@@ -158,21 +172,7 @@ public class NetCDFUtils {
      *   for {@code min} and {@code max} values.
      */
     public static DataDomain computeMinMax(File netCDFFile, String variableId, Double depth, Integer percentile) {
-        if (percentile == null) {
-            percentile = 1;
-        }
-        // Corrections
-        // Percentile bigger than 100 doesn't make sense.
-        // Percentile is calculated in a symmetrical manner.
-        //   For example, 10 percentile will calculate 10 percentile for min and 90 percentile for max
-        if (percentile > 100 || percentile < 0) {
-            percentile = 0;
-        }
-        // Values higher than 50% needs to be adjusted.
-        //   For example 75%, is equivalent to [25%, 75%]
-        if (percentile > 50) {
-            percentile = 100 - percentile;
-        }
+        int symmetricPercentile = NetCDFUtils.getSymmetricPercentile(percentile);
 
         LOGGER.info("Computing min / max values for feature '" + variableId + "'");
 
@@ -214,70 +214,360 @@ public class NetCDFUtils {
         long dataReadTime = System.currentTimeMillis(); // For debugging
         LOGGER.debug("Feature " + variableId + " read " + values.size() + " values in " + (dataReadTime - startTime) + "ms");
 
-        // Calculate the population size
-        //   The number of none null data points.
-        // This is needed to calculate the size of the min / max bins.
-        long population = 0;
+        // Single pass through the data.
+        // The values are kept as primitive floats. Large grids are
+        // summarised in a sketch, using a bounded amount of memory.
+        FloatPercentiles percentiles = new FloatPercentiles(values.size());
         for (Number number : values) {
             if (number != null) {
-                population++;
+                percentiles.add(number.floatValue());
             }
         }
 
+        float[] minMax = NetCDFUtils.getPercentileMinMax(percentiles, symmetricPercentile);
+        if (minMax != null) {
+            minValue = minMax[0];
+            maxValue = minMax[1];
+        }
+        long minMaxTime = System.currentTimeMillis(); // For debugging
+        LOGGER.debug("Calculated min / max for feature " + variableId + " in " + (minMaxTime - dataReadTime) + "ms");
+
+        if (minValue == null || maxValue == null) {
+            // This should not happen
+            LOGGER.warn("Could not calculate the data min / max value for variable ID '" + variableId + "'.");
+            return null;
+        }
+
+        if (minValue.equals(maxValue)) {
+            LOGGER.warn("Variable ID '" + variableId + "' seems to be populated with the constant: " + minValue);
+        }
+
+        LOGGER.info("Computed min / max values for feature '" + variableId + "' are [" + minValue + ", " + maxValue + "]");
+
+        return new DataDomain(closestDepth, minValue, maxValue);
+    }
+
+    // Corrections
+    // Percentile bigger than 100 doesn't make sense.
+    // Percentile is calculated in a symmetrical manner.
+    //   For example, 10 percentile will calculate 10 percentile for min and 90 percentile for max
+    private static int getSymmetricPercentile(Integer percentile) {
+        if (percentile == null) {
+            return 1;
+        }
+        if (percentile > 100 || percentile < 0) {
+            return 0;
+        }
+        // Values higher than 50% needs to be adjusted.
+        //   For example 75%, is equivalent to [25%, 75%]
+        if (percentile > 50) {
+            return 100 - percentile;
+        }
+        return percentile;
+    }
+
+    // Returns the values at the symmetric percentiles, or null if the population is empty
+    private static float[] getPercentileMinMax(FloatPercentiles percentiles, int symmetricPercentile) {
+        // The population size: the number of none null data points.
+        long population = percentiles.size();
+        if (population <= 0) {
+            return null;
+        }
+
         // Divided by 100 to get about 1%
-        long binSize = population * percentile / 100;
+        long binSize = population * symmetricPercentile / 100;
         // Ensure we get at least 1 value in the bin (when dealing with very small datasets).
         if (binSize <= 0) {
             binSize = 1;
         }
-        // NOTE: FullTreeSet is a TreeSet which allow duplicates
-        FullTreeSet<Float> minBin = new FullTreeSet<Float>();
-        FullTreeSet<Float> maxBin = new FullTreeSet<Float>();
 
-        float val;
-        for (Number number : values) {
-            if (number != null) {
-                val = number.floatValue();
-                // Populate the bins
-                if (minBin.realSize() < binSize || val < minBin.last()) {
-                    minBin.add(val);
-                    // Keep the bin within the binSize
-                    if (minBin.realSize() > binSize) {
-                        minBin.remove(minBin.last());
-                    }
+        return new float[] {
+            percentiles.getValueAtRank(binSize - 1),
+            percentiles.getValueAtRank(population - binSize)
+        };
+    }
+
+    /**
+     * Calculate the statistics of a NetCDF variable over all its time slices,
+     * for the given depths.
+     *
+     * <p>See: {@link #computeStatistics(File, String, List, DateTime, DateTime, ForkJoinPool)}</p>
+     *
+     * @param netCDFFile the NetCDF file containing the dataset.
+     * @param variableId the variable ID (aka feature ID) to analise.
+     * @param depths the depths or elevations. The closest available depths are used.
+     *   Default: the depth closest to 0.
+     * @return the {@link VariableStatistics}, or {@code null} if the variable can not be read.
+     * @throws IOException if there is a problem reading the NetCDF file.
+     */
+    public static VariableStatistics computeStatistics(File netCDFFile, String variableId, List<Double> depths) throws IOException {
+        return NetCDFUtils.computeStatistics(netCDFFile, variableId, depths, null, null, null);
+    }
+
+    /**
+     * Calculate the statistics of a NetCDF variable over a time range,
+     * for the given depths. Used to set the colour scale of a whole video
+     * rather than a single frame.
+     *
+     * <p>The data is read one time slice, and one depth, at a time.
+     * The statistics of each slice are calculated in parallel on the {@code ForkJoinPool}
+     * and merged as they complete. The number of slices waiting to be processed
+     * is bounded by the parallelism of the pool, so the memory used is bounded
+     * to a few slices, rather than the whole variable.</p>
+     *
+     * <p>The percentiles are exact when the whole population is smaller than
+     * {@link FloatPercentiles#DEFAULT_EXACT_THRESHOLD} values.
+     * Otherwise, each slice is summarised in a sketch.
+     * See {@link FloatPercentiles}.</p>
+     *
+     * @param netCDFFile the NetCDF file containing the dataset.
+     * @param variableId the variable ID (aka feature ID) to analise.
+     * @param depths the depths or elevations. The closest available depths are used.
+     *   Default: the depth closest to 0.
+     * @param startDate the start of the time range, inclusive. Default: the first time slice.
+     * @param endDate the end of the time range, exclusive. Default: after the last time slice.
+     * @param pool the pool used to process the slices. Default: {@code ForkJoinPool.commonPool()}.
+     * @return the {@link VariableStatistics}, or {@code null} if the variable can not be read.
+     * @throws IOException if there is a problem reading the NetCDF file.
+     */
+    public static VariableStatistics computeStatistics(File netCDFFile, String variableId, List<Double> depths,
+            DateTime startDate, DateTime endDate, ForkJoinPool pool) throws IOException {
+
+        LOGGER.info("Computing statistics for feature '" + variableId + "'");
+        long startTime = System.currentTimeMillis(); // For debugging
+
+        NetCDFMetadataBean metadata = NetCDFMetadataBean.create(
+                null, null, netCDFFile.toURI(), netCDFFile, netCDFFile.lastModified(), false);
+
+        Map<String, VariableMetadataBean> variables = metadata.getVariableMetadataBeanMap();
+        VariableMetadataBean variableMetadataBean = variables == null ? null : variables.get(variableId);
+        if (variableMetadataBean == null) {
+            LOGGER.warn("Variable ID '" + variableId + "' not found in file: " + netCDFFile);
+            return null;
+        }
+
+        // Find the Z indexes of the closest depths
+        List<Double> closestDepths = new ArrayList<Double>();
+        List<Integer> zIndexList = new ArrayList<Integer>();
+        VerticalDomainBean verticalDomainBean = variableMetadataBean.getVerticalDomainBean();
+        if (verticalDomainBean == null) {
+            zIndexList.add(0);
+        } else {
+            List<Double> targetDepths = depths == null || depths.isEmpty() ? Collections.singletonList(0.0) : depths;
+            for (Double targetDepth : targetDepths) {
+                Integer zIndex = verticalDomainBean.getClosestHeightIndex(targetDepth);
+                if (zIndex != null && !zIndexList.contains(zIndex)) {
+                    zIndexList.add(zIndex);
+                    closestDepths.add(verticalDomainBean.getHeightValues().get(zIndex));
                 }
-                if (maxBin.realSize() < binSize || val > maxBin.first()) {
-                    maxBin.add(val);
-                    // Keep the bin within the binSize
-                    if (maxBin.realSize() > binSize) {
-                        maxBin.remove(maxBin.first());
+            }
+        }
+
+        // Find the time indexes within the time range
+        int[] timeIndexes = new int[] { 0 };
+        TemporalDomainBean temporalDomainBean = variableMetadataBean.getTemporalDomainBean();
+        if (temporalDomainBean != null && temporalDomainBean.getTimeValueCount() > 0) {
+            timeIndexes = temporalDomainBean.rangeIndexes(
+                    startDate == null ? Long.MIN_VALUE : startDate.getMillis(),
+                    endDate == null ? Long.MAX_VALUE : endDate.getMillis());
+        }
+
+        int[] zIndexes = new int[zIndexList.size()];
+        for (int i=0; i<zIndexes.length; i++) {
+            zIndexes[i] = zIndexList.get(i);
+        }
+
+        StatisticsReducer reducer = new StatisticsReducer(
+                pool == null ? ForkJoinPool.commonPool() : pool,
+                (long)timeIndexes.length * zIndexes.length);
+
+        boolean read;
+        try {
+            read = DataReader.readVariableDataSlices(netCDFFile, metadata, variableId, timeIndexes, zIndexes,
+                    (timeIndex, zIndex, slice) -> reducer.add(slice));
+        } catch(Exception ex) {
+            reducer.cancel();
+            OutOfMemoryError outOfMemory = NetCDFUtils.getOutOfMemoryErrorCause(ex);
+            if (outOfMemory != null) {
+                throw outOfMemory;
+            }
+            throw ex;
+        }
+
+        if (!read) {
+            LOGGER.warn("Could not read the data for variable ID '" + variableId + "'.");
+            return null;
+        }
+
+        FloatPercentiles percentiles = reducer.finish();
+
+        LOGGER.debug("Calculated statistics for feature " + variableId + " over " + timeIndexes.length + " time slices and " +
+                zIndexes.length + " depths in " + (System.currentTimeMillis() - startTime) + "ms");
+
+        return new VariableStatistics(closestDepths, timeIndexes.length, percentiles);
+    }
+
+    /**
+     * Calculate the statistics of the slices in parallel, and merge them.
+     *
+     * <p>The slices are added by the thread reading the NetCDF file.
+     * When the maximum number of slices are being processed, the thread
+     * waits for the oldest one to complete before reading the next slice.</p>
+     */
+    private static class StatisticsReducer {
+        private final ForkJoinPool pool;
+        private final long sliceCount;
+        private final int maxPendingSlices;
+        private final Deque<ForkJoinTask<FloatPercentiles>> pendingSlices;
+
+        private FloatPercentiles percentiles;
+        private boolean exact;
+
+        public StatisticsReducer(ForkJoinPool pool, long sliceCount) {
+            this.pool = pool;
+            this.sliceCount = sliceCount;
+            this.maxPendingSlices = pool.getParallelism() + 1;
+            this.pendingSlices = new ArrayDeque<ForkJoinTask<FloatPercentiles>>();
+        }
+
+        public void add(Array4D<Number> slice) {
+            if (this.percentiles == null) {
+                // All slices have the same size
+                long expectedSize = (long)slice.size() * this.sliceCount;
+                this.exact = expectedSize <= FloatPercentiles.DEFAULT_EXACT_THRESHOLD;
+                this.percentiles = new FloatPercentiles(expectedSize);
+            }
+
+            if (this.pendingSlices.size() >= this.maxPendingSlices) {
+                this.percentiles.merge(this.pendingSlices.removeFirst().join());
+            }
+
+            boolean sliceExact = this.exact;
+            this.pendingSlices.addLast(this.pool.submit(() -> {
+                FloatPercentiles slicePercentiles = sliceExact ?
+                        new FloatPercentiles(slice.size()) :
+                        new FloatPercentiles(slice.size(), 0, FloatPercentiles.DEFAULT_PRECISION_BITS);
+                for (Number number : slice) {
+                    if (number != null) {
+                        slicePercentiles.add(number.floatValue());
                     }
                 }
+                return slicePercentiles;
+            }));
+        }
+
+        public FloatPercentiles finish() {
+            if (this.percentiles == null) {
+                this.percentiles = new FloatPercentiles(0);
+            }
+            while (!this.pendingSlices.isEmpty()) {
+                this.percentiles.merge(this.pendingSlices.removeFirst().join());
             }
+            return this.percentiles;
         }
 
-        if (!minBin.isEmpty()) {
-            minValue = minBin.last();
+        public void cancel() {
+            for (ForkJoinTask<FloatPercentiles> pendingSlice : this.pendingSlices) {
+                pendingSlice.cancel(true);
+            }
+            this.pendingSlices.clear();
         }
-        if (!maxBin.isEmpty()) {
-            maxValue = maxBin.first();
+    }
+
+    /**
+     * Statistics of a NetCDF variable over multiple time slices and depths.
+     * See {@link #computeStatistics(File, String, List, DateTime, DateTime, ForkJoinPool)}.
+     */
+    public static class VariableStatistics {
+        private final List<Double> depths;
+        private final int timeSliceCount;
+        private final FloatPercentiles percentiles;
+
+        private VariableStatistics(List<Double> depths, int timeSliceCount, FloatPercentiles percentiles) {
+            this.depths = Collections.unmodifiableList(depths);
+            this.timeSliceCount = timeSliceCount;
+            this.percentiles = percentiles;
         }
-        long minMaxTime = System.currentTimeMillis(); // For debugging
-        LOGGER.debug("Calculated min / max for feature " + variableId + " in " + (minMaxTime - dataReadTime) + "ms");
 
-        if (minValue == null || maxValue == null) {
-            // This should not happen
-            LOGGER.warn("Could not calculate the data min / max value for variable ID '" + variableId + "'.");
-            return null;
+        /**
+         * Returns the depths used to calculate the statistics.
+         * Empty if the variable has no vertical domain.
+         * @return the list of depths.
+         */
+        public List<Double> getDepths() {
+            return this.depths;
         }
 
-        if (minValue.equals(maxValue)) {
-            LOGGER.warn("Variable ID '" + variableId + "' seems to be populated with the constant: " + minValue);
+        /**
+         * Returns the number of time slices used to calculate the statistics.
+         * @return the number of time slices.
+         */
+        public int getTimeSliceCount() {
+            return this.timeSliceCount;
         }
 
-        LOGGER.info("Computed min / max values for feature '" + variableId + "' are [" + minValue + ", " + maxValue + "]");
+        /**
+         * Returns the number of none null data points.
+         * @return the population size.
+         */
+        public long getPopulation() {
+            return this.percentiles.size();
+        }
 
-        return new DataDomain(closestDepth, minValue, maxValue);
+        /**
+         * Returns {@code true} if the percentiles are exact.
+         * See {@link FloatPercentiles#isExact()}.
+         * @return {@code true} if the percentiles are exact.
+         */
+        public boolean isExact() {
+            return this.percentiles.isExact();
+        }
+
+        /**
+         * Returns the smallest value.
+         * @return the smallest value, or {@code NaN} if there is no data.
+         */
+        public float getMin() {
+            return this.percentiles.getMin();
+        }
+
+        /**
+         * Returns the largest value.
+         * @return the largest value, or {@code NaN} if there is no data.
+         */
+        public float getMax() {
+            return this.percentiles.getMax();
+        }
+
+        /**
+         * Returns the value at a given percentile.
+         * See {@link FloatPercentiles#getPercentile(double)}.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the value at the given percentile, or {@code NaN} if there is no data.
+         */
+        public float getPercentile(double percentile) {
+            return this.percentiles.getPercentile(percentile);
+        }
+
+        /**
+         * Returns the {@code min} and {@code max} values, ignoring outliers.
+         * Calculated like {@link NetCDFUtils#computeMinMax(File, String, Double, Integer)}.
+         *
+         * @param percentile percentile used to ignore outliers.
+         *   Set to 0 to get real absolute {@code min} and {@code max} values.
+         *   Default: 1 (1 and 99 percentile).
+         * @return a {@link DataDomain} object, or {@code null} if there is no data.
+         *   Its depth is set when the statistics were calculated for a single depth.
+         */
+        public DataDomain getDataDomain(Integer percentile) {
+            float[] minMax = NetCDFUtils.getPercentileMinMax(this.percentiles, NetCDFUtils.getSymmetricPercentile(percentile));
+            if (minMax == null) {
+                return null;
+            }
+
+            return new DataDomain(this.depths.size() == 1 ? this.depths.get(0) : null, minMax[0], minMax[1]);
+        }
     }
 
     /**
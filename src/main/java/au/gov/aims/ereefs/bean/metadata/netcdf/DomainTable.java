@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean.metadata.netcdf;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the temporal domains and vertical domains of a {@link NetCDFMetadataBean}.
+ *
+ * <p>The variables of a NetCDF file usually share the same time axis
+ * and the same vertical axis. The table ensure that variables with identical
+ * domains share the same {@link TemporalDomainBean} and {@link VerticalDomainBean}
+ * instances, and that each domain is only parsed once.</p>
+ *
+ * <p>The domains are serialised in the {@code temporalDomains} and {@code verticalDomains}
+ * attributes of the metadata document, and referenced by ID from the variables.</p>
+ */
+final class DomainTable {
+    private final JSONObject jsonTemporalDomains;
+    private final JSONObject jsonVerticalDomains;
+
+    // Domains parsed from the table, by ID
+    private final Map<String, TemporalDomainBean> temporalDomainsById = new HashMap<String, TemporalDomainBean>();
+    private final Map<String, VerticalDomainBean> verticalDomainsById = new HashMap<String, VerticalDomainBean>();
+
+    // Shared instances. The beans are compared using their JSON serialisation,
+    // which is cached by the beans (see TemporalDomainBean.equals and VerticalDomainBean.equals)
+    private final Map<TemporalDomainBean, TemporalDomainBean> temporalDomains = new HashMap<TemporalDomainBean, TemporalDomainBean>();
+    private final Map<VerticalDomainBean, VerticalDomainBean> verticalDomains = new HashMap<VerticalDomainBean, VerticalDomainBean>();
+
+    /**
+     * Create an empty table, used to share the domains of variables
+     * which are not parsed from a metadata document.
+     */
+    DomainTable() {
+        this(null, null);
+    }
+
+    /**
+     * Create a table from the serialised domains of a metadata document.
+     *
+     * @param jsonTemporalDomains the serialised temporal domains, by ID. Can be {@code null}.
+     * @param jsonVerticalDomains the serialised vertical domains, by ID. Can be {@code null}.
+     */
+    DomainTable(JSONObject jsonTemporalDomains, JSONObject jsonVerticalDomains) {
+        this.jsonTemporalDomains = jsonTemporalDomains;
+        this.jsonVerticalDomains = jsonVerticalDomains;
+    }
+
+    /**
+     * Returns the total number of time values of the serialised temporal domains, without parsing them.
+     * @return the number of time values.
+     */
+    long getTimeValueCount() {
+        long count = 0;
+        if (this.jsonTemporalDomains != null) {
+            for (String id : this.jsonTemporalDomains.keySet()) {
+                JSONObject jsonTemporalDomain = this.jsonTemporalDomains.optJSONObject(id);
+                if (jsonTemporalDomain != null) {
+                    count += TemporalDomainBean.getTimeValueCount(jsonTemporalDomain);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of height values of the serialised vertical domains, without parsing them.
+     * @return the number of height values.
+     */
+    long getHeightValueCount() {
+        long count = 0;
+        if (this.jsonVerticalDomains != null) {
+            for (String id : this.jsonVerticalDomains.keySet()) {
+                JSONObject jsonVerticalDomain = this.jsonVerticalDomains.optJSONObject(id);
+                if (jsonVerticalDomain != null) {
+                    count += VerticalDomainBean.getHeightValueCount(jsonVerticalDomain);
+                }
+            }
+        }
+        return count;
+    }
+
+    synchronized TemporalDomainBean getTemporalDomain(String id) {
+        TemporalDomainBean temporalDomain = this.temporalDomainsById.get(id);
+        if (temporalDomain == null && this.jsonTemporalDomains != null) {
+            JSONObject jsonTemporalDomain = this.jsonTemporalDomains.optJSONObject(id);
+            if (jsonTemporalDomain != null) {
+                temporalDomain = this.intern(new TemporalDomainBean(jsonTemporalDomain));
+                this.temporalDomainsById.put(id, temporalDomain);
+            }
+        }
+        return temporalDomain;
+    }
+
+    synchronized VerticalDomainBean getVerticalDomain(String id) {
+        VerticalDomainBean verticalDomain = this.verticalDomainsById.get(id);
+        if (verticalDomain == null && this.jsonVerticalDomains != null) {
+            JSONObject jsonVerticalDomain = this.jsonVerticalDomains.optJSONObject(id);
+            if (jsonVerticalDomain != null) {
+                verticalDomain = this.intern(new VerticalDomainBean(jsonVerticalDomain));
+                this.verticalDomainsById.put(id, verticalDomain);
+            }
+        }
+        return verticalDomain;
+    }
+
+    synchronized TemporalDomainBean intern(TemporalDomainBean temporalDomain) {
+        if (temporalDomain == null) {
+            return null;
+        }
+        TemporalDomainBean shared = this.temporalDomains.putIfAbsent(temporalDomain, temporalDomain);
+        return shared == null ? temporalDomain : shared;
+    }
+
+    synchronized VerticalDomainBean intern(VerticalDomainBean verticalDomain) {
+        if (verticalDomain == null) {
+            return null;
+        }
+        VerticalDomainBean shared = this.verticalDomains.putIfAbsent(verticalDomain, verticalDomain);
+        return shared == null ? verticalDomain : shared;
+    }
+}
@@ -25,7 +25,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -47,7 +51,15 @@ public class NetCDFMetadataBean extends AbstractBean {
      *   If the file format is altered, increase the version number.
      *   This will force the re-generation of the cached metadata files.
      */
-    private static final String VERSION = "2.0";
+    private static final String VERSION = "2.2";
+
+    /**
+     * Previous versions of the JSON Metadata file, still supported when parsing.
+     *   Version 2.0 stores the time values as a list of ISO dates.
+     *   Version 2.1 stores the time values as a compact time axis (see {@link TemporalDomainBean}).
+     *   Version 2.2 stores the domains shared by the variables in a domain table (see {@link DomainTable}).
+     */
+    private static final Set<String> LEGACY_VERSIONS = new HashSet<String>(Arrays.asList("2.0", "2.1"));
     private static final String CHECKSUM_ALGORITHM = "MD5";
 
     private String id;
@@ -65,7 +77,10 @@ public class NetCDFMetadataBean extends AbstractBean {
     private long lastDownloaded;
 
     // Key: variable ID (as defined in the NetCDF file)
-    private Map<String, VariableMetadataBean> variableMetadataBeanMap;
+    private volatile Map<String, VariableMetadataBean> variableMetadataBeanMap;
+    // Variables which have not been parsed yet. See getVariableMetadataBeanMap()
+    private JSONObject jsonVariableMetadataMap;
+    private DomainTable domainTable;
 
     // Global attributes tree
     private JSONObject attributes;
@@ -90,11 +105,17 @@ public class NetCDFMetadataBean extends AbstractBean {
      * To construct a {@code NetCDFMetadataBean} from a NetCDF file or a GRIB file,
      * use {@link #create(String, String, URI, File, long)}.
      *
+     * <p>The variables are parsed the first time they are requested.
+     * See {@link #getVariableMetadataBeanMap()}.
+     * Until then, only the {@code variables} JSON subtree is retained, as it is.
+     * The time values of older metadata documents are converted to the
+     * compact serialisation when their temporal domain is first requested.</p>
+     *
      * @param json JSON serialised NetCDFMetadataBean.
      */
     public NetCDFMetadataBean(JSONObject json) {
         String version = json.optString("version", null);
-        if (!VERSION.equals(version)) {
+        if (!VERSION.equals(version) && !LEGACY_VERSIONS.contains(version)) {
             throw new IllegalArgumentException("Unsupported metadata version. Expected " + VERSION + ", found " + version);
         }
 
@@ -144,18 +165,28 @@ public class NetCDFMetadataBean extends AbstractBean {
 
         this.attributes = json.optJSONObject("attributes");
 
-        this.variableMetadataBeanMap = new HashMap<String, VariableMetadataBean>();
-        JSONObject jsonVariableMetadataMap = json.optJSONObject("variables");
-        if (jsonVariableMetadataMap != null) {
-            for (String variableId : jsonVariableMetadataMap.keySet()) {
-                JSONObject jsonVariableMetadata = jsonVariableMetadataMap.optJSONObject(variableId);
-                if (jsonVariableMetadata != null) {
-                    this.variableMetadataBeanMap.put(variableId, new VariableMetadataBean(jsonVariableMetadata));
-                }
+        this.jsonVariableMetadataMap = json.optJSONObject("variables");
+        if (this.jsonVariableMetadataMap == null) {
+            this.variableMetadataBeanMap = new HashMap<String, VariableMetadataBean>();
+        } else {
+            this.domainTable = new DomainTable(
+                    json.optJSONObject("temporalDomains"),
+                    json.optJSONObject("verticalDomains"));
+        }
+    }
+
+    private Map<String, VariableMetadataBean> parseVariableMetadataBeanMap(JSONObject jsonVariableMetadataMap, DomainTable domainTable) {
+        Map<String, VariableMetadataBean> variableMetadataMap = new HashMap<String, VariableMetadataBean>();
+        for (String variableId : jsonVariableMetadataMap.keySet()) {
+            JSONObject jsonVariableMetadata = jsonVariableMetadataMap.optJSONObject(variableId);
+            if (jsonVariableMetadata != null) {
+                variableMetadataMap.put(variableId, new VariableMetadataBean(jsonVariableMetadata, domainTable));
             }
         }
 
-        this.initVariableMetadataParent(this.variableMetadataBeanMap);
+        this.initVariableMetadataParent(variableMetadataMap);
+
+        return variableMetadataMap;
     }
 
     /**
@@ -432,6 +463,11 @@ public class NetCDFMetadataBean extends AbstractBean {
 
         this.initVariableMetadataParent(variableMetadataMap);
 
+        DomainTable domainTable = new DomainTable();
+        for (VariableMetadataBean variableMetadataBean : variableMetadataMap.values()) {
+            variableMetadataBean.shareDomains(domainTable);
+        }
+
         return variableMetadataMap;
     }
 
@@ -704,10 +740,108 @@ public class NetCDFMetadataBean extends AbstractBean {
      * Returns the {@code Map} of {@link VariableMetadataBean} for the
      * NetCDF file or GRIB file.
      *
+     * <p>When the metadata was parsed from a JSON document, the variables
+     * are parsed the first time this method is called.</p>
+     *
      * @return the {@code Map} of {@link VariableMetadataBean}.
      */
     public Map<String, VariableMetadataBean> getVariableMetadataBeanMap() {
-        return this.variableMetadataBeanMap;
+        Map<String, VariableMetadataBean> variableMetadataMap = this.variableMetadataBeanMap;
+        if (variableMetadataMap == null) {
+            synchronized (this) {
+                if (this.variableMetadataBeanMap == null && this.jsonVariableMetadataMap != null) {
+                    this.variableMetadataBeanMap = this.parseVariableMetadataBeanMap(this.jsonVariableMetadataMap, this.domainTable);
+                    this.jsonVariableMetadataMap = null;
+                    this.domainTable = null;
+                }
+                variableMetadataMap = this.variableMetadataBeanMap;
+            }
+        }
+        return variableMetadataMap;
+    }
+
+    /**
+     * Returns the number of variables found in the NetCDF file or GRIB file,
+     * without parsing the variables.
+     *
+     * @return the number of variables.
+     */
+    public synchronized int getVariableCount() {
+        if (this.variableMetadataBeanMap != null) {
+            return this.variableMetadataBeanMap.size();
+        }
+        return this.jsonVariableMetadataMap == null ? 0 : this.jsonVariableMetadataMap.length();
+    }
+
+    /**
+     * Returns the total number of time values of the variables temporal domains.
+     * Domains shared by several variables are counted once.
+     *
+     * <p>The variables are not parsed. Used to estimate the memory used by the metadata.</p>
+     *
+     * @return the number of time values.
+     */
+    public synchronized long getTimeValueCount() {
+        if (this.variableMetadataBeanMap != null) {
+            Set<TemporalDomainBean> temporalDomains = Collections.newSetFromMap(new IdentityHashMap<TemporalDomainBean, Boolean>());
+            long count = 0;
+            for (VariableMetadataBean variableMetadataBean : this.variableMetadataBeanMap.values()) {
+                TemporalDomainBean temporalDomain = variableMetadataBean == null ? null : variableMetadataBean.getTemporalDomainBean();
+                if (temporalDomain != null && temporalDomains.add(temporalDomain)) {
+                    count += temporalDomain.getTimeValueCount();
+                }
+            }
+            return count;
+        }
+
+        if (this.jsonVariableMetadataMap == null) {
+            return 0;
+        }
+        long count = this.domainTable == null ? 0 : this.domainTable.getTimeValueCount();
+        for (String variableId : this.jsonVariableMetadataMap.keySet()) {
+            JSONObject jsonVariableMetadata = this.jsonVariableMetadataMap.optJSONObject(variableId);
+            JSONObject jsonTemporalDomain = jsonVariableMetadata == null ? null : jsonVariableMetadata.optJSONObject("temporalDomain");
+            if (jsonTemporalDomain != null) {
+                count += TemporalDomainBean.getTimeValueCount(jsonTemporalDomain);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of height values of the variables vertical domains.
+     * Domains shared by several variables are counted once.
+     *
+     * <p>The variables are not parsed. Used to estimate the memory used by the metadata.</p>
+     *
+     * @return the number of height values.
+     */
+    public synchronized long getHeightValueCount() {
+        if (this.variableMetadataBeanMap != null) {
+            Set<VerticalDomainBean> verticalDomains = Collections.newSetFromMap(new IdentityHashMap<VerticalDomainBean, Boolean>());
+            long count = 0;
+            for (VariableMetadataBean variableMetadataBean : this.variableMetadataBeanMap.values()) {
+                VerticalDomainBean verticalDomain = variableMetadataBean == null ? null : variableMetadataBean.getVerticalDomainBean();
+                if (verticalDomain != null && verticalDomains.add(verticalDomain)) {
+                    List<Double> heightValues = verticalDomain.getHeightValues();
+                    count += heightValues == null ? 0 : heightValues.size();
+                }
+            }
+            return count;
+        }
+
+        if (this.jsonVariableMetadataMap == null) {
+            return 0;
+        }
+        long count = this.domainTable == null ? 0 : this.domainTable.getHeightValueCount();
+        for (String variableId : this.jsonVariableMetadataMap.keySet()) {
+            JSONObject jsonVariableMetadata = this.jsonVariableMetadataMap.optJSONObject(variableId);
+            JSONObject jsonVerticalDomain = jsonVariableMetadata == null ? null : jsonVariableMetadata.optJSONObject("verticalDomain");
+            if (jsonVerticalDomain != null) {
+                count += VerticalDomainBean.getHeightValueCount(jsonVerticalDomain);
+            }
+        }
+        return count;
     }
 
     /**
@@ -729,10 +863,7 @@ public class NetCDFMetadataBean extends AbstractBean {
      * @return {@code true} if the file contains data variables.
      */
     public boolean isEmpty() {
-        if (this.variableMetadataBeanMap == null) {
-            return true;
-        }
-        return this.variableMetadataBeanMap.isEmpty();
+        return this.getVariableCount() == 0;
     }
 
     /**
@@ -764,14 +895,46 @@ public class NetCDFMetadataBean extends AbstractBean {
             json.put("attributes", this.attributes);
         }
 
-        if (this.variableMetadataBeanMap != null && !this.variableMetadataBeanMap.isEmpty()) {
+        Map<String, VariableMetadataBean> variableMetadataMap = this.getVariableMetadataBeanMap();
+        if (variableMetadataMap != null && !variableMetadataMap.isEmpty()) {
+            // Domains shared by the variables are serialised once, and referenced by ID.
+            // The shared domains are the same instances (see DomainTable.intern),
+            // they are compared by identity to avoid serialising them to compare them.
+            Map<VerticalDomainBean, String> verticalDomainIds = new IdentityHashMap<VerticalDomainBean, String>();
+            Map<TemporalDomainBean, String> temporalDomainIds = new IdentityHashMap<TemporalDomainBean, String>();
+            JSONObject jsonVerticalDomains = new JSONObject();
+            JSONObject jsonTemporalDomains = new JSONObject();
+            for (VariableMetadataBean variableMetadataBean : variableMetadataMap.values()) {
+                if (variableMetadataBean != null) {
+                    VerticalDomainBean verticalDomain = variableMetadataBean.getVerticalDomainBean();
+                    if (verticalDomain != null && !verticalDomainIds.containsKey(verticalDomain)) {
+                        String verticalDomainId = String.valueOf(verticalDomainIds.size());
+                        verticalDomainIds.put(verticalDomain, verticalDomainId);
+                        jsonVerticalDomains.put(verticalDomainId, verticalDomain.toJSON());
+                    }
+
+                    TemporalDomainBean temporalDomain = variableMetadataBean.getTemporalDomainBean();
+                    if (temporalDomain != null && !temporalDomainIds.containsKey(temporalDomain)) {
+                        String temporalDomainId = String.valueOf(temporalDomainIds.size());
+                        temporalDomainIds.put(temporalDomain, temporalDomainId);
+                        jsonTemporalDomains.put(temporalDomainId, temporalDomain.toJSON());
+                    }
+                }
+            }
+            if (!jsonVerticalDomains.isEmpty()) {
+                json.put("verticalDomains", jsonVerticalDomains);
+            }
+            if (!jsonTemporalDomains.isEmpty()) {
+                json.put("temporalDomains", jsonTemporalDomains);
+            }
+
             JSONObject jsonVariableMetadataMap = new JSONObject();
 
-            for (Map.Entry<String, VariableMetadataBean> variableMetadataBeanEntry : this.variableMetadataBeanMap.entrySet()) {
+            for (Map.Entry<String, VariableMetadataBean> variableMetadataBeanEntry : variableMetadataMap.entrySet()) {
                 String variableId = variableMetadataBeanEntry.getKey();
                 VariableMetadataBean variableMetadataBean = variableMetadataBeanEntry.getValue();
                 if (variableId != null && variableMetadataBean != null) {
-                    JSONObject jsonVariableMetadata = variableMetadataBean.toJSON();
+                    JSONObject jsonVariableMetadata = variableMetadataBean.toJSON(verticalDomainIds, temporalDomainIds);
                     if (jsonVariableMetadata != null) {
                         jsonVariableMetadataMap.put(variableId, jsonVariableMetadata);
                     }
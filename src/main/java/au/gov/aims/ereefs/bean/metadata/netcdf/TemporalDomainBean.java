@@ -6,16 +6,22 @@ package au.gov.aims.ereefs.bean.metadata.netcdf;
 
 import au.gov.aims.ereefs.bean.AbstractBean;
 import org.apache.log4j.Logger;
+import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.domain.TemporalDomain;
 import uk.ac.rdg.resc.edal.grid.TimeAxis;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Bean representing the temporal domain of a variable.
@@ -23,9 +29,15 @@ import java.util.List;
  * It's part of the {@link NetCDFMetadataBean} which is used with
  * the {@code ereefs-download-manager} project, {@code ereefs-ncanimate2} project
  * and other eReefs projects.
+ *
+ * <p>The time values are stored as epoch milliseconds.
+ * A regular time axis (constant time step) is stored as
+ * a start time, a step and a number of values.
+ * {@code DateTime} objects are only created when requested.</p>
  */
 public class TemporalDomainBean extends AbstractBean {
     private static final Logger LOGGER = Logger.getLogger(TemporalDomainBean.class);
+    private static final DateTimeFormatter DATE_TIME_PARSER = ISODateTimeFormat.dateTimeParser();
 
     private DateTime minDate;
     private DateTime maxDate;
@@ -34,6 +46,22 @@ public class TemporalDomainBean extends AbstractBean {
     private String name;
     private List<DateTime> timeValues = null;
 
+    // Chronology of the DateTime returned by getTimeValues()
+    private Chronology chronology;
+    // Epoch milliseconds of the time values. Null if the time axis is regular.
+    private long[] timeValuesMillis = null;
+    // Regular time axis: value[i] = timeValuesStart + i * timeValuesStep
+    private long timeValuesStart = 0;
+    private long timeValuesStep = 0;
+    private int timeValueCount = 0;
+
+    // Time values sorted in ascending order, used by floorIndex, ceilingIndex and rangeIndexes.
+    // Created when first needed. Not used with regular ascending time axes.
+    private volatile SortedTimeValues sortedTimeValues = null;
+
+    // JSON serialisation, used by hashCode and equals. Created when first needed.
+    private volatile String serialisedJSON = null;
+
     /**
      * Construct a {@code TemporalDomainBean} from a EDAL {@code TemporalDomain} object.
      * Used when parsing the metadata returned by the UCAR library.
@@ -55,7 +83,16 @@ public class TemporalDomainBean extends AbstractBean {
             TimeAxis timeAxis = (TimeAxis)temporalDomain;
 
             this.name = timeAxis.getName();
-            this.timeValues = timeAxis.getCoordinateValues();
+
+            List<DateTime> coordinateValues = timeAxis.getCoordinateValues();
+            if (coordinateValues != null) {
+                long[] millis = new long[coordinateValues.size()];
+                for (int i=0; i<millis.length; i++) {
+                    millis[i] = coordinateValues.get(i).getMillis();
+                }
+                this.setTimeValuesMillis(millis,
+                        coordinateValues.isEmpty() ? ISOChronology.getInstance() : coordinateValues.get(0).getChronology());
+            }
         }
     }
 
@@ -63,6 +100,9 @@ public class TemporalDomainBean extends AbstractBean {
      * Construct a {@code TemporalDomainBean} from a {@code JSONObject} object.
      * Used when parsing the metadata JSON document retrieved from the database.
      *
+     * <p>Supports the compact {@code timeAxis} serialisation and
+     * the list of ISO date {@code timeValues} used by older metadata documents.</p>
+     *
      * @param jsonTemporalDomain JSON serialised TemporalDomainBean.
      */
     public TemporalDomainBean(JSONObject jsonTemporalDomain) {
@@ -75,16 +115,65 @@ public class TemporalDomainBean extends AbstractBean {
 
         this.name = jsonTemporalDomain.optString("name", null);
 
+        // DateTime parsed from a String are in the default timezone
+        Chronology defaultChronology = ISOChronology.getInstance();
+
         JSONArray jsonTimeValues = jsonTemporalDomain.optJSONArray("timeValues");
+        JSONObject jsonTimeAxis = jsonTemporalDomain.optJSONObject("timeAxis");
         if (jsonTimeValues != null) {
-            this.timeValues = new ArrayList<DateTime>(jsonTimeValues.length());
+            long[] millis = new long[jsonTimeValues.length()];
+            int count = 0;
             for (int i=0; i<jsonTimeValues.length(); i++) {
-                DateTime jsonTimeValue = TemporalDomainBean.deserialiseDateTime(jsonTimeValues.optString(i, null));
+                String jsonTimeValue = jsonTimeValues.optString(i, null);
                 if (jsonTimeValue != null) {
-                    this.timeValues.add(jsonTimeValue);
+                    millis[count++] = DATE_TIME_PARSER.parseMillis(jsonTimeValue);
                 }
             }
+            this.setTimeValuesMillis(count == millis.length ? millis : Arrays.copyOf(millis, count), defaultChronology);
+
+        } else if (jsonTimeAxis != null) {
+            JSONArray jsonTimeAxisValues = jsonTimeAxis.optJSONArray("values");
+            if (jsonTimeAxisValues != null) {
+                long[] millis = new long[jsonTimeAxisValues.length()];
+                for (int i=0; i<millis.length; i++) {
+                    millis[i] = TemporalDomainBean.deserialiseLong(jsonTimeAxisValues.opt(i));
+                }
+                this.setTimeValuesMillis(millis, defaultChronology);
+            } else {
+                this.timeValuesStart = DATE_TIME_PARSER.parseMillis(jsonTimeAxis.getString("start"));
+                this.timeValuesStep = TemporalDomainBean.deserialiseLong(jsonTimeAxis.opt("step"));
+                this.timeValueCount = jsonTimeAxis.optInt("count", 0);
+                this.chronology = defaultChronology;
+                this.timeValues = new TimeValueList();
+            }
+        }
+    }
+
+    /**
+     * Set the time values, using the regular time axis representation when possible.
+     *
+     * @param millis the time values, in epoch milliseconds.
+     * @param chronology the chronology of the time values.
+     */
+    private void setTimeValuesMillis(long[] millis, Chronology chronology) {
+        this.chronology = chronology;
+        this.timeValueCount = millis.length;
+
+        boolean regular = millis.length > 0;
+        long step = millis.length > 1 ? millis[1] - millis[0] : 0;
+        for (int i=2; regular && i<millis.length; i++) {
+            regular = millis[i] - millis[i-1] == step;
+        }
+
+        if (regular) {
+            this.timeValuesStart = millis[0];
+            this.timeValuesStep = step;
+            this.timeValuesMillis = null;
+        } else {
+            this.timeValuesMillis = millis;
         }
+
+        this.timeValues = new TimeValueList();
     }
 
     /**
@@ -99,12 +188,20 @@ public class TemporalDomainBean extends AbstractBean {
 
         jsonTemporalDomain.put("name", this.name);
 
-        if (this.timeValues != null && !this.timeValues.isEmpty()) {
-            JSONArray jsonTimeValues = new JSONArray();
-            for (DateTime timeValue : this.timeValues) {
-                jsonTimeValues.put(TemporalDomainBean.serialiseDateTime(timeValue));
+        if (this.timeValueCount > 0) {
+            JSONObject jsonTimeAxis = new JSONObject();
+            if (this.isRegular()) {
+                jsonTimeAxis.put("start", TemporalDomainBean.serialiseDateTime(new DateTime(this.timeValuesStart, this.chronology)));
+                jsonTimeAxis.put("step", this.timeValuesStep);
+                jsonTimeAxis.put("count", this.timeValueCount);
+            } else {
+                JSONArray jsonTimeAxisValues = new JSONArray();
+                for (long timeValueMillis : this.timeValuesMillis) {
+                    jsonTimeAxisValues.put(timeValueMillis);
+                }
+                jsonTimeAxis.put("values", jsonTimeAxisValues);
             }
-            jsonTemporalDomain.put("timeValues", jsonTimeValues);
+            jsonTemporalDomain.put("timeAxis", jsonTimeAxis);
         }
 
         return jsonTemporalDomain;
@@ -127,6 +224,20 @@ public class TemporalDomainBean extends AbstractBean {
         return new DateTime(dateTimeStr);
     }
 
+    // Large numbers may be returned by the database as {"$numberLong": "..."}
+    private static long deserialiseLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        if (value instanceof JSONObject) {
+            return Long.parseLong(((JSONObject)value).getString("$numberLong"));
+        }
+        if (value instanceof String) {
+            return Long.parseLong((String)value);
+        }
+        throw new IllegalArgumentException(String.format("Invalid time axis value: %s", value));
+    }
+
     /**
      * Returns the {@code TemporalDomainBean} minimum date.
      * @return the {@code TemporalDomainBean} minimum date.
@@ -153,9 +264,312 @@ public class TemporalDomainBean extends AbstractBean {
 
     /**
      * Returns the {@code TemporalDomainBean} list of {@code DateTime}.
+     *
+     * <p>The returned list is read only. The {@code DateTime} objects are created
+     * when they are requested. Use {@link #getTimeValueMillis(int)} to
+     * access the time values without creating {@code DateTime} objects.</p>
+     *
      * @return the {@code TemporalDomainBean} list of {@code DateTime}.
      */
     public List<DateTime> getTimeValues() {
         return this.timeValues;
     }
+
+    /**
+     * Returns the number of time values.
+     * @return the number of time values.
+     */
+    public int getTimeValueCount() {
+        return this.timeValueCount;
+    }
+
+    /**
+     * Returns the number of time values of a serialised temporal domain, without parsing it.
+     *
+     * @param jsonTemporalDomain JSON serialised TemporalDomainBean.
+     * @return the number of time values.
+     */
+    static int getTimeValueCount(JSONObject jsonTemporalDomain) {
+        JSONArray jsonTimeValues = jsonTemporalDomain.optJSONArray("timeValues");
+        if (jsonTimeValues != null) {
+            return jsonTimeValues.length();
+        }
+
+        JSONObject jsonTimeAxis = jsonTemporalDomain.optJSONObject("timeAxis");
+        if (jsonTimeAxis != null) {
+            JSONArray jsonTimeAxisValues = jsonTimeAxis.optJSONArray("values");
+            return jsonTimeAxisValues != null ? jsonTimeAxisValues.length() : jsonTimeAxis.optInt("count", 0);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns a time value, in epoch milliseconds.
+     *
+     * @param index the index of the time value.
+     * @return the time value, in epoch milliseconds.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public long getTimeValueMillis(int index) {
+        if (index < 0 || index >= this.timeValueCount) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, this.timeValueCount));
+        }
+        if (this.timeValuesMillis != null) {
+            return this.timeValuesMillis[index];
+        }
+        return this.timeValuesStart + index * this.timeValuesStep;
+    }
+
+    /**
+     * Returns a copy of the time values, in epoch milliseconds.
+     * @return the time values, in epoch milliseconds.
+     */
+    public long[] getTimeValuesMillis() {
+        long[] millis = new long[this.timeValueCount];
+        for (int i=0; i<millis.length; i++) {
+            millis[i] = this.getTimeValueMillis(i);
+        }
+        return millis;
+    }
+
+    /**
+     * Returns {@code true} if the time values are separated by a constant time step.
+     * @return {@code true} if the time axis is regular.
+     */
+    public boolean isRegular() {
+        return this.timeValueCount > 0 && this.timeValuesMillis == null;
+    }
+
+    /**
+     * Returns the index of the last time value at or before the given time.
+     *
+     * @param millis the time, in epoch milliseconds.
+     * @return the index of the time value, or {@code -1} if all the time values are after the given time.
+     */
+    public int floorIndex(long millis) {
+        int count = this.countTimeValuesAtOrBefore(millis);
+        return count == 0 ? -1 : this.getSortedTimeValueIndex(count - 1);
+    }
+
+    /**
+     * Returns the index of the last time value at or before the given time.
+     *
+     * @param dateTime the time.
+     * @return the index of the time value, or {@code -1} if all the time values are after the given time.
+     */
+    public int floorIndex(DateTime dateTime) {
+        return this.floorIndex(dateTime.getMillis());
+    }
+
+    /**
+     * Returns the index of the first time value at or after the given time.
+     *
+     * @param millis the time, in epoch milliseconds.
+     * @return the index of the time value, or {@code -1} if all the time values are before the given time.
+     */
+    public int ceilingIndex(long millis) {
+        int count = this.countTimeValuesBefore(millis);
+        return count == this.timeValueCount ? -1 : this.getSortedTimeValueIndex(count);
+    }
+
+    /**
+     * Returns the index of the first time value at or after the given time.
+     *
+     * @param dateTime the time.
+     * @return the index of the time value, or {@code -1} if all the time values are before the given time.
+     */
+    public int ceilingIndex(DateTime dateTime) {
+        return this.ceilingIndex(dateTime.getMillis());
+    }
+
+    /**
+     * Returns the indexes of the time values within the time range
+     * {@code [startMillis, endMillis)}, in chronological order.
+     *
+     * @param startMillis the start of the time range, inclusive, in epoch milliseconds.
+     * @param endMillis the end of the time range, exclusive, in epoch milliseconds.
+     * @return the indexes of the time values within the time range. Empty if there is none.
+     */
+    public int[] rangeIndexes(long startMillis, long endMillis) {
+        if (endMillis <= startMillis) {
+            return new int[0];
+        }
+
+        int from = this.countTimeValuesBefore(startMillis);
+        int to = this.countTimeValuesBefore(endMillis);
+
+        int[] indexes = new int[to - from];
+        for (int i=0; i<indexes.length; i++) {
+            indexes[i] = this.getSortedTimeValueIndex(from + i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the indexes of the time values within the time range
+     * {@code [start, end)}, in chronological order.
+     *
+     * @param start the start of the time range, inclusive.
+     * @param end the end of the time range, exclusive.
+     * @return the indexes of the time values within the time range. Empty if there is none.
+     */
+    public int[] rangeIndexes(DateTime start, DateTime end) {
+        return this.rangeIndexes(start.getMillis(), end.getMillis());
+    }
+
+    // Regular time axis in ascending order: the indexes can be calculated.
+    private boolean isAscendingRegular() {
+        return this.isRegular() && (this.timeValuesStep > 0 || this.timeValueCount == 1);
+    }
+
+    // Number of time values strictly before the given time
+    private int countTimeValuesBefore(long millis) {
+        if (this.isAscendingRegular()) {
+            if (millis <= this.timeValuesStart) {
+                return 0;
+            }
+            if (this.timeValueCount == 1) {
+                return 1;
+            }
+            long delta = millis - this.timeValuesStart;
+            return (int)Math.min(this.timeValueCount, (delta - 1) / this.timeValuesStep + 1);
+        }
+
+        // First position with a value >= millis
+        long[] sortedMillis = this.getSortedTimeValues().millis;
+        int low = 0, high = sortedMillis.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedMillis[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Number of time values at or before the given time
+    private int countTimeValuesAtOrBefore(long millis) {
+        return millis == Long.MAX_VALUE ? this.timeValueCount : this.countTimeValuesBefore(millis + 1);
+    }
+
+    // Index of the time value at a given position, in chronological order
+    private int getSortedTimeValueIndex(int position) {
+        if (this.isAscendingRegular()) {
+            return position;
+        }
+
+        int[] indexes = this.getSortedTimeValues().indexes;
+        return indexes == null ? position : indexes[position];
+    }
+
+    private SortedTimeValues getSortedTimeValues() {
+        SortedTimeValues sorted = this.sortedTimeValues;
+        if (sorted == null) {
+            sorted = new SortedTimeValues(this.getTimeValuesMillis());
+            this.sortedTimeValues = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     *
+     * <p>The bean is immutable: the hash code is calculated from
+     * its JSON serialisation once, then cached.
+     * See {@link AbstractBean#hashCode()}.</p>
+     *
+     * @return a hash code value for this object.
+     */
+    @Override
+    public int hashCode() {
+        return this.getSerialisedJSON().hashCode();
+    }
+
+    /**
+     * Indicates whether some other object is "equal to" this one.
+     * The cached JSON serialisations are compared.
+     * See {@link AbstractBean#equals(Object)}.
+     *
+     * @param obj the reference object with which to compare.
+     * @return {@code true} if this object is the same as the obj argument; {@code false} otherwise.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TemporalDomainBean)) {
+            return false;
+        }
+
+        TemporalDomainBean other = (TemporalDomainBean)obj;
+        return this.hashCode() == other.hashCode() &&
+                this.getSerialisedJSON().equals(other.getSerialisedJSON());
+    }
+
+    // The String caches its hash code
+    private String getSerialisedJSON() {
+        String serialisedJSON = this.serialisedJSON;
+        if (serialisedJSON == null) {
+            serialisedJSON = this.toJSON().toString();
+            this.serialisedJSON = serialisedJSON;
+        }
+        return serialisedJSON;
+    }
+
+    /**
+     * Time values sorted in ascending order.
+     * Most NetCDF files have time values in ascending order,
+     * in which case the array of indexes is not needed.
+     */
+    private static class SortedTimeValues {
+        private final long[] millis;
+        // Index of each sorted time value, or null if the time values were already sorted.
+        private final int[] indexes;
+
+        public SortedTimeValues(long[] timeValuesMillis) {
+            boolean sorted = true;
+            for (int i=1; sorted && i<timeValuesMillis.length; i++) {
+                sorted = timeValuesMillis[i-1] <= timeValuesMillis[i];
+            }
+
+            if (sorted) {
+                this.millis = timeValuesMillis;
+                this.indexes = null;
+            } else {
+                Integer[] order = new Integer[timeValuesMillis.length];
+                for (int i=0; i<order.length; i++) {
+                    order[i] = i;
+                }
+                // Stable sort: identical time values keep the order of their index
+                Arrays.sort(order, (index1, index2) -> Long.compare(timeValuesMillis[index1], timeValuesMillis[index2]));
+
+                this.millis = new long[order.length];
+                this.indexes = new int[order.length];
+                for (int i=0; i<order.length; i++) {
+                    this.indexes[i] = order[i];
+                    this.millis[i] = timeValuesMillis[order[i]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Read only view of the time values,
+     * which creates the {@code DateTime} objects on demand.
+     */
+    private class TimeValueList extends AbstractList<DateTime> implements RandomAccess {
+        @Override
+        public DateTime get(int index) {
+            return new DateTime(TemporalDomainBean.this.getTimeValueMillis(index), TemporalDomainBean.this.chronology);
+        }
+
+        @Override
+        public int size() {
+            return TemporalDomainBean.this.timeValueCount;
+        }
+    }
 }
@@ -27,10 +27,20 @@ public class VariableMetadataBean extends AbstractBean {
     private String id = null;
     private ParameterBean parameterBean = null;
     private HorizontalDomainBean horizontalDomainBean = null;
-    private VerticalDomainBean verticalDomainBean = null;
-    private TemporalDomainBean temporalDomainBean = null;
+    private volatile VerticalDomainBean verticalDomainBean = null;
+    private volatile TemporalDomainBean temporalDomainBean = null;
     private Boolean scalar = null;
 
+    // Domains which have not been parsed yet. The domains are
+    // parsed the first time they are requested, since they
+    // can contain thousands of values.
+    private JSONObject jsonVerticalDomain = null;
+    private JSONObject jsonTemporalDomain = null;
+    // Domains referenced by ID, in the domain table of the metadata document.
+    private String verticalDomainId = null;
+    private String temporalDomainId = null;
+    private DomainTable domainTable = null;
+
     private String parentId = null;
     private String role = null;
 
@@ -95,9 +105,23 @@ public class VariableMetadataBean extends AbstractBean {
      * Construct a {@code VariableMetadataBean} from a {@code JSONObject} object.
      * Used when parsing the metadata JSON document retrieved from the database.
      *
+     * <p>The vertical domain and the temporal domain are parsed
+     * the first time they are requested.</p>
+     *
      * @param jsonVariableMetadata JSON serialised VariableMetadataBean.
      */
     public VariableMetadataBean(JSONObject jsonVariableMetadata) {
+        this(jsonVariableMetadata, null);
+    }
+
+    /**
+     * Construct a {@code VariableMetadataBean} from a {@code JSONObject} object,
+     * sharing its domains with the other variables of the metadata document.
+     *
+     * @param jsonVariableMetadata JSON serialised VariableMetadataBean.
+     * @param domainTable the domain table of the metadata document, or {@code null}.
+     */
+    VariableMetadataBean(JSONObject jsonVariableMetadata, DomainTable domainTable) {
         if (jsonVariableMetadata == null) {
             throw new IllegalArgumentException("JSONObject parameter is null.");
         }
@@ -116,15 +140,11 @@ public class VariableMetadataBean extends AbstractBean {
             this.horizontalDomainBean = new HorizontalDomainBean(jsonHorizontalDomain);
         }
 
-        JSONObject jsonVerticalDomain = jsonVariableMetadata.optJSONObject("verticalDomain");
-        if (jsonVerticalDomain != null) {
-            this.verticalDomainBean = new VerticalDomainBean(jsonVerticalDomain);
-        }
-
-        JSONObject jsonTemporalDomain = jsonVariableMetadata.optJSONObject("temporalDomain");
-        if (jsonTemporalDomain != null) {
-            this.temporalDomainBean = new TemporalDomainBean(jsonTemporalDomain);
-        }
+        this.domainTable = domainTable;
+        this.jsonVerticalDomain = jsonVariableMetadata.optJSONObject("verticalDomain");
+        this.jsonTemporalDomain = jsonVariableMetadata.optJSONObject("temporalDomain");
+        this.verticalDomainId = jsonVariableMetadata.optString("verticalDomainId", null);
+        this.temporalDomainId = jsonVariableMetadata.optString("temporalDomainId", null);
 
         if (jsonVariableMetadata.has("scalar")) {
             this.scalar = jsonVariableMetadata.optBoolean("scalar");
@@ -149,6 +169,18 @@ public class VariableMetadataBean extends AbstractBean {
      * @return a {@code JSONObject} representing the object.
      */
     public JSONObject toJSON() {
+        return this.toJSON(null, null);
+    }
+
+    /**
+     * Serialise the object into a {@code JSONObject}, referencing
+     * the domains found in the domain table of the metadata document.
+     *
+     * @param verticalDomainIds the ID of the serialised vertical domains, or {@code null} to serialise the domain.
+     * @param temporalDomainIds the ID of the serialised temporal domains, or {@code null} to serialise the domain.
+     * @return a {@code JSONObject} representing the object.
+     */
+    JSONObject toJSON(Map<VerticalDomainBean, String> verticalDomainIds, Map<TemporalDomainBean, String> temporalDomainIds) {
         JSONObject jsonVariableMetadata = new JSONObject();
 
         jsonVariableMetadata.put("id", this.id);
@@ -161,12 +193,24 @@ public class VariableMetadataBean extends AbstractBean {
             jsonVariableMetadata.put("horizontalDomain", this.horizontalDomainBean.toJSON());
         }
 
-        if (this.verticalDomainBean != null) {
-            jsonVariableMetadata.put("verticalDomain", this.verticalDomainBean.toJSON());
+        VerticalDomainBean verticalDomain = this.getVerticalDomainBean();
+        if (verticalDomain != null) {
+            String verticalDomainId = verticalDomainIds == null ? null : verticalDomainIds.get(verticalDomain);
+            if (verticalDomainId != null) {
+                jsonVariableMetadata.put("verticalDomainId", verticalDomainId);
+            } else {
+                jsonVariableMetadata.put("verticalDomain", verticalDomain.toJSON());
+            }
         }
 
-        if (this.temporalDomainBean != null) {
-            jsonVariableMetadata.put("temporalDomain", this.temporalDomainBean.toJSON());
+        TemporalDomainBean temporalDomain = this.getTemporalDomainBean();
+        if (temporalDomain != null) {
+            String temporalDomainId = temporalDomainIds == null ? null : temporalDomainIds.get(temporalDomain);
+            if (temporalDomainId != null) {
+                jsonVariableMetadata.put("temporalDomainId", temporalDomainId);
+            } else {
+                jsonVariableMetadata.put("temporalDomain", temporalDomain.toJSON());
+            }
         }
 
         jsonVariableMetadata.put("scalar", this.scalar);
@@ -223,6 +267,21 @@ public class VariableMetadataBean extends AbstractBean {
         return null;
     }
 
+    /**
+     * Replace the domains of the variable with the instances
+     * shared by the other variables of the metadata.
+     *
+     * @param domainTable the domain table of the metadata.
+     */
+    void shareDomains(DomainTable domainTable) {
+        VerticalDomainBean verticalDomain = this.getVerticalDomainBean();
+        TemporalDomainBean temporalDomain = this.getTemporalDomainBean();
+        synchronized (this) {
+            this.verticalDomainBean = domainTable.intern(verticalDomain);
+            this.temporalDomainBean = domainTable.intern(temporalDomain);
+        }
+    }
+
     protected void setParent(VariableMetadataBean parent) {
         this.parent = parent;
         this.parent.children.put(this.role, this);
@@ -257,7 +316,25 @@ public class VariableMetadataBean extends AbstractBean {
      * @return the {@code VariableMetadataBean} vertical domain.
      */
     public VerticalDomainBean getVerticalDomainBean() {
-        return this.verticalDomainBean;
+        VerticalDomainBean verticalDomain = this.verticalDomainBean;
+        if (verticalDomain == null) {
+            synchronized (this) {
+                if (this.verticalDomainBean == null) {
+                    if (this.jsonVerticalDomain != null) {
+                        this.verticalDomainBean = new VerticalDomainBean(this.jsonVerticalDomain);
+                        if (this.domainTable != null) {
+                            this.verticalDomainBean = this.domainTable.intern(this.verticalDomainBean);
+                        }
+                    } else if (this.verticalDomainId != null && this.domainTable != null) {
+                        this.verticalDomainBean = this.domainTable.getVerticalDomain(this.verticalDomainId);
+                    }
+                    this.jsonVerticalDomain = null;
+                    this.verticalDomainId = null;
+                }
+                verticalDomain = this.verticalDomainBean;
+            }
+        }
+        return verticalDomain;
     }
 
     /**
@@ -265,7 +342,25 @@ public class VariableMetadataBean extends AbstractBean {
      * @return the {@code VariableMetadataBean} temporal domain.
      */
     public TemporalDomainBean getTemporalDomainBean() {
-        return this.temporalDomainBean;
+        TemporalDomainBean temporalDomain = this.temporalDomainBean;
+        if (temporalDomain == null) {
+            synchronized (this) {
+                if (this.temporalDomainBean == null) {
+                    if (this.jsonTemporalDomain != null) {
+                        this.temporalDomainBean = new TemporalDomainBean(this.jsonTemporalDomain);
+                        if (this.domainTable != null) {
+                            this.temporalDomainBean = this.domainTable.intern(this.temporalDomainBean);
+                        }
+                    } else if (this.temporalDomainId != null && this.domainTable != null) {
+                        this.temporalDomainBean = this.domainTable.getTemporalDomain(this.temporalDomainId);
+                    }
+                    this.jsonTemporalDomain = null;
+                    this.temporalDomainId = null;
+                }
+                temporalDomain = this.temporalDomainBean;
+            }
+        }
+        return temporalDomain;
     }
 
     /**
@@ -13,7 +13,11 @@ import uk.ac.rdg.resc.edal.grid.VerticalAxis;
 import uk.ac.rdg.resc.edal.position.VerticalCrs;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Bean representing the vertical domain of a variable.
@@ -23,6 +27,10 @@ import java.util.List;
  * and other eReefs projects.
  */
 public class VerticalDomainBean extends AbstractBean {
+    // Maximum number of target heights remembered by getClosestHeightIndex.
+    // The same few target heights are requested for every frame.
+    private static final int MAX_CACHED_TARGET_HEIGHTS = 64;
+
     private Double min = null;
     private Double max = null;
     private VerticalCrsBean verticalCrsBean = null;
@@ -30,6 +38,19 @@ public class VerticalDomainBean extends AbstractBean {
     private String name = null;
     private List<Double> heightValues = null;
 
+    // Index used to find the closest height using a binary search.
+    //   sortedHeights: distinct heights, in ascending order.
+    //   sortedHeightIndexes: the smallest index, in heightValues, of each sorted height.
+    // Null if there is no heights, or if the heights contains NaN.
+    private double[] sortedHeights = null;
+    private int[] sortedHeightIndexes = null;
+
+    // Key: target height, Value: index of the closest height
+    private final Map<Double, Integer> closestHeightIndexCache = new ConcurrentHashMap<Double, Integer>();
+
+    // JSON serialisation, used by hashCode and equals. Created when first needed.
+    private volatile String serialisedJSON = null;
+
     /**
      * Construct a {@code VerticalDomainBean} from a EDAL {@code VerticalDomain} object.
      * Used when parsing the metadata returned by the UCAR library.
@@ -51,7 +72,11 @@ public class VerticalDomainBean extends AbstractBean {
         if (verticalDomain instanceof VerticalAxis) {
             VerticalAxis verticalAxis = (VerticalAxis)verticalDomain;
             this.name = verticalAxis.getName();
-            this.heightValues = verticalAxis.getCoordinateValues();
+            List<Double> coordinateValues = verticalAxis.getCoordinateValues();
+            if (coordinateValues != null) {
+                this.heightValues = Collections.unmodifiableList(new ArrayList<Double>(coordinateValues));
+                this.initHeightIndex();
+            }
         }
 
         VerticalCrs verticalCrs = verticalDomain.getVerticalCrs();
@@ -83,13 +108,66 @@ public class VerticalDomainBean extends AbstractBean {
         JSONArray jsonHeightValues = jsonVerticalDomain.optJSONArray("heightValues");
         if (jsonHeightValues != null) {
             int heightCount = jsonHeightValues.length();
-            this.heightValues = new ArrayList<Double>(heightCount);
+            List<Double> heights = new ArrayList<Double>(heightCount);
             for (int i=0; i<heightCount; i++) {
-                this.heightValues.add(jsonHeightValues.optDouble(i, 0));
+                heights.add(jsonHeightValues.optDouble(i, 0));
             }
+            this.heightValues = Collections.unmodifiableList(heights);
+            this.initHeightIndex();
         }
     }
 
+    /**
+     * Returns the number of height values of a serialised vertical domain, without parsing it.
+     *
+     * @param jsonVerticalDomain JSON serialised VerticalDomainBean.
+     * @return the number of height values.
+     */
+    static int getHeightValueCount(JSONObject jsonVerticalDomain) {
+        JSONArray jsonHeightValues = jsonVerticalDomain.optJSONArray("heightValues");
+        return jsonHeightValues == null ? 0 : jsonHeightValues.length();
+    }
+
+    private void initHeightIndex() {
+        int heightCount = this.heightValues.size();
+        if (heightCount == 0) {
+            return;
+        }
+
+        // Order the height indexes by height, then by index
+        Integer[] order = new Integer[heightCount];
+        for (int i=0; i<heightCount; i++) {
+            Double height = this.heightValues.get(i);
+            if (height == null || height.isNaN()) {
+                // NaN can not be sorted. Fallback to a linear search.
+                return;
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (index1, index2) -> {
+            int cmp = Double.compare(this.heightValues.get(index1), this.heightValues.get(index2));
+            return cmp != 0 ? cmp : Integer.compare(index1, index2);
+        });
+
+        // Remove duplicate heights, keeping the smallest index
+        double[] heights = new double[heightCount];
+        int[] indexes = new int[heightCount];
+        int distinctCount = 0;
+        for (Integer index : order) {
+            double height = this.heightValues.get(index);
+            if (distinctCount > 0 && heights[distinctCount-1] == height) {
+                indexes[distinctCount-1] = Math.min(indexes[distinctCount-1], index);
+            } else {
+                heights[distinctCount] = height;
+                indexes[distinctCount] = index;
+                distinctCount++;
+            }
+        }
+
+        this.sortedHeights = Arrays.copyOf(heights, distinctCount);
+        this.sortedHeightIndexes = Arrays.copyOf(indexes, distinctCount);
+    }
+
     /**
      * Serialise the object into a {@code JSONObject}.
      * @return a {@code JSONObject} representing the object.
@@ -129,6 +207,9 @@ public class VerticalDomainBean extends AbstractBean {
     /**
      * Helper method to find the index of the closest available height to the value provided in parameter.
      *
+     * <p>If 2 heights are equally close to the requested height,
+     * the one with the smallest index is returned.</p>
+     *
      * @param targetHeight Requested height.
      * @return Index of the closest available height to the requested height.
      */
@@ -137,6 +218,49 @@ public class VerticalDomainBean extends AbstractBean {
             return null;
         }
 
+        Integer index = this.closestHeightIndexCache.get(targetHeight);
+        if (index == null) {
+            if (this.sortedHeights == null || targetHeight.isNaN()) {
+                index = this.findClosestHeightIndexLinear(targetHeight);
+            } else {
+                index = this.findClosestHeightIndex(targetHeight);
+            }
+
+            if (this.closestHeightIndexCache.size() < MAX_CACHED_TARGET_HEIGHTS) {
+                this.closestHeightIndexCache.put(targetHeight, index);
+            }
+        }
+
+        return index;
+    }
+
+    private int findClosestHeightIndex(double targetHeight) {
+        int position = Arrays.binarySearch(this.sortedHeights, targetHeight);
+        if (position >= 0) {
+            return this.sortedHeightIndexes[position];
+        }
+
+        int upper = -position - 1;
+        if (upper == 0) {
+            return this.sortedHeightIndexes[0];
+        }
+        if (upper == this.sortedHeights.length) {
+            return this.sortedHeightIndexes[upper - 1];
+        }
+
+        int lower = upper - 1;
+        double lowerDelta = targetHeight - this.sortedHeights[lower];
+        double upperDelta = this.sortedHeights[upper] - targetHeight;
+        if (lowerDelta < upperDelta) {
+            return this.sortedHeightIndexes[lower];
+        }
+        if (upperDelta < lowerDelta) {
+            return this.sortedHeightIndexes[upper];
+        }
+        return Math.min(this.sortedHeightIndexes[lower], this.sortedHeightIndexes[upper]);
+    }
+
+    private int findClosestHeightIndexLinear(Double targetHeight) {
         // Find the closest height.
         int index = 0;
         Double currentHeight, smallestDelta = null;
@@ -187,9 +311,58 @@ public class VerticalDomainBean extends AbstractBean {
 
     /**
      * Returns the list of available heights for this {@code VerticalDomainBean}.
+     * The list is read only, since the {@code VerticalDomainBean} can be
+     * shared by multiple variables.
+     *
      * @return the list of available heights.
      */
     public List<Double> getHeightValues() {
         return this.heightValues;
     }
+
+    /**
+     * Returns a hash code value for the object.
+     *
+     * <p>The bean is immutable: the hash code is calculated from
+     * its JSON serialisation once, then cached.
+     * See {@link AbstractBean#hashCode()}.</p>
+     *
+     * @return a hash code value for this object.
+     */
+    @Override
+    public int hashCode() {
+        return this.getSerialisedJSON().hashCode();
+    }
+
+    /**
+     * Indicates whether some other object is "equal to" this one.
+     * The cached JSON serialisations are compared.
+     * See {@link AbstractBean#equals(Object)}.
+     *
+     * @param obj the reference object with which to compare.
+     * @return {@code true} if this object is the same as the obj argument; {@code false} otherwise.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VerticalDomainBean)) {
+            return false;
+        }
+
+        VerticalDomainBean other = (VerticalDomainBean)obj;
+        return this.hashCode() == other.hashCode() &&
+                this.getSerialisedJSON().equals(other.getSerialisedJSON());
+    }
+
+    // The String caches its hash code
+    private String getSerialisedJSON() {
+        String serialisedJSON = this.serialisedJSON;
+        if (serialisedJSON == null) {
+            serialisedJSON = this.toJSON().toString();
+            this.serialisedJSON = serialisedJSON;
+        }
+        return serialisedJSON;
+    }
 }
@@ -14,6 +14,11 @@ import org.joda.time.DateTime;
 import org.json.JSONObject;
 
 import java.io.InvalidClassException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -31,6 +36,8 @@ public abstract class AbstractNcAnimateBean extends AbstractBean {
 
     private static final Pattern ID_PATTERN = Pattern.compile("[a-zA-Z0-9\\-_/]+");
 
+    private static volatile boolean structuralMergeEnabled = true;
+
     private NcAnimateIdBean id;
     private ConfigPartManager.Datatype datatype;
     private Boolean hidden;
@@ -218,6 +225,13 @@ public abstract class AbstractNcAnimateBean extends AbstractBean {
             this.neverVisited.addAll(base.neverVisited);
             this.neverVisited.addAll(overwrites.neverVisited);
 
+            if (structuralMergeEnabled &&
+                    this.getClass().equals(base.getClass()) &&
+                    this.getClass().equals(overwrites.getClass()) &&
+                    this.merge(base, overwrites)) {
+                return;
+            }
+
             JSONObject jsonBase = base.toJSON();
             JSONObject jsonOverwrites = overwrites.toJSON();
 
@@ -226,6 +240,228 @@ public abstract class AbstractNcAnimateBean extends AbstractBean {
         }
     }
 
+    /**
+     * Returns {@code true} if {@link #overwrite(AbstractNcAnimateBean, AbstractNcAnimateBean)}
+     * merges the beans field by field, when the bean supports it.
+     *
+     * <p>Default: {@code true}</p>
+     *
+     * @return {@code true} if the structural merge is enabled.
+     */
+    static boolean isStructuralMergeEnabled() {
+        return structuralMergeEnabled;
+    }
+
+    /**
+     * Set to {@code false} to always overwrite beans by serialising them to JSON,
+     * merging the JSON documents and parsing the result.
+     * Used by tests to compare the result and the performance of both methods.
+     *
+     * @param enabled {@code false} to disable the structural merge.
+     */
+    static void setStructuralMergeEnabled(boolean enabled) {
+        structuralMergeEnabled = enabled;
+    }
+
+    /**
+     * Set the attributes of the current object (this) to the values of
+     * <em>base overwritten with overwrites</em>, without going through JSON.
+     *
+     * <p>The result must be the same as serialising both beans with {@link #toJSON()},
+     * merging them with {@code JSONUtils.overwrite} and parsing the result:</p>
+     * <ul>
+     *   <li>values of {@code overwrites} replace values of {@code base};</li>
+     *   <li>bean attributes and maps of beans are merged recursively;</li>
+     *   <li>lists replace each other;</li>
+     *   <li>the bean attributes are new objects, they are never shared with {@code base} or {@code overwrites}.</li>
+     * </ul>
+     *
+     * <p>The current object can be {@code base} or {@code overwrites}.
+     * {@code base} and {@code overwrites} are instances of the same class as this.</p>
+     *
+     * <p>NOTE: Sub classes supporting the structural merge are expected to override
+     * this method and call {@link #mergeAttributes(AbstractNcAnimateBean, AbstractNcAnimateBean)}.
+     * The default implementation returns {@code false}.</p>
+     *
+     * @param base a {@link AbstractNcAnimateBean} containing the base values.
+     * @param overwrites a {@link AbstractNcAnimateBean} containing the overwrites values.
+     * @return {@code false}, without modifying this, if the beans can not be merged structurally;
+     *     {@code true} otherwise.
+     * @throws Exception if something goes wrong during the merge.
+     */
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        return false;
+    }
+
+    /**
+     * Merge the attributes defined in {@code AbstractNcAnimateBean}.
+     * See {@link #merge(AbstractNcAnimateBean, AbstractNcAnimateBean)}.
+     *
+     * @param base a {@link AbstractNcAnimateBean} containing the base values.
+     * @param overwrites a {@link AbstractNcAnimateBean} containing the overwrites values.
+     */
+    protected void mergeAttributes(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) {
+        // Same as parsing the "id" attribute produced by toJSON
+        String idValue = overwrites.id == null ? null : overwrites.id.getValue();
+        if (idValue == null && base.id != null) {
+            idValue = base.id.getValue();
+        }
+        this.id = idValue == null ? new NcAnimateIdBean() : new NcAnimateIdBean(null, idValue);
+
+        this.lastModified = mergeValue(base.lastModified, overwrites.lastModified);
+        this.hidden = mergeValue(base.hidden, overwrites.hidden);
+    }
+
+    /**
+     * Returns {@code true} if the bean would be serialised to {@code null} by {@link #toJSON()}.
+     * @return {@code true} if the bean has no attribute set.
+     */
+    protected boolean isEmpty() {
+        if ((this.id != null && this.id.getValue() != null) || this.lastModified != null || this.hidden != null) {
+            return false;
+        }
+        return this.toJSON() == null;
+    }
+
+    /**
+     * Returns the value of {@code overwrites}, or {@code base} if {@code overwrites} is {@code null}.
+     *
+     * @param base the base value.
+     * @param overwrites the overwrites value.
+     * @param <V> the type of value.
+     * @return the merged value.
+     */
+    protected static <V> V mergeValue(V base, V overwrites) {
+        return overwrites == null ? base : overwrites;
+    }
+
+    /**
+     * Returns a copy of the list {@code overwrites}, or a copy of {@code base}
+     * if {@code overwrites} is {@code null}. Lists are not merged.
+     *
+     * @param base the base list.
+     * @param overwrites the overwrites list.
+     * @param <V> the type of list element.
+     * @return a copy of the merged list, or {@code null} if both lists are {@code null}.
+     */
+    protected static <V> ArrayList<V> mergeList(List<V> base, List<V> overwrites) {
+        List<V> list = overwrites == null ? base : overwrites;
+        return list == null ? null : new ArrayList<V>(list);
+    }
+
+    /**
+     * Returns {@code null} if the list is empty.
+     * Used to merge list attributes which are not serialised when they are empty.
+     *
+     * @param list a list.
+     * @param <V> the type of list element.
+     * @return the list, or {@code null} if it's empty.
+     */
+    protected static <V> List<V> nonEmpty(List<V> list) {
+        return list == null || list.isEmpty() ? null : list;
+    }
+
+    /**
+     * Returns a new bean containing <em>base overwritten with overwrites</em>.
+     * Either parameter can be {@code null}, to copy the other bean.
+     *
+     * @param base a {@link AbstractNcAnimateBean} containing the base values, or {@code null}.
+     * @param overwrites a {@link AbstractNcAnimateBean} containing the overwrites values, or {@code null}.
+     * @param factory the bean constructor.
+     * @param <B> the type of bean.
+     * @return the merged bean, or {@code null} if both beans are {@code null} or if the merged bean is empty.
+     * @throws Exception if something goes wrong during the merge.
+     */
+    protected static <B extends AbstractNcAnimateBean> B mergeBean(B base, B overwrites, BeanFactory<B> factory) throws Exception {
+        if (base == null && overwrites == null) {
+            return null;
+        }
+
+        B merged = factory.create(null);
+        AbstractNcAnimateBean mergeBase = base == null ? merged : base;
+        AbstractNcAnimateBean mergeOverwrites = overwrites == null ? merged : overwrites;
+        if (merged.getClass().equals(mergeBase.getClass()) &&
+                merged.getClass().equals(mergeOverwrites.getClass()) &&
+                merged.merge(mergeBase, mergeOverwrites)) {
+            return merged.isEmpty() ? null : merged;
+        }
+
+        JSONObject jsonBase = base == null ? null : base.toJSON();
+        JSONObject jsonOverwrites = overwrites == null ? null : overwrites.toJSON();
+        JSONObject jsonMerged = jsonBase == null ? jsonOverwrites :
+                jsonOverwrites == null ? jsonBase :
+                JSONUtils.overwrite(jsonBase, jsonOverwrites, MONGODB_ID_PROPERTY_NAME);
+
+        return jsonMerged == null ? null : factory.create(new JSONWrapperObject(jsonMerged));
+    }
+
+    /**
+     * Returns a new {@code Map} containing the beans of {@code base} overwritten
+     * with the beans of {@code overwrites} which have the same key.
+     * See {@link #mergeBean(AbstractNcAnimateBean, AbstractNcAnimateBean, BeanFactory)}.
+     *
+     * <p>NOTE: Maps containing {@code null} values can not be merged structurally.
+     * Use {@link #hasNullValue(Map)} before modifying the current object.</p>
+     *
+     * @param base the base {@code Map}, or {@code null}.
+     * @param overwrites the overwrites {@code Map}, or {@code null}.
+     * @param factory the bean constructor, which receives the {@code Map} key.
+     * @param <B> the type of bean.
+     * @return the merged {@code Map}. Empty beans are not in the {@code Map}.
+     * @throws Exception if something goes wrong during the merge.
+     */
+    protected static <B extends AbstractNcAnimateBean> Map<String, B> mergeBeanMap(
+            Map<String, B> base, Map<String, B> overwrites, KeyBeanFactory<B> factory) throws Exception {
+
+        Set<String> keys = new LinkedHashSet<String>();
+        if (base != null) {
+            keys.addAll(base.keySet());
+        }
+        if (overwrites != null) {
+            keys.addAll(overwrites.keySet());
+        }
+
+        Map<String, B> merged = new HashMap<String, B>();
+        for (String key : keys) {
+            B mergedBean = mergeBean(
+                    base == null ? null : base.get(key),
+                    overwrites == null ? null : overwrites.get(key),
+                    json -> factory.create(key, json));
+            if (mergedBean != null) {
+                merged.put(key, mergedBean);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns {@code true} if the {@code Map} contains {@code null} values.
+     * Those are serialised as JSON {@code null}, which are not merged like beans.
+     *
+     * @param map the {@code Map} to check.
+     * @return {@code true} if the {@code Map} contains a {@code null} value.
+     */
+    protected static boolean hasNullValue(Map<String, ? extends AbstractNcAnimateBean> map) {
+        return map != null && map.containsValue(null);
+    }
+
+    /**
+     * Bean constructor, used with the structural merge.
+     * @param <B> the type of bean.
+     */
+    protected interface BeanFactory<B extends AbstractNcAnimateBean> {
+        B create(JSONWrapperObject json) throws Exception;
+    }
+
+    /**
+     * Constructor for beans found in a {@code Map}, used with the structural merge.
+     * @param <B> the type of bean.
+     */
+    protected interface KeyBeanFactory<B extends AbstractNcAnimateBean> {
+        B create(String key, JSONWrapperObject json) throws Exception;
+    }
+
     /**
      * Returns the NcAnimate bean or bean part ID.
      * @return the NcAnimate bean or bean part ID.
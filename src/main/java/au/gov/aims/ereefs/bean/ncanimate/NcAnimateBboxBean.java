@@ -112,6 +112,23 @@ public class NcAnimateBboxBean extends AbstractNcAnimateBean {
         return this.west;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateBboxBean bboxBase = (NcAnimateBboxBean)base;
+        NcAnimateBboxBean bboxOverwrites = (NcAnimateBboxBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.east = mergeValue(bboxBase.east, bboxOverwrites.east);
+        this.north = mergeValue(bboxBase.north, bboxOverwrites.north);
+        this.south = mergeValue(bboxBase.south, bboxOverwrites.south);
+        this.west = mergeValue(bboxBase.west, bboxOverwrites.west);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
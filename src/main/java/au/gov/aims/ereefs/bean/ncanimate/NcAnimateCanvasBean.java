@@ -162,6 +162,29 @@ public class NcAnimateCanvasBean extends AbstractNcAnimateBean {
         return this.paddingBetweenPanels;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateCanvasBean canvasBase = (NcAnimateCanvasBean)base;
+        NcAnimateCanvasBean canvasOverwrites = (NcAnimateCanvasBean)overwrites;
+        if (hasNullValue(canvasBase.texts) || hasNullValue(canvasOverwrites.texts)) {
+            return false;
+        }
+
+        this.mergeAttributes(base, overwrites);
+        this.texts = mergeBeanMap(canvasBase.texts, canvasOverwrites.texts, NcAnimateTextBean::new);
+
+        // Style
+
+        this.backgroundColour = mergeValue(canvasBase.backgroundColour, canvasOverwrites.backgroundColour);
+        this.padding = mergeBean(canvasBase.padding, canvasOverwrites.padding, NcAnimatePaddingBean::new);
+        this.paddingBetweenPanels = mergeValue(canvasBase.paddingBetweenPanels, canvasOverwrites.paddingBetweenPanels);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -149,6 +149,34 @@ public class NcAnimateInputBean extends AbstractNcAnimateBean {
         return this.licence;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateInputBean inputBase = (NcAnimateInputBean)base;
+        NcAnimateInputBean inputOverwrites = (NcAnimateInputBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+
+        TimeIncrement timeIncrementBase = inputBase.timeIncrement;
+        TimeIncrement timeIncrementOverwrites = inputOverwrites.timeIncrement;
+        if (timeIncrementBase == null && timeIncrementOverwrites == null) {
+            this.timeIncrement = null;
+        } else {
+            this.timeIncrement = new TimeIncrement(
+                    mergeValue(timeIncrementBase == null ? null : timeIncrementBase.getIncrement(),
+                        timeIncrementOverwrites == null ? null : timeIncrementOverwrites.getIncrement()),
+                    mergeValue(timeIncrementBase == null ? null : timeIncrementBase.getUnit(),
+                        timeIncrementOverwrites == null ? null : timeIncrementOverwrites.getUnit()));
+        }
+
+        this.licence = mergeValue(inputBase.licence, inputOverwrites.licence);
+        this.authors = mergeList(nonEmpty(inputBase.authors), nonEmpty(inputOverwrites.authors));
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
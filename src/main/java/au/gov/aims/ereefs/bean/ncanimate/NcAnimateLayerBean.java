@@ -482,6 +482,47 @@ public class NcAnimateLayerBean extends AbstractNcAnimateBean {
         return this.styleName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateLayerBean layerBase = (NcAnimateLayerBean)base;
+        NcAnimateLayerBean layerOverwrites = (NcAnimateLayerBean)overwrites;
+        if (hasNullValue(layerBase.trueColourVariables) || hasNullValue(layerOverwrites.trueColourVariables)) {
+            return false;
+        }
+
+        this.mergeAttributes(base, overwrites);
+        this.type = mergeValue(layerBase.type, layerOverwrites.type);
+
+        // CSV and GeoJSON
+        this.datasource = mergeValue(layerBase.datasource, layerOverwrites.datasource);
+        this.style = mergeValue(layerBase.style, layerOverwrites.style);
+
+        // CSV
+        this.latitudeColumn = mergeValue(layerBase.latitudeColumn, layerOverwrites.latitudeColumn);
+        this.longitudeColumn = mergeValue(layerBase.longitudeColumn, layerOverwrites.longitudeColumn);
+
+        // NetCDF
+        this.targetHeight = mergeValue(layerBase.targetHeight, layerOverwrites.targetHeight);
+        this.arrowSize = mergeValue(layerBase.arrowSize, layerOverwrites.arrowSize);
+        this.input = mergeBean(layerBase.input, layerOverwrites.input, NcAnimateInputBean::new);
+        this.variable = mergeBean(layerBase.variable, layerOverwrites.variable, NcAnimateNetCDFVariableBean::new);
+        this.arrowVariable = mergeBean(layerBase.arrowVariable, layerOverwrites.arrowVariable, NcAnimateNetCDFVariableBean::new);
+
+        Map<String, NcAnimateNetCDFTrueColourVariableBean> mergedTrueColourVariables = mergeBeanMap(
+                layerBase.trueColourVariables, layerOverwrites.trueColourVariables, NcAnimateNetCDFTrueColourVariableBean::new);
+        this.trueColourVariables = mergedTrueColourVariables.isEmpty() ? null : mergedTrueColourVariables;
+
+        // WMS
+        this.server = mergeValue(layerBase.server, layerOverwrites.server);
+        this.layerName = mergeValue(layerBase.layerName, layerOverwrites.layerName);
+        this.styleName = mergeValue(layerBase.styleName, layerOverwrites.styleName);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -328,6 +328,43 @@ public class NcAnimateLegendBean extends AbstractNcAnimateBean {
         return this.minorTickMarkLength;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateLegendBean legendBase = (NcAnimateLegendBean)base;
+        NcAnimateLegendBean legendOverwrites = (NcAnimateLegendBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.title = mergeBean(legendBase.title, legendOverwrites.title, NcAnimateTextBean::new);
+        this.label = mergeBean(legendBase.label, legendOverwrites.label, NcAnimateTextBean::new);
+        this.steps = mergeValue(legendBase.steps, legendOverwrites.steps);
+        this.labelPrecision = mergeValue(legendBase.labelPrecision, legendOverwrites.labelPrecision);
+        this.labelMultiplier = mergeValue(legendBase.labelMultiplier, legendOverwrites.labelMultiplier);
+        this.labelOffset = mergeValue(legendBase.labelOffset, legendOverwrites.labelOffset);
+
+        this.hideLowerLabel = mergeValue(legendBase.hideLowerLabel, legendOverwrites.hideLowerLabel);
+        this.hideHigherLabel = mergeValue(legendBase.hideHigherLabel, legendOverwrites.hideHigherLabel);
+
+        this.position = mergeBean(legendBase.position, legendOverwrites.position, NcAnimatePositionBean::new);
+        this.padding = mergeBean(legendBase.padding, legendOverwrites.padding, NcAnimatePaddingBean::new);
+
+        this.backgroundColour = mergeValue(legendBase.backgroundColour, legendOverwrites.backgroundColour);
+
+        this.colourBandWidth = mergeValue(legendBase.colourBandWidth, legendOverwrites.colourBandWidth);
+        this.colourBandHeight = mergeValue(legendBase.colourBandHeight, legendOverwrites.colourBandHeight);
+        this.colourBandColourCount = mergeValue(legendBase.colourBandColourCount, legendOverwrites.colourBandColourCount);
+
+        this.extraAmountOutOfRangeLow = mergeValue(legendBase.extraAmountOutOfRangeLow, legendOverwrites.extraAmountOutOfRangeLow);
+        this.extraAmountOutOfRangeHigh = mergeValue(legendBase.extraAmountOutOfRangeHigh, legendOverwrites.extraAmountOutOfRangeHigh);
+
+        this.majorTickMarkLength = mergeValue(legendBase.majorTickMarkLength, legendOverwrites.majorTickMarkLength);
+        this.minorTickMarkLength = mergeValue(legendBase.minorTickMarkLength, legendOverwrites.minorTickMarkLength);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
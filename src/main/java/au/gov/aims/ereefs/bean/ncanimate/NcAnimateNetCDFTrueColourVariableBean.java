@@ -154,6 +154,22 @@ public class NcAnimateNetCDFTrueColourVariableBean extends NcAnimateNetCDFVariab
         return this.hexColours;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        if (!super.merge(base, overwrites)) {
+            return false;
+        }
+
+        this.hexColours = mergeList(
+                ((NcAnimateNetCDFTrueColourVariableBean)base).hexColours,
+                ((NcAnimateNetCDFTrueColourVariableBean)overwrites).hexColours);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
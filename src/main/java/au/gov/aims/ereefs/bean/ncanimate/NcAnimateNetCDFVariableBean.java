@@ -360,6 +360,39 @@ public class NcAnimateNetCDFVariableBean extends AbstractNcAnimateBean {
 
     // NOTE: equals and hashcode are defined in AbstractNcAnimateBean
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateNetCDFVariableBean variableBase = (NcAnimateNetCDFVariableBean)base;
+        NcAnimateNetCDFVariableBean variableOverwrites = (NcAnimateNetCDFVariableBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.variableId = mergeValue(variableBase.variableId, variableOverwrites.variableId);
+        this.colourPaletteName = mergeValue(variableBase.colourPaletteName, variableOverwrites.colourPaletteName);
+
+        this.colourSchemeType = mergeValue(variableBase.colourSchemeType, variableOverwrites.colourSchemeType);
+
+        this.scaleMax = mergeValue(variableBase.scaleMax, variableOverwrites.scaleMax);
+        this.scaleMin = mergeValue(variableBase.scaleMin, variableOverwrites.scaleMin);
+
+        this.thresholds = mergeList(nonEmpty(variableBase.thresholds), nonEmpty(variableOverwrites.thresholds));
+
+        this.northAngle = mergeValue(variableBase.northAngle, variableOverwrites.northAngle);
+        this.directionTurns = mergeValue(variableBase.directionTurns, variableOverwrites.directionTurns);
+
+        this.logarithmic = mergeValue(variableBase.logarithmic, variableOverwrites.logarithmic);
+
+        this.legend = mergeBean(variableBase.legend, variableOverwrites.legend, NcAnimateLegendBean::new);
+
+        this.arrowColour = mergeValue(variableBase.arrowColour, variableOverwrites.arrowColour);
+
+        this.arrowThresholds = mergeList(variableBase.arrowThresholds, variableOverwrites.arrowThresholds);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
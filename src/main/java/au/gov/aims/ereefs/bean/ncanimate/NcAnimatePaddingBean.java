@@ -112,6 +112,23 @@ public class NcAnimatePaddingBean extends AbstractNcAnimateBean {
         return this.right;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimatePaddingBean paddingBase = (NcAnimatePaddingBean)base;
+        NcAnimatePaddingBean paddingOverwrites = (NcAnimatePaddingBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.top = mergeValue(paddingBase.top, paddingOverwrites.top);
+        this.bottom = mergeValue(paddingBase.bottom, paddingOverwrites.bottom);
+        this.left = mergeValue(paddingBase.left, paddingOverwrites.left);
+        this.right = mergeValue(paddingBase.right, paddingOverwrites.right);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
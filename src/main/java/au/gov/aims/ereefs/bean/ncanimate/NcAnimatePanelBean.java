@@ -309,6 +309,55 @@ public class NcAnimatePanelBean extends AbstractNcAnimateBean {
         return this.backgroundColour;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimatePanelBean panelBase = (NcAnimatePanelBean)base;
+        NcAnimatePanelBean panelOverwrites = (NcAnimatePanelBean)overwrites;
+        if (hasNullValue(panelBase.texts) || hasNullValue(panelOverwrites.texts) ||
+                hasNullValue(panelBase.layerOverwrites) || hasNullValue(panelOverwrites.layerOverwrites)) {
+            return false;
+        }
+
+        // Layers are not merged, the list of layers found in overwrites replaces the list found in base
+        List<NcAnimateLayerBean> layerList = nonEmpty(panelOverwrites.layers);
+        if (layerList == null) {
+            layerList = nonEmpty(panelBase.layers);
+        }
+        List<NcAnimateLayerBean> mergedLayers = new ArrayList<NcAnimateLayerBean>();
+        if (layerList != null) {
+            for (NcAnimateLayerBean layer : layerList) {
+                NcAnimateLayerBean layerCopy = mergeBean(layer, null, NcAnimateLayerBean::new);
+                if (layerCopy != null) {
+                    mergedLayers.add(layerCopy);
+                }
+            }
+        }
+
+        this.mergeAttributes(base, overwrites);
+        this.texts = mergeBeanMap(panelBase.texts, panelOverwrites.texts, NcAnimateTextBean::new);
+
+        this.title = mergeBean(panelBase.title, panelOverwrites.title, NcAnimateTextBean::new);
+        this.layers = mergedLayers;
+        this.layerOverwrites = mergeBeanMap(panelBase.layerOverwrites, panelOverwrites.layerOverwrites, NcAnimateLayerBean::new);
+        this.margin = mergeBean(panelBase.margin, panelOverwrites.margin, NcAnimatePaddingBean::new);
+
+        this.mapScale = mergeValue(panelBase.mapScale, panelOverwrites.mapScale);
+        this.description = mergeValue(panelBase.description, panelOverwrites.description);
+
+        // Style
+        this.width = mergeValue(panelBase.width, panelOverwrites.width);
+
+        this.borderWidth = mergeValue(panelBase.borderWidth, panelOverwrites.borderWidth);
+        this.borderColour = mergeValue(panelBase.borderColour, panelOverwrites.borderColour);
+
+        this.backgroundColour = mergeValue(panelBase.backgroundColour, panelOverwrites.backgroundColour);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
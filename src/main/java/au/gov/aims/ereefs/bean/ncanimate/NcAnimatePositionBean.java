@@ -135,19 +135,23 @@ public class NcAnimatePositionBean extends AbstractNcAnimateBean {
             this.right = jsonPosition.get(Integer.class, "right");
 
             this.pos = jsonPosition.get(String.class, "pos");
-            if (pos != null) {
-                if (pos.indexOf('t') < 0) { this.top = null; }
-                if (pos.indexOf('b') < 0) { this.bottom = null; }
-                if (pos.indexOf('l') < 0) { this.left = null; }
-                if (pos.indexOf('r') < 0) { this.right = null; }
-            } else {
-                StringBuilder posSb = new StringBuilder();
-                if (this.top != null)    { posSb.append('t'); }
-                if (this.bottom != null) { posSb.append('b'); }
-                if (this.left != null)   { posSb.append('l'); }
-                if (this.right != null)  { posSb.append('r'); }
-                this.pos = posSb.toString();
-            }
+            this.applyPos();
+        }
+    }
+
+    private void applyPos() {
+        if (this.pos != null) {
+            if (this.pos.indexOf('t') < 0) { this.top = null; }
+            if (this.pos.indexOf('b') < 0) { this.bottom = null; }
+            if (this.pos.indexOf('l') < 0) { this.left = null; }
+            if (this.pos.indexOf('r') < 0) { this.right = null; }
+        } else {
+            StringBuilder posSb = new StringBuilder();
+            if (this.top != null)    { posSb.append('t'); }
+            if (this.bottom != null) { posSb.append('b'); }
+            if (this.left != null)   { posSb.append('l'); }
+            if (this.right != null)  { posSb.append('r'); }
+            this.pos = posSb.toString();
         }
     }
 
@@ -191,6 +195,25 @@ public class NcAnimatePositionBean extends AbstractNcAnimateBean {
         return this.right;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimatePositionBean positionBase = (NcAnimatePositionBean)base;
+        NcAnimatePositionBean positionOverwrites = (NcAnimatePositionBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.top = mergeValue(positionBase.top, positionOverwrites.top);
+        this.bottom = mergeValue(positionBase.bottom, positionOverwrites.bottom);
+        this.left = mergeValue(positionBase.left, positionOverwrites.left);
+        this.right = mergeValue(positionBase.right, positionOverwrites.right);
+        this.pos = mergeValue(positionBase.pos, positionOverwrites.pos);
+        this.applyPos();
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -112,6 +112,22 @@ public class NcAnimateRegionBean extends AbstractNcAnimateBean {
         return this.bbox;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateRegionBean regionBase = (NcAnimateRegionBean)base;
+        NcAnimateRegionBean regionOverwrites = (NcAnimateRegionBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.label = mergeValue(regionBase.label, regionOverwrites.label);
+        this.scale = mergeValue(regionBase.scale, regionOverwrites.scale);
+        this.bbox = mergeBean(regionBase.bbox, regionOverwrites.bbox, NcAnimateBboxBean::new);
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -180,6 +180,25 @@ public class NcAnimateTextBean extends AbstractNcAnimateBean {
         return this.position;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean merge(AbstractNcAnimateBean base, AbstractNcAnimateBean overwrites) throws Exception {
+        NcAnimateTextBean textBase = (NcAnimateTextBean)base;
+        NcAnimateTextBean textOverwrites = (NcAnimateTextBean)overwrites;
+
+        this.mergeAttributes(base, overwrites);
+        this.fontSize = mergeValue(textBase.fontSize, textOverwrites.fontSize);
+        this.fontColour = mergeValue(textBase.fontColour, textOverwrites.fontColour);
+        this.bold = mergeValue(textBase.bold, textOverwrites.bold);
+        this.italic = mergeValue(textBase.italic, textOverwrites.italic);
+        this.position = mergeBean(textBase.position, textOverwrites.position, NcAnimatePositionBean::new);
+        this.text = mergeList(nonEmpty(textBase.text), nonEmpty(textOverwrites.text));
+
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
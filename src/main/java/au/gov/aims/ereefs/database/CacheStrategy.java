@@ -14,12 +14,19 @@ public enum CacheStrategy {
     NONE,
 
     /**
-     * Cache as JSON file on disk
+     * Cache on disk, in a single indexed file per table.
+     * Can be shared by multiple processes running on the same computer.
      */
     DISK,
 
     /**
      * Cache in memory (RAM)
      */
-    MEMORY
+    MEMORY,
+
+    /**
+     * Bounded cache in memory (RAM), in front of the {@link #DISK} cache.
+     * Documents found on disk are promoted to the memory cache.
+     */
+    MEMORY_DISK
 }
@@ -25,6 +25,9 @@ import org.bson.Document;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Object used to establish a connection to a {@code MongoDB} database.
@@ -35,22 +38,50 @@ import java.util.Map;
  *
  * <p>Composite primary key reference: <a href="https://docs.mongodb.com/manual/core/index-compound/" target="_blank">https://docs.mongodb.com/manual/core/index-compound/</a></p>
  */
-public class DatabaseClient {
+public class DatabaseClient implements AutoCloseable {
     private static final Logger LOGGER = Logger.getLogger(DatabaseClient.class);
     private static final String AUTHENTICATION_SOURCE = "admin";
     private static final String VARIABLE_STORE_PREFIX_ENVIRONMENT_VARIABLE = "EXECUTION_ENVIRONMENT";
 
     // NOTE: The database is not 100% reliable. Sometimes it disconnect (example: during server backups).
-    //     Each method that access the DB is in a loop that try to re-establish a connection to the DB
-    //     when it fails, up to X number of times, with a sufficient delay between retry to give a chance
-    //     to the DB to recover / restart.
-    // 10 attempts = 10 seconds + 2*10 seconds + ... + 15*10 seconds = 1200 seconds
-    //     = 20 minutes (without considering timeout / running time of each attempt)
+    //     Each method that access the DB uses the DatabaseRetryExecutor, which try to re-establish
+    //     a connection to the DB when it fails with a transient error, up to X number of times,
+    //     with an exponential delay between retry to give a chance to the DB to recover / restart.
+    // 10 seconds + 20 seconds + 40 seconds + ... up to 20 minutes
+    //     (without considering timeout / running time of each attempt)
     private static final int DEFAULT_DB_RETRY_ATTEMPTS = 15;
     private static final int DEFAULT_DB_INITIAL_DELAY_BETWEEN_ATTEMPT = 10; // in seconds
+    private static final int DEFAULT_DB_MAX_DELAY_BETWEEN_ATTEMPT = 300; // in seconds
+    private static final int DEFAULT_DB_RETRY_TIME_BUDGET = 1200; // in seconds
+
+    // Number of consecutive failures before the database is considered unavailable
+    private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30; // in seconds
+
+    // NOTE: The MongoClient is expensive to create (TCP connection, handshake, authentication,
+    //     server monitor thread). A single client is shared by all the DatabaseTable objects
+    //     created by this DatabaseClient. It maintains a pool of connections to the server.
+    private static final int DEFAULT_CONNECTION_POOL_MAX_SIZE = 100;
+    private static final int DEFAULT_CONNECTION_POOL_MAX_IDLE_TIME = 60; // in seconds
+    private static final int DEFAULT_CONNECTION_POOL_MAX_WAIT_QUEUE_SIZE = 500;
+
+    // Maximum number of asynchronous database operations running at once.
+    //     Should stay well below the connection pool max size.
+    private static final int DEFAULT_ASYNC_MAX_IN_FLIGHT_OPERATIONS = 16;
 
     private int dbRetryAttempts = DEFAULT_DB_RETRY_ATTEMPTS;
     private int dbInitialDelayBetweenAttempt = DEFAULT_DB_INITIAL_DELAY_BETWEEN_ATTEMPT;
+    private int dbMaxDelayBetweenAttempt = DEFAULT_DB_MAX_DELAY_BETWEEN_ATTEMPT;
+    private int dbRetryTimeBudget = DEFAULT_DB_RETRY_TIME_BUDGET;
+    private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+    private int circuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+
+    private int connectionPoolMaxSize = DEFAULT_CONNECTION_POOL_MAX_SIZE;
+    private int connectionPoolMaxIdleTime = DEFAULT_CONNECTION_POOL_MAX_IDLE_TIME;
+    private int connectionPoolMaxWaitQueueSize = DEFAULT_CONNECTION_POOL_MAX_WAIT_QUEUE_SIZE;
+
+    private int asyncMaxInFlightOperations = DEFAULT_ASYNC_MAX_IN_FLIGHT_OPERATIONS;
+    private Executor asyncExecutor;
 
     private String appName;
 
@@ -58,6 +89,16 @@ public class DatabaseClient {
     private String databaseName;
     private MongoCredential credential;
 
+    // Lazily created by getSharedMongoClient(), retired by close() or
+    //     when the connection information changes.
+    private SharedMongoClient sharedMongoClient;
+    // Lease of the operation running on the current thread,
+    //     see executeWithSharedMongoClient(Operation).
+    private final ThreadLocal<MongoClientLease> threadLease = new ThreadLocal<MongoClientLease>();
+
+    // Lazily created by getRetryExecutor()
+    private DatabaseRetryExecutor retryExecutor;
+
     /**
      * Creates a {@code DatabaseClient} for a given application name.
      *
@@ -117,14 +158,22 @@ public class DatabaseClient {
         this.init(ServerAddressHelper.createServerAddress(host, port), databaseName, userId, password);
     }
 
-    private void init(ServerAddress serverAddr, String databaseName, String userId, String password) {
-        this.databaseName = databaseName;
-        this.serverAddr = serverAddr;
-        this.credential = null;
-
+    private synchronized void init(ServerAddress serverAddr, String databaseName, String userId, String password) {
+        MongoCredential credential = null;
         if (userId != null && password != null) {
-            this.credential = MongoCredential.createCredential(userId, AUTHENTICATION_SOURCE, password.toCharArray());
+            credential = MongoCredential.createCredential(userId, AUTHENTICATION_SOURCE, password.toCharArray());
         }
+
+        // Only rebuild the shared client when the connection information has changed.
+        // resolveServerAddr() is called after every failed attempt; most of the time
+        // the server address is the same and the connection pool can be reused.
+        if (!Objects.equals(this.serverAddr, serverAddr) || !Objects.equals(this.credential, credential)) {
+            this.closeSharedMongoClient();
+        }
+
+        this.databaseName = databaseName;
+        this.serverAddr = serverAddr;
+        this.credential = credential;
     }
 
     /**
@@ -278,10 +327,13 @@ public class DatabaseClient {
 
     /**
      * Returns the number of seconds to wait after the first failed
-     * connection attempt. The delay is increase for each failed attempt.
+     * connection attempt. The delay is doubled for each failed attempt,
+     * up to {@link #getDbMaxDelayBetweenAttempt()}.
      *
      * <p>The wait delay is calculated using the following formula:
-     * {@code delay = dbInitialDelayBetweenAttempt * number of failed attempt}</p>
+     * {@code delay = dbInitialDelayBetweenAttempt * 2^(number of failed attempt - 1)},
+     * of which up to half is removed randomly, to spread the retries
+     * of concurrent processes.</p>
      *
      * <p>The value was carefully chosen to wait just long
      * enough for the server to recover from a destruction
@@ -309,23 +361,363 @@ public class DatabaseClient {
     }
 
     /**
-     * Returns the {@code MongoClient}.
+     * Returns the maximum number of seconds to wait between two connection attempts.
      *
-     * <p>Used internally. Use a {@link au.gov.aims.ereefs.database.table.DatabaseTable}
-     * object where possible, to take advantage of the caching and automatic reconnection.</p>
+     * <p>Default: {@code 300}</p>
      *
-     * @return the {@code MongoClient}.
+     * @return the maximum delay between attempts, in seconds.
+     */
+    public int getDbMaxDelayBetweenAttempt() {
+        return this.dbMaxDelayBetweenAttempt;
+    }
+
+    /**
+     * Set the maximum number of seconds to wait between two connection attempts.
+     *
+     * @param dbMaxDelayBetweenAttempt the maximum delay between attempts, in seconds.
+     */
+    public void setDbMaxDelayBetweenAttempt(int dbMaxDelayBetweenAttempt) {
+        this.dbMaxDelayBetweenAttempt = Math.max(1, dbMaxDelayBetweenAttempt);
+    }
+
+    /**
+     * Returns the maximum number of seconds spent retrying a database operation,
+     * before giving up.
+     *
+     * <p>Default: {@code 1200} (20 minutes)</p>
+     *
+     * @return the retry time budget, in seconds.
+     */
+    public int getDbRetryTimeBudget() {
+        return this.dbRetryTimeBudget;
+    }
+
+    /**
+     * Set the maximum number of seconds spent retrying a database operation,
+     * before giving up.
+     *
+     * @param dbRetryTimeBudget the retry time budget, in seconds.
+     */
+    public void setDbRetryTimeBudget(int dbRetryTimeBudget) {
+        this.dbRetryTimeBudget = Math.max(1, dbRetryTimeBudget);
+    }
+
+    /**
+     * Returns the number of consecutive transient errors after which
+     * the database is considered unavailable. Database operations stop
+     * querying the database for {@link #getCircuitBreakerOpenTime()} seconds.
+     *
+     * <p>Default: {@code 5}</p>
+     *
+     * @return the circuit breaker threshold.
+     */
+    public int getCircuitBreakerThreshold() {
+        return this.circuitBreakerThreshold;
+    }
+
+    /**
+     * Set the number of consecutive transient errors after which
+     * the database is considered unavailable.
+     *
+     * @param circuitBreakerThreshold the circuit breaker threshold.
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = Math.max(1, circuitBreakerThreshold);
+    }
+
+    /**
+     * Returns the number of seconds database operations stop querying
+     * the database, when it's considered unavailable.
+     *
+     * <p>Default: {@code 30}</p>
+     *
+     * @return the circuit breaker open time, in seconds.
+     */
+    public int getCircuitBreakerOpenTime() {
+        return this.circuitBreakerOpenTime;
+    }
+
+    /**
+     * Set the number of seconds database operations stop querying
+     * the database, when it's considered unavailable.
+     *
+     * @param circuitBreakerOpenTime the circuit breaker open time, in seconds.
+     */
+    public void setCircuitBreakerOpenTime(int circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = Math.max(1, circuitBreakerOpenTime);
+    }
+
+    /**
+     * Returns the executor used to run database operations,
+     * with automatic retry.
+     *
+     * <p>It's shared by every {@link au.gov.aims.ereefs.database.table.DatabaseTable}
+     * created by this {@code DatabaseClient}, so they share the same circuit breaker.</p>
+     *
+     * @return the retry executor.
+     */
+    public synchronized DatabaseRetryExecutor getRetryExecutor() {
+        if (this.retryExecutor == null) {
+            this.retryExecutor = new DatabaseRetryExecutor(this);
+        }
+        return this.retryExecutor;
+    }
+
+    /**
+     * Returns the executor used to run asynchronous database operations,
+     * such as {@link au.gov.aims.ereefs.database.table.DatabaseTable#selectAsync(au.gov.aims.ereefs.database.table.key.PrimaryKey)}.
+     *
+     * <p>Default: {@code null}, a pool of daemon threads created as needed.</p>
+     *
+     * @return the asynchronous executor, or {@code null} to use the default executor.
+     */
+    public Executor getAsyncExecutor() {
+        return this.asyncExecutor;
+    }
+
+    /**
+     * Set the executor used to run asynchronous database operations.
+     *
+     * <p>The executor is not shut down by {@link #close()}.</p>
+     *
+     * @param asyncExecutor the asynchronous executor, or {@code null} to use the default executor.
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Returns the maximum number of asynchronous database operations
+     * in flight at once. When the limit is reached, the following
+     * asynchronous operations are queued until an operation completes.
+     *
+     * <p>Default: {@code 16}</p>
+     *
+     * @return the maximum number of asynchronous operations in flight.
+     */
+    public int getAsyncMaxInFlightOperations() {
+        return this.asyncMaxInFlightOperations;
+    }
+
+    /**
+     * Set the maximum number of asynchronous database operations in flight at once.
+     *
+     * <p>See {@link #getAsyncMaxInFlightOperations()}</p>
+     *
+     * @param asyncMaxInFlightOperations the maximum number of asynchronous operations in flight.
+     */
+    public void setAsyncMaxInFlightOperations(int asyncMaxInFlightOperations) {
+        this.asyncMaxInFlightOperations = Math.max(1, asyncMaxInFlightOperations);
+    }
+
+    /**
+     * Returns the maximum number of connections kept in the
+     * connection pool of the shared {@code MongoClient}.
+     *
+     * <p>Default: {@code 100}</p>
+     *
+     * @return the maximum number of connections in the pool.
+     */
+    public int getConnectionPoolMaxSize() {
+        return this.connectionPoolMaxSize;
+    }
+
+    /**
+     * Set the maximum number of connections kept in the
+     * connection pool of the shared {@code MongoClient}.
+     *
+     * <p>The shared {@code MongoClient} is rebuilt the next
+     * time it's requested.</p>
+     *
+     * @param connectionPoolMaxSize the maximum number of connections in the pool.
+     */
+    public synchronized void setConnectionPoolMaxSize(int connectionPoolMaxSize) {
+        this.connectionPoolMaxSize = Math.max(1, connectionPoolMaxSize);
+        this.closeSharedMongoClient();
+    }
+
+    /**
+     * Returns the number of seconds a pooled connection can stay
+     * idle before it gets closed.
+     *
+     * <p>Default: {@code 60}</p>
+     *
+     * @return the maximum idle time, in seconds.
+     */
+    public int getConnectionPoolMaxIdleTime() {
+        return this.connectionPoolMaxIdleTime;
+    }
+
+    /**
+     * Set the number of seconds a pooled connection can stay
+     * idle before it gets closed. Set to {@code 0} for no limit.
+     *
+     * <p>The shared {@code MongoClient} is rebuilt the next
+     * time it's requested.</p>
+     *
+     * @param connectionPoolMaxIdleTime the maximum idle time, in seconds.
+     */
+    public synchronized void setConnectionPoolMaxIdleTime(int connectionPoolMaxIdleTime) {
+        this.connectionPoolMaxIdleTime = Math.max(0, connectionPoolMaxIdleTime);
+        this.closeSharedMongoClient();
+    }
+
+    /**
+     * Returns the maximum number of threads allowed to wait
+     * for a connection to become available in the pool.
+     *
+     * <p>Default: {@code 500}</p>
+     *
+     * @return the maximum wait queue size.
      */
-    public MongoClient getMongoClient() {
+    public int getConnectionPoolMaxWaitQueueSize() {
+        return this.connectionPoolMaxWaitQueueSize;
+    }
+
+    /**
+     * Set the maximum number of threads allowed to wait
+     * for a connection to become available in the pool.
+     *
+     * <p>The shared {@code MongoClient} is rebuilt the next
+     * time it's requested.</p>
+     *
+     * @param connectionPoolMaxWaitQueueSize the maximum wait queue size.
+     */
+    public synchronized void setConnectionPoolMaxWaitQueueSize(int connectionPoolMaxWaitQueueSize) {
+        this.connectionPoolMaxWaitQueueSize = Math.max(0, connectionPoolMaxWaitQueueSize);
+        this.closeSharedMongoClient();
+    }
+
+    private MongoClientSettings getMongoClientSettings() {
         MongoClientSettings.Builder mongoClientSettingsBuilder = MongoClientSettings.builder()
                 .applyToClusterSettings(builder ->
-                        builder.hosts(Arrays.asList(this.serverAddr)));
+                        builder.hosts(Arrays.asList(this.serverAddr)))
+                .applyToConnectionPoolSettings(builder ->
+                        builder.maxSize(this.connectionPoolMaxSize)
+                            .maxConnectionIdleTime(this.connectionPoolMaxIdleTime, TimeUnit.SECONDS)
+                            .maxWaitQueueSize(this.connectionPoolMaxWaitQueueSize));
 
         if (this.credential != null) {
             mongoClientSettingsBuilder = mongoClientSettingsBuilder.credential(this.credential);
         }
 
-        return MongoClients.create(mongoClientSettingsBuilder.build());
+        return mongoClientSettingsBuilder.build();
+    }
+
+    /**
+     * Returns a new {@code MongoClient}.
+     *
+     * <p>The caller is responsible for closing the returned client.
+     * Use {@link #getSharedMongoClient()} to reuse the connection pool.</p>
+     *
+     * <p>Used internally. Use a {@link au.gov.aims.ereefs.database.table.DatabaseTable}
+     * object where possible, to take advantage of the caching and automatic reconnection.</p>
+     *
+     * @return the {@code MongoClient}.
+     */
+    public synchronized MongoClient getMongoClient() {
+        return MongoClients.create(this.getMongoClientSettings());
+    }
+
+    /**
+     * Returns the {@code MongoClient} shared by every
+     * {@link au.gov.aims.ereefs.database.table.DatabaseTable}
+     * created by this {@code DatabaseClient}.
+     *
+     * <p>The client is created the first time it's requested and
+     * is rebuilt when the connection information changes.
+     * It's thread-safe and maintains a pool of connections.
+     * It must NOT be closed by the caller. Use {@link #close()}
+     * to release its resources.</p>
+     *
+     * <p>When called from an operation run by
+     * {@link #executeWithSharedMongoClient(DatabaseRetryExecutor.Operation)},
+     * returns the client leased by the operation.</p>
+     *
+     * @return the shared {@code MongoClient}.
+     */
+    public MongoClient getSharedMongoClient() {
+        MongoClientLease lease = this.threadLease.get();
+        if (lease != null) {
+            return lease.getMongoClient();
+        }
+        return this.getCurrentSharedMongoClient().mongoClient;
+    }
+
+    private synchronized SharedMongoClient getCurrentSharedMongoClient() {
+        if (this.sharedMongoClient == null) {
+            this.sharedMongoClient = new SharedMongoClient(MongoClients.create(this.getMongoClientSettings()));
+        }
+        return this.sharedMongoClient;
+    }
+
+    /**
+     * Lease the shared {@code MongoClient}.
+     *
+     * <p>When the connection information changes, a new shared client is
+     * created for the following operations, but the previous client is only
+     * closed once all its leases are closed. Used to keep a database cursor
+     * usable across several calls.</p>
+     *
+     * <p>The lease can be closed from any thread.
+     * Closing it more than once has no effect.</p>
+     *
+     * @return a lease on the shared {@code MongoClient}.
+     */
+    public synchronized MongoClientLease leaseSharedMongoClient() {
+        MongoClientLease lease = this.threadLease.get();
+        SharedMongoClient sharedClient = lease == null ?
+                this.getCurrentSharedMongoClient() :
+                lease.sharedClient;
+        sharedClient.users++;
+        return new MongoClientLease(sharedClient);
+    }
+
+    /**
+     * Execute an operation with a lease on the shared {@code MongoClient}.
+     *
+     * <p>During the execution of the operation, {@link #getSharedMongoClient()}
+     * and {@link #getMongoDatabase()} return the leased client, on the calling thread.
+     * The leased client is not closed while the operation is running.</p>
+     *
+     * <p>Used internally, by the {@link DatabaseRetryExecutor}.</p>
+     *
+     * @param operation the operation to execute.
+     * @param <T> the type of the operation result.
+     * @return the operation result.
+     * @throws Exception if the operation failed.
+     */
+    public <T> T executeWithSharedMongoClient(DatabaseRetryExecutor.Operation<T> operation) throws Exception {
+        MongoClientLease previousLease = this.threadLease.get();
+        try (MongoClientLease lease = this.leaseSharedMongoClient()) {
+            this.threadLease.set(lease);
+            return operation.execute();
+        } finally {
+            if (previousLease == null) {
+                this.threadLease.remove();
+            } else {
+                this.threadLease.set(previousLease);
+            }
+        }
+    }
+
+    private synchronized void release(SharedMongoClient sharedClient) {
+        sharedClient.users--;
+        if (sharedClient.retired && sharedClient.users <= 0) {
+            DatabaseClient.closeMongoClient(sharedClient.mongoClient);
+        }
+    }
+
+    /**
+     * Returns the {@code MongoDatabase}, using the shared {@code MongoClient}.
+     *
+     * <p>Used internally. Use a {@link au.gov.aims.ereefs.database.table.DatabaseTable}
+     * object where possible, to take advantage of the caching and automatic reconnection.</p>
+     *
+     * @return the {@code MongoDatabase}.
+     */
+    public MongoDatabase getMongoDatabase() {
+        return this.getMongoDatabase(this.getSharedMongoClient());
     }
 
     /**
@@ -357,29 +749,15 @@ public class DatabaseClient {
      * @throws Exception if something goes wrong.
      */
     public void createTable(String tableName, String ... indexes) throws Exception {
-        boolean success = false;
-        for (int attempt=1; attempt<=this.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.getMongoClient()) {
-                MongoDatabase database = this.getMongoDatabase(mongoClient);
-                database.createCollection(tableName);
-                if (indexes != null && indexes.length > 0) {
-                    MongoCollection<Document> table = database.getCollection(tableName, Document.class);
-                    table.createIndex(Indexes.ascending(indexes));
-                }
-                success = true;
-            } catch(Exception ex) {
-                int delay = this.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, tableName, delay), ex);
-
-                if (attempt == this.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
-                }
-                Thread.sleep(delay * 1000);
-                this.resolveServerAddr();
+        this.getRetryExecutor().execute(String.format("on table %s", tableName), () -> {
+            MongoDatabase database = this.getMongoDatabase();
+            database.createCollection(tableName);
+            if (indexes != null && indexes.length > 0) {
+                MongoCollection<Document> table = database.getCollection(tableName, Document.class);
+                table.createIndex(Indexes.ascending(indexes));
             }
-        }
+            return null;
+        });
     }
 
     /**
@@ -409,4 +787,90 @@ public class DatabaseClient {
     public DatabaseCompositeKeyTable getTable(String tableName, CacheStrategy cacheStrategy, String primaryKeyName, String ... compositeKeyNames) {
         return new DatabaseCompositeKeyTable(this, tableName, cacheStrategy, primaryKeyName, compositeKeyNames);
     }
+
+    /**
+     * Close the shared {@code MongoClient} and its connection pool,
+     * and stop the threads used by asynchronous operations.
+     *
+     * <p>The {@code DatabaseClient} can still be used after it has been closed;
+     * a new shared {@code MongoClient} will be created when needed.</p>
+     */
+    @Override
+    public synchronized void close() {
+        this.closeSharedMongoClient();
+        if (this.retryExecutor != null) {
+            this.retryExecutor.close();
+        }
+    }
+
+    /**
+     * Stop publishing the shared client.
+     * It's closed once the operations using it are done.
+     */
+    private synchronized void closeSharedMongoClient() {
+        if (this.sharedMongoClient != null) {
+            this.sharedMongoClient.retired = true;
+            if (this.sharedMongoClient.users <= 0) {
+                DatabaseClient.closeMongoClient(this.sharedMongoClient.mongoClient);
+            }
+            this.sharedMongoClient = null;
+        }
+    }
+
+    private static void closeMongoClient(MongoClient mongoClient) {
+        try {
+            mongoClient.close();
+        } catch(Exception ex) {
+            LOGGER.warn("Error occurred while closing the MongoDB client.", ex);
+        }
+    }
+
+    // Shared MongoClient, with the number of leases using it
+    private static class SharedMongoClient {
+        private final MongoClient mongoClient;
+        private int users;
+        private boolean retired;
+
+        public SharedMongoClient(MongoClient mongoClient) {
+            this.mongoClient = mongoClient;
+            this.users = 0;
+            this.retired = false;
+        }
+    }
+
+    /**
+     * Lease on the shared {@code MongoClient}.
+     * See {@link #leaseSharedMongoClient()}.
+     */
+    public class MongoClientLease implements AutoCloseable {
+        private final SharedMongoClient sharedClient;
+        private boolean closed;
+
+        private MongoClientLease(SharedMongoClient sharedClient) {
+            this.sharedClient = sharedClient;
+            this.closed = false;
+        }
+
+        /**
+         * Returns the leased {@code MongoClient}. It must NOT be closed by the caller.
+         * @return the leased {@code MongoClient}.
+         */
+        public MongoClient getMongoClient() {
+            return this.sharedClient.mongoClient;
+        }
+
+        /**
+         * Release the lease. The client is closed if it was
+         * replaced and nothing else is using it.
+         */
+        @Override
+        public void close() {
+            synchronized (DatabaseClient.this) {
+                if (!this.closed) {
+                    this.closed = true;
+                    DatabaseClient.this.release(this.sharedClient);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSecurityException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes database operations, retrying them while the database
+ * is temporarily unavailable (example: during server backups).
+ *
+ * <ul>
+ *   <li><em>Error classification</em>: Only transient errors (network errors,
+ *     timeouts, server shutting down or changing primary) are retried.
+ *     Other errors, such as authentication failures, duplicate keys
+ *     or invalid queries, are thrown immediately.</li>
+ *   <li><em>Exponential backoff</em>: The delay doubles after each failed attempt,
+ *     starting from {@link DatabaseClient#getDbInitialDelayBetweenAttempt()},
+ *     up to {@link DatabaseClient#getDbMaxDelayBetweenAttempt()}. A random
+ *     jitter spreads the retries of concurrent processes.</li>
+ *   <li><em>Time budget</em>: An operation gives up after
+ *     {@link DatabaseClient#getDbRetryAttempts()} attempts, or once
+ *     {@link DatabaseClient#getDbRetryTimeBudget()} seconds have elapsed.</li>
+ *   <li><em>Circuit breaker</em>: After {@link DatabaseClient#getCircuitBreakerThreshold()}
+ *     consecutive transient failures, operations stop querying the database for
+ *     {@link DatabaseClient#getCircuitBreakerOpenTime()} seconds. Then a single
+ *     operation is let through to probe the database.</li>
+ * </ul>
+ *
+ * <p>The connection information is re-resolved (from AWS SSM) after connection
+ * and authentication errors, at most once per minute. Authentication errors
+ * are not retried, but the following operations use the new credentials
+ * after a password rotation.</p>
+ *
+ * <p>Asynchronous operations do not block a thread while waiting between attempts.
+ * At most {@link DatabaseClient#getAsyncMaxInFlightOperations()} asynchronous
+ * operations are in flight at once. The following ones are queued, without
+ * blocking the calling thread.</p>
+ */
+public class DatabaseRetryExecutor implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseRetryExecutor.class);
+
+    private static final long MIN_RESOLVE_SERVER_ADDR_INTERVAL = 60 * 1000; // in milliseconds
+
+    // Operations waiting for the circuit breaker check its state at this interval
+    private static final long CIRCUIT_BREAKER_CHECK_INTERVAL = 1000; // in milliseconds
+
+    // https://github.com/mongodb/mongo/blob/master/src/mongo/base/error_codes.yml
+    private static final Set<Integer> TRANSIENT_ERROR_CODES = new HashSet<Integer>(Arrays.asList(
+        6,     // HostUnreachable
+        7,     // HostNotFound
+        43,    // CursorNotFound
+        89,    // NetworkTimeout
+        91,    // ShutdownInProgress
+        189,   // PrimarySteppedDown
+        262,   // ExceededTimeLimit
+        9001,  // SocketException
+        10107, // NotMaster
+        11600, // InterruptedAtShutdown
+        11602, // InterruptedDueToReplStateChange
+        13435, // NotMasterNoSlaveOk
+        13436  // NotMasterOrSecondary
+    ));
+
+    private final DatabaseClient databaseClient;
+
+    // Circuit breaker state
+    private int consecutiveFailures;
+    private long circuitOpenUntil; // 0 when the circuit is closed
+    private long lastResolveServerAddr;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService defaultExecutor;
+
+    // Bound the number of asynchronous operations in flight.
+    //     Re-created when DatabaseClient.asyncMaxInFlightOperations changes.
+    private InFlightLimiter inFlightLimiter;
+
+    /**
+     * An operation sent to the database.
+     * @param <T> the type of the operation result.
+     */
+    public interface Operation<T> {
+        /**
+         * Execute the operation. Called once per attempt.
+         * @return the operation result.
+         * @throws Exception if the operation failed.
+         */
+        T execute() throws Exception;
+    }
+
+    /**
+     * Creates a retry executor using the retry settings of a {@link DatabaseClient}.
+     * @param databaseClient the database client.
+     */
+    public DatabaseRetryExecutor(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+        this.consecutiveFailures = 0;
+        this.circuitOpenUntil = 0;
+        this.lastResolveServerAddr = 0;
+    }
+
+    /**
+     * Returns {@code true} if the circuit breaker is open, meaning the
+     * database is considered unavailable; {@code false} otherwise.
+     * @return {@code true} if the circuit breaker is open.
+     */
+    public synchronized boolean isCircuitOpen() {
+        return this.circuitOpenUntil > 0;
+    }
+
+    /**
+     * Execute an operation, blocking the current thread until it succeed,
+     * or until it fails with a non-transient error or runs out of attempts.
+     *
+     * @param description short description of the operation, used in log messages.
+     * @param operation the operation.
+     * @param <T> the type of the operation result.
+     * @return the operation result.
+     * @throws Exception if the operation failed.
+     */
+    public <T> T execute(String description, Operation<T> operation) throws Exception {
+        long deadline = System.currentTimeMillis() + this.databaseClient.getDbRetryTimeBudget() * 1000L;
+        Exception lastException = null;
+        int attempt = 1;
+        while (true) {
+            long circuitWait = this.checkCircuit(deadline, description, lastException);
+            if (circuitWait > 0) {
+                Thread.sleep(circuitWait);
+                continue;
+            }
+
+            try {
+                T result = this.databaseClient.executeWithSharedMongoClient(operation);
+                this.recordSuccess();
+                return result;
+            } catch(OutOfMemoryError ex) {
+                throw ex;
+            } catch(Exception ex) {
+                lastException = ex;
+                Thread.sleep(this.onFailure(description, ex, attempt, deadline));
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Execute an operation asynchronously, using the {@link DatabaseClient#getAsyncExecutor()}.
+     *
+     * <p>See {@link #executeAsync(String, Operation, Executor)}</p>
+     *
+     * @param description short description of the operation, used in log messages.
+     * @param operation the operation.
+     * @param <T> the type of the operation result.
+     * @return a future completed with the operation result, or completed exceptionally if the operation failed.
+     */
+    public <T> CompletableFuture<T> executeAsync(String description, Operation<T> operation) {
+        Executor executor = this.databaseClient.getAsyncExecutor();
+        return this.executeAsync(description, operation, executor == null ? this.getDefaultExecutor() : executor);
+    }
+
+    /**
+     * Execute an operation asynchronously.
+     *
+     * <p>Each attempt runs on the {@code executor}. No thread is blocked
+     * while waiting between attempts.</p>
+     *
+     * <p>When {@link DatabaseClient#getAsyncMaxInFlightOperations()} operations
+     * are in flight, the operation is queued and started once an operation
+     * in flight completes. This method never blocks the calling thread.</p>
+     *
+     * <p>Cancelling the returned future stops the retries. The operation stays
+     * in flight until its running attempt, if any, is done.</p>
+     *
+     * @param description short description of the operation, used in log messages.
+     * @param operation the operation.
+     * @param executor the executor used to run the attempts.
+     * @param <T> the type of the operation result.
+     * @return a future completed with the operation result, or completed exceptionally if the operation failed.
+     */
+    public <T> CompletableFuture<T> executeAsync(String description, Operation<T> operation, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        InFlightPermit permit = new InFlightPermit(this.getInFlightLimiter());
+
+        // Release the permit of a cancelled operation, unless an attempt is running
+        future.whenComplete((result, ex) -> permit.cancel());
+
+        long deadline = System.currentTimeMillis() + this.databaseClient.getDbRetryTimeBudget() * 1000L;
+        permit.acquire(() ->
+            this.attemptAsync(description, operation, executor, future, permit, 1, deadline, null));
+        return future;
+    }
+
+    private <T> void attemptAsync(String description, Operation<T> operation, Executor executor,
+            CompletableFuture<T> future, InFlightPermit permit, int attempt, long deadline, Exception lastException) {
+
+        try {
+            executor.execute(() -> {
+                if (!permit.startAttempt(future)) {
+                    // Cancelled
+                    return;
+                }
+
+                try {
+                    long circuitWait = this.checkCircuit(deadline, description, lastException);
+                    if (circuitWait > 0) {
+                        permit.endAttempt(future);
+                        this.schedule(circuitWait, () ->
+                            this.attemptAsync(description, operation, executor, future, permit, attempt, deadline, lastException));
+                        return;
+                    }
+                } catch(Exception ex) {
+                    // Release the permit before running the caller's dependent stages,
+                    //     which may start other asynchronous operations.
+                    permit.release();
+                    future.completeExceptionally(ex);
+                    return;
+                }
+
+                try {
+                    T result = this.databaseClient.executeWithSharedMongoClient(operation);
+                    this.recordSuccess();
+                    permit.release();
+                    future.complete(result);
+                } catch(Throwable ex) {
+                    if (!(ex instanceof Exception)) {
+                        permit.release();
+                        future.completeExceptionally(ex);
+                        return;
+                    }
+                    try {
+                        long delay = this.onFailure(description, (Exception)ex, attempt, deadline);
+                        permit.endAttempt(future);
+                        this.schedule(delay, () ->
+                            this.attemptAsync(description, operation, executor, future, permit, attempt + 1, deadline, (Exception)ex));
+                    } catch(Exception giveUp) {
+                        permit.release();
+                        future.completeExceptionally(giveUp);
+                    }
+                }
+            });
+        } catch(Exception ex) {
+            // The executor rejected the task
+            permit.release();
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the error is likely to go away if the operation is retried
+     * later (network error, server restarting, etc); {@code false} otherwise.
+     *
+     * @param ex the error.
+     * @return {@code true} if the error is transient.
+     */
+    public static boolean isTransient(Throwable ex) {
+        if (ex == null) {
+            return false;
+        }
+
+        if (ex instanceof MongoSocketException ||
+                ex instanceof MongoTimeoutException ||
+                ex instanceof MongoNotPrimaryException ||
+                ex instanceof MongoNodeIsRecoveringException) {
+            return true;
+        }
+
+        if (ex instanceof MongoException) {
+            MongoException mongoException = (MongoException)ex;
+            if (mongoException.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL) ||
+                    mongoException.hasErrorLabel("RetryableWriteError")) {
+                return true;
+            }
+            if (ex instanceof MongoServerException && TRANSIENT_ERROR_CODES.contains(mongoException.getCode())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Stop the threads used by the asynchronous operations.
+     * They are re-created if needed.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        if (this.defaultExecutor != null) {
+            this.defaultExecutor.shutdown();
+            this.defaultExecutor = null;
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before the next attempt.
+     * Throws an exception if the operation should not be retried.
+     */
+    private long onFailure(String description, Exception ex, int attempt, long deadline) throws Exception {
+        if (!DatabaseRetryExecutor.isTransient(ex)) {
+            if (ex instanceof MongoSecurityException) {
+                this.resolveServerAddr(ex);
+            }
+            throw ex;
+        }
+
+        this.recordFailure();
+        this.resolveServerAddr(ex);
+
+        if (attempt >= this.databaseClient.getDbRetryAttempts()) {
+            LOGGER.error(String.format("Maximum number of attempt reached: %s", description));
+            throw new Exception("Maximum number of attempt reached.", ex);
+        }
+
+        long delay = this.getBackoffDelay(attempt);
+        if (System.currentTimeMillis() + delay > deadline) {
+            LOGGER.error(String.format("Retry time budget exhausted: %s", description));
+            throw new Exception("Maximum number of attempt reached. Retry time budget exhausted.", ex);
+        }
+
+        LOGGER.warn(String.format("Database error [attempt #%d] %s. Try again in %d ms.",
+                attempt, description, delay), ex);
+
+        return delay;
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half of the delay
+     * is fixed, the other half is random.
+     */
+    private long getBackoffDelay(int attempt) {
+        long initialDelay = this.databaseClient.getDbInitialDelayBetweenAttempt() * 1000L;
+        long maxDelay = Math.max(initialDelay, this.databaseClient.getDbMaxDelayBetweenAttempt() * 1000L);
+
+        long delay = initialDelay << Math.min(attempt - 1, 20);
+        if (delay < 0 || delay > maxDelay) {
+            delay = maxDelay;
+        }
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before checking the circuit breaker
+     * again, or {@code 0} if the operation can query the database.
+     * Throws an exception if the circuit breaker will not close before the deadline.
+     */
+    private synchronized long checkCircuit(long deadline, String description, Exception lastException) throws Exception {
+        if (this.circuitOpenUntil <= 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= this.circuitOpenUntil) {
+            // Half open: let this operation probe the database, the other operations keep waiting.
+            this.circuitOpenUntil = now + this.databaseClient.getCircuitBreakerOpenTime() * 1000L;
+            return 0;
+        }
+
+        long wait = this.circuitOpenUntil - now;
+        if (now + wait > deadline) {
+            LOGGER.error(String.format("Database unavailable (circuit breaker open): %s", description));
+            throw new Exception("Database unavailable (circuit breaker open).", lastException);
+        }
+
+        return Math.min(wait, CIRCUIT_BREAKER_CHECK_INTERVAL);
+    }
+
+    private synchronized void recordSuccess() {
+        if (this.circuitOpenUntil > 0) {
+            LOGGER.info("Database available. Circuit breaker closed.");
+        }
+        this.consecutiveFailures = 0;
+        this.circuitOpenUntil = 0;
+    }
+
+    private synchronized void recordFailure() {
+        this.consecutiveFailures++;
+        if (this.consecutiveFailures >= this.databaseClient.getCircuitBreakerThreshold()) {
+            if (this.circuitOpenUntil <= 0) {
+                LOGGER.warn(String.format("%d consecutive database errors. Circuit breaker open for %d seconds.",
+                        this.consecutiveFailures, this.databaseClient.getCircuitBreakerOpenTime()));
+            }
+            this.circuitOpenUntil = System.currentTimeMillis() + this.databaseClient.getCircuitBreakerOpenTime() * 1000L;
+        }
+    }
+
+    private void resolveServerAddr(Exception ex) {
+        // Only connection errors can be fixed by new connection information
+        if (!(ex instanceof MongoSocketException ||
+                ex instanceof MongoTimeoutException ||
+                ex instanceof MongoSecurityException)) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - this.lastResolveServerAddr < MIN_RESOLVE_SERVER_ADDR_INTERVAL) {
+                return;
+            }
+            this.lastResolveServerAddr = now;
+        }
+
+        try {
+            this.databaseClient.resolveServerAddr();
+        } catch(Exception resolveException) {
+            LOGGER.warn("Error occurred while resolving the database connection information.", resolveException);
+        }
+    }
+
+    private void schedule(long delay, Runnable task) {
+        this.getScheduler().schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("db-retry-scheduler"));
+        }
+        return this.scheduler;
+    }
+
+    private synchronized InFlightLimiter getInFlightLimiter() {
+        int permitCount = this.databaseClient.getAsyncMaxInFlightOperations();
+        if (this.inFlightLimiter == null || this.inFlightLimiter.permitCount != permitCount) {
+            // Operations in flight, or queued, release their permit to the previous limiter
+            this.inFlightLimiter = new InFlightLimiter(permitCount);
+        }
+        return this.inFlightLimiter;
+    }
+
+    private synchronized ExecutorService getDefaultExecutor() {
+        if (this.defaultExecutor == null) {
+            this.defaultExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("db-async"));
+        }
+        return this.defaultExecutor;
+    }
+
+    /**
+     * Bound the number of asynchronous operations in flight, without blocking.
+     * Operations which can not get a permit are queued, and started
+     * when a permit is released.
+     */
+    private static class InFlightLimiter {
+        private final int permitCount;
+        private int availablePermits;
+        private final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+
+        public InFlightLimiter(int permitCount) {
+            this.permitCount = permitCount;
+            this.availablePermits = permitCount;
+        }
+
+        public void acquire(Runnable start) {
+            synchronized (this) {
+                if (this.availablePermits <= 0) {
+                    this.waiting.add(start);
+                    return;
+                }
+                this.availablePermits--;
+            }
+            start.run();
+        }
+
+        public void release() {
+            Runnable next;
+            synchronized (this) {
+                // Hand the permit over to the next queued operation, if any
+                next = this.waiting.poll();
+                if (next == null) {
+                    this.availablePermits++;
+                }
+            }
+            if (next != null) {
+                next.run();
+            }
+        }
+    }
+
+    /**
+     * Permit of an asynchronous operation, released once.
+     * A cancelled operation keeps its permit until its running attempt is done.
+     */
+    private static class InFlightPermit {
+        private final InFlightLimiter limiter;
+        private boolean acquired;
+        private boolean attemptRunning;
+        private boolean released;
+
+        public InFlightPermit(InFlightLimiter limiter) {
+            this.limiter = limiter;
+            this.acquired = false;
+            this.attemptRunning = false;
+            this.released = false;
+        }
+
+        public void acquire(Runnable start) {
+            this.limiter.acquire(() -> {
+                synchronized (this) {
+                    this.acquired = true;
+                }
+                start.run();
+            });
+        }
+
+        /**
+         * Returns {@code false}, and releases the permit, if the operation was cancelled.
+         */
+        public boolean startAttempt(CompletableFuture<?> future) {
+            synchronized (this) {
+                if (!future.isDone()) {
+                    this.attemptRunning = true;
+                    return true;
+                }
+            }
+            this.release();
+            return false;
+        }
+
+        public void endAttempt(CompletableFuture<?> future) {
+            synchronized (this) {
+                this.attemptRunning = false;
+                if (!future.isDone()) {
+                    return;
+                }
+            }
+            this.release();
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                // A queued operation releases its permit when it's started
+                if (!this.acquired || this.attemptRunning) {
+                    return;
+                }
+            }
+            this.release();
+        }
+
+        public void release() {
+            synchronized (this) {
+                if (!this.acquired || this.released) {
+                    return;
+                }
+                this.released = true;
+                this.attemptRunning = false;
+            }
+            // Outside of the lock, it may start the next queued operation
+            this.limiter.release();
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.prefix + "-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
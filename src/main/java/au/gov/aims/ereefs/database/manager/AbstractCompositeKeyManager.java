@@ -8,8 +8,11 @@ import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.table.DatabaseCompositeKeyTable;
 import au.gov.aims.ereefs.database.table.key.CompositePrimaryKey;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Managers are objects used to easily query documents
  * from the database, in {@code JSONObject} format.
@@ -65,6 +68,19 @@ public abstract class AbstractCompositeKeyManager extends AbstractManager<Databa
         return json;
     }
 
+    /**
+     * Select a single document from the database table, asynchronously.
+     *
+     * <p>See {@link au.gov.aims.ereefs.database.table.DatabaseTable#selectAsync(PrimaryKey)}</p>
+     *
+     * @param compositeKeyValues the document ID values.
+     * @return a future completed with the {@code JSONObject} of the selected document.
+     */
+    public CompletableFuture<JSONObject> selectAsync(String ... compositeKeyValues) {
+        CompositePrimaryKey primaryKey = this.getTable().getPrimaryKey(compositeKeyValues);
+        return this.checkTableExistsThen(() -> this.getTable().selectAsync(primaryKey));
+    }
+
     /**
      * Delete a single document from the database table.
      *
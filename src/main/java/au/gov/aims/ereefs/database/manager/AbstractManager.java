@@ -6,12 +6,25 @@ package au.gov.aims.ereefs.database.manager;
 
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.table.DatabaseIndex;
+import au.gov.aims.ereefs.database.table.DatabaseTableCacheConfig;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.SaveResult;
 import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import au.gov.aims.ereefs.database.table.DatabaseTable;
+import org.apache.log4j.Logger;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * Managers are objects used to easily query documents
@@ -21,9 +34,16 @@ import java.io.IOException;
  *   single key and composite key.
  */
 public abstract class AbstractManager<T extends DatabaseTable> {
+    private static final Logger LOGGER = Logger.getLogger(AbstractManager.class);
+
     protected DatabaseClient dbClient;
     private T table;
 
+    // Set to true once the table has been found in the database
+    private volatile boolean tableVerified = false;
+    // Set to true once the indexes have been verified. See ensureIndexesOnce()
+    private volatile boolean indexesVerified = false;
+
     /**
      * Create a manager using a {@link DatabaseClient} and a {@link DatabaseTable}.
      * @param dbClient the {@link DatabaseClient} used to query the database.
@@ -70,6 +90,8 @@ public abstract class AbstractManager<T extends DatabaseTable> {
      *   <li><em>{@link CacheStrategy#MEMORY}</em>: store documents in memory, for quick access. Used with unit tests.</li>
      *   <li><em>{@link CacheStrategy#DISK}</em>: store documents on disk, to be access by
      *     multiple independent processes running on the same computer.</li>
+     *   <li><em>{@link CacheStrategy#MEMORY_DISK}</em>: store documents in a bounded memory cache,
+     *     in front of the {@link CacheStrategy#DISK} cache.</li>
      *   <li><em>{@link CacheStrategy#NONE}</em>: disable cache.</li>
      * </ul>
      *
@@ -79,6 +101,50 @@ public abstract class AbstractManager<T extends DatabaseTable> {
         this.table.setCacheStrategy(cacheStrategy);
     }
 
+    /**
+     * Set database cache strategy and the memory cache configuration.
+     *
+     * <p>See {@link #setCacheStrategy(CacheStrategy)} and {@link DatabaseTableCacheConfig}</p>
+     *
+     * @param cacheStrategy the cache strategy to use.
+     * @param cacheConfig the memory cache configuration, or {@code null} to use the default configuration.
+     */
+    public void setCacheStrategy(CacheStrategy cacheStrategy, DatabaseTableCacheConfig cacheConfig) {
+        this.table.setCacheStrategy(cacheStrategy, cacheConfig);
+    }
+
+    /**
+     * Set the number of milliseconds a document ID which was not
+     * found in the database is remembered by the cache.
+     *
+     * <p>See {@link DatabaseTable#setNotFoundCacheTimeToLive(long)}</p>
+     *
+     * @param notFoundCacheTimeToLive the not found time to live, in milliseconds. {@code 0} to disable.
+     */
+    public void setNotFoundCacheTimeToLive(long notFoundCacheTimeToLive) {
+        this.table.setNotFoundCacheTimeToLive(notFoundCacheTimeToLive);
+    }
+
+    /**
+     * Keep the cache coherent with the database, using a background thread.
+     *
+     * <p>See {@link DatabaseTable#startCacheInvalidation(long, boolean)}</p>
+     *
+     * @param pollingInterval the maximum number of milliseconds between two checks for modified documents.
+     * @param refresh {@code true} to replace modified documents in the cache;
+     *     {@code false} to remove them from the cache.
+     */
+    public void startCacheInvalidation(long pollingInterval, boolean refresh) {
+        this.table.startCacheInvalidation(pollingInterval, refresh);
+    }
+
+    /**
+     * Stop the cache invalidation background thread, if started.
+     */
+    public void stopCacheInvalidation() {
+        this.table.stopCacheInvalidation();
+    }
+
     /**
      * Empty the database cache.
      * @throws IOException if something goes wrong while deleting
@@ -99,6 +165,103 @@ public abstract class AbstractManager<T extends DatabaseTable> {
         return this.table;
     }
 
+    /**
+     * Returns the indexes needed by the queries of this manager.
+     *
+     * <p>Managers which query the table using attributes other than
+     * the primary key should override this method.
+     * The indexes are created by the manager the first time they are needed.
+     * See {@link #ensureIndexesOnce()}.</p>
+     *
+     * @return the list of indexes needed by the manager queries.
+     */
+    public List<DatabaseIndex> getIndexes() {
+        return new ArrayList<DatabaseIndex>();
+    }
+
+    /**
+     * Returns a sample filter for each query of this manager which needs an index,
+     * used to verify the query plans. See {@link #checkQueryPlans()}.
+     *
+     * @return a {@code Map} of sample {@code Bson} filters, keyed by query name.
+     */
+    protected Map<String, Bson> getQueries() {
+        return new LinkedHashMap<String, Bson>();
+    }
+
+    /**
+     * Create the indexes returned by {@link #getIndexes()}
+     * which do not already exist in the database.
+     *
+     * <p>See {@link DatabaseTable#ensureIndexes(List)}</p>
+     *
+     * @return the list of indexes which were created.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<DatabaseIndex> ensureIndexes() throws Exception {
+        return this.table.ensureIndexes(this.getIndexes());
+    }
+
+    /**
+     * Create the missing indexes returned by {@link #getIndexes()},
+     * the first time it's called.
+     *
+     * <p>Called before the first save and before the first query which needs an index.
+     * Indexes are only created on existing tables, since creating an index creates the table.
+     * Errors are logged: the queries still work without the indexes, they are just slower.
+     * The query plans are verified when the debug logs are enabled. See {@link #checkQueryPlans()}.</p>
+     */
+    protected void ensureIndexesOnce() {
+        if (!this.indexesVerified) {
+            synchronized (this) {
+                if (!this.indexesVerified) {
+                    try {
+                        if (this.getIndexes().isEmpty()) {
+                            this.indexesVerified = true;
+                        } else if (this.tableVerified || this.tableExists()) {
+                            // Set before creating the indexes, to not retry on every query if it fails
+                            this.indexesVerified = true;
+                            this.ensureIndexes();
+                            if (LOGGER.isDebugEnabled()) {
+                                this.checkQueryPlans();
+                            }
+                        }
+                    } catch(Exception ex) {
+                        LOGGER.warn(String.format("Exception occurred while creating the indexes of table %s",
+                                this.table.getTableName()), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify the query plan of each query returned by {@link #getQueries()}.
+     *
+     * <p>A warning is logged for each query which scans the whole table,
+     * which usually means an index is missing. See {@link #ensureIndexes()}.</p>
+     *
+     * @return the names of the queries which scan the whole table.
+     */
+    public List<String> checkQueryPlans() {
+        List<String> collectionScans = new ArrayList<String>();
+        for (Map.Entry<String, Bson> query : this.getQueries().entrySet()) {
+            String queryName = query.getKey();
+            try {
+                Document explainResult = this.table.explain(query.getValue());
+                if (DatabaseTable.isCollectionScan(explainResult)) {
+                    LOGGER.warn(String.format("Query %s on table %s scans the whole table. Missing index?",
+                            queryName, this.table.getTableName()));
+                    collectionScans.add(queryName);
+                }
+            } catch(Exception ex) {
+                LOGGER.error(String.format("Exception occurred while explaining the query %s on table %s",
+                        queryName, this.table.getTableName()), ex);
+            }
+        }
+        return collectionScans;
+    }
+
     /**
      * Insert or update a document in the database.
      *
@@ -117,7 +280,8 @@ public abstract class AbstractManager<T extends DatabaseTable> {
      * Insert or update a document in the database.
      *
      * <p>Updates the document if the document's ID exists in the database.
-     *   Insert a new document otherwise.</p>
+     *   Insert a new document otherwise.
+     *   The document is saved using a single atomic request to the database.</p>
      *
      * @param json the {@code JSONObject} representing the document to save in the database.
      * @param safe {@code false} to bypass ID safety check. Default {@code true}.
@@ -129,18 +293,121 @@ public abstract class AbstractManager<T extends DatabaseTable> {
             throw new IllegalArgumentException("JSON is null");
         }
 
-        PrimaryKey key = this.table.getPrimaryKey(json);
-        JSONObject existingRecord = this.table.select(key, CacheStrategy.NONE);
-        if (existingRecord == null) {
+        this.checkTableExists();
+        return this.table.save(json, safe);
+    }
+
+    /**
+     * Insert or update a document in the database, asynchronously.
+     *
+     * <p>See {@link #save(JSONObject)} and {@link DatabaseTable#saveAsync(JSONObject, boolean)}</p>
+     *
+     * @param json the {@code JSONObject} representing the document to save in the database.
+     * @return a future completed with the document, as it is in the database after been saved.
+     */
+    public CompletableFuture<JSONObject> saveAsync(JSONObject json) {
+        return this.saveAsync(json, true);
+    }
+
+    /**
+     * Insert or update a document in the database, asynchronously.
+     *
+     * <p>See {@link #save(JSONObject, boolean)}</p>
+     *
+     * @param json the {@code JSONObject} representing the document to save in the database.
+     * @param safe {@code false} to bypass ID safety check. Default {@code true}.
+     * @return a future completed with the document, as it is in the database after been saved.
+     */
+    public CompletableFuture<JSONObject> saveAsync(JSONObject json, boolean safe) {
+        if (json == null) {
+            throw new IllegalArgumentException("JSON is null");
+        }
+
+        return this.checkTableExistsThen(() -> this.table.saveAsync(json, safe));
+    }
+
+    /**
+     * Throws an exception if the table doesn't exist.
+     *
+     * <p>The database creates missing tables when a document is saved.
+     * Tables are expected to be created using a cloud formation template,
+     * a missing table is most likely caused by a configuration error.
+     * The database is only queried once, to avoid adding a request
+     * to every save. The missing indexes are created once the table
+     * is found. See {@link #ensureIndexesOnce()}.</p>
+     *
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    private void checkTableExists() throws Exception {
+        if (!this.tableVerified) {
             if (!this.tableExists()) {
                 throw new RuntimeException(String.format("Table %s doesn't exists", this.table.getTableName()));
             }
-            this.table.insert(json, safe);
-        } else {
-            this.table.update(json, key, safe);
+            this.tableVerified = true;
+            this.ensureIndexesOnce();
+        }
+    }
+
+    /**
+     * Start an asynchronous operation, once the table has been verified.
+     *
+     * <p>The table is verified on the calling thread, before the operation
+     * is submitted. Asynchronous operations wait for a free slot on the
+     * calling thread (see {@link au.gov.aims.ereefs.database.DatabaseRetryExecutor#executeAsync(String,
+     * au.gov.aims.ereefs.database.DatabaseRetryExecutor.Operation)}), so they must not be
+     * started from the dependent stage of another asynchronous operation.</p>
+     *
+     * @param asyncOperation starts the asynchronous operation.
+     * @param <R> the type of the operation result.
+     * @return the future of the operation, or a future completed exceptionally
+     *     if the table doesn't exists or the database is unreachable.
+     */
+    protected <R> CompletableFuture<R> checkTableExistsThen(Supplier<CompletableFuture<R>> asyncOperation) {
+        try {
+            this.checkTableExists();
+        } catch(Exception ex) {
+            CompletableFuture<R> future = new CompletableFuture<R>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+
+        return asyncOperation.get();
+    }
+
+    /**
+     * Insert or update documents in the database, in bulk.
+     *
+     * <p>Documents are sent to the database in chunks, using a single
+     * request per chunk. This is much faster than calling
+     * {@link #save(JSONObject)} for each document.</p>
+     *
+     * <p>See {@link DatabaseTable#bulkSave(Iterable, boolean)}</p>
+     *
+     * @param jsons the {@code JSONObject} documents to save in the database.
+     * @return the outcome of the save operation for each document.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<SaveResult> saveAll(Iterable<JSONObject> jsons) throws Exception {
+        return this.saveAll(jsons, true);
+    }
+
+    /**
+     * Insert or update documents in the database, in bulk.
+     *
+     * <p>See {@link #saveAll(Iterable)}</p>
+     *
+     * @param jsons the {@code JSONObject} documents to save in the database.
+     * @param safe {@code false} to bypass ID safety check. Default {@code true}.
+     * @return the outcome of the save operation for each document.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<SaveResult> saveAll(Iterable<JSONObject> jsons, boolean safe) throws Exception {
+        if (jsons == null) {
+            throw new IllegalArgumentException("JSON list is null");
         }
 
-        return this.table.select(key, CacheStrategy.NONE);
+        this.checkTableExists();
+        return this.table.bulkSave(jsons, safe);
     }
 
     /**
@@ -158,4 +425,81 @@ public abstract class AbstractManager<T extends DatabaseTable> {
 
         return iterable;
     }
+
+    /**
+     * Returns all the documents from the database table, asynchronously.
+     *
+     * <p>Every document is loaded in memory. See {@link DatabaseTable#selectAllAsync()}</p>
+     *
+     * @return a future completed with the list of documents.
+     */
+    public CompletableFuture<List<JSONObject>> selectAllAsync() {
+        return this.checkTableExistsThen(() -> this.table.selectAllAsync());
+    }
+
+    /**
+     * Returns the documents matching a collection of primary keys,
+     * using as few database requests as possible.
+     *
+     * <p>See {@link DatabaseTable#selectMany(Collection)}</p>
+     *
+     * @param primaryKeys the document's primary keys.
+     * @return a {@code Map} of the documents found, in the same order as {@code primaryKeys}.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public Map<PrimaryKey, JSONObject> selectMany(Collection<? extends PrimaryKey> primaryKeys) throws Exception {
+        Map<PrimaryKey, JSONObject> jsons = this.table.selectMany(primaryKeys);
+
+        if (jsons.isEmpty() && primaryKeys != null && !primaryKeys.isEmpty() && !this.tableExists()) {
+            throw new RuntimeException(String.format("Table %s doesn't exists", this.table.getTableName()));
+        }
+
+        return jsons;
+    }
+
+    /**
+     * Returns a projection of the documents matching a collection of primary keys.
+     *
+     * <p>See {@link DatabaseTable#selectMany(Collection, Bson)}</p>
+     *
+     * @param primaryKeys the document's primary keys.
+     * @param projection the {@code Bson} projection.
+     * @return a {@code Map} of the projected documents found, in the same order as {@code primaryKeys}.
+     * @throws Exception if the database is unreachable.
+     */
+    public Map<PrimaryKey, JSONObject> selectMany(Collection<? extends PrimaryKey> primaryKeys, Bson projection) throws Exception {
+        return this.table.selectMany(primaryKeys, projection);
+    }
+
+    /**
+     * Returns the primary keys of all the documents from the database table.
+     *
+     * <p>Only the primary key attributes are transferred from the database.
+     * Use this method instead of {@link #selectAll()} when only the document IDs are needed.</p>
+     *
+     * @return the list of primary keys.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<PrimaryKey> selectAllPrimaryKeys() throws Exception {
+        return this.selectPrimaryKeys(null);
+    }
+
+    /**
+     * Returns the primary keys of the documents matching a {@code Bson} filter.
+     *
+     * <p>Only the primary key attributes are transferred from the database.</p>
+     *
+     * @param filter {@code Bson} filter to filter the documents, or {@code null} to select all documents.
+     * @return the list of primary keys.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<PrimaryKey> selectPrimaryKeys(Bson filter) throws Exception {
+        List<PrimaryKey> primaryKeys = this.table.selectPrimaryKeys(filter);
+
+        if (primaryKeys.isEmpty() && !this.tableExists()) {
+            throw new RuntimeException(String.format("Table %s doesn't exists", this.table.getTableName()));
+        }
+
+        return primaryKeys;
+    }
 }
@@ -11,6 +11,8 @@ import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Managers are objects used to easily query documents
  * from the database, in {@code JSONObject} format.
@@ -62,6 +64,19 @@ public abstract class AbstractSingleKeyManager extends AbstractManager<DatabaseS
         return json;
     }
 
+    /**
+     * Select a single document from the database table, asynchronously.
+     *
+     * <p>See {@link au.gov.aims.ereefs.database.table.DatabaseTable#selectAsync(PrimaryKey)}</p>
+     *
+     * @param idValue the document ID.
+     * @return a future completed with the {@code JSONObject} of the selected document.
+     */
+    public CompletableFuture<JSONObject> selectAsync(String idValue) {
+        SinglePrimaryKey primaryKey = this.getTable().getPrimaryKey(idValue);
+        return this.checkTableExistsThen(() -> this.getTable().selectAsync(primaryKey));
+    }
+
     /**
      * Delete a single document from the database table.
      *
@@ -6,9 +6,14 @@ package au.gov.aims.ereefs.database.manager;
 
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.table.DatabaseIndex;
 import au.gov.aims.ereefs.database.table.DatabaseTable;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
 import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * Manager used to manipulate {@code ereefs-download-manager} configuration files,
@@ -39,6 +44,26 @@ public class DownloadManager extends AbstractSingleKeyManager {
         super(dbClient, TABLE_NAME, cacheStrategy, TABLE_ID_HASH_KEYNAME);
     }
 
+    /**
+     * Returns the index used to select the enabled documents.
+     * See {@link #selectAllEnabled()}.
+     *
+     * @return the list of indexes needed by the manager queries.
+     */
+    @Override
+    public List<DatabaseIndex> getIndexes() {
+        List<DatabaseIndex> indexes = super.getIndexes();
+        indexes.add(new DatabaseIndex(ENABLED_COLUMN_NAME));
+        return indexes;
+    }
+
+    @Override
+    protected Map<String, Bson> getQueries() {
+        Map<String, Bson> queries = super.getQueries();
+        queries.put("selectAllEnabled", Filters.eq(ENABLED_COLUMN_NAME, true));
+        return queries;
+    }
+
     /**
      * Returns all the enabled {@code ereefs-download-manager} configuration files from the database.
      *
@@ -46,6 +71,7 @@ public class DownloadManager extends AbstractSingleKeyManager {
      * @throws Exception if the table doesn't exists or the database is unreachable.
      */
     public JSONObjectIterable selectAllEnabled() throws Exception {
+        this.ensureIndexesOnce();
         DatabaseTable table = this.getTable();
         JSONObjectIterable iterable = table.select(Filters.eq(ENABLED_COLUMN_NAME, true));
         if (iterable.isEmpty() && !table.exists()) {
@@ -6,9 +6,18 @@ package au.gov.aims.ereefs.database.manager;
 
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.table.DatabaseIndex;
 import au.gov.aims.ereefs.database.table.DatabaseTable;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import com.mongodb.client.model.Filters;
+import org.apache.log4j.Logger;
+import org.bson.conversions.Bson;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * Manager used to manipulate metadata documents,
@@ -22,12 +31,22 @@ import com.mongodb.client.model.Filters;
  * </ul>
  */
 public class MetadataManager extends AbstractSingleKeyManager {
+    private static final Logger LOGGER = Logger.getLogger(MetadataManager.class);
+
     public static final String TABLE_NAME = "metadata";
     private static final String TABLE_ID_HASH_KEYNAME = "_id";
 
     private static final String TYPE_COLUMN_NAME = "type";
     private static final String DEFINITIONID_COLUMN_NAME = "definitionId";
     private static final String STATUS_COLUMN_NAME = "status";
+    private static final String LAST_MODIFIED_COLUMN_NAME = "lastModified";
+    private static final String LAST_DOWNLOADED_COLUMN_NAME = "lastDownloaded";
+
+    // The timestamps are saved as ISO date strings, using the timezone of the
+    // process which saved the metadata. Strings using different timezones can
+    // only be compared reliably if the lower bound is moved back by the maximum
+    // difference between 2 timezones (26 hours, from UTC-12 to UTC+14).
+    private static final long TIMEZONE_MARGIN = 26L * 60 * 60 * 1000;
 
     /**
      * @deprecated Use {@link #MetadataManager(DatabaseClient, CacheStrategy)}
@@ -48,6 +67,37 @@ public class MetadataManager extends AbstractSingleKeyManager {
         super(dbClient, TABLE_NAME, cacheStrategy, TABLE_ID_HASH_KEYNAME);
     }
 
+    /**
+     * Returns the compound index used to select metadata documents
+     * by type, definition ID and status.
+     *
+     * <p>The index is also used by queries which only filter
+     * by type, or by type and definition ID.</p>
+     *
+     * @return the list of indexes needed by the manager queries.
+     */
+    @Override
+    public List<DatabaseIndex> getIndexes() {
+        List<DatabaseIndex> indexes = super.getIndexes();
+        indexes.add(new DatabaseIndex(TYPE_COLUMN_NAME, DEFINITIONID_COLUMN_NAME, STATUS_COLUMN_NAME));
+        return indexes;
+    }
+
+    @Override
+    protected Map<String, Bson> getQueries() {
+        Map<String, Bson> queries = super.getQueries();
+        queries.put("selectByDefinitionId", Filters.and(
+            Filters.eq(TYPE_COLUMN_NAME, MetadataType.NETCDF.name()),
+            Filters.eq(DEFINITIONID_COLUMN_NAME, "definitionId")
+        ));
+        queries.put("selectByDefinitionIdAndStatus", Filters.and(
+            Filters.eq(TYPE_COLUMN_NAME, MetadataType.NETCDF.name()),
+            Filters.eq(DEFINITIONID_COLUMN_NAME, "definitionId"),
+            Filters.eq(STATUS_COLUMN_NAME, "VALID")
+        ));
+        return queries;
+    }
+
     /**
      * Returns all the metadata documents of a given type.
      *
@@ -60,6 +110,7 @@ public class MetadataManager extends AbstractSingleKeyManager {
             throw new IllegalArgumentException("Missing type");
         }
 
+        this.ensureIndexesOnce();
         DatabaseTable table = this.getTable();
 
         JSONObjectIterable iterable = table.select(Filters.eq(TYPE_COLUMN_NAME, type.name()));
@@ -88,6 +139,7 @@ public class MetadataManager extends AbstractSingleKeyManager {
             throw new IllegalArgumentException("Missing definition id");
         }
 
+        this.ensureIndexesOnce();
         DatabaseTable table = this.getTable();
         JSONObjectIterable iterable = table.select(
             Filters.and(
@@ -102,6 +154,75 @@ public class MetadataManager extends AbstractSingleKeyManager {
         return iterable;
     }
 
+    /**
+     * Returns a projection of all the metadata documents of a given type,
+     * associated with a give definition ID.
+     *
+     * <p>Only the requested attributes are transferred from the database.
+     * Used to find out which metadata documents were modified, without
+     * requesting the whole documents.</p>
+     *
+     * @param type the type of metadata document.
+     * @param definitionId the definition ID.
+     * @param projection the {@code Bson} projection. The document ID is always returned.
+     * @return the list of projected metadata documents.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<JSONObject> selectByDefinitionId(MetadataType type, String definitionId, Bson projection) throws Exception {
+        if (type == null) {
+            throw new IllegalArgumentException("Missing type");
+        }
+
+        if (definitionId == null || definitionId.isEmpty()) {
+            throw new IllegalArgumentException("Missing definition id");
+        }
+
+        this.ensureIndexesOnce();
+        DatabaseTable table = this.getTable();
+        List<JSONObject> documents = table.select(
+            Filters.and(
+                Filters.eq(TYPE_COLUMN_NAME, type.name()),
+                Filters.eq(DEFINITIONID_COLUMN_NAME, definitionId)
+            ),
+            projection
+        );
+        if (documents.isEmpty() && !table.exists()) {
+            throw new RuntimeException(String.format("Table %s doesn't exists", TABLE_NAME));
+        }
+
+        return documents;
+    }
+
+    /**
+     * Returns the primary keys of all the metadata documents of a given type,
+     * associated with a give definition ID.
+     *
+     * <p>Only the document IDs are transferred from the database,
+     * which is much faster than selecting the metadata documents.</p>
+     *
+     * @param type the type of metadata document.
+     * @param definitionId the definition ID.
+     * @return the list of primary keys.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public List<PrimaryKey> selectPrimaryKeysByDefinitionId(MetadataType type, String definitionId) throws Exception {
+        if (type == null) {
+            throw new IllegalArgumentException("Missing type");
+        }
+
+        if (definitionId == null || definitionId.isEmpty()) {
+            throw new IllegalArgumentException("Missing definition id");
+        }
+
+        this.ensureIndexesOnce();
+        return this.selectPrimaryKeys(
+            Filters.and(
+                Filters.eq(TYPE_COLUMN_NAME, type.name()),
+                Filters.eq(DEFINITIONID_COLUMN_NAME, definitionId)
+            )
+        );
+    }
+
     /**
      * Returns the metadata documents for all the valid NetCDF files
      * of a given type, associated with a give definition ID.
@@ -138,6 +259,7 @@ public class MetadataManager extends AbstractSingleKeyManager {
             throw new IllegalArgumentException("Missing status");
         }
 
+        this.ensureIndexesOnce();
         DatabaseTable table = this.getTable();
         JSONObjectIterable iterable = table.select(
             Filters.and(
@@ -153,6 +275,93 @@ public class MetadataManager extends AbstractSingleKeyManager {
         return iterable;
     }
 
+    /**
+     * Returns the metadata documents of a given type, associated with
+     * a give definition ID, which were modified after a given timestamp.
+     *
+     * <p>A document is considered modified if its {@code lastModified}
+     * or its {@code lastDownloaded} timestamp is greater than {@code watermark}.
+     * Use it with {@link #selectPrimaryKeysByDefinitionId(MetadataType, String)}
+     * to find out which documents were deleted.</p>
+     *
+     * <p>NOTE: The timestamps are compared as strings by the database.
+     * Documents modified up to 26 hours before the watermark may also be returned.
+     * See {@link #isModifiedSince(JSONObject, long)}.</p>
+     *
+     * @param type the type of metadata document.
+     * @param definitionId the definition ID.
+     * @param watermark timestamp, in milliseconds since epoch.
+     * @return a {@link JSONObjectIterable} object used to request each metadata document one by one, as needed.
+     * @throws Exception if the table doesn't exists or the database is unreachable.
+     */
+    public JSONObjectIterable selectByDefinitionIdModifiedSince(MetadataType type, String definitionId, long watermark) throws Exception {
+        if (type == null) {
+            throw new IllegalArgumentException("Missing type");
+        }
+
+        if (definitionId == null || definitionId.isEmpty()) {
+            throw new IllegalArgumentException("Missing definition id");
+        }
+
+        String lowerBound = new DateTime(watermark - TIMEZONE_MARGIN).toString();
+
+        this.ensureIndexesOnce();
+        DatabaseTable table = this.getTable();
+        JSONObjectIterable iterable = table.select(
+            Filters.and(
+                Filters.eq(TYPE_COLUMN_NAME, type.name()),
+                Filters.eq(DEFINITIONID_COLUMN_NAME, definitionId),
+                Filters.or(
+                    Filters.gt(LAST_MODIFIED_COLUMN_NAME, lowerBound),
+                    Filters.gt(LAST_DOWNLOADED_COLUMN_NAME, lowerBound)
+                )
+            )
+        );
+        if (iterable.isEmpty() && !table.exists()) {
+            throw new RuntimeException(String.format("Table %s doesn't exists", TABLE_NAME));
+        }
+
+        return iterable;
+    }
+
+    /**
+     * Returns {@code true} if the {@code lastModified} or the {@code lastDownloaded}
+     * timestamp of a metadata document is greater than {@code watermark}.
+     *
+     * @param jsonMetadata the metadata document.
+     * @param watermark timestamp, in milliseconds since epoch.
+     * @return {@code true} if the document was modified after {@code watermark}.
+     */
+    public static boolean isModifiedSince(JSONObject jsonMetadata, long watermark) {
+        return MetadataManager.getTimestamp(jsonMetadata) > watermark;
+    }
+
+    /**
+     * Returns the greatest timestamp of a metadata document,
+     * between its {@code lastModified} and {@code lastDownloaded} timestamp.
+     *
+     * @param jsonMetadata the metadata document.
+     * @return the timestamp, in milliseconds since epoch, or {@code 0} if the document has no valid timestamp.
+     */
+    public static long getTimestamp(JSONObject jsonMetadata) {
+        return Math.max(
+            MetadataManager.parseTimestamp(jsonMetadata, LAST_MODIFIED_COLUMN_NAME),
+            MetadataManager.parseTimestamp(jsonMetadata, LAST_DOWNLOADED_COLUMN_NAME)
+        );
+    }
+
+    private static long parseTimestamp(JSONObject jsonMetadata, String column) {
+        String timestampStr = jsonMetadata == null ? null : jsonMetadata.optString(column, null);
+        if (timestampStr != null) {
+            try {
+                return DateTime.parse(timestampStr).getMillis();
+            } catch(Exception ex) {
+                LOGGER.warn(String.format("Invalid %s for %s: %s", column, jsonMetadata.optString(TABLE_ID_HASH_KEYNAME, null), timestampStr));
+            }
+        }
+        return 0;
+    }
+
     /**
      * List of type of metadata document.
      */
@@ -8,11 +8,18 @@ import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.manager.AbstractCompositeKeyManager;
 import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.table.DatabaseCompositeKeyTable;
+import au.gov.aims.ereefs.database.table.DatabaseIndex;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.key.CompositePrimaryKey;
 import com.mongodb.client.model.Filters;
 import org.apache.log4j.Logger;
+import org.bson.conversions.Bson;
 import org.json.JSONObject;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Manager used to manipulate {@code ereefs-ncanimate2} configuration parts,
  * saved in the database.
@@ -49,6 +56,30 @@ public class ConfigPartManager extends AbstractCompositeKeyManager {
         super(dbClient, TABLE_NAME, cacheStrategy, TABLE_PRIMARY_ID_KEYNAME, TABLE_FIRST_COMPOSITE_ID_KEYNAME, TABLE_SECOND_COMPOSITE_ID_KEYNAME);
     }
 
+    /**
+     * Returns the index used to select configuration parts by type.
+     * See {@link #selectAll(Datatype)}.
+     *
+     * <p>The default {@code _id} index can not be used to filter on
+     * the first attribute of the composite primary key.</p>
+     *
+     * @return the list of indexes needed by the manager queries.
+     */
+    @Override
+    public List<DatabaseIndex> getIndexes() {
+        List<DatabaseIndex> indexes = super.getIndexes();
+        indexes.add(new DatabaseIndex(TABLE_PRIMARY_ID_KEYNAME + "." + TABLE_FIRST_COMPOSITE_ID_KEYNAME));
+        return indexes;
+    }
+
+    @Override
+    protected Map<String, Bson> getQueries() {
+        Map<String, Bson> queries = super.getQueries();
+        queries.put("selectAll(Datatype)",
+            Filters.eq(TABLE_PRIMARY_ID_KEYNAME + "." + TABLE_FIRST_COMPOSITE_ID_KEYNAME, Datatype.INPUT.name()));
+        return queries;
+    }
+
     /**
      * Returns all the configuration parts of a given type.
      *
@@ -61,6 +92,7 @@ public class ConfigPartManager extends AbstractCompositeKeyManager {
             throw new IllegalArgumentException("Missing datatype");
         }
 
+        this.ensureIndexesOnce();
         DatabaseCompositeKeyTable table = this.getTable();
         JSONObjectIterable iterable = table.select(
             Filters.eq(TABLE_PRIMARY_ID_KEYNAME + "." + TABLE_FIRST_COMPOSITE_ID_KEYNAME, datatype.name()));
@@ -92,6 +124,49 @@ public class ConfigPartManager extends AbstractCompositeKeyManager {
         return this.select(datatype.name(), id);
     }
 
+    /**
+     * Returns the primary key of a configuration part.
+     *
+     * <p>Used to select multiple configuration parts at once,
+     * with {@link #selectMany(java.util.Collection)}.</p>
+     *
+     * @param datatype the type of configuration part.
+     * @param id the id of the configuration part.
+     * @return the primary key of the configuration part.
+     */
+    public CompositePrimaryKey getPrimaryKey(Datatype datatype, String id) {
+        if (datatype == null) {
+            throw new IllegalArgumentException("Missing datatype");
+        }
+
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Missing id");
+        }
+
+        return this.getTable().getPrimaryKey(datatype.name(), id);
+    }
+
+    /**
+     * Select a configuration part from the database, asynchronously.
+     *
+     * <p>Used to request multiple configuration parts at once.</p>
+     *
+     * @param datatype the type of configuration part.
+     * @param id the id of the configuration part.
+     * @return a future completed with the {@code JSONObject} of the configuration part.
+     */
+    public CompletableFuture<JSONObject> selectAsync(Datatype datatype, String id) {
+        if (datatype == null) {
+            throw new IllegalArgumentException("Missing datatype");
+        }
+
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("Missing id");
+        }
+
+        return this.selectAsync(datatype.name(), id);
+    }
+
     /**
      * List of type of configuration part.
      */
@@ -7,6 +7,7 @@ package au.gov.aims.ereefs.database.table;
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.table.key.CompositePrimaryKey;
+import org.bson.Document;
 import org.json.JSONObject;
 
 import java.util.HashMap;
@@ -80,6 +81,43 @@ public class DatabaseCompositeKeyTable extends DatabaseTable {
         return this.getPrimaryKey(compositeKeyValueMap);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompositePrimaryKey getPrimaryKey(Document document) {
+        String tablePrimaryKey = this.getPrimaryKeyName();
+        if (tablePrimaryKey == null) {
+            throw new IllegalStateException(String.format("The table %s has no primary key", this.getTableName()));
+        }
+
+        Object primaryKeyObject = document.get(tablePrimaryKey);
+        if (primaryKeyObject == null) {
+            throw new IllegalArgumentException(String.format("Document doesn't contains the primary key %s:%n%s", tablePrimaryKey, document.toJson()));
+        }
+
+        if (!(primaryKeyObject instanceof Document)) {
+            throw new IllegalArgumentException(String.format("Document primary key %s is not a composite key", tablePrimaryKey));
+        }
+        Document primaryKeyValue = (Document)primaryKeyObject;
+
+        if (this.compositeKeyNames == null || this.compositeKeyNames.length <= 0) {
+            throw new IllegalStateException(String.format("The table %s composite key is invalid", this.getTableName()));
+        }
+
+        Map<String, Object> compositeKeyValueMap = new HashMap<String, Object>();
+        for (String compositeKeyName : this.compositeKeyNames) {
+            if (primaryKeyValue.containsKey(compositeKeyName)) {
+                compositeKeyValueMap.put(compositeKeyName,
+                        DatabaseTable.toJSONValue(compositeKeyName, primaryKeyValue.get(compositeKeyName)));
+            } else {
+                throw new IllegalArgumentException(String.format("Document primary key %s doesn't contain the composite key %s", tablePrimaryKey, compositeKeyName));
+            }
+        }
+
+        return this.getPrimaryKey(compositeKeyValueMap);
+    }
+
     /**
      * Returns a primary key object for {@code Map} representing the composite primary key values.
      * @param compositeKeyValueMap the primary key values.
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.conversions.Bson;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Definition of a database table index.
+ *
+ * <p>Managers declare the indexes needed by their queries
+ * (see {@link au.gov.aims.ereefs.database.manager.AbstractManager#getIndexes()}).
+ * They are created using {@link DatabaseTable#ensureIndexes(List)}.</p>
+ *
+ * <p>Reference: <a href="https://docs.mongodb.com/manual/indexes/" target="_blank">https://docs.mongodb.com/manual/indexes/</a></p>
+ */
+public class DatabaseIndex {
+    private final List<String> fields;
+    private final String name;
+
+    /**
+     * Creates an ascending index, or an ascending compound index.
+     *
+     * @param fields the attributes to index, in order.
+     *     Use the dot notation for attributes of embedded documents (example: {@code _id.datatype}).
+     */
+    public DatabaseIndex(String ... fields) {
+        if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("Missing index fields");
+        }
+        this.fields = Collections.unmodifiableList(Arrays.asList(fields));
+        this.name = String.join("_1_", this.fields) + "_1";
+    }
+
+    /**
+     * Returns the list of indexed attributes.
+     * @return the list of indexed attributes.
+     */
+    public List<String> getFields() {
+        return this.fields;
+    }
+
+    /**
+     * Returns the index name, using the {@code MongoDB} naming convention.
+     * Example: {@code type_1_definitionId_1_status_1}
+     *
+     * @return the index name.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the index key document, used to create the index.
+     * @return the index {@code Bson} keys.
+     */
+    public Bson getKeys() {
+        return Indexes.ascending(this.fields);
+    }
+
+    /**
+     * Returns the options used to create the index.
+     * The index is built in the background to avoid blocking the table.
+     *
+     * @return the {@link IndexOptions}.
+     */
+    public IndexOptions getOptions() {
+        return new IndexOptions().name(this.name).background(true);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
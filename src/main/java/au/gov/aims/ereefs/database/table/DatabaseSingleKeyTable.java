@@ -6,9 +6,17 @@ package au.gov.aims.ereefs.database.table;
 
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Object representing a database table
  * with a single attribute primary key.
@@ -46,6 +54,36 @@ public class DatabaseSingleKeyTable extends DatabaseTable {
         return this.getPrimaryKey(primaryKeyValue);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SinglePrimaryKey getPrimaryKey(Document document) {
+        String primaryKeyName = this.getPrimaryKeyName();
+        if (primaryKeyName == null) {
+            throw new IllegalStateException(String.format("The table %s has no primary key", this.getTableName()));
+        }
+
+        Object primaryKeyValue = document.get(primaryKeyName);
+        if (primaryKeyValue == null) {
+            throw new IllegalArgumentException(String.format("Document doesn't contains the primary key %s:%n%s", primaryKeyName, document.toJson()));
+        }
+
+        return this.getPrimaryKey(DatabaseTable.toJSONValue(primaryKeyName, primaryKeyValue));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Bson getFilter(Collection<PrimaryKey> primaryKeys) {
+        List<Object> primaryKeyValues = new ArrayList<Object>();
+        for (PrimaryKey primaryKey : primaryKeys) {
+            primaryKeyValues.add(((SinglePrimaryKey)primaryKey).getKeyValue());
+        }
+        return Filters.in(this.getPrimaryKeyName(), primaryKeyValues);
+    }
+
     /**
      * Returns a primary key object for a given primary key value.
      * @param primaryKeyValue the primary key value.
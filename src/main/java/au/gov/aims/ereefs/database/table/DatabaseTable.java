@@ -7,12 +7,25 @@ package au.gov.aims.ereefs.database.table;
 import au.gov.aims.ereefs.Utils;
 import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.DatabaseRetryExecutor;
 import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
 import com.mongodb.client.FindIterable;
-import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import org.apache.commons.io.FileUtils;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
 import org.apache.log4j.Logger;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -20,10 +33,18 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Object representing a database table, also knows as
@@ -35,16 +56,37 @@ import java.util.List;
 public abstract class DatabaseTable {
     private static final Logger LOGGER = Logger.getLogger(DatabaseTable.class);
 
+    // Number of documents requested from the server at once when streaming documents from a cursor.
+    private static final int DEFAULT_CURSOR_BATCH_SIZE = 100;
+
+    // Number of milliseconds a "not found" result is cached. 0 = disabled.
+    private static final long DEFAULT_NOT_FOUND_CACHE_TIME_TO_LIVE = 0;
+
+    // Number of documents sent to the server in a single bulk write request.
+    private static final int DEFAULT_BULK_WRITE_CHUNK_SIZE = 500;
+
     private DatabaseClient databaseClient;
     private String tableName;
 
     private String primaryKeyName;
 
+    // Stream documents from a single cursor when selecting documents using a filter
+    private boolean selectStreaming = true;
+    private int cursorBatchSize = DEFAULT_CURSOR_BATCH_SIZE;
+
+    // Bulk save settings
+    private int bulkWriteChunkSize = DEFAULT_BULK_WRITE_CHUNK_SIZE;
+    private boolean bulkWriteOrdered = false;
+
     // Cache used to reduce request to the Database.
     // Cache is freed by calling clearCache().
     private CacheStrategy cacheStrategy;
     private File cacheDirectory; // Used with DISK cache
+    private DatabaseTableDiskCache diskCache; // Used with DISK cache
     private DatabaseTableCache memoryCache; // Used with MEMORY cache
+    private DatabaseTableCacheConfig cacheConfig; // Used with MEMORY cache
+    private long notFoundCacheTimeToLive = DEFAULT_NOT_FOUND_CACHE_TIME_TO_LIVE;
+    private DatabaseTableCacheInvalidator cacheInvalidator;
 
     /**
      * Creates an object representing a database table.
@@ -82,6 +124,108 @@ public abstract class DatabaseTable {
         return this.primaryKeyName;
     }
 
+    /**
+     * Returns {@code true} if {@link #select(Bson)} streams the documents
+     * from a single database cursor; {@code false} if it selects the
+     * primary keys first and then request each document one by one.
+     *
+     * <p>Default: {@code true}</p>
+     *
+     * @return {@code true} if the select streams documents from a cursor.
+     */
+    public boolean isSelectStreaming() {
+        return this.selectStreaming;
+    }
+
+    /**
+     * Set the select mode used by {@link #select(Bson)}.
+     *
+     * <p>See {@link #isSelectStreaming()}</p>
+     *
+     * @param selectStreaming {@code true} to stream the documents from a single cursor.
+     */
+    public void setSelectStreaming(boolean selectStreaming) {
+        this.selectStreaming = selectStreaming;
+    }
+
+    /**
+     * Returns the number of documents requested from the database
+     * server at once, when streaming documents from a cursor.
+     *
+     * <p>Default: {@code 100}</p>
+     *
+     * @return the cursor batch size.
+     */
+    public int getCursorBatchSize() {
+        return this.cursorBatchSize;
+    }
+
+    /**
+     * Set the number of documents requested from the database
+     * server at once, when streaming documents from a cursor.
+     *
+     * @param cursorBatchSize the cursor batch size.
+     */
+    public void setCursorBatchSize(int cursorBatchSize) {
+        this.cursorBatchSize = Math.max(1, cursorBatchSize);
+    }
+
+    /**
+     * Returns the number of documents sent to the database
+     * server in a single request, when saving documents in bulk.
+     *
+     * <p>Default: {@code 500}</p>
+     *
+     * @return the bulk write chunk size.
+     */
+    public int getBulkWriteChunkSize() {
+        return this.bulkWriteChunkSize;
+    }
+
+    /**
+     * Set the number of documents sent to the database
+     * server in a single request, when saving documents in bulk.
+     *
+     * @param bulkWriteChunkSize the bulk write chunk size.
+     */
+    public void setBulkWriteChunkSize(int bulkWriteChunkSize) {
+        this.bulkWriteChunkSize = Math.max(1, bulkWriteChunkSize);
+    }
+
+    /**
+     * Returns {@code true} if bulk saves are ordered; {@code false} otherwise.
+     *
+     * <p>An ordered bulk save stops at the first document which fails to save.
+     * An unordered bulk save attempts to save every document and may
+     * be executed in any order by the database server.</p>
+     *
+     * <p>Default: {@code false}</p>
+     *
+     * @return {@code true} if bulk saves are ordered.
+     */
+    public boolean isBulkWriteOrdered() {
+        return this.bulkWriteOrdered;
+    }
+
+    /**
+     * Set the bulk save order mode.
+     *
+     * <p>See {@link #isBulkWriteOrdered()}</p>
+     *
+     * @param bulkWriteOrdered {@code true} to stop bulk saves at the first error.
+     */
+    public void setBulkWriteOrdered(boolean bulkWriteOrdered) {
+        this.bulkWriteOrdered = bulkWriteOrdered;
+    }
+
+    /**
+     * Returns the {@link DatabaseClient} used to query the database.
+     * @return the {@link DatabaseClient}.
+     */
+    public DatabaseClient getDatabaseClient() {
+        return this.databaseClient;
+    }
+
     /**
      * @deprecated Use {@link #setCacheStrategy(CacheStrategy)} with {@link CacheStrategy#MEMORY}
      */
@@ -110,12 +254,127 @@ public abstract class DatabaseTable {
                 break;
 
             case DISK:
-                File cacheDir = this.getCacheDirectory();
-                Utils.deleteDirectory(cacheDir);
+                this.getDiskCache().clear();
+                break;
+
+            case MEMORY_DISK:
+                this.memoryCache.clear();
+                this.getDiskCache().clear();
                 break;
         }
     }
 
+    /**
+     * Set the cache strategy and the memory cache configuration.
+     *
+     * <p>The memory cache is re-created with the new configuration.</p>
+     *
+     * @param cacheStrategy the cache strategy.
+     * @param cacheConfig the memory cache configuration, or {@code null} to use the default configuration.
+     */
+    public void setCacheStrategy(CacheStrategy cacheStrategy, DatabaseTableCacheConfig cacheConfig) {
+        this.setCacheConfig(cacheConfig);
+        this.setCacheStrategy(cacheStrategy);
+    }
+
+    /**
+     * Set the memory cache configuration.
+     *
+     * <p>If the {@link CacheStrategy#MEMORY} or {@link CacheStrategy#MEMORY_DISK} cache is used,
+     * it is emptied and re-created with the new configuration.</p>
+     *
+     * @param cacheConfig the memory cache configuration, or {@code null} to use the default configuration.
+     */
+    public void setCacheConfig(DatabaseTableCacheConfig cacheConfig) {
+        this.cacheConfig = cacheConfig;
+        if (CacheStrategy.MEMORY.equals(this.cacheStrategy) || CacheStrategy.MEMORY_DISK.equals(this.cacheStrategy)) {
+            DatabaseTableCache newMemoryCache = new DatabaseTableCache(this.cacheConfig);
+            newMemoryCache.enable();
+            DatabaseTableCache oldMemoryCache = this.memoryCache;
+            this.memoryCache = newMemoryCache;
+            if (oldMemoryCache != null) {
+                oldMemoryCache.disable();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds a primary key which was
+     * not found in the database is remembered by the cache.
+     *
+     * <p>Default: {@code 0} (disabled)</p>
+     *
+     * @return the not found time to live, in milliseconds.
+     */
+    public long getNotFoundCacheTimeToLive() {
+        return this.notFoundCacheTimeToLive;
+    }
+
+    /**
+     * Set the number of milliseconds a primary key which was
+     * not found in the database is remembered by the cache.
+     *
+     * <p>Used with {@link CacheStrategy#MEMORY}, {@link CacheStrategy#DISK} and {@link CacheStrategy#MEMORY_DISK}.
+     * Repeated {@link #select(PrimaryKey)} of a missing document returns
+     * {@code null} without querying the database until the entry expires,
+     * or until a document with the same primary key is inserted or updated
+     * using this table. Keep it short: documents inserted by other processes
+     * are not visible until the entry expires.</p>
+     *
+     * @param notFoundCacheTimeToLive the not found time to live, in milliseconds. {@code 0} to disable.
+     */
+    public void setNotFoundCacheTimeToLive(long notFoundCacheTimeToLive) {
+        this.notFoundCacheTimeToLive = Math.max(0, notFoundCacheTimeToLive);
+    }
+
+    /**
+     * Start a background thread which evicts, or refreshes, cached documents
+     * when they are modified in the database by other processes.
+     *
+     * <p>Useful for long running processes, which would otherwise serve
+     * stale documents until {@link #clearCache()} is called.
+     * See {@link DatabaseTableCacheInvalidator}.</p>
+     *
+     * <p>Replaces the previously started invalidator, if any.</p>
+     *
+     * @param pollingInterval the maximum number of milliseconds between two checks for modified documents.
+     * @param refresh {@code true} to replace modified documents in the cache;
+     *     {@code false} to remove them from the cache.
+     * @return the started cache invalidator.
+     */
+    public synchronized DatabaseTableCacheInvalidator startCacheInvalidation(long pollingInterval, boolean refresh) {
+        this.stopCacheInvalidation();
+        this.cacheInvalidator = new DatabaseTableCacheInvalidator(this, pollingInterval, refresh);
+        this.cacheInvalidator.start();
+        return this.cacheInvalidator;
+    }
+
+    /**
+     * Stop the cache invalidation background thread, if started.
+     */
+    public synchronized void stopCacheInvalidation() {
+        if (this.cacheInvalidator != null) {
+            this.cacheInvalidator.close();
+            this.cacheInvalidator = null;
+        }
+    }
+
+    /**
+     * Returns the cache invalidator, if started.
+     * @return the cache invalidator, or {@code null}.
+     */
+    public synchronized DatabaseTableCacheInvalidator getCacheInvalidator() {
+        return this.cacheInvalidator;
+    }
+
+    /**
+     * Returns the memory cache configuration.
+     * @return the memory cache configuration, or {@code null} if the default configuration is used.
+     */
+    public DatabaseTableCacheConfig getCacheConfig() {
+        return this.cacheConfig;
+    }
+
     /**
      * Set the cache strategy.
      * @param cacheStrategy the cache strategy.
@@ -136,7 +395,7 @@ public abstract class DatabaseTable {
             // Initialise cache
             switch (cacheStrategy) {
                 case MEMORY:
-                    this.memoryCache = new DatabaseTableCache();
+                    this.memoryCache = new DatabaseTableCache(this.cacheConfig);
                     this.memoryCache.enable();
                     break;
 
@@ -144,6 +403,12 @@ public abstract class DatabaseTable {
                     File cacheDir = this.getCacheDirectory();
                     cacheDir.mkdirs();
                     break;
+
+                case MEMORY_DISK:
+                    this.memoryCache = new DatabaseTableCache(this.cacheConfig);
+                    this.memoryCache.enable();
+                    this.getCacheDirectory().mkdirs();
+                    break;
             }
 
             this.cacheStrategy = cacheStrategy;
@@ -159,13 +424,38 @@ public abstract class DatabaseTable {
     }
 
     /**
-     * Returns the cache, if {@link CacheStrategy#MEMORY} is used.
+     * Returns the cache, if {@link CacheStrategy#MEMORY} or {@link CacheStrategy#MEMORY_DISK} is used.
      * @return the memory cache.
      */
     public DatabaseTableCache getMemoryCache() {
         return this.memoryCache;
     }
 
+    /**
+     * Returns the cache, if {@link CacheStrategy#DISK} or {@link CacheStrategy#MEMORY_DISK} is used.
+     * @return the disk cache.
+     * @throws IOException if the cache directory path can not be resolved.
+     */
+    public DatabaseTableDiskCache getDiskCache() throws IOException {
+        if (this.diskCache == null) {
+            this.diskCache = DatabaseTableDiskCache.getInstance(this.getCacheDirectory());
+        }
+        return this.diskCache;
+    }
+
+    /**
+     * Set the format used to store documents in the {@link CacheStrategy#DISK} cache.
+     *
+     * <p>The setting is shared by every table object using the same table name,
+     * within the JVM.</p>
+     *
+     * @param format the disk cache storage format.
+     * @throws IOException if the cache directory path can not be resolved.
+     */
+    public void setDiskCacheFormat(DatabaseTableDiskCache.Format format) throws IOException {
+        this.getDiskCache().setFormat(format);
+    }
+
     /**
      * Returns default the directory used for {@link CacheStrategy#DISK} cache.
      * @return default the directory used for {@link CacheStrategy#DISK} cache.
@@ -195,6 +485,62 @@ public abstract class DatabaseTable {
         return database.getCollection(this.tableName, Document.class);
     }
 
+    /**
+     * Execute a database operation using the {@link DatabaseClient} retry executor.
+     * Transient errors are retried with an exponential backoff.
+     *
+     * <p>Package private, used by {@link JSONObjectIterable} to re-open interrupted cursors.</p>
+     *
+     * @param operation the database operation.
+     * @param <T> the type of the operation result.
+     * @return the operation result.
+     * @throws Exception if the database is unreachable.
+     */
+    <T> T execute(DatabaseRetryExecutor.Operation<T> operation) throws Exception {
+        return this.databaseClient.getRetryExecutor().execute(
+                String.format("on table %s", this.tableName), operation);
+    }
+
+    /**
+     * Execute a database operation asynchronously, using the {@link DatabaseClient}
+     * retry executor. See {@link DatabaseRetryExecutor#executeAsync(String, DatabaseRetryExecutor.Operation)}.
+     *
+     * @param operation the database operation.
+     * @param <T> the type of the operation result.
+     * @return a future completed with the operation result.
+     */
+    private <T> CompletableFuture<T> executeAsync(DatabaseRetryExecutor.Operation<T> operation) {
+        return this.databaseClient.getRetryExecutor().executeAsync(
+                String.format("on table %s", this.tableName), operation);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+
+    MongoCollection<Document> getCollection() throws Exception {
+        return this.getTable(this.databaseClient.getMongoDatabase());
+    }
+
+    /**
+     * Remove a document from the cache, without modifying the database.
+     *
+     * <p>Used when the cached document is known to be outdated.
+     * The document will be requested from the database next time it's selected.</p>
+     *
+     * @param primaryKey the document's primary key.
+     * @throws IOException if something goes wrong while removing the document from the disk cache.
+     */
+    public void invalidateCache(PrimaryKey primaryKey) throws IOException {
+        this.removeFromCache(primaryKey);
+    }
+
+    void refreshCache(PrimaryKey primaryKey, JSONObject json) throws IOException {
+        this.addToCache(primaryKey, json);
+    }
+
     /**
      * Check if the table exists.
      *
@@ -212,42 +558,43 @@ public abstract class DatabaseTable {
             return false;
         }
 
-        boolean exists = false;
+        return this.execute(this.existsOperation());
+    }
+
+    /**
+     * Check if the table exists, asynchronously.
+     *
+     * <p>See {@link #exists()}</p>
+     *
+     * @return a future completed with {@code true} is the table exists; {@code false} otherwise.
+     */
+    public CompletableFuture<Boolean> existsAsync() {
+        if (this.tableName == null || this.tableName.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return this.executeAsync(this.existsOperation());
+    }
 
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
+    private DatabaseRetryExecutor.Operation<Boolean> existsOperation() {
+        return () -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
 
-                long start = System.currentTimeMillis();
-                for (String collectionName : database.listCollectionNames()) {
-                    if (this.tableName.equals(collectionName)) {
-                        exists = true;
-                        break;
-                    }
-                }
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: List collection names in %d sec (%d ms)", elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
+            long start = System.currentTimeMillis();
+            boolean exists = false;
+            for (String collectionName : database.listCollectionNames()) {
+                if (this.tableName.equals(collectionName)) {
+                    exists = true;
+                    break;
                 }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
             }
-        }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: List collection names in %d sec (%d ms)", elapseSec, elapseMs));
 
-        return exists;
+            return exists;
+        };
     }
 
     /**
@@ -257,44 +604,163 @@ public abstract class DatabaseTable {
      * @throws Exception if the database is unreachable.
      */
     public boolean exists(PrimaryKey primaryKey) throws Exception {
-        boolean exists = false;
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                MongoCollection<Document> table = this.getTable(database);
-
-                long start = System.currentTimeMillis();
-                FindIterable<Document> findIterable = table.find(primaryKey.getFilter());
-                if (findIterable != null) {
-                    Document first = findIterable.first();
-                    if (first != null) {
-                        exists = true;
-                    }
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            boolean exists = false;
+            FindIterable<Document> findIterable = table.find(primaryKey.getFilter());
+            if (findIterable != null) {
+                Document first = findIterable.first();
+                if (first != null) {
+                    exists = true;
                 }
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: Check if a record ID exists %s from %s in %d sec (%d ms)",
-                        primaryKey.toJSON().toString(), this.tableName, elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Check if a record ID exists %s from %s in %d sec (%d ms)",
+                    primaryKey.toJSON().toString(), this.tableName, elapseSec, elapseMs));
+
+            return exists;
+        });
+    }
+
+    /**
+     * Create the indexes which do not already exist in the table.
+     *
+     * <p>Indexes are identified by their key document, not by name, since an index
+     * created with the same keys and an other name can not be created again
+     * ({@code IndexOptionsConflict}). Existing indexes are left untouched.
+     * See {@link DatabaseIndex#getKeys()}.</p>
+     *
+     * @param indexes the indexes needed by the table queries.
+     * @return the list of indexes which were created.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<DatabaseIndex> ensureIndexes(List<DatabaseIndex> indexes) throws Exception {
+        if (indexes == null || indexes.isEmpty()) {
+            return new ArrayList<DatabaseIndex>();
+        }
+
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            Set<String> existingIndexNames = new HashSet<String>();
+            Set<List<String>> existingIndexKeys = new HashSet<List<String>>();
+            for (Document existingIndex : table.listIndexes()) {
+                String existingIndexName = existingIndex.getString("name");
+                if (existingIndexName != null) {
+                    existingIndexNames.add(existingIndexName);
+                }
+                Object existingIndexKey = existingIndex.get("key");
+                if (existingIndexKey instanceof Document) {
+                    existingIndexKeys.add(DatabaseTable.getIndexKeys((Document)existingIndexKey));
                 }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
             }
+
+            List<DatabaseIndex> createdIndexes = new ArrayList<DatabaseIndex>();
+            for (DatabaseIndex index : indexes) {
+                Document indexKey = new Document();
+                for (String field : index.getFields()) {
+                    indexKey.append(field, 1);
+                }
+
+                if (!existingIndexKeys.contains(DatabaseTable.getIndexKeys(indexKey))) {
+                    if (existingIndexNames.contains(index.getName())) {
+                        LOGGER.warn(String.format("Index %s on table %s exists with different keys", index.getName(), this.tableName));
+                    } else {
+                        LOGGER.info(String.format("Creating index %s on table %s", index.getName(), this.tableName));
+                        table.createIndex(index.getKeys(), index.getOptions());
+                        createdIndexes.add(index);
+                    }
+                }
+            }
+
+            return createdIndexes;
+        });
+    }
+
+    // Comparable list of the keys of an index key document, in order.
+    // Example: {"type": 1, "definitionId": 1.0} => ["type_1", "definitionId_1"]
+    private static List<String> getIndexKeys(Document indexKey) {
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, Object> key : indexKey.entrySet()) {
+            Object direction = key.getValue();
+            if (direction instanceof Number) {
+                direction = ((Number)direction).intValue();
+            }
+            keys.add(key.getKey() + "_" + direction);
         }
+        return keys;
+    }
+
+    /**
+     * Returns the query plan chosen by the database to find the documents
+     * matching a {@code Bson} filter, using the {@code explain} command.
+     *
+     * <p>The query is explained as it is sent by the streamed selects: without sort
+     * (see {@link #select(Bson)}).</p>
+     *
+     * <p>Reference: <a href="https://docs.mongodb.com/manual/reference/command/explain/" target="_blank">https://docs.mongodb.com/manual/reference/command/explain/</a></p>
+     *
+     * @param filter {@code Bson} filter to explain, or {@code null} to explain a select all.
+     * @return the result of the {@code explain} command.
+     * @throws Exception if the database is unreachable, or doesn't support the {@code explain} command.
+     */
+    public Document explain(Bson filter) throws Exception {
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            Document find = new Document("find", this.tableName);
+            if (filter != null) {
+                find.append("filter", filter.toBsonDocument(Document.class, table.getCodecRegistry()));
+            }
 
-        return exists;
+            return database.runCommand(new Document("explain", find).append("verbosity", "queryPlanner"));
+        });
+    }
+
+    /**
+     * Returns {@code true} if the winning plan of a query,
+     * returned by {@link #explain(Bson)}, scans the whole table.
+     *
+     * @param explainResult the result of the {@code explain} command.
+     * @return {@code true} if the winning plan contains a {@code COLLSCAN} stage.
+     */
+    public static boolean isCollectionScan(Document explainResult) {
+        if (explainResult == null) {
+            return false;
+        }
+        Object queryPlanner = explainResult.get("queryPlanner");
+        if (!(queryPlanner instanceof Document)) {
+            return false;
+        }
+        return DatabaseTable.containsStage(((Document)queryPlanner).get("winningPlan"), "COLLSCAN");
+    }
+
+    private static boolean containsStage(Object plan, String stage) {
+        if (plan instanceof Document) {
+            Document planDocument = (Document)plan;
+            if (stage.equals(planDocument.get("stage"))) {
+                return true;
+            }
+            for (Object value : planDocument.values()) {
+                if (DatabaseTable.containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        } else if (plan instanceof List) {
+            for (Object value : (List<?>)plan) {
+                if (DatabaseTable.containsStage(value, stage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -320,34 +786,25 @@ public abstract class DatabaseTable {
             }
         }
 
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                MongoCollection<Document> table = this.getTable(database);
-
-                long start = System.currentTimeMillis();
-                table.insertOne(Document.parse(json.toString()));
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: Insert record into %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
-                }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
-            }
+        // Unsafe inserts may not have a primary key (the database generates one)
+        if (this.primaryKeyName != null && json.has(this.primaryKeyName)) {
+            // Remove stale "not found" entry
+            this.removeFromCache(this.getPrimaryKey(json));
         }
+
+        this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            table.insertOne(Document.parse(json.toString()));
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Insert record into %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
+
+            return null;
+        });
     }
 
     /**
@@ -377,39 +834,282 @@ public abstract class DatabaseTable {
 
         this.removeFromCache(primaryKey);
 
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                MongoCollection<Document> table = this.getTable(database);
-
-                long start = System.currentTimeMillis();
-                table.replaceOne(
-                        primaryKey.getFilter(),
-                        Document.parse(json.toString()));
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: Update record from %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
+        this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            table.replaceOne(
+                    primaryKey.getFilter(),
+                    Document.parse(json.toString()));
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Update record from %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
+
+            return null;
+        });
+
+        this.addToCache(newPrimaryKey, json);
+    }
+
+    /**
+     * Insert or replace a document in the database.
+     *
+     * <p>The document is saved using a single atomic request to
+     * the database. If two processes save a document with the same
+     * primary key at the same time, one will insert the document and
+     * the other will replace it.</p>
+     *
+     * @param json the document to save in the database table.
+     * @param safe {@code false} to bypass ID safety check. Default {@code true}.
+     * @return the document, as it is in the database after been saved.
+     * @throws Exception if the database is unreachable.
+     */
+    public JSONObject save(JSONObject json, boolean safe) throws Exception {
+        PrimaryKey primaryKey = this.getPrimaryKey(json);
+        if (safe) {
+            if (!primaryKey.validate()) {
+                throw new IllegalArgumentException(String.format("Invalid primary key: %s", primaryKey));
+            }
+        }
+
+        this.removeFromCache(primaryKey);
+
+        JSONObject savedJson = this.execute(this.saveOperation(primaryKey, json));
+
+        this.addToCache(primaryKey, savedJson);
+
+        return savedJson;
+    }
+
+    /**
+     * Insert or replace a document in the database, asynchronously.
+     *
+     * <p>See {@link #save(JSONObject, boolean)}</p>
+     *
+     * @param json the document to save in the database table.
+     * @param safe {@code false} to bypass ID safety check. Default {@code true}.
+     * @return a future completed with the document, as it is in the database after been saved.
+     */
+    public CompletableFuture<JSONObject> saveAsync(JSONObject json, boolean safe) {
+        PrimaryKey primaryKey;
+        try {
+            primaryKey = this.getPrimaryKey(json);
+            if (safe) {
+                if (!primaryKey.validate()) {
+                    throw new IllegalArgumentException(String.format("Invalid primary key: %s", primaryKey));
+                }
+            }
+
+            this.removeFromCache(primaryKey);
+        } catch(Exception ex) {
+            return DatabaseTable.failedFuture(ex);
+        }
+
+        return this.executeAsync(this.saveOperation(primaryKey, json))
+            .thenApply(savedJson -> {
+                try {
+                    this.addToCache(primaryKey, savedJson);
+                } catch(IOException ex) {
+                    throw new CompletionException(ex);
+                }
+                return savedJson;
+            });
+    }
+
+    private DatabaseRetryExecutor.Operation<JSONObject> saveOperation(PrimaryKey primaryKey, JSONObject json) {
+        return () -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            JSONObject savedDocument = null;
+            Document document = Document.parse(json.toString());
+            FindOneAndReplaceOptions options = new FindOneAndReplaceOptions()
+                    .upsert(true)
+                    .returnDocument(ReturnDocument.AFTER);
+            Document saved;
+            try {
+                saved = table.findOneAndReplace(primaryKey.getFilter(), document, options);
+            } catch(MongoServerException ex) {
+                // When two processes save the same new document at the same time,
+                //     both upserts may try to insert it. The one which loses fails with
+                //     a duplicate key error. Trying again replaces the inserted document.
+                if (ErrorCategory.fromErrorCode(ex.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw ex;
+                }
+                LOGGER.debug(String.format("DB Debug: Concurrent insert of %s into %s. Replacing the inserted document.",
+                        primaryKey, this.tableName));
+                saved = table.findOneAndReplace(primaryKey.getFilter(), document, options);
+            }
+            if (saved != null) {
+                savedDocument = new JSONObject(saved.toJson());
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Save record into %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
+
+            return savedDocument;
+        };
+    }
+
+    /**
+     * Insert or replace documents in the database, in bulk.
+     *
+     * <p>Documents are sent to the database in chunks of
+     * {@link #getBulkWriteChunkSize()} documents. Each chunk is sent
+     * in a single request, as a list of replace with upsert operations.
+     * Each chunk is retried as a whole if the database is unreachable.</p>
+     *
+     * <p>Documents with an invalid primary key are not sent to the database.
+     * They are returned with the status {@link SaveResult.Status#FAILED}.</p>
+     *
+     * @param jsons the documents to save in the database table.
+     * @param safe {@code false} to bypass ID safety check. Default {@code true}.
+     * @return the outcome of the save operation for each document, in the same order as {@code jsons}.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<SaveResult> bulkSave(Iterable<JSONObject> jsons, boolean safe) throws Exception {
+        List<SaveResult> results = new ArrayList<SaveResult>();
+        if (jsons == null) {
+            return results;
+        }
+
+        boolean ordered = this.bulkWriteOrdered;
+        boolean failed = false;
+        List<SaveResult> chunk = new ArrayList<SaveResult>();
+        for (JSONObject json : jsons) {
+            if (json == null) {
+                continue;
+            }
+
+            SaveResult result;
+            try {
+                PrimaryKey primaryKey = this.getPrimaryKey(json);
+                result = new SaveResult(primaryKey, json);
+                if (safe && !primaryKey.validate()) {
+                    result.setStatus(SaveResult.Status.FAILED);
+                    result.setErrorMessage(String.format("Invalid primary key: %s", primaryKey));
+                }
+            } catch(IllegalArgumentException ex) {
+                result = new SaveResult(null, json);
+                result.setStatus(SaveResult.Status.FAILED);
+                result.setErrorMessage(ex.getMessage());
+            }
+            results.add(result);
+
+            if (SaveResult.Status.FAILED.equals(result.getStatus())) {
+                // Ordered bulk save: documents before the failed one needs to be saved
+                if (ordered && !failed && !chunk.isEmpty()) {
+                    this.bulkSaveChunk(chunk, ordered);
+                    chunk.clear();
+                }
+                failed = true;
+            } else if (ordered && failed) {
+                // Ordered bulk save stops at the first error
+                result.setStatus(SaveResult.Status.SKIPPED);
+            } else {
+                chunk.add(result);
+                if (chunk.size() >= this.bulkWriteChunkSize) {
+                    failed = !this.bulkSaveChunk(chunk, ordered) || failed;
+                    chunk.clear();
+                }
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            this.bulkSaveChunk(chunk, ordered);
+        }
+
+        return results;
+    }
+
+    /**
+     * Send a chunk of documents to the database, in a single bulk write request.
+     *
+     * @param chunk the documents to save.
+     * @param ordered {@code true} to stop at the first error.
+     * @return {@code true} if every document of the chunk was saved; {@code false} otherwise.
+     * @throws Exception if the database is unreachable.
+     */
+    private boolean bulkSaveChunk(List<SaveResult> chunk, boolean ordered) throws Exception {
+        List<ReplaceOneModel<Document>> replaceModels = new ArrayList<ReplaceOneModel<Document>>();
+        ReplaceOptions upsertOptions = new ReplaceOptions().upsert(true);
+        for (SaveResult result : chunk) {
+            this.removeFromCache(result.getPrimaryKey());
+            replaceModels.add(new ReplaceOneModel<Document>(
+                    result.getPrimaryKey().getFilter(),
+                    Document.parse(result.getDocument().toString()),
+                    upsertOptions));
+        }
+
+        this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            try {
+                BulkWriteResult bulkWriteResult = table.bulkWrite(replaceModels, new BulkWriteOptions().ordered(ordered));
+                this.applyBulkWriteResult(chunk, bulkWriteResult, null, ordered);
+            } catch(MongoBulkWriteException ex) {
+                // Write errors are caused by the documents, not by the connection.
+                // Trying again would produce the same errors.
+                this.applyBulkWriteResult(chunk, ex.getWriteResult(), ex.getWriteErrors(), ordered);
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Bulk save %d records into %s in %d sec (%d ms)",
+                    chunk.size(), this.tableName, elapseSec, elapseMs));
+
+            return null;
+        });
+
+        boolean allSaved = true;
+        for (SaveResult result : chunk) {
+            if (result.isSaved()) {
+                this.addToCache(result.getPrimaryKey(), result.getDocument());
+            } else {
+                allSaved = false;
+            }
+        }
+        return allSaved;
+    }
+
+    private void applyBulkWriteResult(List<SaveResult> chunk, BulkWriteResult bulkWriteResult, List<BulkWriteError> writeErrors, boolean ordered) {
+        Set<Integer> upsertedIndexes = new HashSet<Integer>();
+        if (bulkWriteResult != null) {
+            for (BulkWriteUpsert upsert : bulkWriteResult.getUpserts()) {
+                upsertedIndexes.add(upsert.getIndex());
+            }
+        }
+
+        Map<Integer, String> errorMessages = new HashMap<Integer, String>();
+        int firstErrorIndex = -1;
+        if (writeErrors != null) {
+            for (BulkWriteError writeError : writeErrors) {
+                int index = writeError.getIndex();
+                errorMessages.put(index, writeError.getMessage());
+                if (firstErrorIndex < 0 || index < firstErrorIndex) {
+                    firstErrorIndex = index;
                 }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
             }
         }
 
-        if (success) {
-            this.addToCache(newPrimaryKey, json);
+        for (int i=0; i<chunk.size(); i++) {
+            SaveResult result = chunk.get(i);
+            if (errorMessages.containsKey(i)) {
+                result.setStatus(SaveResult.Status.FAILED);
+                result.setErrorMessage(errorMessages.get(i));
+            } else if (ordered && firstErrorIndex >= 0 && i > firstErrorIndex) {
+                result.setStatus(SaveResult.Status.SKIPPED);
+            } else if (upsertedIndexes.contains(i)) {
+                result.setStatus(SaveResult.Status.INSERTED);
+            } else {
+                result.setStatus(SaveResult.Status.UPDATED);
+            }
         }
     }
 
@@ -421,47 +1121,30 @@ public abstract class DatabaseTable {
      */
     public JSONObject delete(PrimaryKey primaryKey) throws Exception {
         this.removeFromCache(primaryKey);
-        JSONObject deletedJson = null;
-
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                MongoCollection<Document> table = this.getTable(database);
-
-                long start = System.currentTimeMillis();
-                Document deleted = table.findOneAndDelete(primaryKey.getFilter());
-                if (deleted != null) {
-                    deletedJson = new JSONObject(deleted.toJson());
-                }
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: Delete record from %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
-                }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
+
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            JSONObject deletedJson = null;
+            Document deleted = table.findOneAndDelete(primaryKey.getFilter());
+            if (deleted != null) {
+                deletedJson = new JSONObject(deleted.toJson());
             }
-        }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Delete record from %s in %d sec (%d ms)", this.tableName, elapseSec, elapseMs));
 
-        return deletedJson;
+            return deletedJson;
+        });
     }
 
     /**
      * Returns an iterable object used to loop though all the documents from the database table.
      *
-     * <p>NOTE: The iterable object send a query to the database for each object.</p>
+     * <p>NOTE: See {@link #select(Bson)}.</p>
      *
      * @return an iterable object used to loop though all the documents from the database table.
      * @throws Exception if the database is unreachable.
@@ -470,68 +1153,240 @@ public abstract class DatabaseTable {
         return this.select((Bson)null);
     }
 
+    /**
+     * Returns all the documents from the database table, asynchronously.
+     *
+     * <p>See {@link #selectAsync(Bson)}</p>
+     *
+     * @return a future completed with the list of documents.
+     */
+    public CompletableFuture<List<JSONObject>> selectAllAsync() {
+        return this.selectAsync((Bson)null);
+    }
+
+    /**
+     * Returns the documents matching a {@code Bson} filter, asynchronously.
+     *
+     * <p>Unlike {@link #select(Bson)}, every matching document is loaded in memory
+     * before the future completes. The documents are streamed from a single database
+     * cursor, {@link #getCursorBatchSize()} documents at the time, and added to the cache.
+     * If the connection is lost, the query is sent again.</p>
+     *
+     * @param filter {@code Bson} filter to filter the documents, or {@code null} to select all documents.
+     * @return a future completed with the list of documents.
+     */
+    public CompletableFuture<List<JSONObject>> selectAsync(Bson filter) {
+        return this.executeAsync(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            // New list for each attempt: ignore documents collected by a failed attempt
+            List<JSONObject> jsons = new ArrayList<JSONObject>();
+
+            long start = System.currentTimeMillis();
+            FindIterable<Document> findIterable = filter == null ? table.find() : table.find(filter);
+            if (findIterable != null) {
+                for (Document document : findIterable.batchSize(this.cursorBatchSize)) {
+                    jsons.add(new JSONObject(document.toJson()));
+                }
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Select %d records from %s using filter: \"%s\" in %d sec (%d ms)",
+                    jsons.size(),
+                    this.tableName,
+                    (filter == null ? "NULL" : filter.toString()),
+                    elapseSec, elapseMs));
+
+            return jsons;
+        }).thenApply(jsons -> {
+            try {
+                for (JSONObject json : jsons) {
+                    PrimaryKey primaryKey = this.getPrimaryKey(json);
+                    if (primaryKey != null) {
+                        this.addToCache(primaryKey, json);
+                    }
+                }
+            } catch(IOException ex) {
+                throw new CompletionException(ex);
+            }
+            return jsons;
+        });
+    }
+
     /**
      * Returns an iterable object used to loop though a list of documents from the database table.
      *
+     * <p>When {@link #isSelectStreaming()} is {@code true}, the documents are
+     * streamed from a single database cursor, {@link #getCursorBatchSize()}
+     * documents at the time. Otherwise, the iterable object send a query to
+     * the database for each document.</p>
+     *
+     * <p>Streamed documents are added to the cache as they are read.</p>
+     *
      * @param filter {@code Bson} filter to filter the documents.
      * @return an iterable object used to loop though the documents that match the filter.
      * @throws Exception if the database is unreachable.
      */
     public JSONObjectIterable select(Bson filter) throws Exception {
+        if (this.selectStreaming) {
+            return new JSONObjectIterable(this, filter, this.cursorBatchSize);
+        }
+
         List<PrimaryKey> primaryKeys = this.selectPrimaryKeys(filter);
         return new JSONObjectIterable(this, primaryKeys.iterator());
     }
 
+    /**
+     * Open a database cursor on the documents that match a {@code Bson} filter.
+     *
+     * <p>Used internally by {@link JSONObjectIterable}. The cursor
+     * needs to be closed once it's no longer needed.</p>
+     *
+     * <p>The documents are not sorted, to let the database use the index
+     * which matches the filter (see {@link #explain(Bson)}).
+     * An interrupted cursor is re-opened by {@link JSONObjectIterable},
+     * which skips the documents it already received.</p>
+     *
+     * <p>The request is not retried. The caller retries opening
+     * and reading the cursor as a single operation, using
+     * {@link #execute(DatabaseRetryExecutor.Operation)}.</p>
+     *
+     * @param filter {@code Bson} filter to filter the documents.
+     * @param batchSize number of documents requested from the database server at once.
+     * @return a database cursor.
+     * @throws Exception if the database is unreachable.
+     */
+    MongoCursor<Document> openCursor(Bson filter, int batchSize) throws Exception {
+        MongoDatabase database = this.databaseClient.getMongoDatabase();
+        MongoCollection<Document> table = this.getTable(database);
+
+        long start = System.currentTimeMillis();
+        FindIterable<Document> findIterable = filter == null ? table.find() : table.find(filter);
+        MongoCursor<Document> cursor = findIterable
+                .batchSize(batchSize)
+                .iterator();
+        long end = System.currentTimeMillis();
+        int elapseMs = (int)(end - start);
+        int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+        LOGGER.debug(String.format("DB Debug: Open cursor on %s using filter: \"%s\" in %d sec (%d ms)",
+                this.tableName,
+                (filter == null ? "NULL" : filter.toString()),
+                elapseSec, elapseMs));
+
+        return cursor;
+    }
+
+    /**
+     * Convert a document streamed from a database cursor to
+     * a {@code JSONObject} and add it to the cache.
+     *
+     * <p>Used internally by {@link JSONObjectIterable}.</p>
+     *
+     * @param document the document received from the database.
+     * @return the {@code JSONObject} representation of the document.
+     * @throws IOException if something goes wrong while adding the document to the {@link CacheStrategy#DISK} cache.
+     */
+    JSONObject streamDocument(Document document) throws IOException {
+        if (document == null) {
+            return null;
+        }
+
+        JSONObject json = new JSONObject(document.toJson());
+        PrimaryKey primaryKey = this.getPrimaryKey(json);
+        if (primaryKey != null) {
+            this.addToCache(primaryKey, json);
+        }
+
+        return json;
+    }
+
     /**
      * Return the list of document's primary keys that match a {@code Bson} filter.
+     *
+     * <p>Only the primary key attributes are requested from the database
+     * (see {@link #getPrimaryKeyProjection()}), which makes this method
+     * much cheaper than {@link #select(Bson)} for large documents.</p>
+     *
      * @param filter {@code Bson} filter to filter the documents.
      * @return list of document's primary keys.
      * @throws Exception if the database is unreachable.
      */
     public List<PrimaryKey> selectPrimaryKeys(Bson filter) throws Exception {
-        List<PrimaryKey> primaryKeys = new ArrayList<PrimaryKey>();
-        boolean success = false;
-        for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-            try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                MongoCollection<Document> table = this.getTable(database);
-
-                long start = System.currentTimeMillis();
-                FindIterable<Document> findIterable = filter == null ? table.find() : table.find(filter);
-                if (findIterable != null) {
-                    for (Document document : findIterable) {
-                        JSONObject json = new JSONObject(document.toJson());
-                        PrimaryKey primaryKey = this.getPrimaryKey(json);
-                        if (primaryKey != null) {
-                            primaryKeys.add(primaryKey);
-                        }
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            // New list for each attempt: ignore keys collected by a failed attempt
+            List<PrimaryKey> primaryKeys = new ArrayList<PrimaryKey>();
+
+            long start = System.currentTimeMillis();
+            FindIterable<Document> findIterable = filter == null ? table.find() : table.find(filter);
+            if (findIterable != null) {
+                findIterable = findIterable
+                        .projection(this.getPrimaryKeyProjection())
+                        .batchSize(this.cursorBatchSize);
+                for (Document document : findIterable) {
+                    PrimaryKey primaryKey = this.getPrimaryKey(document);
+                    if (primaryKey != null) {
+                        primaryKeys.add(primaryKey);
                     }
                 }
-                success = true;
-                long end = System.currentTimeMillis();
-                int elapseMs = (int)(end - start);
-                int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                LOGGER.debug(String.format("DB Debug: Select record IDs from %s using filter: \"%s\" in %d sec (%d ms)",
-                        this.tableName,
-                        (filter == null ? "NULL" : filter.toString()),
-                        elapseSec, elapseMs));
-            } catch(OutOfMemoryError ex) {
-                throw ex;
-            } catch(Exception ex) {
-                int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                        attempt, this.tableName, delay), ex);
-
-                if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                    LOGGER.error("Maximum number of attempt reached.");
-                    throw new Exception("Maximum number of attempt reached.", ex);
-                }
-                Thread.sleep(delay * 1000);
-                this.databaseClient.resolveServerAddr();
             }
-        }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Select record IDs from %s using filter: \"%s\" in %d sec (%d ms)",
+                    this.tableName,
+                    (filter == null ? "NULL" : filter.toString()),
+                    elapseSec, elapseMs));
+
+            return primaryKeys;
+        });
+    }
 
-        return primaryKeys;
+    /**
+     * Returns a projection of the documents that match a {@code Bson} filter.
+     *
+     * <p>Used to cheaply check a few attributes of many documents,
+     * like their {@code lastModified} timestamp.
+     * The cache is not used since the documents are incomplete.</p>
+     *
+     * @param filter {@code Bson} filter to filter the documents, or {@code null} to select all documents.
+     * @param projection the {@code Bson} projection. See {@link Projections}.
+     *     The primary key is always returned.
+     * @return the list of projected documents.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<JSONObject> select(Bson filter, Bson projection) throws Exception {
+        return this.execute(() -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            // New list for each attempt: ignore documents collected by a failed attempt
+            List<JSONObject> documents = new ArrayList<JSONObject>();
+
+            long start = System.currentTimeMillis();
+            FindIterable<Document> findIterable = filter == null ? table.find() : table.find(filter);
+            if (findIterable != null) {
+                if (projection != null) {
+                    findIterable = findIterable.projection(projection);
+                }
+                for (Document document : findIterable.batchSize(this.cursorBatchSize)) {
+                    documents.add(new JSONObject(document.toJson()));
+                }
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Select projected records from %s using filter: \"%s\" in %d sec (%d ms)",
+                    this.tableName,
+                    (filter == null ? "NULL" : filter.toString()),
+                    elapseSec, elapseMs));
+
+            return documents;
+        });
     }
 
     /**
@@ -560,50 +1415,241 @@ public abstract class DatabaseTable {
     public JSONObject select(PrimaryKey primaryKey, CacheStrategy cacheStrategyOverwrite) throws Exception {
         JSONObject json = this.retrieveFromCache(primaryKey, cacheStrategyOverwrite);
 
+        if (json == null && this.isNotFoundInCache(primaryKey, cacheStrategyOverwrite)) {
+            return null;
+        }
+
         if (json == null) {
-            boolean success = false;
-            for (int attempt=1; attempt<=this.databaseClient.getDbRetryAttempts() && !success; attempt++) {
-                try (MongoClient mongoClient = this.databaseClient.getMongoClient()) {
-                    MongoDatabase database = this.databaseClient.getMongoDatabase(mongoClient);
-                    MongoCollection<Document> table = this.getTable(database);
-
-                    long start = System.currentTimeMillis();
-                    FindIterable<Document> findIterable = table.find(primaryKey.getFilter());
-                    if (findIterable == null) {
-                        json = null;
-                    } else {
-                        Document first = findIterable.first();
-                        if (first == null) {
-                            json = null;
-                        } else {
-                            json = new JSONObject(first.toJson());
-                        }
+            json = this.execute(this.selectOperation(primaryKey));
+            this.addSelectedToCache(primaryKey, json, cacheStrategyOverwrite);
+        }
+
+        return json;
+    }
+
+    /**
+     * Returns a single document matching a primary key, asynchronously.
+     *
+     * <p>Documents found in the cache are returned in an already completed future.
+     * Used to send multiple independent requests to the database at once:</p>
+     * <pre class="code">
+     * List&lt;CompletableFuture&lt;JSONObject&gt;&gt; futures = new ArrayList&lt;&gt;();
+     * for (PrimaryKey primaryKey : primaryKeys) {
+     *     futures.add(table.selectAsync(primaryKey));
+     * }
+     * CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();</pre>
+     *
+     * <p>See {@link #select(PrimaryKey)}</p>
+     *
+     * @param primaryKey the document's primary key.
+     * @return a future completed with the matching document,
+     *     or null if no document is using the provided primary key.
+     */
+    public CompletableFuture<JSONObject> selectAsync(PrimaryKey primaryKey) {
+        try {
+            JSONObject json = this.retrieveFromCache(primaryKey, null);
+            if (json != null || this.isNotFoundInCache(primaryKey, null)) {
+                return CompletableFuture.completedFuture(json);
+            }
+        } catch(Exception ex) {
+            return DatabaseTable.failedFuture(ex);
+        }
+
+        return this.executeAsync(this.selectOperation(primaryKey))
+            .thenApply(json -> {
+                try {
+                    this.addSelectedToCache(primaryKey, json, null);
+                } catch(IOException ex) {
+                    throw new CompletionException(ex);
+                }
+                return json;
+            });
+    }
+
+    private DatabaseRetryExecutor.Operation<JSONObject> selectOperation(PrimaryKey primaryKey) {
+        return () -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            JSONObject found = null;
+            FindIterable<Document> findIterable = table.find(primaryKey.getFilter());
+            if (findIterable != null) {
+                Document first = findIterable.first();
+                if (first != null) {
+                    found = new JSONObject(first.toJson());
+                }
+            }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Select record ID %s from %s in %d sec (%d ms)",
+                    primaryKey.toJSON().toString(), this.tableName, elapseSec, elapseMs));
+
+            return found;
+        };
+    }
+
+    /**
+     * Returns the documents matching a collection of primary keys.
+     *
+     * <p>Documents are retrieved from the cache when possible. The
+     * other documents are requested from the database using a single
+     * query for every {@link #getCursorBatchSize()} keys
+     * (see {@link #getFilter(Collection)}), instead of one query per key.</p>
+     *
+     * @param primaryKeys the document's primary keys.
+     * @return a {@code Map} of the documents found, in the same order as {@code primaryKeys}.
+     *     Primary keys which are not used by any document are not in the {@code Map}.
+     * @throws Exception if the database is unreachable.
+     */
+    public Map<PrimaryKey, JSONObject> selectMany(Collection<? extends PrimaryKey> primaryKeys) throws Exception {
+        Map<PrimaryKey, JSONObject> found = new HashMap<PrimaryKey, JSONObject>();
+        if (primaryKeys == null || primaryKeys.isEmpty()) {
+            return new LinkedHashMap<PrimaryKey, JSONObject>();
+        }
+
+        // Cache first
+        Set<PrimaryKey> missingKeys = new LinkedHashSet<PrimaryKey>();
+        for (PrimaryKey primaryKey : primaryKeys) {
+            if (primaryKey != null && !found.containsKey(primaryKey)) {
+                JSONObject json = this.retrieveFromCache(primaryKey, null);
+                if (json != null) {
+                    found.put(primaryKey, json);
+                } else if (!this.isNotFoundInCache(primaryKey, null)) {
+                    missingKeys.add(primaryKey);
+                }
+            }
+        }
+
+        // Request the other documents from the database, a chunk of keys at the time
+        List<PrimaryKey> chunk = new ArrayList<PrimaryKey>();
+        Iterator<PrimaryKey> missingKeyIterator = missingKeys.iterator();
+        while (missingKeyIterator.hasNext()) {
+            chunk.add(missingKeyIterator.next());
+            if (chunk.size() >= this.cursorBatchSize || !missingKeyIterator.hasNext()) {
+                Map<PrimaryKey, JSONObject> chunkFound = this.execute(this.selectManyOperation(chunk, null));
+                for (PrimaryKey primaryKey : chunk) {
+                    JSONObject json = chunkFound.get(primaryKey);
+                    this.addSelectedToCache(primaryKey, json, null);
+                    if (json != null) {
+                        found.put(primaryKey, json);
                     }
-                    this.addToCache(primaryKey, json);
-                    success = true;
-                    long end = System.currentTimeMillis();
-                    int elapseMs = (int)(end - start);
-                    int elapseSec = (int)Math.round((elapseMs) / 1000.0);
-                    LOGGER.debug(String.format("DB Debug: Select record ID %s from %s in %d sec (%d ms)",
-                            primaryKey.toJSON().toString(), this.tableName, elapseSec, elapseMs));
-                } catch(OutOfMemoryError ex) {
-                    throw ex;
-                } catch(Exception ex) {
-                    int delay = this.databaseClient.getDbInitialDelayBetweenAttempt() * attempt;
-                    LOGGER.warn(String.format("Database error [attempt #%d] on table %s. Try again in %d seconds.",
-                            attempt, this.tableName, delay), ex);
-
-                    if (attempt == this.databaseClient.getDbRetryAttempts()) {
-                        LOGGER.error("Maximum number of attempt reached.");
-                        throw new Exception("Maximum number of attempt reached.", ex);
+                }
+                chunk = new ArrayList<PrimaryKey>();
+            }
+        }
+
+        // Same order as the requested keys
+        Map<PrimaryKey, JSONObject> orderedFound = new LinkedHashMap<PrimaryKey, JSONObject>();
+        for (PrimaryKey primaryKey : primaryKeys) {
+            JSONObject json = primaryKey == null ? null : found.get(primaryKey);
+            if (json != null) {
+                orderedFound.put(primaryKey, json);
+            }
+        }
+
+        return orderedFound;
+    }
+
+    /**
+     * Returns a projection of the documents matching a collection of primary keys.
+     *
+     * <p>Used to cheaply check a few attributes of multiple documents,
+     * like their {@code lastModified} timestamp.
+     * The cache is not used since the documents are incomplete.</p>
+     *
+     * @param primaryKeys the document's primary keys.
+     * @param projection the {@code Bson} projection. See {@link Projections}.
+     *     The primary key is always returned.
+     * @return a {@code Map} of the projected documents found, in the same order as {@code primaryKeys}.
+     *     Primary keys which are not used by any document are not in the {@code Map}.
+     * @throws Exception if the database is unreachable.
+     */
+    public Map<PrimaryKey, JSONObject> selectMany(Collection<? extends PrimaryKey> primaryKeys, Bson projection) throws Exception {
+        Map<PrimaryKey, JSONObject> orderedFound = new LinkedHashMap<PrimaryKey, JSONObject>();
+        if (primaryKeys == null || primaryKeys.isEmpty()) {
+            return orderedFound;
+        }
+
+        Map<PrimaryKey, JSONObject> found = new HashMap<PrimaryKey, JSONObject>();
+        List<PrimaryKey> chunk = new ArrayList<PrimaryKey>();
+        Iterator<PrimaryKey> primaryKeyIterator = new LinkedHashSet<PrimaryKey>(primaryKeys).iterator();
+        while (primaryKeyIterator.hasNext()) {
+            PrimaryKey primaryKey = primaryKeyIterator.next();
+            if (primaryKey != null) {
+                chunk.add(primaryKey);
+            }
+            if (!chunk.isEmpty() && (chunk.size() >= this.cursorBatchSize || !primaryKeyIterator.hasNext())) {
+                found.putAll(this.execute(this.selectManyOperation(chunk, projection)));
+                chunk = new ArrayList<PrimaryKey>();
+            }
+        }
+
+        for (PrimaryKey primaryKey : primaryKeys) {
+            JSONObject json = primaryKey == null ? null : found.get(primaryKey);
+            if (json != null) {
+                orderedFound.put(primaryKey, json);
+            }
+        }
+
+        return orderedFound;
+    }
+
+    private DatabaseRetryExecutor.Operation<Map<PrimaryKey, JSONObject>> selectManyOperation(List<PrimaryKey> primaryKeys, Bson projection) {
+        return () -> {
+            MongoDatabase database = this.databaseClient.getMongoDatabase();
+            MongoCollection<Document> table = this.getTable(database);
+
+            long start = System.currentTimeMillis();
+            Map<PrimaryKey, JSONObject> found = new HashMap<PrimaryKey, JSONObject>();
+            FindIterable<Document> findIterable = table.find(this.getFilter(primaryKeys));
+            if (findIterable != null) {
+                if (projection != null) {
+                    findIterable = findIterable.projection(projection);
+                }
+                for (Document document : findIterable.batchSize(this.cursorBatchSize)) {
+                    PrimaryKey primaryKey = this.getPrimaryKey(document);
+                    if (primaryKey != null) {
+                        found.put(primaryKey, new JSONObject(document.toJson()));
                     }
-                    Thread.sleep(delay * 1000);
-                    this.databaseClient.resolveServerAddr();
                 }
             }
+            long end = System.currentTimeMillis();
+            int elapseMs = (int)(end - start);
+            int elapseSec = (int)Math.round((elapseMs) / 1000.0);
+            LOGGER.debug(String.format("DB Debug: Select %d record IDs (%d found) from %s in %d sec (%d ms)",
+                    primaryKeys.size(), found.size(), this.tableName, elapseSec, elapseMs));
+
+            return found;
+        };
+    }
+
+    /**
+     * Returns the {@code Bson} filter used to select the documents
+     * matching a collection of primary keys, in a single query.
+     *
+     * <p>The default implementation combines the filter of each primary key
+     * using a {@code $or} operator. Tables with a single attribute primary key
+     * use a {@code $in} operator instead.</p>
+     *
+     * @param primaryKeys the document's primary keys.
+     * @return the {@code Bson} filter.
+     */
+    protected Bson getFilter(Collection<PrimaryKey> primaryKeys) {
+        List<Bson> filters = new ArrayList<Bson>();
+        for (PrimaryKey primaryKey : primaryKeys) {
+            filters.add(primaryKey.getFilter());
         }
+        return Filters.or(filters);
+    }
 
-        return json;
+    private void addSelectedToCache(PrimaryKey primaryKey, JSONObject json, CacheStrategy cacheStrategyOverwrite) throws IOException {
+        if (json == null) {
+            this.addNotFoundToCache(primaryKey, cacheStrategyOverwrite);
+        } else {
+            this.addToCache(primaryKey, json);
+        }
     }
 
     private JSONObject retrieveFromCache(PrimaryKey primaryKey, CacheStrategy cacheStrategyOverwrite) throws IOException {
@@ -620,11 +1666,16 @@ public abstract class DatabaseTable {
                 break;
 
             case DISK:
-                File cachedFile = this.getCacheFile(primaryKey);
-                if (cachedFile.canRead()) {
-                    String jsonString = new String(Files.readAllBytes(cachedFile.toPath()));
-                    if (!jsonString.isEmpty()) {
-                        json = new JSONObject(jsonString);
+                json = this.getDiskCache().get(primaryKey);
+                break;
+
+            case MEMORY_DISK:
+                json = this.memoryCache.getCache(primaryKey);
+                if (json == null) {
+                    json = this.getDiskCache().get(primaryKey);
+                    if (json != null) {
+                        // Promote to the memory cache
+                        this.memoryCache.setCache(primaryKey, json);
                     }
                 }
                 break;
@@ -635,29 +1686,23 @@ public abstract class DatabaseTable {
         return json;
     }
 
-    private JSONObject removeFromCache(PrimaryKey primaryKey) throws IOException {
-        JSONObject json = null;
-
+    private void removeFromCache(PrimaryKey primaryKey) throws IOException {
         switch (cacheStrategy) {
             case MEMORY:
-                json = this.memoryCache.removeCache(primaryKey);
+                this.memoryCache.removeCache(primaryKey);
                 break;
 
             case DISK:
-                File cachedFile = this.getCacheFile(primaryKey);
-                if (cachedFile.canRead()) {
-                    String jsonString = new String(Files.readAllBytes(cachedFile.toPath()));
-                    if (!jsonString.isEmpty()) {
-                        json = new JSONObject(jsonString);
-                    }
-                    cachedFile.delete();
-                }
+                this.getDiskCache().remove(primaryKey);
                 break;
 
-            // null or NONE, do nothing. The method will return null
-        }
+            case MEMORY_DISK:
+                this.memoryCache.removeCache(primaryKey);
+                this.getDiskCache().remove(primaryKey);
+                break;
 
-        return json;
+            // null or NONE, do nothing.
+        }
     }
 
     private void addToCache(PrimaryKey primaryKey, JSONObject json) throws IOException {
@@ -668,17 +1713,64 @@ public abstract class DatabaseTable {
                     break;
 
                 case DISK:
-                    File cachedFile = this.getCacheFile(primaryKey);
-                    FileUtils.writeStringToFile(cachedFile, json.toString(), StandardCharsets.UTF_8);
+                    this.getDiskCache().put(primaryKey, json);
+                    break;
+
+                case MEMORY_DISK:
+                    this.memoryCache.setCache(primaryKey, json);
+                    this.getDiskCache().put(primaryKey, json);
                     break;
             }
         }
     }
 
-    private File getCacheFile(PrimaryKey primaryKey) {
-        String filename = Utils.safeFilename(primaryKey.toJSON().toString()) + ".json";
-        File cacheDirectory = this.getCacheDirectory();
-        return new File(cacheDirectory, filename);
+    private boolean isNotFoundInCache(PrimaryKey primaryKey, CacheStrategy cacheStrategyOverwrite) throws IOException {
+        if (this.notFoundCacheTimeToLive <= 0) {
+            return false;
+        }
+
+        CacheStrategy cacheStrategy = this.cacheStrategy;
+        if (cacheStrategyOverwrite != null) {
+            cacheStrategy = cacheStrategyOverwrite;
+        }
+
+        switch (cacheStrategy) {
+            case MEMORY:
+                return this.memoryCache.isNotFound(primaryKey);
+
+            case DISK:
+                return this.getDiskCache().isNotFound(primaryKey, this.notFoundCacheTimeToLive);
+
+            case MEMORY_DISK:
+                return this.memoryCache.isNotFound(primaryKey) ||
+                        this.getDiskCache().isNotFound(primaryKey, this.notFoundCacheTimeToLive);
+
+            // null or NONE, nothing is cached.
+            default:
+                return false;
+        }
+    }
+
+    private void addNotFoundToCache(PrimaryKey primaryKey, CacheStrategy cacheStrategyOverwrite) throws IOException {
+        // Do not cache the result when the cache was bypassed
+        if (this.notFoundCacheTimeToLive <= 0 || CacheStrategy.NONE.equals(cacheStrategyOverwrite)) {
+            return;
+        }
+
+        switch (this.cacheStrategy) {
+            case MEMORY:
+                this.memoryCache.setNotFound(primaryKey, this.notFoundCacheTimeToLive);
+                break;
+
+            case DISK:
+                this.getDiskCache().setNotFound(primaryKey);
+                break;
+
+            case MEMORY_DISK:
+                this.memoryCache.setNotFound(primaryKey, this.notFoundCacheTimeToLive);
+                this.getDiskCache().setNotFound(primaryKey);
+                break;
+        }
     }
 
     /**
@@ -687,4 +1779,59 @@ public abstract class DatabaseTable {
      * @return the document's primary key object.
      */
     public abstract PrimaryKey getPrimaryKey(JSONObject json);
+
+    /**
+     * Returns the primary key from a BSON {@code Document}, retrieved from the database.
+     *
+     * <p>The document only needs to contain the primary key attributes.
+     * See {@link #getPrimaryKeyProjection()}.</p>
+     *
+     * @param document the document retrieved from the database.
+     * @return the document's primary key object.
+     */
+    public abstract PrimaryKey getPrimaryKey(Document document);
+
+    /**
+     * Returns the {@code Bson} projection used to retrieve
+     * only the primary key attributes of documents.
+     *
+     * @return the primary key projection.
+     */
+    public Bson getPrimaryKeyProjection() {
+        if (this.primaryKeyName == null) {
+            throw new IllegalStateException(String.format("The table %s has no primary key", this.tableName));
+        }
+
+        if ("_id".equals(this.primaryKeyName)) {
+            return Projections.include(this.primaryKeyName);
+        }
+        return Projections.fields(
+                Projections.include(this.primaryKeyName),
+                Projections.excludeId());
+    }
+
+    /**
+     * Convert a primary key value found in a BSON {@code Document}
+     * to the value found in the document's {@code JSONObject} representation.
+     *
+     * <p>This is used to create primary keys from a BSON {@code Document}
+     * which are equal to the primary keys created from the {@code JSONObject}
+     * representation of the same document.</p>
+     *
+     * @param name the attribute name.
+     * @param value the attribute value found in the BSON {@code Document}.
+     * @return the attribute value, as found in the {@code JSONObject} representation of the document.
+     */
+    protected static Object toJSONValue(String name, Object value) {
+        if (value == null ||
+                value instanceof String ||
+                value instanceof Integer ||
+                value instanceof Boolean ||
+                value instanceof Double) {
+            return value;
+        }
+
+        // Other types (Long, ObjectId, Date, etc) have a special JSON representation.
+        return new JSONObject(new Document(name, value).toJson()).opt(name);
+    }
 }
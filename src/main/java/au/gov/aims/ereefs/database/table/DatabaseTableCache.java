@@ -7,7 +7,8 @@ package au.gov.aims.ereefs.database.table;
 import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -16,15 +17,56 @@ import java.util.Map;
  * <p>Needs to be enabled using enable().</p>
  *
  * <p>Memory is freed by calling clear() or disable().</p>
+ *
+ * <p>The cache is bounded and thread-safe. It evicts the least recently
+ * used entries when it exceed the limits defined in its
+ * {@link DatabaseTableCacheConfig}.</p>
  */
 public class DatabaseTableCache {
-    private Map<PrimaryKey, JSONObject> cache;
+    private DatabaseTableCacheConfig config;
+
+    // Access ordered map: the first entry is the least recently used
+    private LinkedHashMap<PrimaryKey, CacheEntry> cache;
+    private long weight;
+
+    // Keys which are known to not exist in the database.
+    // Value: expiry time, in milliseconds
+    private LinkedHashMap<PrimaryKey, Long> notFoundCache;
+
+    // Statistics
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long notFoundHitCount;
+
+    /**
+     * Creates a memory cache using the default configuration.
+     */
+    public DatabaseTableCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a memory cache.
+     * @param config the cache configuration, or {@code null} to use the default configuration.
+     */
+    public DatabaseTableCache(DatabaseTableCacheConfig config) {
+        this.config = config == null ? new DatabaseTableCacheConfig() : config;
+    }
+
+    /**
+     * Returns the cache configuration.
+     * @return the cache configuration.
+     */
+    public DatabaseTableCacheConfig getConfig() {
+        return this.config;
+    }
 
     /**
      * Returns {@code true} if the cache is enabled; {@code false} otherwise.
      * @return {@code true} if the cache is enabled; {@code false} otherwise.
      */
-    public boolean isEnabled() {
+    public synchronized boolean isEnabled() {
         return this.cache != null;
     }
 
@@ -32,28 +74,35 @@ public class DatabaseTableCache {
      * Enable the cache.
      * Does nothing if the cache is already enabled.
      */
-    public void enable() {
+    public synchronized void enable() {
         if (this.cache == null) {
-            this.cache = new HashMap<PrimaryKey, JSONObject>();
+            this.cache = new LinkedHashMap<PrimaryKey, CacheEntry>(16, 0.75f, true);
+            this.notFoundCache = new LinkedHashMap<PrimaryKey, Long>();
+            this.weight = 0;
         }
     }
 
     /**
      * Disable the cache and clear cached memory.
      */
-    public void disable() {
+    public synchronized void disable() {
         if (this.cache != null) {
             this.cache.clear();
             this.cache = null;
+            this.notFoundCache.clear();
+            this.notFoundCache = null;
+            this.weight = 0;
         }
     }
 
     /**
      * Clear cached memory.
      */
-    public void clear() {
+    public synchronized void clear() {
         if (this.cache != null) {
             this.cache.clear();
+            this.notFoundCache.clear();
+            this.weight = 0;
         }
     }
 
@@ -62,9 +111,30 @@ public class DatabaseTableCache {
      * @param key the entity key or ID.
      * @param entity the entity to add to the cache.
      */
-    public void setCache(PrimaryKey key, JSONObject entity) {
+    public synchronized void setCache(PrimaryKey key, JSONObject entity) {
         if (this.cache != null) {
-            this.cache.put(key, entity);
+            this.notFoundCache.remove(key);
+
+            long entryWeight = 0;
+            if (this.config.getMaxWeight() > 0) {
+                entryWeight = DatabaseTableCache.estimateWeight(entity);
+                if (entryWeight > this.config.getMaxWeight()) {
+                    // The entity would evict every other entries. Do not cache it.
+                    this.remove(key);
+                    return;
+                }
+            }
+
+            long expiry = this.config.getTimeToLive() > 0 ?
+                    System.currentTimeMillis() + this.config.getTimeToLive() : 0;
+
+            CacheEntry oldEntry = this.cache.put(key, new CacheEntry(entity, entryWeight, expiry));
+            if (oldEntry != null) {
+                this.weight -= oldEntry.weight;
+            }
+            this.weight += entryWeight;
+
+            this.evict();
         }
     }
 
@@ -75,9 +145,22 @@ public class DatabaseTableCache {
      * @param key the key or ID of entity to retrieve from the cache.
      * @return the cached {@code JSONObject} entity or null.
      */
-    public JSONObject getCache(PrimaryKey key) {
+    public synchronized JSONObject getCache(PrimaryKey key) {
         if (this.cache != null) {
-            return this.cache.get(key);
+            CacheEntry entry = this.cache.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                this.remove(key);
+                this.evictionCount++;
+                entry = null;
+            }
+
+            if (entry == null) {
+                this.missCount++;
+                return null;
+            }
+
+            this.hitCount++;
+            return entry.entity;
         }
 
         return null;
@@ -89,11 +172,178 @@ public class DatabaseTableCache {
      * @param key the key or ID of entity to remove from the cache.
      * @return the removed {@code JSONObject} entity or null.
      */
-    public JSONObject removeCache(PrimaryKey key) {
+    public synchronized JSONObject removeCache(PrimaryKey key) {
         if (this.cache != null) {
-            return this.cache.remove(key);
+            this.notFoundCache.remove(key);
+            CacheEntry entry = this.remove(key);
+            return entry == null ? null : entry.entity;
         }
 
         return null;
     }
+
+    /**
+     * Record that a key doesn't exist in the database.
+     *
+     * <p>Not found entries are kept separately from the cached entities.
+     * They are removed when the key is added to the cache, when the key is
+     * removed from the cache, or after {@code timeToLive} milliseconds.</p>
+     *
+     * @param key the key or ID which was not found in the database.
+     * @param timeToLive number of milliseconds the entry stays in the cache.
+     */
+    public synchronized void setNotFound(PrimaryKey key, long timeToLive) {
+        if (this.notFoundCache != null && timeToLive > 0) {
+            this.notFoundCache.remove(key);
+            this.notFoundCache.put(key, System.currentTimeMillis() + timeToLive);
+
+            // Not found entries are added in expiry order (constant time to live),
+            // the first entry is the oldest.
+            int maxEntries = this.config.getMaxEntries();
+            Iterator<Long> iterator = this.notFoundCache.values().iterator();
+            while (maxEntries > 0 && this.notFoundCache.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the key is known to not exist in the database; {@code false} otherwise.
+     *
+     * @param key the key or ID to look up.
+     * @return {@code true} if the key was recently not found in the database.
+     */
+    public synchronized boolean isNotFound(PrimaryKey key) {
+        if (this.notFoundCache != null) {
+            Long expiry = this.notFoundCache.get(key);
+            if (expiry != null) {
+                if (System.currentTimeMillis() < expiry) {
+                    this.notFoundHitCount++;
+                    return true;
+                }
+                this.notFoundCache.remove(key);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of requests which were answered
+     * by a not found entry.
+     * @return the number of not found cache hits.
+     */
+    public synchronized long getNotFoundHitCount() {
+        return this.notFoundHitCount;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     * @return the number of entries in the cache.
+     */
+    public synchronized int size() {
+        return this.cache == null ? 0 : this.cache.size();
+    }
+
+    /**
+     * Returns the approximate size of the cached entries, in bytes.
+     *
+     * <p>Only calculated when the cache is configured with a maximum weight.</p>
+     *
+     * @return the approximate size of the cached entries.
+     */
+    public synchronized long getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Returns the number of requests which were answered from the cache.
+     * @return the number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of requests which were not found in the cache.
+     * @return the number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Returns the number of entries removed from the cache
+     * because the cache was full or because they expired.
+     * @return the number of evicted entries.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /**
+     * Reset the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        this.hitCount = 0;
+        this.missCount = 0;
+        this.evictionCount = 0;
+        this.notFoundHitCount = 0;
+    }
+
+    /**
+     * Returns a string representation of the cache statistics.
+     * @return a string representation of the cache statistics.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("size: %d, weight: %d, hits: %d, misses: %d, evictions: %d (%s)",
+                this.size(), this.weight, this.hitCount, this.missCount, this.evictionCount, this.config);
+    }
+
+    private CacheEntry remove(PrimaryKey key) {
+        CacheEntry entry = this.cache.remove(key);
+        if (entry != null) {
+            this.weight -= entry.weight;
+        }
+        return entry;
+    }
+
+    private void evict() {
+        int maxEntries = this.config.getMaxEntries();
+        long maxWeight = this.config.getMaxWeight();
+
+        Iterator<Map.Entry<PrimaryKey, CacheEntry>> iterator = this.cache.entrySet().iterator();
+        while (iterator.hasNext() &&
+                ((maxEntries > 0 && this.cache.size() > maxEntries) ||
+                (maxWeight > 0 && this.weight > maxWeight))) {
+
+            CacheEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            this.weight -= eldest.weight;
+            this.evictionCount++;
+        }
+    }
+
+    private static long estimateWeight(JSONObject entity) {
+        // JSON text is mostly ASCII; 2 bytes per character for Java Strings.
+        return entity == null ? 0 : entity.toString().length() * 2L;
+    }
+
+    private static class CacheEntry {
+        private final JSONObject entity;
+        private final long weight;
+        private final long expiry; // 0 = no expiry
+
+        public CacheEntry(JSONObject entity, long weight, long expiry) {
+            this.entity = entity;
+            this.weight = weight;
+            this.expiry = expiry;
+        }
+
+        public boolean isExpired(long now) {
+            return this.expiry > 0 && now >= this.expiry;
+        }
+    }
 }
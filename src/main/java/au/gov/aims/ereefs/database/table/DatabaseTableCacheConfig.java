@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+/**
+ * Configuration of the {@link DatabaseTableCache} memory cache.
+ *
+ * <p>The cache evicts the least recently used entries when it
+ * contains more than {@link #getMaxEntries()} entries, or when the
+ * approximate size of its entries exceed {@link #getMaxWeight()}.</p>
+ */
+public class DatabaseTableCacheConfig {
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final long DEFAULT_MAX_WEIGHT = 0; // unlimited
+    private static final long DEFAULT_TIME_TO_LIVE = 0; // no expiry
+
+    private int maxEntries;
+    private long maxWeight;
+    private long timeToLive;
+
+    /**
+     * Creates a cache configuration with default values.
+     */
+    public DatabaseTableCacheConfig() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a cache configuration.
+     *
+     * @param maxEntries the maximum number of entries. {@code 0} for unlimited.
+     * @param maxWeight the maximum approximate size of the cached entries, in bytes. {@code 0} for unlimited.
+     * @param timeToLive the number of milliseconds an entry stays in the cache. {@code 0} for no expiry.
+     */
+    public DatabaseTableCacheConfig(int maxEntries, long maxWeight, long timeToLive) {
+        this.setMaxEntries(maxEntries);
+        this.setMaxWeight(maxWeight);
+        this.setTimeToLive(timeToLive);
+    }
+
+    /**
+     * Returns the maximum number of entries kept in the cache.
+     *
+     * <p>Default: {@code 10000}</p>
+     *
+     * @return the maximum number of entries, or {@code 0} if unlimited.
+     */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * Set the maximum number of entries kept in the cache.
+     * @param maxEntries the maximum number of entries. {@code 0} for unlimited.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * Returns the maximum approximate size of the cached entries, in bytes.
+     *
+     * <p>The size of an entry is estimated from the length of
+     * its serialised JSON representation.</p>
+     *
+     * <p>Default: {@code 0} (unlimited)</p>
+     *
+     * @return the maximum weight, or {@code 0} if unlimited.
+     */
+    public long getMaxWeight() {
+        return this.maxWeight;
+    }
+
+    /**
+     * Set the maximum approximate size of the cached entries, in bytes.
+     * @param maxWeight the maximum weight. {@code 0} for unlimited.
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = Math.max(0, maxWeight);
+    }
+
+    /**
+     * Returns the number of milliseconds an entry stays in the cache
+     * after it has been added.
+     *
+     * <p>Default: {@code 0} (no expiry)</p>
+     *
+     * @return the time to live, in milliseconds, or {@code 0} for no expiry.
+     */
+    public long getTimeToLive() {
+        return this.timeToLive;
+    }
+
+    /**
+     * Set the number of milliseconds an entry stays in the cache
+     * after it has been added.
+     * @param timeToLive the time to live, in milliseconds. {@code 0} for no expiry.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = Math.max(0, timeToLive);
+    }
+
+    /**
+     * Returns a string representation of the cache configuration.
+     * @return a string representation of the cache configuration.
+     */
+    @Override
+    public String toString() {
+        return String.format("maxEntries: %d, maxWeight: %d, timeToLive: %d ms",
+                this.maxEntries, this.maxWeight, this.timeToLive);
+    }
+}
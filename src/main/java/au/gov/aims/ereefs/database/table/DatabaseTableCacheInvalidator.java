@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import au.gov.aims.ereefs.database.DatabaseClient;
+import au.gov.aims.ereefs.database.DatabaseRetryExecutor;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import com.mongodb.MongoServerException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.apache.log4j.Logger;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the cache of a {@link DatabaseTable} coherent with the database,
+ * for long running processes.
+ *
+ * <p>A background thread listens to the
+ * <a href="https://docs.mongodb.com/manual/changeStreams/">change stream</a>
+ * of the table, and evicts (or refreshes) the cached documents which
+ * were modified by other processes.</p>
+ *
+ * <p>Change streams are only supported by replica sets.
+ * When the server reports that they are not supported (standalone server, test server),
+ * the thread polls the table for documents with a {@code lastModified}
+ * timestamp greater than or equal to the last one seen. Documents already seen
+ * with that last timestamp are skipped, so documents modified within the same
+ * millisecond are not missed. Polling can not detect deleted documents.
+ * Other errors, such as network errors, are retried.</p>
+ *
+ * <p>Use {@link DatabaseTable#startCacheInvalidation(long, boolean)}.</p>
+ */
+public class DatabaseTableCacheInvalidator implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseTableCacheInvalidator.class);
+
+    private static final String DEFAULT_LAST_MODIFIED_FIELD = "lastModified";
+
+    // Error codes returned by servers which do not support change streams
+    private static final Set<Integer> CHANGE_STREAM_UNSUPPORTED_ERROR_CODES = new HashSet<Integer>(Arrays.asList(
+        115,   // CommandNotSupported
+        16436, // Unrecognized pipeline stage name (before MongoDB 3.6)
+        40324, // Unrecognized pipeline stage name
+        40573  // The $changeStream stage is only supported on replica sets
+    ));
+
+    // The timestamps are usually saved as ISO date strings, using the timezone
+    // of the process which saved the document. Strings using different timezones
+    // can only be compared reliably if the lower bound is moved back by the maximum
+    // difference between 2 timezones (26 hours, from UTC-12 to UTC+14).
+    private static final long TIMEZONE_MARGIN = 26L * 60 * 60 * 1000;
+
+    private final DatabaseTable databaseTable;
+    private final long pollingInterval;
+    private final boolean refresh;
+    private String lastModifiedField;
+
+    private volatile boolean running;
+    private volatile boolean polling;
+    private Thread thread;
+    private final Object sleepMonitor = new Object();
+
+    // Change stream state
+    private volatile MongoCursor<ChangeStreamDocument<Document>> changeStreamCursor;
+    private BsonDocument resumeToken;
+
+    // Polling state
+    private boolean watermarkInitialised;
+    // Timestamp of the last modified document, in milliseconds since epoch
+    private Long lastModifiedWatermark;
+    // Value of the last modified field, as found in the database
+    private Object lastModifiedWatermarkValue;
+    // Documents seen with a lastModified value equal to the watermark
+    private final Set<PrimaryKey> watermarkPrimaryKeys = new HashSet<PrimaryKey>();
+
+    private volatile long invalidationCount;
+
+    /**
+     * Creates a cache invalidator for a {@link DatabaseTable}.
+     *
+     * <p>NOTE: The invalidator needs to be started using {@link #start()}.</p>
+     *
+     * @param databaseTable the table which cache needs to be kept up to date.
+     * @param pollingInterval the maximum number of milliseconds between two checks of the
+     *     change stream, or between two queries when the server doesn't support change streams.
+     * @param refresh {@code true} to replace modified documents in the cache;
+     *     {@code false} to remove them from the cache.
+     */
+    public DatabaseTableCacheInvalidator(DatabaseTable databaseTable, long pollingInterval, boolean refresh) {
+        this.databaseTable = databaseTable;
+        this.pollingInterval = Math.max(1, pollingInterval);
+        this.refresh = refresh;
+        this.lastModifiedField = DEFAULT_LAST_MODIFIED_FIELD;
+        this.running = false;
+        this.polling = false;
+        this.invalidationCount = 0;
+    }
+
+    /**
+     * Returns the name of the document field used to find modified documents,
+     * when the server doesn't support change streams.
+     *
+     * <p>Default: {@code lastModified}</p>
+     *
+     * @return the last modified field name.
+     */
+    public String getLastModifiedField() {
+        return this.lastModifiedField;
+    }
+
+    /**
+     * Set the name of the document field used to find modified documents,
+     * when the server doesn't support change streams.
+     *
+     * @param lastModifiedField the last modified field name.
+     */
+    public synchronized void setLastModifiedField(String lastModifiedField) {
+        this.lastModifiedField = lastModifiedField == null ? DEFAULT_LAST_MODIFIED_FIELD : lastModifiedField;
+        this.watermarkInitialised = false;
+        this.lastModifiedWatermark = null;
+        this.lastModifiedWatermarkValue = null;
+        this.watermarkPrimaryKeys.clear();
+    }
+
+    /**
+     * Returns {@code true} if the invalidator is polling the table;
+     * {@code false} if it's listening to the change stream.
+     * @return {@code true} if the server doesn't support change streams.
+     */
+    public boolean isPolling() {
+        return this.polling;
+    }
+
+    /**
+     * Returns {@code true} if the invalidator background thread is running.
+     * @return {@code true} if the invalidator is running.
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Returns the number of cache entries evicted or refreshed since the invalidator was created.
+     * @return the number of invalidated cache entries.
+     */
+    public long getInvalidationCount() {
+        return this.invalidationCount;
+    }
+
+    /**
+     * Start the background thread.
+     * Does nothing if the invalidator is already running.
+     */
+    public synchronized void start() {
+        if (!this.running) {
+            this.running = true;
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    DatabaseTableCacheInvalidator.this.run();
+                }
+            }, String.format("cache-invalidator-%s", this.databaseTable.getTableName()));
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    @Override
+    public void close() {
+        Thread runningThread;
+        synchronized (this) {
+            this.running = false;
+            runningThread = this.thread;
+            this.thread = null;
+        }
+
+        // Do not interrupt the thread, it would close the disk cache file channel
+        synchronized (this.sleepMonitor) {
+            this.sleepMonitor.notifyAll();
+        }
+        this.closeChangeStream();
+        if (runningThread != null) {
+            try {
+                runningThread.join(this.pollingInterval + 1000);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                // Keep the shared MongoClient open while the table is polled or watched
+                DatabaseClient databaseClient = this.databaseTable.getDatabaseClient();
+                if (this.polling) {
+                    databaseClient.executeWithSharedMongoClient(() -> {
+                        this.poll();
+                        return null;
+                    });
+                    this.sleep();
+                } else {
+                    databaseClient.executeWithSharedMongoClient(() -> {
+                        this.watch();
+                        return null;
+                    });
+                }
+            } catch(Exception ex) {
+                if (this.running) {
+                    LOGGER.warn(String.format("Error occurred while checking for modified documents in table %s. Try again in %d ms.",
+                            this.databaseTable.getTableName(), this.pollingInterval), ex);
+                    this.sleep();
+                }
+            } finally {
+                this.closeChangeStream();
+            }
+        }
+    }
+
+    private void watch() throws Exception {
+        MongoCollection<Document> collection = this.databaseTable.getCollection();
+        ChangeStreamIterable<Document> changeStream = collection.watch()
+                .maxAwaitTime(this.pollingInterval, TimeUnit.MILLISECONDS);
+        if (this.refresh) {
+            changeStream = changeStream.fullDocument(FullDocument.UPDATE_LOOKUP);
+        }
+
+        boolean resuming = this.resumeToken != null;
+        if (resuming) {
+            changeStream = changeStream.resumeAfter(this.resumeToken);
+        }
+
+        try {
+            this.changeStreamCursor = changeStream.iterator();
+        } catch(MongoServerException ex) {
+            if (DatabaseRetryExecutor.isTransient(ex)) {
+                // Try again later, from the same resume token
+                throw ex;
+            }
+
+            if (!resuming && CHANGE_STREAM_UNSUPPORTED_ERROR_CODES.contains(ex.getCode())) {
+                LOGGER.info(String.format("Change streams are not supported by the database server (%s). " +
+                        "Polling table %s for modified documents every %d ms.",
+                        ex.getMessage(), this.databaseTable.getTableName(), this.pollingInterval));
+                this.polling = true;
+                return;
+            }
+
+            if (resuming) {
+                // The resume token is too old. Some changes may have been missed.
+                LOGGER.warn(String.format("Can not resume the change stream of table %s. Clearing the cache.",
+                        this.databaseTable.getTableName()), ex);
+                this.resumeToken = null;
+                this.invalidateAll();
+                return;
+            }
+
+            throw ex;
+        }
+
+        while (this.running) {
+            MongoCursor<ChangeStreamDocument<Document>> cursor = this.changeStreamCursor;
+            if (cursor == null) {
+                break;
+            }
+            ChangeStreamDocument<Document> change = cursor.tryNext();
+            if (change != null) {
+                this.resumeToken = change.getResumeToken();
+                this.handleChange(change);
+            }
+        }
+    }
+
+    private void handleChange(ChangeStreamDocument<Document> change) throws Exception {
+        switch (change.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                Document fullDocument = change.getFullDocument();
+                if (fullDocument != null) {
+                    this.invalidate(fullDocument, this.refresh ? fullDocument : null);
+                } else {
+                    this.invalidate(DatabaseTableCacheInvalidator.toDocument(change.getDocumentKey()), null);
+                }
+                break;
+
+            case DELETE:
+                this.invalidate(DatabaseTableCacheInvalidator.toDocument(change.getDocumentKey()), null);
+                break;
+
+            case INVALIDATE:
+                // The table was dropped or renamed. The change stream is closed.
+                this.resumeToken = null;
+                this.invalidateAll();
+                this.closeChangeStream();
+                break;
+
+            default:
+                this.invalidateAll();
+                break;
+        }
+    }
+
+    private void poll() throws Exception {
+        MongoCollection<Document> collection = this.databaseTable.getCollection();
+
+        if (!this.watermarkInitialised) {
+            // Only look for documents modified from now on
+            this.lastModifiedWatermark = null;
+            this.lastModifiedWatermarkValue = null;
+            this.watermarkPrimaryKeys.clear();
+
+            Document last = collection.find(Filters.exists(this.lastModifiedField))
+                    .projection(Projections.include(this.lastModifiedField))
+                    .sort(Sorts.descending(this.lastModifiedField))
+                    .first();
+            Object lastValue = last == null ? null : last.get(this.lastModifiedField);
+            Long lastTimestamp = DatabaseTableCacheInvalidator.toTimestamp(lastValue);
+            if (lastTimestamp != null) {
+                // With mixed timezones, the greatest value is not necessarily the last modified document
+                try (MongoCursor<Document> cursor = collection.find(this.getModifiedSinceFilter(lastValue, lastTimestamp))
+                        .projection(Projections.fields(
+                            this.databaseTable.getPrimaryKeyProjection(),
+                            Projections.include(this.lastModifiedField)))
+                        .iterator()) {
+                    while (cursor.hasNext()) {
+                        this.updateWatermark(cursor.next());
+                    }
+                }
+            }
+            this.watermarkInitialised = true;
+            return;
+        }
+
+        // Greater than or equal, documents modified in the same millisecond
+        // as the watermark, after the previous poll, would be missed otherwise.
+        Long watermark = this.lastModifiedWatermark;
+        Bson filter = watermark == null ?
+                Filters.exists(this.lastModifiedField) :
+                this.getModifiedSinceFilter(this.lastModifiedWatermarkValue, watermark);
+        Set<PrimaryKey> seenPrimaryKeys = new HashSet<PrimaryKey>(this.watermarkPrimaryKeys);
+
+        FindIterable<Document> modified = collection.find(filter);
+        if (!this.refresh) {
+            modified = modified.projection(Projections.fields(
+                    this.databaseTable.getPrimaryKeyProjection(),
+                    Projections.include(this.lastModifiedField)));
+        }
+
+        try (MongoCursor<Document> cursor = modified.iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                if (watermark != null) {
+                    Long timestamp = DatabaseTableCacheInvalidator.toTimestamp(document.get(this.lastModifiedField));
+                    if (timestamp == null || timestamp < watermark) {
+                        // Returned by the timezone margin, not modified
+                        continue;
+                    }
+                    if (timestamp.equals(watermark) && seenPrimaryKeys.contains(this.getPrimaryKeyOrNull(document))) {
+                        // Already seen by a previous poll
+                        continue;
+                    }
+                }
+
+                this.invalidate(document, this.refresh ? document : null);
+                this.updateWatermark(document);
+            }
+        }
+    }
+
+    /**
+     * Filter the documents which may have been modified since the timestamp.
+     * The filter is built using the same type as the value found in the database.
+     */
+    private Bson getModifiedSinceFilter(Object watermarkValue, long watermark) {
+        if (watermarkValue instanceof String) {
+            return Filters.gte(this.lastModifiedField, new DateTime(watermark - TIMEZONE_MARGIN).toString());
+        }
+        if (watermarkValue instanceof Date) {
+            return Filters.gte(this.lastModifiedField, new Date(watermark));
+        }
+        return Filters.gte(this.lastModifiedField, watermarkValue);
+    }
+
+    private void updateWatermark(Document document) {
+        Object lastModified = document.get(this.lastModifiedField);
+        Long timestamp = DatabaseTableCacheInvalidator.toTimestamp(lastModified);
+        if (timestamp == null) {
+            return;
+        }
+
+        if (this.lastModifiedWatermark == null || timestamp > this.lastModifiedWatermark) {
+            this.lastModifiedWatermark = timestamp;
+            this.lastModifiedWatermarkValue = lastModified;
+            this.watermarkPrimaryKeys.clear();
+            this.addWatermarkPrimaryKey(document);
+        } else if (timestamp.equals(this.lastModifiedWatermark)) {
+            this.addWatermarkPrimaryKey(document);
+        }
+    }
+
+    private void addWatermarkPrimaryKey(Document document) {
+        PrimaryKey primaryKey = this.getPrimaryKeyOrNull(document);
+        if (primaryKey != null) {
+            this.watermarkPrimaryKeys.add(primaryKey);
+        }
+    }
+
+    private PrimaryKey getPrimaryKeyOrNull(Document document) {
+        try {
+            return this.databaseTable.getPrimaryKey(document);
+        } catch(IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private void invalidate(Document keyDocument, Document fullDocument) throws Exception {
+        PrimaryKey primaryKey;
+        try {
+            primaryKey = this.databaseTable.getPrimaryKey(keyDocument);
+        } catch(IllegalArgumentException ex) {
+            // The change doesn't contain the table primary key
+            this.invalidateAll();
+            return;
+        }
+
+        if (fullDocument != null) {
+            this.databaseTable.refreshCache(primaryKey, new JSONObject(fullDocument.toJson()));
+        } else {
+            this.databaseTable.invalidateCache(primaryKey);
+        }
+        this.invalidationCount++;
+    }
+
+    private void invalidateAll() throws Exception {
+        this.databaseTable.clearCache();
+        this.invalidationCount++;
+    }
+
+    private void sleep() {
+        synchronized (this.sleepMonitor) {
+            if (this.running) {
+                try {
+                    this.sleepMonitor.wait(this.pollingInterval);
+                } catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    this.running = false;
+                }
+            }
+        }
+    }
+
+    private void closeChangeStream() {
+        MongoCursor<ChangeStreamDocument<Document>> cursor = this.changeStreamCursor;
+        this.changeStreamCursor = null;
+        if (cursor != null) {
+            try {
+                cursor.close();
+            } catch(Exception ex) {
+                LOGGER.debug(String.format("Error occurred while closing the change stream of table %s",
+                        this.databaseTable.getTableName()), ex);
+            }
+        }
+    }
+
+    private static Document toDocument(BsonDocument bsonDocument) {
+        return bsonDocument == null ? new Document() : Document.parse(bsonDocument.toJson());
+    }
+
+    /**
+     * Returns the timestamp of a last modified value, in milliseconds since epoch,
+     * or {@code null} if the value is not a valid date.
+     */
+    private static Long toTimestamp(Object value) {
+        if (value instanceof Date) {
+            return ((Date)value).getTime();
+        }
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return DateTime.parse((String)value).getMillis();
+            } catch(Exception ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
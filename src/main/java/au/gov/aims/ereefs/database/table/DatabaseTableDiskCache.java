@@ -0,0 +1,840 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import org.apache.log4j.Logger;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Disk cache used to reduce request to the Database.
+ *
+ * <p>The documents of a table are stored in a single append-only
+ * segment file, in the table cache directory. An in-memory index
+ * maps each primary key to the position of its latest record
+ * in the segment file. Records contains the full primary key,
+ * so different keys never collide.</p>
+ *
+ * <p>The segment file can be shared by several processes on the same host.
+ * Reads are done while holding a shared file lock, writes while holding
+ * an exclusive file lock. Before each operation, the records appended
+ * by other processes are added to the index.</p>
+ *
+ * <p>Updated and deleted documents leave obsolete records in the
+ * segment file. The file is compacted, in place, when obsolete records
+ * use more than half of it.</p>
+ *
+ * <p>Documents can be stored as JSON text, BSON or compressed BSON.
+ * See {@link #setFormat(Format)}. Each record remembers its format,
+ * so processes using different formats can share the segment file.
+ * Only the requested record is read and decoded.</p>
+ *
+ * <p>Instances are shared within the JVM, one per cache directory,
+ * since file locks are held on behalf of the whole JVM.
+ * Use {@link #getInstance(File)}.</p>
+ */
+public class DatabaseTableDiskCache {
+    private static final Logger LOGGER = Logger.getLogger(DatabaseTableDiskCache.class);
+
+    private static final String SEGMENT_FILENAME = "cache.seg";
+
+    // Segment file header: magic (int), version (int), state (int), generation (long)
+    private static final int MAGIC = 0x45524443; // "ERDC"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 20;
+
+    private static final int STATE_READY = 0;
+    private static final int STATE_COMPACTING = 1;
+
+    // Record header: record length (int), type (byte), timestamp (long),
+    //     key length (int), value length (int), CRC32 of key and value (int)
+    private static final int RECORD_HEADER_LENGTH = 25;
+
+    private static final byte RECORD_DOCUMENT = 1;
+    private static final byte RECORD_NOT_FOUND = 2;
+    private static final byte RECORD_DELETED = 3;
+
+    // Small segment files are not worth compacting
+    private static final long MIN_COMPACTION_LENGTH = 1024 * 1024; // 1 MB
+
+    private static final Map<File, DatabaseTableDiskCache> INSTANCES = new HashMap<File, DatabaseTableDiskCache>();
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+    private static final BsonValueCodec BSON_VALUE_CODEC = new BsonValueCodec();
+
+    private final File segmentFile;
+    private FileChannel channel;
+    private Format format;
+
+    private final Map<String, IndexEntry> index;
+    private long generation;
+    private long indexedLength; // End of the last indexed record
+    private long obsoleteLength; // Total length of the records which are no longer used
+
+    /**
+     * Returns the disk cache stored in a cache directory.
+     *
+     * <p>The segment file is created the first time it's needed.</p>
+     *
+     * @param cacheDirectory the table cache directory.
+     * @return the disk cache stored in the directory.
+     * @throws IOException if the path of the directory can not be resolved.
+     */
+    public static DatabaseTableDiskCache getInstance(File cacheDirectory) throws IOException {
+        File segmentFile = new File(cacheDirectory, SEGMENT_FILENAME).getCanonicalFile();
+        synchronized (INSTANCES) {
+            DatabaseTableDiskCache instance = INSTANCES.get(segmentFile);
+            if (instance == null) {
+                instance = new DatabaseTableDiskCache(segmentFile);
+                INSTANCES.put(segmentFile, instance);
+            }
+            return instance;
+        }
+    }
+
+    private DatabaseTableDiskCache(File segmentFile) {
+        this.segmentFile = segmentFile;
+        this.channel = null;
+        this.format = Format.JSON;
+        this.index = new HashMap<String, IndexEntry>();
+        this.resetIndex(Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns the segment file used to store the cached documents.
+     * @return the segment file.
+     */
+    public File getSegmentFile() {
+        return this.segmentFile;
+    }
+
+    /**
+     * Returns the format used to store new documents.
+     * @return the storage format.
+     */
+    public synchronized Format getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Set the format used to store new documents.
+     *
+     * <p>Documents already in the cache keep their format.</p>
+     *
+     * <p>Default: {@link Format#JSON}</p>
+     *
+     * @param format the storage format. {@code null} for {@link Format#JSON}.
+     */
+    public synchronized void setFormat(Format format) {
+        this.format = format == null ? Format.JSON : format;
+    }
+
+    /**
+     * Returns a cached {@code JSONObject} document from the cache.
+     * Returns null if the key is not found in the cache.
+     *
+     * @param primaryKey the primary key of the document to retrieve from the cache.
+     * @return the cached {@code JSONObject} document or null.
+     * @throws IOException if the segment file can not be read.
+     */
+    public synchronized JSONObject get(PrimaryKey primaryKey) throws IOException {
+        FileLock lock = this.lock(true);
+        try {
+            IndexEntry entry = this.index.get(DatabaseTableDiskCache.getKey(primaryKey));
+            if (entry == null || entry.type != RECORD_DOCUMENT) {
+                return null;
+            }
+
+            byte[] value = this.readValue(entry);
+            return value == null ? null : DatabaseTableDiskCache.decode(value);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Add a {@code JSONObject} document to the cache.
+     * Replaces the previously cached document and "not found" entry, if any.
+     *
+     * @param primaryKey the primary key of the document.
+     * @param json the document to add to the cache.
+     * @throws IOException if the segment file can not be written.
+     */
+    public synchronized void put(PrimaryKey primaryKey, JSONObject json) throws IOException {
+        FileLock lock = this.lock(false);
+        try {
+            this.append(RECORD_DOCUMENT, DatabaseTableDiskCache.getKey(primaryKey), DatabaseTableDiskCache.encode(json, this.format));
+            this.compactIfNeeded();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Remove a document, or a "not found" entry, from the cache.
+     *
+     * @param primaryKey the primary key of the document to remove from the cache.
+     * @throws IOException if the segment file can not be written.
+     */
+    public synchronized void remove(PrimaryKey primaryKey) throws IOException {
+        FileLock lock = this.lock(false);
+        try {
+            String key = DatabaseTableDiskCache.getKey(primaryKey);
+            if (this.index.containsKey(key)) {
+                this.append(RECORD_DELETED, key, new byte[0]);
+                this.compactIfNeeded();
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Record that a key doesn't exist in the database.
+     *
+     * @param primaryKey the primary key which was not found in the database.
+     * @throws IOException if the segment file can not be written.
+     */
+    public synchronized void setNotFound(PrimaryKey primaryKey) throws IOException {
+        FileLock lock = this.lock(false);
+        try {
+            this.append(RECORD_NOT_FOUND, DatabaseTableDiskCache.getKey(primaryKey), new byte[0]);
+            this.compactIfNeeded();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the key was recorded as not found in the database
+     * less than {@code timeToLive} milliseconds ago; {@code false} otherwise.
+     *
+     * @param primaryKey the primary key to look up.
+     * @param timeToLive number of milliseconds a "not found" entry is valid.
+     * @return {@code true} if the key was recently not found in the database.
+     * @throws IOException if the segment file can not be read.
+     */
+    public synchronized boolean isNotFound(PrimaryKey primaryKey, long timeToLive) throws IOException {
+        FileLock lock = this.lock(true);
+        try {
+            IndexEntry entry = this.index.get(DatabaseTableDiskCache.getKey(primaryKey));
+            return entry != null && entry.type == RECORD_NOT_FOUND &&
+                    System.currentTimeMillis() - entry.timestamp < timeToLive;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns the number of documents in the cache.
+     * @return the number of documents in the cache.
+     * @throws IOException if the segment file can not be read.
+     */
+    public synchronized int size() throws IOException {
+        FileLock lock = this.lock(true);
+        try {
+            int size = 0;
+            for (IndexEntry entry : this.index.values()) {
+                if (entry.type == RECORD_DOCUMENT) {
+                    size++;
+                }
+            }
+            return size;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns the size of the segment file, in bytes.
+     * @return the size of the segment file.
+     * @throws IOException if the segment file can not be read.
+     */
+    public synchronized long getLength() throws IOException {
+        FileLock lock = this.lock(true);
+        try {
+            return this.indexedLength;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Remove every documents and "not found" entries from the cache.
+     * @throws IOException if the segment file can not be written.
+     */
+    public synchronized void clear() throws IOException {
+        FileLock lock = this.lock(false);
+        try {
+            this.reset();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Remove the obsolete records from the segment file.
+     *
+     * <p>This is done automatically when obsolete records
+     * use more than half of the segment file.</p>
+     *
+     * @throws IOException if the segment file can not be written.
+     */
+    public synchronized void compact() throws IOException {
+        FileLock lock = this.lock(false);
+        try {
+            this.compactLocked();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Close the segment file.
+     * It's re-opened the next time the cache is used.
+     */
+    public synchronized void close() {
+        this.closeChannel();
+    }
+
+    private FileLock lock(boolean shared) throws IOException {
+        // The segment file may have been deleted (cache directory deleted),
+        // or the channel closed by an interrupted thread.
+        if (this.channel != null && (!this.channel.isOpen() || !this.segmentFile.exists())) {
+            this.closeChannel();
+        }
+
+        if (this.channel == null) {
+            File cacheDirectory = this.segmentFile.getParentFile();
+            if (cacheDirectory != null && !cacheDirectory.exists()) {
+                cacheDirectory.mkdirs();
+            }
+            this.channel = FileChannel.open(this.segmentFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.resetIndex(Long.MIN_VALUE);
+        }
+
+        FileLock lock = this.channel.lock(0, Long.MAX_VALUE, shared);
+        try {
+            this.refreshIndex(!shared);
+        } catch(Exception ex) {
+            lock.release();
+            throw ex;
+        }
+        return lock;
+    }
+
+    private void closeChannel() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch(Exception ex) {
+                LOGGER.warn(String.format("Error occurred while closing the disk cache file: %s", this.segmentFile), ex);
+            }
+            this.channel = null;
+        }
+        this.resetIndex(Long.MIN_VALUE);
+    }
+
+    private void resetIndex(long generation) {
+        this.index.clear();
+        this.generation = generation;
+        this.indexedLength = HEADER_LENGTH;
+        this.obsoleteLength = 0;
+    }
+
+    /**
+     * Add the records appended by other processes to the index.
+     * Re-build the index if the segment file was cleared or compacted by another process.
+     */
+    private void refreshIndex(boolean exclusive) throws IOException {
+        long fileLength = this.channel.size();
+
+        boolean valid = false;
+        int state = STATE_READY;
+        long fileGeneration = Long.MIN_VALUE;
+        if (fileLength >= HEADER_LENGTH) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            if (this.readFully(header, 0)) {
+                valid = header.getInt() == MAGIC && header.getInt() == VERSION;
+                state = header.getInt();
+                fileGeneration = header.getLong();
+            }
+        }
+
+        if (!valid || state != STATE_READY) {
+            // New segment file, file created by an incompatible version,
+            // or the process which was compacting the file died.
+            if (exclusive) {
+                if (fileLength > 0) {
+                    LOGGER.warn(String.format("Invalid disk cache file: %s. Clearing the cache.", this.segmentFile));
+                }
+                this.reset();
+            } else {
+                this.resetIndex(Long.MIN_VALUE);
+            }
+            return;
+        }
+
+        if (fileGeneration != this.generation || fileLength < this.indexedLength) {
+            // Cleared or compacted by another process
+            this.resetIndex(fileGeneration);
+        }
+
+        if (fileLength > this.indexedLength) {
+            this.scan(fileLength, exclusive);
+        }
+    }
+
+    private void scan(long fileLength, boolean exclusive) throws IOException {
+        long position = this.indexedLength;
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        while (position + RECORD_HEADER_LENGTH <= fileLength) {
+            recordHeader.clear();
+            if (!this.readFully(recordHeader, position)) {
+                break;
+            }
+            int recordLength = recordHeader.getInt();
+            byte type = recordHeader.get();
+            long timestamp = recordHeader.getLong();
+            int keyLength = recordHeader.getInt();
+            int valueLength = recordHeader.getInt();
+            int expectedCrc = recordHeader.getInt();
+
+            if (type < RECORD_DOCUMENT || type > RECORD_DELETED ||
+                    keyLength <= 0 || valueLength < 0 ||
+                    recordLength != RECORD_HEADER_LENGTH + keyLength + valueLength ||
+                    position + recordLength > fileLength) {
+                break;
+            }
+
+            // Verify the checksum before indexing the record, a torn record
+            // must not replace the index entry of a previous valid record.
+            ByteBuffer recordBody = ByteBuffer.allocate(keyLength + valueLength);
+            if (!this.readFully(recordBody, position + RECORD_HEADER_LENGTH)) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(recordBody.array(), 0, keyLength + valueLength);
+            if ((int)crc.getValue() != expectedCrc) {
+                break;
+            }
+            String key = new String(recordBody.array(), 0, keyLength, StandardCharsets.UTF_8);
+
+            this.addToIndex(key, new IndexEntry(type, timestamp, position, recordLength));
+            position += recordLength;
+        }
+
+        this.indexedLength = position;
+
+        if (position < fileLength) {
+            // Incomplete or corrupted record, written by a process which died while writing
+            if (exclusive) {
+                LOGGER.warn(String.format("Truncating incomplete or corrupted records from the disk cache file: %s", this.segmentFile));
+                this.channel.truncate(position);
+            }
+        }
+    }
+
+    private void addToIndex(String key, IndexEntry entry) {
+        IndexEntry previous;
+        if (entry.type == RECORD_DELETED) {
+            previous = this.index.remove(key);
+            this.obsoleteLength += entry.length;
+        } else {
+            previous = this.index.put(key, entry);
+        }
+
+        if (previous != null) {
+            this.obsoleteLength += previous.length;
+        }
+    }
+
+    private void append(byte type, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_HEADER_LENGTH + keyBytes.length + value.length;
+        long timestamp = System.currentTimeMillis();
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(value);
+
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(recordLength)
+                .put(type)
+                .putLong(timestamp)
+                .putInt(keyBytes.length)
+                .putInt(value.length)
+                .putInt((int)crc.getValue())
+                .put(keyBytes)
+                .put(value);
+        record.flip();
+
+        // The index is up to date, the file ends at the end of the last indexed record
+        long position = this.indexedLength;
+        this.writeFully(record, position);
+        this.indexedLength = position + recordLength;
+
+        this.addToIndex(key, new IndexEntry(type, timestamp, position, recordLength));
+    }
+
+    private byte[] readValue(IndexEntry entry) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(entry.length);
+        if (!this.readFully(record, entry.position)) {
+            LOGGER.warn(String.format("Missing record in the disk cache file: %s", this.segmentFile));
+            return null;
+        }
+
+        record.position(RECORD_HEADER_LENGTH - 12);
+        int keyLength = record.getInt();
+        int valueLength = record.getInt();
+        int expectedCrc = record.getInt();
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, keyLength + valueLength);
+        if ((int)crc.getValue() != expectedCrc) {
+            LOGGER.warn(String.format("Corrupted record in the disk cache file: %s", this.segmentFile));
+            return null;
+        }
+
+        byte[] value = new byte[valueLength];
+        System.arraycopy(record.array(), RECORD_HEADER_LENGTH + keyLength, value, 0, valueLength);
+        return value;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (this.obsoleteLength > MIN_COMPACTION_LENGTH && this.obsoleteLength * 2 > this.indexedLength) {
+            this.compactLocked();
+        }
+    }
+
+    /**
+     * Slide the records used by the index towards the beginning of the file.
+     * Records are moved in file order, so a record is never overwritten before it's moved.
+     * The header state tells other processes to discard the file
+     * if this process dies during the compaction.
+     */
+    private void compactLocked() throws IOException {
+        long newGeneration = this.generation + 1;
+        this.writeHeader(STATE_COMPACTING, newGeneration);
+
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(this.index.values());
+        entries.sort(new Comparator<IndexEntry>() {
+            @Override
+            public int compare(IndexEntry entry1, IndexEntry entry2) {
+                return Long.compare(entry1.position, entry2.position);
+            }
+        });
+
+        long position = HEADER_LENGTH;
+        for (IndexEntry entry : entries) {
+            if (entry.position != position) {
+                ByteBuffer record = ByteBuffer.allocate(entry.length);
+                if (!this.readFully(record, entry.position)) {
+                    throw new IOException(String.format("Missing record in the disk cache file: %s", this.segmentFile));
+                }
+                this.writeFully(record, position);
+                entry.position = position;
+            }
+            position += entry.length;
+        }
+
+        this.channel.truncate(position);
+        this.channel.force(false);
+        this.writeHeader(STATE_READY, newGeneration);
+
+        LOGGER.debug(String.format("Disk cache file %s compacted from %d to %d bytes",
+                this.segmentFile, this.indexedLength, position));
+
+        this.generation = newGeneration;
+        this.indexedLength = position;
+        this.obsoleteLength = 0;
+    }
+
+    private void reset() throws IOException {
+        long newGeneration = Math.max(System.currentTimeMillis(), this.generation + 1);
+        this.channel.truncate(0);
+        this.writeHeader(STATE_READY, newGeneration);
+        this.resetIndex(newGeneration);
+    }
+
+    private void writeHeader(int state, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(state)
+                .putLong(generation);
+        header.flip();
+        this.writeFully(header, 0);
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += this.channel.write(buffer, position);
+        }
+    }
+
+    private static String getKey(PrimaryKey primaryKey) {
+        return primaryKey.toJSON().toString();
+    }
+
+    // The first byte of the value is the format ID
+    private static byte[] encode(JSONObject json, Format format) {
+        byte[] data;
+        switch (format) {
+            case BSON:
+                data = DatabaseTableDiskCache.toBson(json);
+                break;
+
+            case COMPRESSED_BSON:
+                data = DatabaseTableDiskCache.deflate(DatabaseTableDiskCache.toBson(json));
+                break;
+
+            default:
+                data = json.toString().getBytes(StandardCharsets.UTF_8);
+                break;
+        }
+
+        byte[] value = new byte[data.length + 1];
+        value[0] = format.id;
+        System.arraycopy(data, 0, value, 1, data.length);
+        return value;
+    }
+
+    private static JSONObject decode(byte[] value) throws IOException {
+        if (value.length < 1) {
+            return null;
+        }
+
+        Format format = Format.fromId(value[0]);
+        if (format == null) {
+            throw new IOException(String.format("Unsupported disk cache format ID: %d", value[0]));
+        }
+        switch (format) {
+            case BSON:
+                return DatabaseTableDiskCache.fromBson(ByteBuffer.wrap(value, 1, value.length - 1));
+
+            case COMPRESSED_BSON:
+                return DatabaseTableDiskCache.fromBson(ByteBuffer.wrap(DatabaseTableDiskCache.inflate(value, 1)));
+
+            default:
+                return new JSONObject(new String(value, 1, value.length - 1, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] toBson(JSONObject json) {
+        Document document = Document.parse(json.toString());
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            DOCUMENT_CODEC.encode(writer, document, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    // The JSONObject is built while reading the BSON, without the intermediate
+    // Document and JSON text. The values are converted the same way as documents
+    // received from the database (Document.toJson, strict mode).
+    private static JSONObject fromBson(ByteBuffer bson) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(bson.slice())) {
+            return DatabaseTableDiskCache.readJSONObject(reader);
+        }
+    }
+
+    private static JSONObject readJSONObject(BsonReader reader) {
+        JSONObject json = new JSONObject();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            json.put(name, DatabaseTableDiskCache.readJSONValue(reader));
+        }
+        reader.readEndDocument();
+        return json;
+    }
+
+    private static JSONArray readJSONArray(BsonReader reader) {
+        JSONArray jsonArray = new JSONArray();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            jsonArray.put(DatabaseTableDiskCache.readJSONValue(reader));
+        }
+        reader.readEndArray();
+        return jsonArray;
+    }
+
+    private static Object readJSONValue(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                return DatabaseTableDiskCache.readJSONObject(reader);
+
+            case ARRAY:
+                return DatabaseTableDiskCache.readJSONArray(reader);
+
+            case STRING:
+                return reader.readString();
+
+            case INT32:
+                return reader.readInt32();
+
+            case INT64:
+                return new JSONObject().put("$numberLong", String.valueOf(reader.readInt64()));
+
+            case DOUBLE:
+                double doubleValue = reader.readDouble();
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                    return DatabaseTableDiskCache.toJSONValue(new BsonDouble(doubleValue));
+                }
+                return doubleValue;
+
+            case BOOLEAN:
+                return reader.readBoolean();
+
+            case NULL:
+                reader.readNull();
+                return JSONObject.NULL;
+
+            default:
+                // Types which can't be created from a JSONObject document, such as
+                // dates or binary data, are converted using the MongoDB JSON writer
+                return DatabaseTableDiskCache.toJSONValue(BSON_VALUE_CODEC.decode(reader, DecoderContext.builder().build()));
+        }
+    }
+
+    private static Object toJSONValue(BsonValue value) {
+        return new JSONObject(new BsonDocument("value", value).toJson()).get("value");
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed document in disk cache");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch(DataFormatException ex) {
+            throw new IOException("Invalid compressed document in disk cache", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * List of formats used to store documents in the disk cache.
+     */
+    public enum Format {
+        /**
+         * JSON text. Documents are returned exactly as they were cached.
+         */
+        JSON((byte)0),
+
+        /**
+         * BSON, as used by the database.
+         * Documents are converted the same way as documents received from the database.
+         */
+        BSON((byte)1),
+
+        /**
+         * DEFLATE compressed BSON. Much smaller for documents with repetitive values,
+         * such as {@code NetCDFMetadataBean} time values.
+         */
+        COMPRESSED_BSON((byte)2);
+
+        private final byte id;
+
+        Format(byte id) {
+            this.id = id;
+        }
+
+        private static Format fromId(byte id) {
+            for (Format format : Format.values()) {
+                if (format.id == id) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class IndexEntry {
+        private final byte type;
+        private final long timestamp;
+        private long position;
+        private final int length;
+
+        public IndexEntry(byte type, long timestamp, long position, int length) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
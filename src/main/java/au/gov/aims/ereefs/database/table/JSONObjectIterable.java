@@ -4,29 +4,69 @@
  */
 package au.gov.aims.ereefs.database.table;
 
+import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import com.mongodb.client.MongoCursor;
 import org.apache.log4j.Logger;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * An {@code Iterable} object used to iterate through a list
  * of {@code JSONObject} found in the database.
  *
- * <p>It takes a {@link PrimaryKey} {@code Iterator} at creation.
- * For each iteration of the {@code JSONObjectIterable}, it send a
- * request to the database to get the {@code JSONObject} document
- * for the next {@link PrimaryKey}.</p>
+ * <p>It can be created in two modes:</p>
+ * <ul>
+ *   <li><em>Primary key mode</em>: It takes a {@link PrimaryKey} {@code Iterator}
+ *     at creation. The {@code JSONObject} documents are requested from the database
+ *     as needed, using a single request for each batch of {@link PrimaryKey}
+ *     (see {@link DatabaseTable#selectMany(java.util.Collection)}).</li>
+ *   <li><em>Streaming mode</em>: It takes a {@code Bson} filter at creation.
+ *     The documents are streamed from a single database cursor,
+ *     a batch of documents at the time. An interrupted cursor is re-opened,
+ *     and the documents which were already streamed are skipped, using their {@code _id}.</li>
+ * </ul>
  *
  * <p>It manages reconnection to the database automatically.</p>
+ *
+ * <p>In streaming mode, the cursor is closed automatically
+ * once all documents have been read. Call {@link #close()}
+ * to release it earlier.</p>
  */
-public class JSONObjectIterable implements Iterable<JSONObject> {
+public class JSONObjectIterable implements Iterable<JSONObject>, AutoCloseable {
     private static final Logger LOGGER = Logger.getLogger(JSONObjectIterable.class);
 
-    private Iterator<PrimaryKey> primaryKeyIterator;
     private DatabaseTable databaseTable;
 
+    // Primary key mode
+    private Iterator<PrimaryKey> primaryKeyIterator;
+    private LinkedList<PrimaryKey> pendingPrimaryKeys;
+    private Map<PrimaryKey, JSONObject> prefetched;
+
+    // Streaming mode
+    private boolean streaming;
+    private Bson filter;
+    private int batchSize;
+    private MongoCursor<Document> cursor;
+    // Keeps the MongoClient used by the cursor open, until the cursor is closed
+    private DatabaseClient.MongoClientLease cursorLease;
+    // Next document read from the cursor, not streamed yet
+    private Document nextDocument;
+    // _id of the streamed documents, used to resume an interrupted cursor
+    private Set<Object> streamedIds;
+    private boolean exhausted;
+
     /**
      * Creates a {@code JSONObjectIterable} from an {@code Iterator} of {@link PrimaryKey}
      * and a {@link DatabaseTable} object.
@@ -39,7 +79,31 @@ public class JSONObjectIterable implements Iterable<JSONObject> {
      */
     public JSONObjectIterable(DatabaseTable databaseTable, Iterator<PrimaryKey> primaryKeyIterator) {
         this.primaryKeyIterator = primaryKeyIterator;
+        this.pendingPrimaryKeys = new LinkedList<PrimaryKey>();
+        this.prefetched = null;
+        this.databaseTable = databaseTable;
+        this.streaming = false;
+    }
+
+    /**
+     * Creates a {@code JSONObjectIterable} which streams the documents
+     * matching a {@code Bson} filter from a single database cursor.
+     *
+     * <p>The cursor is opened the first time a document is requested.</p>
+     *
+     * @param databaseTable the database table object used to query {@code JSONObject} documents.
+     * @param filter {@code Bson} filter to filter the documents, or {@code null} to select all documents.
+     * @param batchSize number of documents requested from the database server at once.
+     */
+    public JSONObjectIterable(DatabaseTable databaseTable, Bson filter, int batchSize) {
         this.databaseTable = databaseTable;
+        this.filter = filter;
+        this.batchSize = Math.max(1, batchSize);
+        this.streaming = true;
+        this.cursor = null;
+        this.nextDocument = null;
+        this.streamedIds = new HashSet<Object>();
+        this.exhausted = false;
     }
 
     /**
@@ -49,7 +113,22 @@ public class JSONObjectIterable implements Iterable<JSONObject> {
      * @return {@code true} if the {@code Iterable} is empty.
      */
     public boolean isEmpty() {
-        return !this.primaryKeyIterator.hasNext();
+        if (this.streaming) {
+            return !this.cursorHasNext();
+        }
+        return !this.primaryKeyHasNext();
+    }
+
+    /**
+     * Release the database cursor, if the {@code JSONObjectIterable}
+     * is in streaming mode. Does nothing otherwise.
+     */
+    @Override
+    public void close() {
+        this.exhausted = true;
+        this.nextDocument = null;
+        this.streamedIds = null;
+        this.closeCursor();
     }
 
     /**
@@ -59,30 +138,159 @@ public class JSONObjectIterable implements Iterable<JSONObject> {
      */
     @Override
     public Iterator<JSONObject> iterator() {
+        if (this.streaming) {
+            return new Iterator<JSONObject>() {
+                @Override
+                public boolean hasNext() {
+                    return JSONObjectIterable.this.cursorHasNext();
+                }
+
+                @Override
+                public JSONObject next() {
+                    return JSONObjectIterable.this.cursorNext();
+                }
+            };
+        }
+
         return new Iterator<JSONObject>() {
             @Override
             public boolean hasNext() {
-                return JSONObjectIterable.this.primaryKeyIterator.hasNext();
+                return JSONObjectIterable.this.primaryKeyHasNext();
             }
 
             @Override
             public JSONObject next() {
-                PrimaryKey primaryKey = JSONObjectIterable.this.primaryKeyIterator.next();
-                if (primaryKey == null) {
-                    return null;
-                }
+                return JSONObjectIterable.this.primaryKeyNext();
+            }
+        };
+    }
+
+    private boolean primaryKeyHasNext() {
+        return !this.pendingPrimaryKeys.isEmpty() || this.primaryKeyIterator.hasNext();
+    }
+
+    private JSONObject primaryKeyNext() {
+        if (this.pendingPrimaryKeys.isEmpty()) {
+            this.prefetch();
+        }
+
+        PrimaryKey primaryKey = this.pendingPrimaryKeys.removeFirst();
+        if (primaryKey == null) {
+            return null;
+        }
+
+        if (this.prefetched != null) {
+            return this.prefetched.get(primaryKey);
+        }
+
+        // The batch request failed, try again with a request for the document
+        JSONObject json = null;
+        try {
+            json = this.databaseTable.select(primaryKey);
+        } catch(Exception ex) {
+            LOGGER.error(String.format("Error occurred while selecting the JSON document for table: %s, ID: %s",
+                    this.databaseTable.getTableName(), primaryKey.toString()), ex);
+        }
+
+        return json;
+    }
+
+    private void prefetch() {
+        int batchSize = Math.max(1, this.databaseTable.getCursorBatchSize());
+        List<PrimaryKey> batch = new ArrayList<PrimaryKey>();
+        while (this.pendingPrimaryKeys.size() < batchSize) {
+            PrimaryKey primaryKey = this.primaryKeyIterator.next();
+            this.pendingPrimaryKeys.add(primaryKey);
+            if (primaryKey != null) {
+                batch.add(primaryKey);
+            }
+            if (!this.primaryKeyIterator.hasNext()) {
+                break;
+            }
+        }
+
+        try {
+            this.prefetched = new HashMap<PrimaryKey, JSONObject>(this.databaseTable.selectMany(batch));
+        } catch(Exception ex) {
+            LOGGER.error(String.format("Error occurred while selecting a batch of %d JSON documents for table: %s",
+                    batch.size(), this.databaseTable.getTableName()), ex);
+            this.prefetched = null;
+        }
+    }
 
-                JSONObject json = null;
+    private boolean cursorHasNext() {
+        if (this.exhausted) {
+            return false;
+        }
+
+        boolean hasNext;
+        try {
+            // Opening and reading the cursor are retried as a single operation.
+            //     Transient errors close the cursor, the next attempt re-opens it.
+            hasNext = this.databaseTable.execute(() -> {
                 try {
-                    json = JSONObjectIterable.this.databaseTable.select(primaryKey);
+                    if (this.cursor == null) {
+                        this.cursorLease = this.databaseTable.getDatabaseClient().leaseSharedMongoClient();
+                        this.cursor = this.databaseTable.openCursor(this.filter, this.batchSize);
+                    }
+                    // Skip the documents streamed before the cursor was interrupted, if any
+                    while (this.nextDocument == null && this.cursor.hasNext()) {
+                        Document document = this.cursor.next();
+                        if (document != null && !this.streamedIds.contains(document.get("_id"))) {
+                            this.nextDocument = document;
+                        }
+                    }
+                    return this.nextDocument != null;
                 } catch(Exception ex) {
-                    LOGGER.error(String.format("Error occurred while selecting the JSON document for table: %s, ID: %s",
-                            JSONObjectIterable.this.databaseTable.getTableName(), primaryKey.toString()), ex);
+                    this.closeCursor();
+                    throw ex;
                 }
+            });
+        } catch(Exception ex) {
+            this.close();
+            LOGGER.error(String.format("Error occurred while streaming JSON documents from table: %s",
+                    this.databaseTable.getTableName()), ex);
+            throw new IllegalStateException(String.format("Error occurred while streaming JSON documents from table: %s",
+                    this.databaseTable.getTableName()), ex);
+        }
 
-                return json;
-            }
-        };
+        if (!hasNext) {
+            this.close();
+        }
+        return hasNext;
     }
 
+    private JSONObject cursorNext() {
+        if (!this.cursorHasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Document document = this.nextDocument;
+        this.nextDocument = null;
+        this.streamedIds.add(document.get("_id"));
+
+        try {
+            return this.databaseTable.streamDocument(document);
+        } catch(Exception ex) {
+            throw new IllegalStateException(String.format("Error occurred while streaming a JSON document from table: %s",
+                    this.databaseTable.getTableName()), ex);
+        }
+    }
+
+    // Package private, used by the tests to simulate an interrupted cursor
+    void closeCursor() {
+        if (this.cursor != null) {
+            try {
+                this.cursor.close();
+            } catch(Exception ex) {
+                LOGGER.warn(String.format("Error occurred while closing the database cursor for table: %s",
+                        this.databaseTable.getTableName()), ex);
+            }
+            this.cursor = null;
+        }
+        if (this.cursorLease != null) {
+            this.cursorLease.close();
+            this.cursorLease = null;
+        }
+    }
 }
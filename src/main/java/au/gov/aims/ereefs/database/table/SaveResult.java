@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import org.json.JSONObject;
+
+/**
+ * Outcome of saving a single document in a bulk save operation.
+ *
+ * <p>See {@link DatabaseTable#bulkSave(Iterable, boolean)}</p>
+ */
+public class SaveResult {
+    private PrimaryKey primaryKey;
+    private JSONObject document;
+    private Status status;
+    private String errorMessage;
+
+    /**
+     * Creates a save result for a document, before it's sent to the database.
+     *
+     * @param primaryKey the document's primary key. May be null if the document has no valid primary key.
+     * @param document the document to save.
+     */
+    public SaveResult(PrimaryKey primaryKey, JSONObject document) {
+        this.primaryKey = primaryKey;
+        this.document = document;
+        this.status = Status.SKIPPED;
+        this.errorMessage = null;
+    }
+
+    /**
+     * Returns the document's primary key.
+     * @return the document's primary key, or null if the document has no valid primary key.
+     */
+    public PrimaryKey getPrimaryKey() {
+        return this.primaryKey;
+    }
+
+    /**
+     * Returns the document, as sent to the database.
+     * @return the document.
+     */
+    public JSONObject getDocument() {
+        return this.document;
+    }
+
+    /**
+     * Returns the outcome of the save operation.
+     * @return the save status.
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Returns {@code true} if the document was inserted or updated; {@code false} otherwise.
+     * @return {@code true} if the document was saved in the database.
+     */
+    public boolean isSaved() {
+        return Status.INSERTED.equals(this.status) || Status.UPDATED.equals(this.status);
+    }
+
+    /**
+     * Returns the error message, if the document could not be saved.
+     * @return the error message, or null.
+     */
+    public String getErrorMessage() {
+        return this.errorMessage;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Returns a string representation of the save result.
+     * @return a string representation of the save result.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s %s%s",
+                this.status,
+                this.primaryKey == null ? "NULL" : this.primaryKey.toJSON().toString(),
+                this.errorMessage == null ? "" : ": " + this.errorMessage);
+    }
+
+    /**
+     * List of possible outcome of a save operation.
+     */
+    public enum Status {
+        /**
+         * A new document was inserted in the database
+         */
+        INSERTED,
+
+        /**
+         * An existing document was replaced
+         */
+        UPDATED,
+
+        /**
+         * The document could not be saved. See {@link #getErrorMessage()}.
+         */
+        FAILED,
+
+        /**
+         * The document was not sent to the database, because a previous
+         * document failed in an ordered bulk save.
+         */
+        SKIPPED
+    }
+}
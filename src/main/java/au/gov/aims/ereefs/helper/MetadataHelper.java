@@ -12,6 +12,8 @@ import au.gov.aims.ereefs.database.CacheStrategy;
 import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.manager.MetadataManager;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
 import com.amazonaws.services.s3.AmazonS3URI;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
@@ -20,7 +22,12 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Helper class used to simplify interaction with the database.
@@ -35,6 +42,7 @@ public class MetadataHelper {
 
     private DatabaseClient dbClient;
     private MetadataManager metadataManager;
+    private NetCDFMetadataMapCache netCDFMetadataMapCache;
 
     /**
      * @deprecated Use {@link #MetadataHelper(DatabaseClient, CacheStrategy)}
@@ -54,6 +62,7 @@ public class MetadataHelper {
     public MetadataHelper(DatabaseClient dbClient, CacheStrategy cacheStrategy) {
         this.dbClient = dbClient;
         this.metadataManager = new MetadataManager(this.dbClient, cacheStrategy);
+        this.netCDFMetadataMapCache = new NetCDFMetadataMapCache(this);
     }
 
     /**
@@ -65,11 +74,32 @@ public class MetadataHelper {
     }
 
     /**
-     * Clear the {@link MetadataManager} cache.
+     * Clear the {@link MetadataManager} cache and the {@link NetCDFMetadataMapCache}.
      * @throws IOException if something goes wrong while clearing the disk cache.
      */
     public void clearCache() throws IOException {
         this.metadataManager.clearCache();
+        this.netCDFMetadataMapCache.clear();
+    }
+
+    /**
+     * Returns the memory cache of {@link NetCDFMetadataBean}, grouped by definition ID.
+     * Used by {@link NcAnimateConfigHelper#getValidNetCDFMetadataMap(au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean, MetadataHelper)}.
+     *
+     * @return the {@link NetCDFMetadataMapCache} of this helper.
+     */
+    public NetCDFMetadataMapCache getNetCDFMetadataMapCache() {
+        return this.netCDFMetadataMapCache;
+    }
+
+    /**
+     * Returns the {@link MetadataManager} used to query the database.
+     * Used by {@link NetCDFMetadataMapCache}.
+     *
+     * @return the {@link MetadataManager}.
+     */
+    MetadataManager getMetadataManager() {
+        return this.metadataManager;
     }
 
     /**
@@ -228,6 +258,55 @@ public class MetadataHelper {
         };
     }
 
+    /**
+     * Returns the {@link NetCDFMetadataBean} of a given {@code definitionId}
+     * which were modified after a given timestamp.
+     *
+     * <p>A metadata is considered modified if its {@code lastModified}
+     * or its {@code lastDownloaded} timestamp is greater than {@code watermark}.
+     * Deleted metadata can be found by comparing the result of
+     * {@link #getNetCDFMetadataIds(String)} with the previous list of metadata.
+     * See {@link NetCDFMetadataSnapshotStore}.</p>
+     *
+     * @param definitionId the definition ID.
+     * @param watermark timestamp, in milliseconds since epoch.
+     * @return the list of modified {@link NetCDFMetadataBean}.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<NetCDFMetadataBean> getNetCDFMetadatasModifiedSince(String definitionId, long watermark) throws Exception {
+        List<NetCDFMetadataBean> metadatas = new ArrayList<NetCDFMetadataBean>();
+        JSONObjectIterable jsonMetadatas = this.metadataManager.selectByDefinitionIdModifiedSince(
+                MetadataManager.MetadataType.NETCDF, definitionId, watermark);
+        for (JSONObject jsonMetadata : jsonMetadatas) {
+            if (jsonMetadata != null && MetadataManager.isModifiedSince(jsonMetadata, watermark)) {
+                metadatas.add(new NetCDFMetadataBean(jsonMetadata));
+            }
+        }
+
+        return metadatas;
+    }
+
+    /**
+     * Returns the ID of all the {@link NetCDFMetadataBean} of a given {@code definitionId}.
+     *
+     * <p>Only the document IDs are transferred from the database.</p>
+     *
+     * @param definitionId the definition ID.
+     * @return the list of metadata IDs.
+     * @throws Exception if the database is unreachable.
+     */
+    public List<String> getNetCDFMetadataIds(String definitionId) throws Exception {
+        List<String> ids = new ArrayList<String>();
+        for (PrimaryKey primaryKey : this.metadataManager.selectPrimaryKeysByDefinitionId(MetadataManager.MetadataType.NETCDF, definitionId)) {
+            Object id = ((SinglePrimaryKey)primaryKey).getKeyValue();
+            if (id != null) {
+                ids.add(id.toString());
+            }
+        }
+
+        return ids;
+    }
+
     /**
      * Retrieve a {@link NetCDFMetadataBean} from the database
      * for a given {@code definitionId} and a given {@code datasetId}.
@@ -247,6 +326,35 @@ public class MetadataHelper {
         return null;
     }
 
+    /**
+     * Retrieve the {@link NetCDFMetadataBean} of multiple datasets from the database,
+     * for a given {@code definitionId}.
+     *
+     * <p>The metadata documents are requested using as few database requests as possible.
+     * See {@link au.gov.aims.ereefs.database.table.DatabaseTable#selectMany(Collection)}.</p>
+     *
+     * @param definitionId the definition ID.
+     * @param datasetIds the dataset IDs.
+     * @return a {@code Map} of {@link NetCDFMetadataBean}, keyed by dataset ID.
+     *     Datasets which are not found are not in the {@code Map}.
+     * @throws Exception if the database is unreachable.
+     */
+    public Map<String, NetCDFMetadataBean> getNetCDFMetadatas(String definitionId, Collection<String> datasetIds) throws Exception {
+        Map<PrimaryKey, String> datasetIdMap = new LinkedHashMap<PrimaryKey, String>();
+        for (String datasetId : datasetIds) {
+            String id = NetCDFMetadataBean.getUniqueDatasetId(definitionId, datasetId);
+            datasetIdMap.put(this.metadataManager.getTable().getPrimaryKey(id), datasetId);
+        }
+
+        Map<String, NetCDFMetadataBean> metadatas = new LinkedHashMap<String, NetCDFMetadataBean>();
+        Map<PrimaryKey, JSONObject> jsonMetadatas = this.metadataManager.selectMany(datasetIdMap.keySet());
+        for (Map.Entry<PrimaryKey, JSONObject> jsonMetadataEntry : jsonMetadatas.entrySet()) {
+            metadatas.put(datasetIdMap.get(jsonMetadataEntry.getKey()), new NetCDFMetadataBean(jsonMetadataEntry.getValue()));
+        }
+
+        return metadatas;
+    }
+
     /**
      * Download the NetCDF file associated with a {@link NetCDFMetadataBean}, to a given
      * location on disk.
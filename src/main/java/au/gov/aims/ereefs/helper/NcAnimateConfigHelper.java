@@ -27,15 +27,20 @@ import au.gov.aims.ereefs.database.manager.MetadataManager;
 import au.gov.aims.ereefs.database.manager.ncanimate.ConfigManager;
 import au.gov.aims.ereefs.database.manager.ncanimate.ConfigPartManager;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import au.gov.aims.json.JSONWrapperObject;
+import com.mongodb.client.model.Projections;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -50,16 +55,20 @@ import java.util.Set;
 public class NcAnimateConfigHelper {
     private static final Logger LOGGER = Logger.getLogger(NcAnimateConfigHelper.class);
 
+    private static final String LAST_MODIFIED_PROPERTY = "lastModified";
+    // Used to remember configuration parts which were not found in the database
+    private static final String NOT_FOUND_LAST_MODIFIED = "";
+
     private DatabaseClient dbClient;
     private ConfigManager configManager;
     private ConfigPartManager configPartManager;
+    private boolean prefetchConfigParts;
 
-    // Key: inputDefinitionId (aka downloadDefinitionId)
-    // Value: Map
-    //     Key: metadata id (usually the NetCDF filename)
-    //     Value: NetCDFMetadataBean (extracted NetCDF metadata)
-    private static Map<String, Map<String, NetCDFMetadataBean>> netCDFValidMetadataMapCache;
-    private static Map<String, Map<String, NetCDFMetadataBean>> netCDFAllMetadataMapCache;
+    // Resolved configurations, with the lastModified of every document used to build them.
+    // Key: NcAnimate configuration ID
+    private final Map<String, ResolvedConfig> resolvedConfigCache = new HashMap<String, ResolvedConfig>();
+    private boolean resolvedConfigCacheEnabled;
+    private long resolvedConfigCheckInterval;
 
     /**
      * @deprecated Use {@link #NcAnimateConfigHelper(DatabaseClient, CacheStrategy)}
@@ -80,6 +89,9 @@ public class NcAnimateConfigHelper {
         this.dbClient = dbClient;
         this.configManager = new ConfigManager(this.dbClient, cacheStrategy);
         this.configPartManager = new ConfigPartManager(this.dbClient, cacheStrategy);
+        this.prefetchConfigParts = true;
+        this.resolvedConfigCacheEnabled = false;
+        this.resolvedConfigCheckInterval = 0;
     }
 
     /**
@@ -97,6 +109,102 @@ public class NcAnimateConfigHelper {
      */
     public void clearCache() throws IOException {
         this.configManager.clearCache();
+        this.configPartManager.clearCache();
+        synchronized (this.resolvedConfigCache) {
+            this.resolvedConfigCache.clear();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the resolved configuration cache is enabled.
+     *
+     * <p>Default: {@code false}</p>
+     *
+     * @return {@code true} if the resolved configurations are cached.
+     */
+    public boolean isResolvedConfigCacheEnabled() {
+        return this.resolvedConfigCacheEnabled;
+    }
+
+    /**
+     * Enable or disable the resolved configuration cache.
+     *
+     * <p>Combining a NcAnimate configuration with its configuration parts
+     * is expensive. When the cache is enabled, the combined
+     * {@link NcAnimateConfigBean} is kept in memory, with the
+     * {@code lastModified} value of the configuration and of every
+     * configuration part used to build it. The same {@link NcAnimateConfigBean}
+     * instance is returned for as long as none of those documents are modified.
+     * Checking for modifications only requires a query which returns the
+     * {@code lastModified} values of the configuration parts.</p>
+     *
+     * <p>NOTE: The returned {@link NcAnimateConfigBean} instances are shared,
+     * they must not be modified. Configurations which uses a document
+     * without {@code lastModified} value are never cached since their
+     * modifications can not be detected.</p>
+     *
+     * @param resolvedConfigCacheEnabled {@code true} to enable the resolved configuration cache.
+     */
+    public void setResolvedConfigCacheEnabled(boolean resolvedConfigCacheEnabled) {
+        this.resolvedConfigCacheEnabled = resolvedConfigCacheEnabled;
+        if (!resolvedConfigCacheEnabled) {
+            synchronized (this.resolvedConfigCache) {
+                this.resolvedConfigCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the minimum number of milliseconds between two checks
+     * of the configuration parts of a cached resolved configuration.
+     *
+     * <p>Default: {@code 0} (check on every request)</p>
+     *
+     * @return the check interval, in milliseconds.
+     */
+    public long getResolvedConfigCheckInterval() {
+        return this.resolvedConfigCheckInterval;
+    }
+
+    /**
+     * Set the minimum number of milliseconds between two checks of the
+     * configuration parts of a cached resolved configuration.
+     * Modifications made to the configuration parts during that interval are ignored.
+     * The {@code lastModified} of the NcAnimate configuration itself is always checked.
+     *
+     * @param resolvedConfigCheckInterval the check interval, in milliseconds.
+     */
+    public void setResolvedConfigCheckInterval(long resolvedConfigCheckInterval) {
+        this.resolvedConfigCheckInterval = Math.max(0, resolvedConfigCheckInterval);
+    }
+
+    /**
+     * Returns {@code true} if the configuration parts are requested in batches
+     * before being combined into the NcAnimate configuration.
+     *
+     * <p>Default: {@code true}</p>
+     *
+     * @return {@code true} if the configuration parts are prefetched.
+     */
+    public boolean isPrefetchConfigParts() {
+        return this.prefetchConfigParts;
+    }
+
+    /**
+     * Set to {@code true} to request all the configuration parts referenced by
+     * a NcAnimate configuration in a few database requests, before combining them
+     * into the NcAnimate configuration. The configuration parts are requested
+     * one at the time otherwise.
+     *
+     * <p>The parts are requested level by level: the parts referenced in the
+     * NcAnimate configuration first, then the parts referenced in the parts
+     * (layers referenced in panels, inputs and variables referenced in layers,
+     * etc). Each level is requested using a single database query.</p>
+     *
+     * @param prefetchConfigParts {@code false} to request the configuration parts one at the time.
+     */
+    public void setPrefetchConfigParts(boolean prefetchConfigParts) {
+        this.prefetchConfigParts = prefetchConfigParts;
     }
 
     /**
@@ -167,7 +275,21 @@ public class NcAnimateConfigHelper {
                         configId));
         }
 
-        NcAnimateConfigBean ncAnimateConfig = this.combineParts(new NcAnimateConfigBean(new JSONWrapperObject(jsonConfig)));
+        if (configId == null) {
+            configId = jsonConfig.optString("_id", null);
+        }
+        String configLastModified = NcAnimateConfigHelper.getLastModified(jsonConfig);
+        boolean cacheable = this.resolvedConfigCacheEnabled && configId != null && configLastModified != null;
+
+        if (cacheable) {
+            NcAnimateConfigBean cachedConfig = this.getResolvedConfig(configId, configLastModified);
+            if (cachedConfig != null) {
+                return cachedConfig;
+            }
+        }
+
+        ConfigPartResolver parts = new ConfigPartResolver();
+        NcAnimateConfigBean ncAnimateConfig = this.combineParts(parts, new NcAnimateConfigBean(new JSONWrapperObject(jsonConfig)));
 
         // Check if the configuration is valid (if every fields have been parsed)
         // This is used to prevent confusion due to typos in config
@@ -182,9 +304,90 @@ public class NcAnimateConfigHelper {
 
         this.validateNcAnimateConfig(ncAnimateConfig);
 
+        if (cacheable) {
+            if (parts.getUsedPartLastModified().containsValue(null)) {
+                LOGGER.debug(String.format("NcAnimate configuration %s uses configuration parts without lastModified. It will not be cached.", configId));
+            } else {
+                synchronized (this.resolvedConfigCache) {
+                    this.resolvedConfigCache.put(configId,
+                        new ResolvedConfig(ncAnimateConfig, configLastModified, parts.getUsedPartLastModified()));
+                }
+            }
+        }
+
         return ncAnimateConfig;
     }
 
+    /**
+     * Returns the cached resolved configuration, if none of the documents
+     * used to build it were modified.
+     *
+     * <p>The configuration may come from the table cache, so its {@code lastModified}
+     * is checked against the database, with the {@code lastModified} of its parts.
+     * If the configuration was modified, it's selected again and resolved.</p>
+     */
+    private NcAnimateConfigBean getResolvedConfig(String configId, String configLastModified) throws Exception {
+        ResolvedConfig resolvedConfig;
+        synchronized (this.resolvedConfigCache) {
+            resolvedConfig = this.resolvedConfigCache.get(configId);
+        }
+        if (resolvedConfig == null) {
+            return null;
+        }
+
+        boolean fresh = configLastModified.equals(resolvedConfig.configLastModified);
+        long now = System.currentTimeMillis();
+        if (fresh && now - resolvedConfig.lastChecked >= this.resolvedConfigCheckInterval) {
+            PrimaryKey configKey = this.configManager.getTable().getPrimaryKey(configId);
+            Map<PrimaryKey, JSONObject> jsonConfigs = this.configManager.selectMany(
+                    Collections.singletonList(configKey), Projections.include(LAST_MODIFIED_PROPERTY));
+            JSONObject jsonConfig = jsonConfigs.get(configKey);
+            String dbConfigLastModified = jsonConfig == null ? NOT_FOUND_LAST_MODIFIED : NcAnimateConfigHelper.getLastModified(jsonConfig);
+            if (!configLastModified.equals(dbConfigLastModified)) {
+                // The configuration was served from an outdated table cache
+                this.configManager.getTable().invalidateCache(configKey);
+                synchronized (this.resolvedConfigCache) {
+                    this.resolvedConfigCache.remove(configId);
+                }
+                return this.combineNcAnimateConfig(this.configManager.select(configId), configId);
+            }
+
+            Map<PrimaryKey, JSONObject> jsonParts = this.configPartManager.selectMany(
+                    resolvedConfig.partLastModified.keySet(), Projections.include(LAST_MODIFIED_PROPERTY));
+
+            for (Map.Entry<PrimaryKey, String> partLastModifiedEntry : resolvedConfig.partLastModified.entrySet()) {
+                JSONObject jsonPart = jsonParts.get(partLastModifiedEntry.getKey());
+                String partLastModified = jsonPart == null ? NOT_FOUND_LAST_MODIFIED : NcAnimateConfigHelper.getLastModified(jsonPart);
+                if (!partLastModifiedEntry.getValue().equals(partLastModified)) {
+                    // The cached configuration part (if any) is outdated
+                    this.configPartManager.getTable().invalidateCache(partLastModifiedEntry.getKey());
+                    fresh = false;
+                }
+            }
+
+            if (fresh) {
+                resolvedConfig.lastChecked = now;
+            }
+        }
+
+        if (!fresh) {
+            synchronized (this.resolvedConfigCache) {
+                this.resolvedConfigCache.remove(configId);
+            }
+            return null;
+        }
+
+        return resolvedConfig.config;
+    }
+
+    private static String getLastModified(JSONObject json) {
+        Object lastModified = json.opt(LAST_MODIFIED_PROPERTY);
+        if (lastModified == null || JSONObject.NULL.equals(lastModified)) {
+            return null;
+        }
+        return lastModified.toString();
+    }
+
     /**
      * Validate a NcAnimate configuration document.
      *
@@ -275,7 +478,11 @@ public class NcAnimateConfigHelper {
         return true;
     }
 
-    private NcAnimateConfigBean combineParts(NcAnimateConfigBean config) throws Exception {
+    private NcAnimateConfigBean combineParts(ConfigPartResolver parts, NcAnimateConfigBean config) throws Exception {
+        if (this.prefetchConfigParts) {
+            parts.prefetch(config);
+        }
+
         // Regions
         Map<String, NcAnimateRegionBean> regionMap = config.getRegions();
         if (regionMap != null) {
@@ -283,7 +490,7 @@ public class NcAnimateConfigHelper {
             for (String regionId : regionIds) {
                 NcAnimateRegionBean regionOverwrites = regionMap.get(regionId);
 
-                JSONObject jsonRegion = this.configPartManager.select(ConfigPartManager.Datatype.REGION, regionId);
+                JSONObject jsonRegion = parts.select(ConfigPartManager.Datatype.REGION, regionId);
                 if (jsonRegion != null) {
                     // Region found in DB, apply overwrites found in the JSON config (if any)
                     NcAnimateRegionBean region = new NcAnimateRegionBean(new JSONWrapperObject(jsonRegion));
@@ -318,7 +525,7 @@ public class NcAnimateConfigHelper {
             if (canvasId != null) {
                 String canvasIdStr = canvasId.getValue();
                 if (canvasIdStr != null && !canvasIdStr.isEmpty()) {
-                    JSONObject jsonCanvas = this.configPartManager.select(ConfigPartManager.Datatype.CANVAS, canvasIdStr);
+                    JSONObject jsonCanvas = parts.select(ConfigPartManager.Datatype.CANVAS, canvasIdStr);
                     if (jsonCanvas != null) {
                         NcAnimateCanvasBean canvas = new NcAnimateCanvasBean(new JSONWrapperObject(jsonCanvas));
                         canvasOverwrites.overwrite(canvas, canvasOverwrites);
@@ -335,9 +542,9 @@ public class NcAnimateConfigHelper {
         NcAnimateLegendBean defaultLegend = null;
         if (defaults != null) {
             defaultLegend = defaults.getLegend();
-            this.combineLegendParts(config, defaultLegend);
+            this.combineLegendParts(parts, config, defaultLegend);
             defaultPanel = defaults.getPanel();
-            this.combinePanelParts(config, defaultPanel, defaultLegend);
+            this.combinePanelParts(parts, config, defaultPanel, defaultLegend);
             config.addAllNeverVisited("defaults", defaults.getNeverVisited());
         }
 
@@ -356,7 +563,7 @@ public class NcAnimateConfigHelper {
                 }
 
                 panel.overwrite(defaultPanel, panel);
-                this.combinePanelParts(config, panel, defaultLegend);
+                this.combinePanelParts(parts, config, panel, defaultLegend);
                 config.addAllNeverVisited("panels["+panelIdStr+"]", panel.getNeverVisited());
             }
         }
@@ -368,7 +575,7 @@ public class NcAnimateConfigHelper {
             if (renderId != null) {
                 String renderIdStr = renderId.getValue();
                 if (renderIdStr != null && !renderIdStr.isEmpty()) {
-                    JSONObject jsonRender = this.configPartManager.select(ConfigPartManager.Datatype.RENDER, renderIdStr);
+                    JSONObject jsonRender = parts.select(ConfigPartManager.Datatype.RENDER, renderIdStr);
                     if (jsonRender != null) {
                         NcAnimateRenderBean render = new NcAnimateRenderBean(new JSONWrapperObject(jsonRender));
                         renderOverwrites.overwrite(render, renderOverwrites);
@@ -382,7 +589,7 @@ public class NcAnimateConfigHelper {
         return config;
     }
 
-    private void combineLegendParts(NcAnimateConfigBean config, NcAnimateLegendBean legend) throws Exception {
+    private void combineLegendParts(ConfigPartResolver parts, NcAnimateConfigBean config, NcAnimateLegendBean legend) throws Exception {
         // If "defaults.legend" refer to a legend ID, find that legend from the DB
         // and put that object in "defaults.legend".
         // The legend overwrite in layers appends in "combinePanelParts".
@@ -392,7 +599,7 @@ public class NcAnimateConfigHelper {
             if (legendId != null) {
                 String legendIdStr = legendId.getValue();
                 if (legendIdStr != null && !legendIdStr.isEmpty()) {
-                    JSONObject jsonDbLegend = this.configPartManager.select(ConfigPartManager.Datatype.LEGEND, legendIdStr);
+                    JSONObject jsonDbLegend = parts.select(ConfigPartManager.Datatype.LEGEND, legendIdStr);
                     if (jsonDbLegend != null) {
                         NcAnimateLegendBean dbLegend = new NcAnimateLegendBean(new JSONWrapperObject(jsonDbLegend));
                         legend.overwrite(dbLegend, legend);
@@ -404,14 +611,14 @@ public class NcAnimateConfigHelper {
         }
     }
 
-    private void combinePanelParts(NcAnimateConfigBean config, NcAnimatePanelBean panel, NcAnimateLegendBean defaultLegend) throws Exception {
+    private void combinePanelParts(ConfigPartResolver parts, NcAnimateConfigBean config, NcAnimatePanelBean panel, NcAnimateLegendBean defaultLegend) throws Exception {
         if (panel != null) {
             // Panel part
             NcAnimateIdBean panelId = panel.getId();
             if (panelId != null) {
                 String panelIdStr = panelId.getValue();
                 if (panelIdStr != null && !panelIdStr.isEmpty()) {
-                    JSONObject jsonDbPanel = this.configPartManager.select(ConfigPartManager.Datatype.PANEL, panelIdStr);
+                    JSONObject jsonDbPanel = parts.select(ConfigPartManager.Datatype.PANEL, panelIdStr);
                     if (jsonDbPanel != null) {
                         NcAnimatePanelBean dbPanel = new NcAnimatePanelBean(new JSONWrapperObject(jsonDbPanel));
                         panel.overwrite(dbPanel, panel);
@@ -435,7 +642,7 @@ public class NcAnimateConfigHelper {
                         if (layerId != null) {
                             String layerIdStr = layerId.getValue();
                             if (layerIdStr != null && !layerIdStr.isEmpty()) {
-                                JSONObject jsonLayer = this.configPartManager.select(ConfigPartManager.Datatype.LAYER, layerIdStr);
+                                JSONObject jsonLayer = parts.select(ConfigPartManager.Datatype.LAYER, layerIdStr);
                                 if (jsonLayer != null) {
                                     NcAnimateLayerBean dbLayer = new NcAnimateLayerBean(new JSONWrapperObject(jsonLayer));
                                     layerOverwrite.overwrite(dbLayer, layerOverwrite); // Change layerOverwrite to "dbLayer overwrite with the values found in layerOverwrite (in NcAnimate config)"
@@ -468,13 +675,13 @@ public class NcAnimateConfigHelper {
 
             // Combine layer parts (get variable info from DB)
             for (NcAnimateLayerBean layer : layerIndex.values()) {
-                this.combineLayerParts(config, layer, defaultLegend);
+                this.combineLayerParts(parts, config, layer, defaultLegend);
                 panel.addAllNeverVisited("layers["+layer.getId().getValue()+"]", layer.getNeverVisited());
             }
         }
     }
 
-    private void combineLayerParts(NcAnimateConfigBean config, NcAnimateLayerBean layer, NcAnimateLegendBean defaultLegend) throws Exception {
+    private void combineLayerParts(ConfigPartResolver parts, NcAnimateConfigBean config, NcAnimateLayerBean layer, NcAnimateLegendBean defaultLegend) throws Exception {
         // Set parts for layer type netcdf
         if (layer != null) {
             if (NcAnimateLayerBean.LayerType.NETCDF.equals(layer.getType()) ||
@@ -487,7 +694,7 @@ public class NcAnimateConfigHelper {
                     if (inputId != null) {
                         String inputIdStr = inputId.getValue();
                         if (inputIdStr != null && !inputIdStr.isEmpty()) {
-                            JSONObject jsonInput = this.configPartManager.select(ConfigPartManager.Datatype.INPUT, inputIdStr);
+                            JSONObject jsonInput = parts.select(ConfigPartManager.Datatype.INPUT, inputIdStr);
 
                             if (jsonInput != null) {
                                 NcAnimateInputBean input = new NcAnimateInputBean(new JSONWrapperObject(jsonInput));
@@ -504,11 +711,11 @@ public class NcAnimateConfigHelper {
 
                 // Variable
                 NcAnimateNetCDFVariableBean variableOverwrites = layer.getVariable();
-                this.applyVariableOverwrites(config, layer, variableOverwrites, "variable", defaultLegend);
+                this.applyVariableOverwrites(parts, config, layer, variableOverwrites, "variable", defaultLegend);
 
                 // Arrow variable
                 NcAnimateNetCDFVariableBean arrowVariableOverwrites = layer.getArrowVariable();
-                this.applyVariableOverwrites(config, layer, arrowVariableOverwrites, "arrowVariable", defaultLegend);
+                this.applyVariableOverwrites(parts, config, layer, arrowVariableOverwrites, "arrowVariable", defaultLegend);
             }
         }
     }
@@ -516,6 +723,7 @@ public class NcAnimateConfigHelper {
     /**
      * Private method used to apply variable overwrites
      * and legend default values (found in "defaults.legend").
+     * @param parts the {@link ConfigPartResolver} used to get configuration parts from the database.
      * @param config the {@link NcAnimateConfigBean} configuration document.
      * @param layer the {@link NcAnimateLayerBean} layer containing the variable to overwrite.
      * @param variableOverwrites the {@link NcAnimateNetCDFVariableBean} variable to overwrite.
@@ -524,6 +732,7 @@ public class NcAnimateConfigHelper {
      * @throws Exception if the database is unreachable.
      */
     private void applyVariableOverwrites(
+            ConfigPartResolver parts,
             NcAnimateConfigBean config,
             NcAnimateLayerBean layer,
             NcAnimateNetCDFVariableBean variableOverwrites,
@@ -535,7 +744,7 @@ public class NcAnimateConfigHelper {
             if (variableId != null) {
                 String variableIdStr = variableId.getValue();
                 if (variableIdStr != null && !variableIdStr.isEmpty()) {
-                    JSONObject jsonVariable = this.configPartManager.select(ConfigPartManager.Datatype.VARIABLE, variableIdStr);
+                    JSONObject jsonVariable = parts.select(ConfigPartManager.Datatype.VARIABLE, variableIdStr);
                     if (jsonVariable != null) {
                         NcAnimateNetCDFVariableBean variable = new NcAnimateNetCDFVariableBean(new JSONWrapperObject(jsonVariable));
                         variableOverwrites.overwrite(variable, variableOverwrites);
@@ -553,10 +762,10 @@ public class NcAnimateConfigHelper {
                 NcAnimateLegendBean legendConfOverwrite = variableOverwrites.getLegend();
                 if (legendConfOverwrite == null) {
                     legendConfOverwrite = defaultLegend;
-                    this.combineLegendParts(config, legendConfOverwrite);
+                    this.combineLegendParts(parts, config, legendConfOverwrite);
                     variableOverwrites.setLegend(legendConfOverwrite);
                 } else {
-                    this.combineLegendParts(config, legendConfOverwrite);
+                    this.combineLegendParts(parts, config, legendConfOverwrite);
                     legendConfOverwrite.overwrite(defaultLegend, legendConfOverwrite);
                 }
 
@@ -579,6 +788,9 @@ public class NcAnimateConfigHelper {
      *     </li>
      * </ul>
      *
+     * <p>The metadata is cached by the {@link NetCDFMetadataMapCache} of the {@link MetadataHelper}.
+     * The {@code Map} of NetCDF file metadata are shared, they must not be modified.</p>
+     *
      * @param ncAnimateConfig the {@link NcAnimateConfigBean} configuration to parse.
      * @param metadataHelper the {@link MetadataHelper} to use to retrieve NetCDF metadata from the database.
      * @return a {@code Map} of NetCDF file, as described above.
@@ -607,14 +819,8 @@ public class NcAnimateConfigHelper {
             MetadataHelper metadataHelper,
             boolean onlyValid) throws Exception {
 
-        if (netCDFValidMetadataMapCache == null) {
-            netCDFValidMetadataMapCache = new HashMap<String, Map<String, NetCDFMetadataBean>>();
-        }
-        if (netCDFAllMetadataMapCache == null) {
-            netCDFAllMetadataMapCache = new HashMap<String, Map<String, NetCDFMetadataBean>>();
-        }
-
-        Map<String, Map<String, NetCDFMetadataBean>> cache = onlyValid ? netCDFValidMetadataMapCache : netCDFAllMetadataMapCache;
+        NetCDFMetadataMapCache cache = metadataHelper.getNetCDFMetadataMapCache();
+        Map<String, Map<String, NetCDFMetadataBean>> netCDFMetadataMaps = new HashMap<String, Map<String, NetCDFMetadataBean>>();
 
         List<NcAnimatePanelBean> panels = ncAnimateConfig.getPanels();
         if (panels != null) {
@@ -631,16 +837,11 @@ public class NcAnimateConfigHelper {
                                     // Cache the NetCDF file metadata request, to avoid duplicate DB queries.
                                     // NOTE: In many case, all the panels will use the same layers,
                                     //     so caching those request will save significant processing time.
-                                    if (!cache.containsKey(inputDefinitionIdStr)) {
-                                        Map<String, NetCDFMetadataBean> netCDFMetadataMap =
-                                                getMetadataMap(metadataHelper, inputDefinitionIdStr, onlyValid);
-
-                                        if (netCDFMetadataMap != null) {
-                                            cache.put(
-                                                inputDefinitionIdStr,
-                                                netCDFMetadataMap
-                                            );
-                                        }
+                                    if (!netCDFMetadataMaps.containsKey(inputDefinitionIdStr)) {
+                                        netCDFMetadataMaps.put(
+                                            inputDefinitionIdStr,
+                                            cache.get(inputDefinitionIdStr, onlyValid)
+                                        );
                                     }
                                 }
                             }
@@ -650,40 +851,16 @@ public class NcAnimateConfigHelper {
             }
         }
 
-        return cache;
-    }
-
-    private static Map<String, NetCDFMetadataBean> getMetadataMap(MetadataHelper metadataHelper, String inputDefinitionIdStr, boolean onlyValid) throws Exception {
-        Iterable<NetCDFMetadataBean> netCDFMetadataIterable = onlyValid ?
-                metadataHelper.getValidNetCDFMetadatas(inputDefinitionIdStr) :
-                metadataHelper.getAllNetCDFMetadatas(inputDefinitionIdStr);
-
-        if (netCDFMetadataIterable == null) {
-            return null;
-        }
-
-        Map<String, NetCDFMetadataBean> netCDFMetadataMap = new HashMap<String, NetCDFMetadataBean>();
-        for (NetCDFMetadataBean netCDFMetadata : netCDFMetadataIterable) {
-            if (netCDFMetadata != null) {
-                netCDFMetadataMap.put(netCDFMetadata.getId(), netCDFMetadata);
-            }
-        }
-
-        return netCDFMetadataMap;
+        return netCDFMetadataMaps;
     }
 
     /**
-     * Clear the NetCDF metadata memory cache.
+     * Clear the NetCDF metadata memory cache of every {@link MetadataHelper}.
+     *
+     * <p>See {@link MetadataHelper#getNetCDFMetadataMapCache()}.</p>
      */
     public static void clearMetadataCache() {
-        if (netCDFValidMetadataMapCache != null) {
-            netCDFValidMetadataMapCache.clear();
-            netCDFValidMetadataMapCache = null;
-        }
-        if (netCDFAllMetadataMapCache != null) {
-            netCDFAllMetadataMapCache.clear();
-            netCDFAllMetadataMapCache = null;
-        }
+        NetCDFMetadataMapCache.clearAll();
     }
 
 
@@ -829,4 +1006,194 @@ public class NcAnimateConfigHelper {
 
         return false;
     }
+
+    /**
+     * Configuration parts used to combine a single NcAnimate configuration.
+     *
+     * <p>The parts are prefetched level by level using
+     * {@link ConfigPartManager#selectMany(java.util.Collection)}.
+     * Parts which were not prefetched are requested individually.</p>
+     */
+    private class ConfigPartResolver {
+        // Key: Primary key of the configuration part
+        // Value: The configuration part, or null if it's not in the database
+        private final Map<PrimaryKey, JSONObject> fetchedParts = new HashMap<PrimaryKey, JSONObject>();
+
+        // Configuration parts found in the last level of parts fetched,
+        // which may reference other configuration parts.
+        private final List<NcAnimatePanelBean> pendingPanels = new ArrayList<NcAnimatePanelBean>();
+        private final List<NcAnimateLayerBean> pendingLayers = new ArrayList<NcAnimateLayerBean>();
+        private final List<NcAnimateNetCDFVariableBean> pendingVariables = new ArrayList<NcAnimateNetCDFVariableBean>();
+
+        // Configuration parts used to build the configuration
+        // Value: lastModified of the part, NOT_FOUND_LAST_MODIFIED if the part is not in the database
+        //     or null if the part has no lastModified value.
+        private final Map<PrimaryKey, String> usedPartLastModified = new HashMap<PrimaryKey, String>();
+
+        public JSONObject select(ConfigPartManager.Datatype datatype, String id) throws Exception {
+            PrimaryKey primaryKey = NcAnimateConfigHelper.this.configPartManager.getPrimaryKey(datatype, id);
+            JSONObject jsonPart;
+            if (this.fetchedParts.containsKey(primaryKey)) {
+                jsonPart = this.fetchedParts.get(primaryKey);
+            } else {
+                jsonPart = NcAnimateConfigHelper.this.configPartManager.select(datatype, id);
+            }
+
+            this.usedPartLastModified.put(primaryKey,
+                    jsonPart == null ? NOT_FOUND_LAST_MODIFIED : NcAnimateConfigHelper.getLastModified(jsonPart));
+            return jsonPart;
+        }
+
+        public Map<PrimaryKey, String> getUsedPartLastModified() {
+            return this.usedPartLastModified;
+        }
+
+        public void prefetch(NcAnimateConfigBean config) throws Exception {
+            Map<PrimaryKey, ConfigPartManager.Datatype> keys = new LinkedHashMap<PrimaryKey, ConfigPartManager.Datatype>();
+
+            Map<String, NcAnimateRegionBean> regionMap = config.getRegions();
+            if (regionMap != null) {
+                for (String regionId : regionMap.keySet()) {
+                    this.addKey(keys, ConfigPartManager.Datatype.REGION, regionId);
+                }
+            }
+
+            NcAnimateCanvasBean canvas = config.getCanvas();
+            if (canvas != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.CANVAS, canvas.getId());
+            }
+
+            NcAnimateRenderBean render = config.getRender();
+            if (render != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.RENDER, render.getId());
+            }
+
+            NcAnimateDefaultsBean defaults = config.getDefaults();
+            if (defaults != null) {
+                this.addLegendKeys(keys, defaults.getLegend());
+                this.addPanelKeys(keys, defaults.getPanel());
+            }
+
+            List<NcAnimatePanelBean> panels = config.getPanels();
+            if (panels != null) {
+                for (NcAnimatePanelBean panel : panels) {
+                    this.addPanelKeys(keys, panel);
+                }
+            }
+
+            while (!keys.isEmpty()) {
+                this.fetch(keys);
+
+                // Find the parts referenced in the parts which were just fetched
+                keys = new LinkedHashMap<PrimaryKey, ConfigPartManager.Datatype>();
+                for (NcAnimatePanelBean panel : this.pendingPanels) {
+                    this.addPanelKeys(keys, panel);
+                }
+                for (NcAnimateLayerBean layer : this.pendingLayers) {
+                    this.addLayerKeys(keys, layer);
+                }
+                for (NcAnimateNetCDFVariableBean variable : this.pendingVariables) {
+                    this.addVariableKeys(keys, variable);
+                }
+                this.pendingPanels.clear();
+                this.pendingLayers.clear();
+                this.pendingVariables.clear();
+            }
+        }
+
+        private void fetch(Map<PrimaryKey, ConfigPartManager.Datatype> keys) throws Exception {
+            Map<PrimaryKey, JSONObject> jsonParts = NcAnimateConfigHelper.this.configPartManager.selectMany(keys.keySet());
+            for (Map.Entry<PrimaryKey, ConfigPartManager.Datatype> keyEntry : keys.entrySet()) {
+                PrimaryKey primaryKey = keyEntry.getKey();
+                JSONObject jsonPart = jsonParts.get(primaryKey);
+                this.fetchedParts.put(primaryKey, jsonPart);
+
+                if (jsonPart != null) {
+                    switch (keyEntry.getValue()) {
+                        case PANEL:
+                            this.pendingPanels.add(new NcAnimatePanelBean(new JSONWrapperObject(jsonPart)));
+                            break;
+                        case LAYER:
+                            this.pendingLayers.add(new NcAnimateLayerBean(new JSONWrapperObject(jsonPart)));
+                            break;
+                        case VARIABLE:
+                            this.pendingVariables.add(new NcAnimateNetCDFVariableBean(new JSONWrapperObject(jsonPart)));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        private void addPanelKeys(Map<PrimaryKey, ConfigPartManager.Datatype> keys, NcAnimatePanelBean panel) {
+            if (panel != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.PANEL, panel.getId());
+                List<NcAnimateLayerBean> layers = panel.getLayers();
+                if (layers != null) {
+                    for (NcAnimateLayerBean layer : layers) {
+                        this.addLayerKeys(keys, layer);
+                    }
+                }
+            }
+        }
+
+        private void addLayerKeys(Map<PrimaryKey, ConfigPartManager.Datatype> keys, NcAnimateLayerBean layer) {
+            if (layer != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.LAYER, layer.getId());
+                NcAnimateInputBean input = layer.getInput();
+                if (input != null) {
+                    this.addKey(keys, ConfigPartManager.Datatype.INPUT, input.getId());
+                }
+                this.addVariableKeys(keys, layer.getVariable());
+                this.addVariableKeys(keys, layer.getArrowVariable());
+            }
+        }
+
+        private void addVariableKeys(Map<PrimaryKey, ConfigPartManager.Datatype> keys, NcAnimateNetCDFVariableBean variable) {
+            if (variable != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.VARIABLE, variable.getId());
+                this.addLegendKeys(keys, variable.getLegend());
+            }
+        }
+
+        private void addLegendKeys(Map<PrimaryKey, ConfigPartManager.Datatype> keys, NcAnimateLegendBean legend) {
+            if (legend != null) {
+                this.addKey(keys, ConfigPartManager.Datatype.LEGEND, legend.getId());
+            }
+        }
+
+        private void addKey(Map<PrimaryKey, ConfigPartManager.Datatype> keys, ConfigPartManager.Datatype datatype, NcAnimateIdBean id) {
+            if (id != null) {
+                this.addKey(keys, datatype, id.getValue());
+            }
+        }
+
+        private void addKey(Map<PrimaryKey, ConfigPartManager.Datatype> keys, ConfigPartManager.Datatype datatype, String id) {
+            if (id != null && !id.isEmpty()) {
+                PrimaryKey primaryKey = NcAnimateConfigHelper.this.configPartManager.getPrimaryKey(datatype, id);
+                if (!this.fetchedParts.containsKey(primaryKey)) {
+                    keys.put(primaryKey, datatype);
+                }
+            }
+        }
+    }
+
+    /**
+     * A combined NcAnimate configuration, with the {@code lastModified}
+     * of every document used to build it.
+     */
+    private static class ResolvedConfig {
+        private final NcAnimateConfigBean config;
+        private final String configLastModified;
+        private final Map<PrimaryKey, String> partLastModified;
+        private volatile long lastChecked;
+
+        public ResolvedConfig(NcAnimateConfigBean config, String configLastModified, Map<PrimaryKey, String> partLastModified) {
+            this.config = config;
+            this.configLastModified = configLastModified;
+            this.partLastModified = new HashMap<PrimaryKey, String>(partLastModified);
+            this.lastChecked = System.currentTimeMillis();
+        }
+    }
 }
@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.database.manager.MetadataManager;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import com.mongodb.client.model.Projections;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Thread safe memory cache of the {@link NetCDFMetadataBean} of input definitions
+ * (aka download definitions).
+ *
+ * <p>The metadata of a definition is loaded from the database
+ * only once, even when multiple threads request it at the same time.
+ * The cache is bounded by an estimation of the memory used by the
+ * {@link NetCDFMetadataBean}. When the estimated memory exceeds
+ * {@link #getMaxMemorySize()}, the least recently used definitions are evicted.</p>
+ *
+ * <p>Cached definitions can be refreshed with {@link #refresh(String, boolean)}.
+ * Only the metadata documents which were modified since they were cached
+ * are requested from the database.</p>
+ *
+ * <p>Used by {@link NcAnimateConfigHelper#getValidNetCDFMetadataMap(au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean, MetadataHelper)}.
+ * See {@link MetadataHelper#getNetCDFMetadataMapCache()}.</p>
+ */
+public class NetCDFMetadataMapCache {
+    private static final Logger LOGGER = Logger.getLogger(NetCDFMetadataMapCache.class);
+
+    // 512 MB
+    public static final long DEFAULT_MAX_MEMORY_SIZE = 512L * 1024 * 1024;
+
+    private static final String ID_PROPERTY = "_id";
+    private static final String STATUS_PROPERTY = "status";
+    private static final String LAST_MODIFIED_PROPERTY = "lastModified";
+    private static final String LAST_DOWNLOADED_PROPERTY = "lastDownloaded";
+
+    // Rough estimation of the memory used by the beans, in bytes.
+    // The variable size excludes its domains, which are estimated from the size of their axis:
+    //     time values: epoch milliseconds, plus the sorted copy used by the time index lookups.
+    //     height values: boxed Double, plus the sorted heights used by the closest height lookups.
+    private static final long METADATA_MEMORY_SIZE = 2048;
+    private static final long VARIABLE_MEMORY_SIZE = 2048;
+    private static final long TIME_VALUE_MEMORY_SIZE = 16;
+    private static final long HEIGHT_VALUE_MEMORY_SIZE = 40;
+
+    // Used by clearAll()
+    private static final Set<NetCDFMetadataMapCache> INSTANCES =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<NetCDFMetadataMapCache, Boolean>()));
+
+    private final MetadataHelper metadataHelper;
+    private final ConcurrentHashMap<CacheKey, CompletableFuture<CacheEntry>> cache;
+    private volatile long maxMemorySize;
+    private volatile long refreshInterval;
+    private volatile NetCDFMetadataSnapshotStore snapshotStore;
+
+    /**
+     * Creates an empty cache of {@link NetCDFMetadataBean}.
+     *
+     * @param metadataHelper the {@link MetadataHelper} used to request the metadata from the database.
+     */
+    public NetCDFMetadataMapCache(MetadataHelper metadataHelper) {
+        this.metadataHelper = metadataHelper;
+        this.cache = new ConcurrentHashMap<CacheKey, CompletableFuture<CacheEntry>>();
+        this.maxMemorySize = DEFAULT_MAX_MEMORY_SIZE;
+        this.refreshInterval = 0;
+        INSTANCES.add(this);
+    }
+
+    /**
+     * Returns the maximum estimated memory used by the cached metadata, in bytes.
+     *
+     * <p>Default: {@link #DEFAULT_MAX_MEMORY_SIZE}</p>
+     *
+     * @return the maximum memory size, in bytes.
+     */
+    public long getMaxMemorySize() {
+        return this.maxMemorySize;
+    }
+
+    /**
+     * Set the maximum estimated memory used by the cached metadata.
+     * The definition being requested is never evicted,
+     * even if it exceeds the maximum memory size on its own.
+     *
+     * @param maxMemorySize the maximum memory size, in bytes.
+     */
+    public void setMaxMemorySize(long maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+        this.evict(null);
+    }
+
+    /**
+     * Returns the minimum number of milliseconds between two refresh of a cached definition.
+     *
+     * <p>Default: {@code 0}</p>
+     *
+     * @return the refresh interval in milliseconds, or {@code 0}
+     *     if the cached definitions are only refreshed by {@link #refresh(String, boolean)}.
+     */
+    public long getRefreshInterval() {
+        return this.refreshInterval;
+    }
+
+    /**
+     * Set the minimum number of milliseconds between two refresh of a cached definition.
+     * When a cached definition is requested, its metadata is refreshed if it
+     * hasn't been refreshed for that amount of time.
+     *
+     * @param refreshInterval the refresh interval in milliseconds,
+     *     or {@code 0} to disable automatic refresh.
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = Math.max(0, refreshInterval);
+    }
+
+    /**
+     * Returns the {@link NetCDFMetadataSnapshotStore} used to load the definitions.
+     * @return the snapshot store, or {@code null} if the definitions are loaded from the database.
+     */
+    public NetCDFMetadataSnapshotStore getSnapshotStore() {
+        return this.snapshotStore;
+    }
+
+    /**
+     * Set the {@link NetCDFMetadataSnapshotStore} used to load the definitions
+     * which are not in the cache. When set, only the metadata modified since
+     * the last synchronisation of the snapshot are requested from the database.
+     *
+     * <p>Default: {@code null}</p>
+     *
+     * @param snapshotStore the snapshot store, or {@code null} to load all the metadata from the database.
+     */
+    public void setSnapshotStore(NetCDFMetadataSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * Returns the {@link NetCDFMetadataBean} of a definition, loading them from the database
+     * if they are not already in the cache.
+     *
+     * <p>The returned {@code Map} is shared between threads. It must not be modified.</p>
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     * @param onlyValid {@code true} to only return the metadata of valid NetCDF files.
+     * @return a {@code Map} of {@link NetCDFMetadataBean}, keyed by metadata ID.
+     * @throws Exception if the database is unreachable.
+     */
+    public Map<String, NetCDFMetadataBean> get(String definitionId, boolean onlyValid) throws Exception {
+        CacheKey key = new CacheKey(definitionId, onlyValid);
+
+        CompletableFuture<CacheEntry> newFuture = new CompletableFuture<CacheEntry>();
+        CompletableFuture<CacheEntry> future = this.cache.putIfAbsent(key, newFuture);
+
+        CacheEntry entry;
+        if (future == null) {
+            // This thread is responsible for loading the metadata
+            try {
+                entry = new CacheEntry(this.load(definitionId, onlyValid));
+                newFuture.complete(entry);
+            } catch(Exception ex) {
+                this.cache.remove(key, newFuture);
+                newFuture.completeExceptionally(ex);
+                throw ex;
+            }
+            this.evict(key);
+        } else {
+            entry = NetCDFMetadataMapCache.join(future);
+
+            long interval = this.refreshInterval;
+            if (interval > 0 && System.currentTimeMillis() - entry.lastRefreshed >= interval) {
+                entry = this.refresh(key, future, entry);
+            }
+        }
+
+        entry.lastAccessed = System.currentTimeMillis();
+        return entry.metadataMap;
+    }
+
+    /**
+     * Refresh the cached {@link NetCDFMetadataBean} of a definition.
+     *
+     * <p>Only the document ID, status and timestamps of the metadata documents
+     * are requested from the database. The metadata documents which were
+     * added, or which {@code lastModified} or {@code lastDownloaded} is newer
+     * than the cached one, are then requested.</p>
+     *
+     * <p>Does nothing if the definition is not in the cache.</p>
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     * @param onlyValid {@code true} to refresh the metadata of valid NetCDF files;
+     *     {@code false} to refresh the metadata of all NetCDF files.
+     * @throws Exception if the database is unreachable.
+     */
+    public void refresh(String definitionId, boolean onlyValid) throws Exception {
+        CacheKey key = new CacheKey(definitionId, onlyValid);
+        CompletableFuture<CacheEntry> future = this.cache.get(key);
+        if (future != null) {
+            this.refresh(key, future, NetCDFMetadataMapCache.join(future));
+        }
+    }
+
+    /**
+     * Refresh all the cached definitions.
+     * See {@link #refresh(String, boolean)}.
+     *
+     * @throws Exception if the database is unreachable.
+     */
+    public void refreshAll() throws Exception {
+        for (CacheKey key : new ArrayList<CacheKey>(this.cache.keySet())) {
+            this.refresh(key.definitionId, key.onlyValid);
+        }
+    }
+
+    /**
+     * Remove a definition from the cache.
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     */
+    public void invalidate(String definitionId) {
+        this.cache.remove(new CacheKey(definitionId, true));
+        this.cache.remove(new CacheKey(definitionId, false));
+    }
+
+    /**
+     * Remove all the definitions from the cache.
+     */
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Clear every {@code NetCDFMetadataMapCache}.
+     * Used by {@link NcAnimateConfigHelper#clearMetadataCache()}.
+     */
+    public static void clearAll() {
+        List<NetCDFMetadataMapCache> instances;
+        synchronized (INSTANCES) {
+            instances = new ArrayList<NetCDFMetadataMapCache>(INSTANCES);
+        }
+        for (NetCDFMetadataMapCache instance : instances) {
+            instance.clear();
+        }
+    }
+
+    /**
+     * Returns the number of definitions in the cache.
+     * @return the number of cached definitions.
+     */
+    public int size() {
+        return this.cache.size();
+    }
+
+    /**
+     * Returns the estimated memory used by the cached {@link NetCDFMetadataBean}.
+     * Definitions which are still loading are not counted.
+     *
+     * @return the estimated memory size, in bytes.
+     */
+    public long getMemorySize() {
+        long memorySize = 0;
+        for (CompletableFuture<CacheEntry> future : this.cache.values()) {
+            CacheEntry entry = future.getNow(null);
+            if (entry != null) {
+                memorySize += entry.memorySize;
+            }
+        }
+        return memorySize;
+    }
+
+    private CacheEntry refresh(CacheKey key, CompletableFuture<CacheEntry> future, CacheEntry entry) throws Exception {
+        // Only one thread refresh a definition at the time
+        synchronized (entry) {
+            if (this.cache.get(key) != future) {
+                // The definition was evicted, or already refreshed by an other thread
+                CompletableFuture<CacheEntry> currentFuture = this.cache.get(key);
+                return currentFuture == null ? entry : NetCDFMetadataMapCache.join(currentFuture);
+            }
+
+            Map<String, NetCDFMetadataBean> refreshedMap = this.loadModified(key.definitionId, key.onlyValid, entry.metadataMap);
+            boolean modified = refreshedMap != entry.metadataMap;
+            CacheEntry refreshedEntry = modified ? new CacheEntry(refreshedMap) : entry.refreshed();
+
+            this.cache.replace(key, future, CompletableFuture.completedFuture(refreshedEntry));
+            if (modified) {
+                this.evict(key);
+            }
+            return refreshedEntry;
+        }
+    }
+
+    private Map<String, NetCDFMetadataBean> load(String definitionId, boolean onlyValid) throws Exception {
+        NetCDFMetadataSnapshotStore store = this.snapshotStore;
+        if (store != null) {
+            // Reuse the metadata already decoded for the other variant of the definition, if any
+            CompletableFuture<CacheEntry> otherFuture = this.cache.get(new CacheKey(definitionId, !onlyValid));
+            CacheEntry otherEntry = otherFuture == null || otherFuture.isCompletedExceptionally() ? null : otherFuture.getNow(null);
+            NetCDFMetadataSnapshotStore.SyncResult syncResult = store.sync(definitionId,
+                    otherEntry == null ? null : otherEntry.metadataMap);
+            return onlyValid ? syncResult.getValidMetadatas() : syncResult.getMetadatas();
+        }
+
+        Iterable<NetCDFMetadataBean> netCDFMetadataIterable = onlyValid ?
+                this.metadataHelper.getValidNetCDFMetadatas(definitionId) :
+                this.metadataHelper.getAllNetCDFMetadatas(definitionId);
+
+        Map<String, NetCDFMetadataBean> netCDFMetadataMap = new HashMap<String, NetCDFMetadataBean>();
+        if (netCDFMetadataIterable != null) {
+            for (NetCDFMetadataBean netCDFMetadata : netCDFMetadataIterable) {
+                if (netCDFMetadata != null) {
+                    netCDFMetadataMap.put(netCDFMetadata.getId(), netCDFMetadata);
+                }
+            }
+        }
+
+        return Collections.unmodifiableMap(netCDFMetadataMap);
+    }
+
+    /**
+     * Returns a new {@code Map} containing the cached metadata updated with the
+     * metadata documents modified in the database, or the cached {@code Map}
+     * if nothing was modified.
+     */
+    private Map<String, NetCDFMetadataBean> loadModified(String definitionId, boolean onlyValid, Map<String, NetCDFMetadataBean> cachedMap) throws Exception {
+        MetadataManager metadataManager = this.metadataHelper.getMetadataManager();
+        List<JSONObject> jsonTimestamps = metadataManager.selectByDefinitionId(
+                MetadataManager.MetadataType.NETCDF, definitionId,
+                Projections.include(STATUS_PROPERTY, LAST_MODIFIED_PROPERTY, LAST_DOWNLOADED_PROPERTY));
+
+        Set<String> deletedIds = new HashSet<String>(cachedMap.keySet());
+        List<PrimaryKey> modifiedKeys = new ArrayList<PrimaryKey>();
+        for (JSONObject jsonTimestamp : jsonTimestamps) {
+            String id = jsonTimestamp.optString(ID_PROPERTY, null);
+            if (id == null) {
+                continue;
+            }
+            if (onlyValid && !NetCDFMetadataBean.Status.VALID.name().equals(jsonTimestamp.optString(STATUS_PROPERTY, null))) {
+                // Not valid anymore, removed from the map
+                continue;
+            }
+
+            deletedIds.remove(id);
+            NetCDFMetadataBean cachedMetadata = cachedMap.get(id);
+            if (cachedMetadata == null ||
+                    NetCDFMetadataMapCache.parseTimestamp(jsonTimestamp, LAST_MODIFIED_PROPERTY) > cachedMetadata.getLastModified() ||
+                    NetCDFMetadataMapCache.parseTimestamp(jsonTimestamp, LAST_DOWNLOADED_PROPERTY) > cachedMetadata.getLastDownloaded()) {
+                modifiedKeys.add(metadataManager.getTable().getPrimaryKey(id));
+            }
+        }
+
+        if (deletedIds.isEmpty() && modifiedKeys.isEmpty()) {
+            return cachedMap;
+        }
+
+        Map<String, NetCDFMetadataBean> netCDFMetadataMap = new HashMap<String, NetCDFMetadataBean>(cachedMap);
+        for (String deletedId : deletedIds) {
+            netCDFMetadataMap.remove(deletedId);
+        }
+        for (PrimaryKey modifiedKey : modifiedKeys) {
+            // The cached documents (if any) are outdated
+            metadataManager.getTable().invalidateCache(modifiedKey);
+        }
+        for (JSONObject jsonMetadata : metadataManager.selectMany(modifiedKeys).values()) {
+            NetCDFMetadataBean netCDFMetadata = new NetCDFMetadataBean(jsonMetadata);
+            if (onlyValid && !NetCDFMetadataBean.Status.VALID.equals(netCDFMetadata.getStatus())) {
+                // Modified between the 2 requests
+                netCDFMetadataMap.remove(netCDFMetadata.getId());
+            } else {
+                netCDFMetadataMap.put(netCDFMetadata.getId(), netCDFMetadata);
+            }
+        }
+
+        LOGGER.debug(String.format("Refreshed NetCDF metadata of definition %s: %d modified, %d removed",
+                definitionId, modifiedKeys.size(), deletedIds.size()));
+
+        return Collections.unmodifiableMap(netCDFMetadataMap);
+    }
+
+    /**
+     * Evict the least recently used definitions until the estimated
+     * memory size is lower than {@link #getMaxMemorySize()}.
+     *
+     * @param keep the key of the definition which must not be evicted, or {@code null}.
+     */
+    private synchronized void evict(CacheKey keep) {
+        long memorySize = this.getMemorySize();
+        if (memorySize <= this.maxMemorySize) {
+            return;
+        }
+
+        List<Map.Entry<CacheKey, CompletableFuture<CacheEntry>>> entries =
+                new ArrayList<Map.Entry<CacheKey, CompletableFuture<CacheEntry>>>(this.cache.entrySet());
+        entries.sort((entry1, entry2) ->
+                Long.compare(NetCDFMetadataMapCache.getLastAccessed(entry1.getValue()), NetCDFMetadataMapCache.getLastAccessed(entry2.getValue())));
+
+        for (Map.Entry<CacheKey, CompletableFuture<CacheEntry>> entry : entries) {
+            if (memorySize <= this.maxMemorySize) {
+                break;
+            }
+            CacheEntry cacheEntry = entry.getValue().getNow(null);
+            if (cacheEntry != null && !entry.getKey().equals(keep) && this.cache.remove(entry.getKey(), entry.getValue())) {
+                memorySize -= cacheEntry.memorySize;
+                LOGGER.debug(String.format("Evicted NetCDF metadata of definition %s from the cache (%d bytes)",
+                        entry.getKey().definitionId, cacheEntry.memorySize));
+            }
+        }
+    }
+
+    private static long getLastAccessed(CompletableFuture<CacheEntry> future) {
+        CacheEntry entry = future.getNow(null);
+        return entry == null ? Long.MAX_VALUE : entry.lastAccessed;
+    }
+
+    private static long parseTimestamp(JSONObject json, String property) {
+        String timestampStr = json.optString(property, null);
+        if (timestampStr != null) {
+            try {
+                return DateTime.parse(timestampStr).getMillis();
+            } catch(Exception ex) {
+                LOGGER.warn(String.format("Invalid %s for %s: %s", property, json.optString(ID_PROPERTY, null), timestampStr));
+            }
+        }
+        return 0;
+    }
+
+    private static CacheEntry join(CompletableFuture<CacheEntry> future) throws Exception {
+        try {
+            return future.get();
+        } catch(ExecutionException | CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns a rough estimation of the memory used by a {@link NetCDFMetadataBean}, in bytes.
+     *
+     * <p>The estimation takes into account the number of variables and the size
+     * of their time and height axis. It doesn't parse the variables of the metadata
+     * (see {@link NetCDFMetadataBean#getVariableMetadataBeanMap()}).</p>
+     *
+     * @param metadata the {@link NetCDFMetadataBean}.
+     * @return the estimated memory size, in bytes.
+     */
+    public static long estimateMemorySize(NetCDFMetadataBean metadata) {
+        return METADATA_MEMORY_SIZE
+                + VARIABLE_MEMORY_SIZE * metadata.getVariableCount()
+                + TIME_VALUE_MEMORY_SIZE * metadata.getTimeValueCount()
+                + HEIGHT_VALUE_MEMORY_SIZE * metadata.getHeightValueCount();
+    }
+
+    private static class CacheKey {
+        private final String definitionId;
+        private final boolean onlyValid;
+
+        public CacheKey(String definitionId, boolean onlyValid) {
+            this.definitionId = definitionId;
+            this.onlyValid = onlyValid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || this.getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey other = (CacheKey)o;
+            return this.onlyValid == other.onlyValid &&
+                    (this.definitionId == null ? other.definitionId == null : this.definitionId.equals(other.definitionId));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (this.definitionId == null ? 0 : this.definitionId.hashCode()) + (this.onlyValid ? 1 : 0);
+        }
+    }
+
+    private static class CacheEntry {
+        private final Map<String, NetCDFMetadataBean> metadataMap;
+        private final long memorySize;
+        private final long lastRefreshed;
+        private volatile long lastAccessed;
+
+        public CacheEntry(Map<String, NetCDFMetadataBean> metadataMap) {
+            this(metadataMap, NetCDFMetadataMapCache.estimateMemorySize(metadataMap), System.currentTimeMillis());
+        }
+
+        private CacheEntry(Map<String, NetCDFMetadataBean> metadataMap, long memorySize, long lastAccessed) {
+            this.metadataMap = metadataMap;
+            this.memorySize = memorySize;
+            this.lastRefreshed = System.currentTimeMillis();
+            this.lastAccessed = lastAccessed;
+        }
+
+        public CacheEntry refreshed() {
+            return new CacheEntry(this.metadataMap, this.memorySize, this.lastAccessed);
+        }
+    }
+
+    private static long estimateMemorySize(Map<String, NetCDFMetadataBean> metadataMap) {
+        long memorySize = 0;
+        for (NetCDFMetadataBean metadata : metadataMap.values()) {
+            memorySize += NetCDFMetadataMapCache.estimateMemorySize(metadata);
+        }
+        return memorySize;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.database.manager.MetadataManager;
+import au.gov.aims.ereefs.database.table.DatabaseTable;
+import au.gov.aims.ereefs.database.table.DatabaseTableDiskCache;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local copy of the NetCDF metadata documents of input definitions
+ * (aka download definitions), kept up to date with the database
+ * using as few requests as possible.
+ *
+ * <p>The first {@link #sync(String)} of a definition requests all its
+ * metadata documents and saves them on disk, with a watermark: the greatest
+ * {@code lastModified} / {@code lastDownloaded} timestamp found.
+ * The following synchronisations, including the ones done by other processes
+ * on the same host, only request:</p>
+ * <ul>
+ *   <li>the metadata documents modified after the watermark
+ *     (see {@link MetadataManager#selectByDefinitionIdModifiedSince(MetadataManager.MetadataType, String, long)});</li>
+ *   <li>the list of metadata IDs, used to find out which documents were deleted.</li>
+ * </ul>
+ *
+ * <p>The documents are stored in a {@link DatabaseTableDiskCache}.
+ * The snapshot also keeps the timestamp of each document, so the
+ * {@link NetCDFMetadataBean} already decoded by the caller
+ * (see {@link #sync(String, Map)}) are reused when their document did not change.
+ * The store doesn't keep any decoded metadata in memory.</p>
+ */
+public class NetCDFMetadataSnapshotStore {
+    private static final Logger LOGGER = Logger.getLogger(NetCDFMetadataSnapshotStore.class);
+
+    private static final String DEFAULT_DIRECTORY_NAME = "metadata_snapshot";
+
+    private static final String METADATA_ID_KEY_NAME = "_id";
+    private static final String SNAPSHOT_KEY_NAME = "snapshot";
+    private static final long UNKNOWN_TIMESTAMP = -1;
+
+    private final MetadataHelper metadataHelper;
+    private final File directory;
+
+    /**
+     * Creates a snapshot store in the default database cache directory.
+     * See {@link DatabaseTable#getDatabaseCacheDirectory()}.
+     *
+     * @param metadataHelper the {@link MetadataHelper} used to request the metadata from the database.
+     */
+    public NetCDFMetadataSnapshotStore(MetadataHelper metadataHelper) {
+        this(metadataHelper, new File(DatabaseTable.getDatabaseCacheDirectory(), DEFAULT_DIRECTORY_NAME));
+    }
+
+    /**
+     * Creates a snapshot store in a given directory.
+     *
+     * @param metadataHelper the {@link MetadataHelper} used to request the metadata from the database.
+     * @param directory the directory where the metadata documents are saved.
+     */
+    public NetCDFMetadataSnapshotStore(MetadataHelper metadataHelper, File directory) {
+        this.metadataHelper = metadataHelper;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory where the metadata documents are saved.
+     * @return the snapshot directory.
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Synchronise the local copy of the metadata of a definition with the database.
+     * All the metadata documents are decoded.
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     * @return the metadata of the definition, with the list of metadata which were
+     *     modified or deleted since the previous synchronisation.
+     * @throws Exception if the database is unreachable, or the snapshot can not be saved.
+     */
+    public SyncResult sync(String definitionId) throws Exception {
+        return this.sync(definitionId, null);
+    }
+
+    /**
+     * Synchronise the local copy of the metadata of a definition with the database.
+     *
+     * <p>The {@code decodedMetadatas} which document did not change are reused,
+     * the other documents are read from the disk and decoded.</p>
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     * @param decodedMetadatas metadata of the definition already decoded, keyed by metadata ID,
+     *     or {@code null} to decode all the documents.
+     * @return the metadata of the definition, with the list of metadata which were
+     *     modified or deleted since the previous synchronisation.
+     * @throws Exception if the database is unreachable, or the snapshot can not be saved.
+     */
+    public synchronized SyncResult sync(String definitionId, Map<String, NetCDFMetadataBean> decodedMetadatas) throws Exception {
+        DatabaseTableDiskCache diskCache = this.getDiskCache();
+        MetadataManager metadataManager = this.metadataHelper.getMetadataManager();
+
+        PrimaryKey snapshotKey = new SinglePrimaryKey(SNAPSHOT_KEY_NAME, definitionId);
+        JSONObject jsonSnapshot = diskCache.get(snapshotKey);
+
+        // Timestamp of the saved documents, by metadata ID. UNKNOWN_TIMESTAMP for snapshots saved without them.
+        Map<String, Long> snapshotTimestamps = new LinkedHashMap<String, Long>();
+        Set<String> modifiedIds = new HashSet<String>();
+        Set<String> deletedIds = new HashSet<String>();
+        boolean full = jsonSnapshot == null;
+        boolean snapshotModified = full;
+        long watermark = 0;
+
+        if (full) {
+            for (JSONObject jsonMetadata : metadataManager.selectByDefinitionId(MetadataManager.MetadataType.NETCDF, definitionId)) {
+                String id = NetCDFMetadataSnapshotStore.put(diskCache, jsonMetadata);
+                if (id != null) {
+                    long timestamp = MetadataManager.getTimestamp(jsonMetadata);
+                    snapshotTimestamps.put(id, timestamp);
+                    modifiedIds.add(id);
+                    watermark = Math.max(watermark, timestamp);
+                }
+            }
+        } else {
+            watermark = jsonSnapshot.optLong("watermark", 0);
+            JSONArray jsonIds = jsonSnapshot.optJSONArray("ids");
+            JSONArray jsonTimestamps = jsonSnapshot.optJSONArray("timestamps");
+            if (jsonIds != null) {
+                for (int i=0; i<jsonIds.length(); i++) {
+                    long timestamp = jsonTimestamps == null ? UNKNOWN_TIMESTAMP : jsonTimestamps.optLong(i, UNKNOWN_TIMESTAMP);
+                    snapshotTimestamps.put(jsonIds.getString(i), timestamp);
+                }
+            }
+
+            // The query may return documents modified a bit before the watermark (timezones),
+            // or saved after the previous sync with an older timestamp.
+            // They are compared with the saved documents.
+            long newWatermark = watermark;
+            for (JSONObject jsonMetadata : metadataManager.selectByDefinitionIdModifiedSince(MetadataManager.MetadataType.NETCDF, definitionId, watermark)) {
+                String id = NetCDFMetadataSnapshotStore.getId(jsonMetadata);
+                if (id != null) {
+                    long timestamp = MetadataManager.getTimestamp(jsonMetadata);
+                    Long savedTimestamp = snapshotTimestamps.get(id);
+                    if (savedTimestamp == null || savedTimestamp != timestamp) {
+                        NetCDFMetadataSnapshotStore.put(diskCache, jsonMetadata);
+                        snapshotTimestamps.put(id, timestamp);
+                        modifiedIds.add(id);
+                    }
+                    newWatermark = Math.max(newWatermark, timestamp);
+                }
+            }
+
+            // Key only diff, to find deleted documents and
+            // documents added with a timestamp older than the watermark.
+            Set<String> databaseIds = new HashSet<String>(this.metadataHelper.getNetCDFMetadataIds(definitionId));
+            List<PrimaryKey> missingKeys = new ArrayList<PrimaryKey>();
+            for (String databaseId : databaseIds) {
+                if (!snapshotTimestamps.containsKey(databaseId)) {
+                    missingKeys.add(metadataManager.getTable().getPrimaryKey(databaseId));
+                }
+            }
+            for (JSONObject jsonMetadata : metadataManager.selectMany(missingKeys).values()) {
+                String id = NetCDFMetadataSnapshotStore.put(diskCache, jsonMetadata);
+                if (id != null) {
+                    long timestamp = MetadataManager.getTimestamp(jsonMetadata);
+                    snapshotTimestamps.put(id, timestamp);
+                    modifiedIds.add(id);
+                    newWatermark = Math.max(newWatermark, timestamp);
+                }
+            }
+
+            for (String snapshotId : new ArrayList<String>(snapshotTimestamps.keySet())) {
+                if (!databaseIds.contains(snapshotId)) {
+                    diskCache.remove(NetCDFMetadataSnapshotStore.getKey(snapshotId));
+                    snapshotTimestamps.remove(snapshotId);
+                    modifiedIds.remove(snapshotId);
+                    deletedIds.add(snapshotId);
+                }
+            }
+
+            snapshotModified = !modifiedIds.isEmpty() || !deletedIds.isEmpty();
+            watermark = newWatermark;
+        }
+
+        // Only decode the documents which are not already decoded.
+        // The timestamp of the decoded metadata is checked since the snapshot
+        // may have been synchronised by an other process in the meantime.
+        Map<String, NetCDFMetadataBean> metadatas = new HashMap<String, NetCDFMetadataBean>();
+        boolean snapshotValid = true;
+        for (Map.Entry<String, Long> snapshotTimestampEntry : snapshotTimestamps.entrySet()) {
+            String snapshotId = snapshotTimestampEntry.getKey();
+            long snapshotTimestamp = snapshotTimestampEntry.getValue();
+
+            NetCDFMetadataBean metadata = decodedMetadatas == null ? null : decodedMetadatas.get(snapshotId);
+            if (metadata == null || snapshotTimestamp == UNKNOWN_TIMESTAMP
+                    || NetCDFMetadataSnapshotStore.getTimestamp(metadata) != snapshotTimestamp || modifiedIds.contains(snapshotId)) {
+
+                metadata = null;
+                JSONObject jsonMetadata = diskCache.get(NetCDFMetadataSnapshotStore.getKey(snapshotId));
+                if (jsonMetadata == null) {
+                    // Removed from the disk by an other process. Start again from scratch next time.
+                    LOGGER.warn(String.format("Metadata %s missing from the snapshot of definition %s", snapshotId, definitionId));
+                    snapshotValid = false;
+                } else {
+                    long timestamp = MetadataManager.getTimestamp(jsonMetadata);
+                    if (snapshotTimestamp != timestamp) {
+                        // Snapshot saved by an older version, without the document timestamps
+                        snapshotTimestampEntry.setValue(timestamp);
+                        snapshotModified = true;
+                    }
+                    try {
+                        metadata = new NetCDFMetadataBean(jsonMetadata);
+                    } catch(Exception ex) {
+                        LOGGER.error(String.format("Error occurred while converting the JSON NetCDF metadata %s to a NetCDFMetadataBean", snapshotId), ex);
+                    }
+                }
+            }
+
+            if (metadata != null) {
+                metadatas.put(snapshotId, metadata);
+            }
+        }
+
+        if (!snapshotValid) {
+            diskCache.remove(snapshotKey);
+        } else if (snapshotModified) {
+            diskCache.put(snapshotKey, new JSONObject()
+                .put(SNAPSHOT_KEY_NAME, definitionId)
+                .put("watermark", watermark)
+                .put("ids", new JSONArray(snapshotTimestamps.keySet()))
+                .put("timestamps", new JSONArray(snapshotTimestamps.values())));
+        }
+
+        LOGGER.debug(String.format("Synchronised NetCDF metadata snapshot of definition %s: %d metadata, %d modified, %d deleted",
+                definitionId, metadatas.size(), modifiedIds.size(), deletedIds.size()));
+
+        return new SyncResult(metadatas, modifiedIds, deletedIds, full);
+    }
+
+    /**
+     * Delete the snapshot of a definition. The next synchronisation will request all its metadata.
+     *
+     * @param definitionId the input definition ID (aka download definition ID).
+     * @throws IOException if something goes wrong while deleting the snapshot.
+     */
+    public synchronized void clear(String definitionId) throws IOException {
+        this.getDiskCache().remove(new SinglePrimaryKey(SNAPSHOT_KEY_NAME, definitionId));
+    }
+
+    /**
+     * Delete the snapshot of all definitions.
+     *
+     * @throws IOException if something goes wrong while deleting the snapshots.
+     */
+    public synchronized void clear() throws IOException {
+        this.getDiskCache().clear();
+    }
+
+    private DatabaseTableDiskCache getDiskCache() throws IOException {
+        DatabaseTableDiskCache diskCache = DatabaseTableDiskCache.getInstance(this.directory);
+        diskCache.setFormat(DatabaseTableDiskCache.Format.COMPRESSED_BSON);
+        return diskCache;
+    }
+
+    private static String put(DatabaseTableDiskCache diskCache, JSONObject jsonMetadata) throws IOException {
+        String id = NetCDFMetadataSnapshotStore.getId(jsonMetadata);
+        if (id != null) {
+            diskCache.put(NetCDFMetadataSnapshotStore.getKey(id), jsonMetadata);
+        }
+        return id;
+    }
+
+    private static String getId(JSONObject jsonMetadata) {
+        return jsonMetadata == null ? null : jsonMetadata.optString(METADATA_ID_KEY_NAME, null);
+    }
+
+    private static PrimaryKey getKey(String id) {
+        return new SinglePrimaryKey(METADATA_ID_KEY_NAME, id);
+    }
+
+    // Same as MetadataManager.getTimestamp(JSONObject), for a decoded metadata
+    private static long getTimestamp(NetCDFMetadataBean metadata) {
+        return Math.max(metadata.getLastModified(), metadata.getLastDownloaded());
+    }
+
+    /**
+     * Result of {@link #sync(String)}.
+     */
+    public static class SyncResult {
+        private final Map<String, NetCDFMetadataBean> metadatas;
+        private final Set<String> modifiedIds;
+        private final Set<String> deletedIds;
+        private final boolean full;
+
+        private SyncResult(Map<String, NetCDFMetadataBean> metadatas, Set<String> modifiedIds, Set<String> deletedIds, boolean full) {
+            this.metadatas = Collections.unmodifiableMap(metadatas);
+            this.modifiedIds = Collections.unmodifiableSet(modifiedIds);
+            this.deletedIds = Collections.unmodifiableSet(deletedIds);
+            this.full = full;
+        }
+
+        /**
+         * Returns all the metadata of the definition.
+         * @return a {@code Map} of {@link NetCDFMetadataBean}, keyed by metadata ID.
+         */
+        public Map<String, NetCDFMetadataBean> getMetadatas() {
+            return this.metadatas;
+        }
+
+        /**
+         * Returns the metadata of the valid NetCDF files of the definition.
+         * @return a {@code Map} of {@link NetCDFMetadataBean}, keyed by metadata ID.
+         */
+        public Map<String, NetCDFMetadataBean> getValidMetadatas() {
+            Map<String, NetCDFMetadataBean> validMetadatas = new HashMap<String, NetCDFMetadataBean>();
+            for (Map.Entry<String, NetCDFMetadataBean> metadataEntry : this.metadatas.entrySet()) {
+                if (NetCDFMetadataBean.Status.VALID.equals(metadataEntry.getValue().getStatus())) {
+                    validMetadatas.put(metadataEntry.getKey(), metadataEntry.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(validMetadatas);
+        }
+
+        /**
+         * Returns the ID of the metadata which were added or modified since the previous synchronisation.
+         * @return the modified metadata IDs.
+         */
+        public Set<String> getModifiedIds() {
+            return this.modifiedIds;
+        }
+
+        /**
+         * Returns the ID of the metadata which were deleted since the previous synchronisation.
+         * @return the deleted metadata IDs.
+         */
+        public Set<String> getDeletedIds() {
+            return this.deletedIds;
+        }
+
+        /**
+         * Returns {@code true} if all the metadata were requested from the database,
+         * because there was no snapshot of the definition.
+         * @return {@code true} for a full synchronisation.
+         */
+        public boolean isFull() {
+            return this.full;
+        }
+    }
+}
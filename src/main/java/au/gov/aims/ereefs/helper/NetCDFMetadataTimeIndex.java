@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.metadata.netcdf.TemporalDomainBean;
+import au.gov.aims.ereefs.bean.metadata.netcdf.VariableMetadataBean;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time index of a variable across a set of NetCDF files.
+ *
+ * <p>Used to find which file, and which time index within that file,
+ * holds the data of a variable for a given time, without iterating
+ * through the time values of every file.
+ * The time values of all the files are sorted in a single array,
+ * which is searched using a binary search.</p>
+ *
+ * <p>When multiple files have the same time value, the most recently
+ * modified file is used (see {@link NetCDFMetadataBean#getLastModified()}).</p>
+ */
+public class NetCDFMetadataTimeIndex {
+    private final String variableId;
+    private final List<NetCDFMetadataBean> metadatas;
+
+    // Distinct time values, in ascending order, with the file and the time index which holds them.
+    private final long[] timeValuesMillis;
+    private final int[] metadataIndexes;
+    private final int[] timeIndexes;
+
+    /**
+     * Creates the time index of a variable.
+     *
+     * @param metadatas the metadata of the NetCDF files.
+     *     Files which do not contain the variable, or which have no time axis, are ignored.
+     * @param variableId the ID of the variable. Example: {@code temp}
+     */
+    public NetCDFMetadataTimeIndex(Collection<NetCDFMetadataBean> metadatas, String variableId) {
+        if (variableId == null) {
+            throw new IllegalArgumentException("Variable ID parameter is null.");
+        }
+        this.variableId = variableId;
+
+        List<NetCDFMetadataBean> indexedMetadatas = new ArrayList<NetCDFMetadataBean>();
+        List<TemporalDomainBean> temporalDomains = new ArrayList<TemporalDomainBean>();
+        int timeValueCount = 0;
+        if (metadatas != null) {
+            for (NetCDFMetadataBean metadata : metadatas) {
+                TemporalDomainBean temporalDomain = NetCDFMetadataTimeIndex.getTemporalDomain(metadata, variableId);
+                if (temporalDomain != null && temporalDomain.getTimeValueCount() > 0) {
+                    indexedMetadatas.add(metadata);
+                    temporalDomains.add(temporalDomain);
+                    timeValueCount += temporalDomain.getTimeValueCount();
+                }
+            }
+        }
+        this.metadatas = Collections.unmodifiableList(indexedMetadatas);
+
+        long[] millis = new long[timeValueCount];
+        int[] metadataIndexes = new int[timeValueCount];
+        int[] timeIndexes = new int[timeValueCount];
+        int position = 0;
+        for (int metadataIndex=0; metadataIndex<temporalDomains.size(); metadataIndex++) {
+            TemporalDomainBean temporalDomain = temporalDomains.get(metadataIndex);
+            for (int timeIndex=0; timeIndex<temporalDomain.getTimeValueCount(); timeIndex++) {
+                millis[position] = temporalDomain.getTimeValueMillis(timeIndex);
+                metadataIndexes[position] = metadataIndex;
+                timeIndexes[position] = timeIndex;
+                position++;
+            }
+        }
+
+        // Order by time value, then by last modified (most recent first)
+        Integer[] order = new Integer[timeValueCount];
+        for (int i=0; i<order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (position1, position2) -> {
+            int cmp = Long.compare(millis[position1], millis[position2]);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(
+                    indexedMetadatas.get(metadataIndexes[position2]).getLastModified(),
+                    indexedMetadatas.get(metadataIndexes[position1]).getLastModified());
+        });
+
+        // Only keep the first file for each time value
+        long[] distinctMillis = new long[timeValueCount];
+        int[] distinctMetadataIndexes = new int[timeValueCount];
+        int[] distinctTimeIndexes = new int[timeValueCount];
+        int distinctCount = 0;
+        for (Integer orderedPosition : order) {
+            if (distinctCount == 0 || distinctMillis[distinctCount-1] != millis[orderedPosition]) {
+                distinctMillis[distinctCount] = millis[orderedPosition];
+                distinctMetadataIndexes[distinctCount] = metadataIndexes[orderedPosition];
+                distinctTimeIndexes[distinctCount] = timeIndexes[orderedPosition];
+                distinctCount++;
+            }
+        }
+
+        this.timeValuesMillis = Arrays.copyOf(distinctMillis, distinctCount);
+        this.metadataIndexes = Arrays.copyOf(distinctMetadataIndexes, distinctCount);
+        this.timeIndexes = Arrays.copyOf(distinctTimeIndexes, distinctCount);
+    }
+
+    private static TemporalDomainBean getTemporalDomain(NetCDFMetadataBean metadata, String variableId) {
+        if (metadata == null) {
+            return null;
+        }
+
+        Map<String, VariableMetadataBean> variableMetadataMap = metadata.getVariableMetadataBeanMap();
+        if (variableMetadataMap == null) {
+            return null;
+        }
+
+        VariableMetadataBean variableMetadata = variableMetadataMap.get(variableId);
+        return variableMetadata == null ? null : variableMetadata.getTemporalDomainBean();
+    }
+
+    /**
+     * Returns the ID of the indexed variable.
+     * @return the ID of the indexed variable.
+     */
+    public String getVariableId() {
+        return this.variableId;
+    }
+
+    /**
+     * Returns the metadata of the NetCDF files which contain the variable.
+     * @return the list of indexed {@link NetCDFMetadataBean}.
+     */
+    public List<NetCDFMetadataBean> getMetadatas() {
+        return this.metadatas;
+    }
+
+    /**
+     * Returns the number of distinct time values.
+     * @return the number of distinct time values.
+     */
+    public int size() {
+        return this.timeValuesMillis.length;
+    }
+
+    /**
+     * Returns the time slice of the given time.
+     *
+     * @param millis the time, in epoch milliseconds.
+     * @return the {@link TimeSlice}, or {@code null} if no file has that time value.
+     */
+    public TimeSlice find(long millis) {
+        int position = Arrays.binarySearch(this.timeValuesMillis, millis);
+        return position < 0 ? null : this.getTimeSlice(position);
+    }
+
+    /**
+     * Returns the time slice of the given time.
+     *
+     * @param dateTime the time.
+     * @return the {@link TimeSlice}, or {@code null} if no file has that time value.
+     */
+    public TimeSlice find(DateTime dateTime) {
+        return this.find(dateTime.getMillis());
+    }
+
+    /**
+     * Returns the last time slice at or before the given time.
+     *
+     * @param millis the time, in epoch milliseconds.
+     * @return the {@link TimeSlice}, or {@code null} if all the time values are after the given time.
+     */
+    public TimeSlice floor(long millis) {
+        int position = Arrays.binarySearch(this.timeValuesMillis, millis);
+        if (position < 0) {
+            position = -position - 2;
+        }
+        return position < 0 ? null : this.getTimeSlice(position);
+    }
+
+    /**
+     * Returns the last time slice at or before the given time.
+     *
+     * @param dateTime the time.
+     * @return the {@link TimeSlice}, or {@code null} if all the time values are after the given time.
+     */
+    public TimeSlice floor(DateTime dateTime) {
+        return this.floor(dateTime.getMillis());
+    }
+
+    /**
+     * Returns the first time slice at or after the given time.
+     *
+     * @param millis the time, in epoch milliseconds.
+     * @return the {@link TimeSlice}, or {@code null} if all the time values are before the given time.
+     */
+    public TimeSlice ceiling(long millis) {
+        int position = Arrays.binarySearch(this.timeValuesMillis, millis);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return position >= this.timeValuesMillis.length ? null : this.getTimeSlice(position);
+    }
+
+    /**
+     * Returns the first time slice at or after the given time.
+     *
+     * @param dateTime the time.
+     * @return the {@link TimeSlice}, or {@code null} if all the time values are before the given time.
+     */
+    public TimeSlice ceiling(DateTime dateTime) {
+        return this.ceiling(dateTime.getMillis());
+    }
+
+    /**
+     * Returns the time slices within the time range {@code [startMillis, endMillis)},
+     * in chronological order.
+     *
+     * @param startMillis the start of the time range, inclusive, in epoch milliseconds.
+     * @param endMillis the end of the time range, exclusive, in epoch milliseconds.
+     * @return the list of {@link TimeSlice}. Empty if there is none.
+     */
+    public List<TimeSlice> range(long startMillis, long endMillis) {
+        List<TimeSlice> timeSlices = new ArrayList<TimeSlice>();
+        if (endMillis > startMillis) {
+            TimeSlice first = this.ceiling(startMillis);
+            if (first != null) {
+                for (int position=first.position; position<this.timeValuesMillis.length && this.timeValuesMillis[position] < endMillis; position++) {
+                    timeSlices.add(this.getTimeSlice(position));
+                }
+            }
+        }
+        return timeSlices;
+    }
+
+    /**
+     * Returns the time slices within the time range {@code [start, end)},
+     * in chronological order.
+     *
+     * @param start the start of the time range, inclusive.
+     * @param end the end of the time range, exclusive.
+     * @return the list of {@link TimeSlice}. Empty if there is none.
+     */
+    public List<TimeSlice> range(DateTime start, DateTime end) {
+        return this.range(start.getMillis(), end.getMillis());
+    }
+
+    private TimeSlice getTimeSlice(int position) {
+        return new TimeSlice(position,
+                this.timeValuesMillis[position],
+                this.metadatas.get(this.metadataIndexes[position]),
+                this.timeIndexes[position]);
+    }
+
+    /**
+     * A time value of the index: the NetCDF file, and the time index
+     * within the file, which holds the data of the variable for that time.
+     */
+    public static class TimeSlice {
+        private final int position;
+        private final long timeMillis;
+        private final NetCDFMetadataBean metadata;
+        private final int timeIndex;
+
+        private TimeSlice(int position, long timeMillis, NetCDFMetadataBean metadata, int timeIndex) {
+            this.position = position;
+            this.timeMillis = timeMillis;
+            this.metadata = metadata;
+            this.timeIndex = timeIndex;
+        }
+
+        /**
+         * Returns the time value, in epoch milliseconds.
+         * @return the time value, in epoch milliseconds.
+         */
+        public long getTimeMillis() {
+            return this.timeMillis;
+        }
+
+        /**
+         * Returns the metadata of the NetCDF file which holds the time value.
+         * @return the {@link NetCDFMetadataBean} of the file.
+         */
+        public NetCDFMetadataBean getMetadata() {
+            return this.metadata;
+        }
+
+        /**
+         * Returns the index of the time value in the file.
+         * See {@link TemporalDomainBean#getTimeValueMillis(int)}.
+         *
+         * @return the index of the time value in the file.
+         */
+        public int getTimeIndex() {
+            return this.timeIndex;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%d] %s", this.metadata.getId(), this.timeIndex, new DateTime(this.timeMillis));
+        }
+    }
+}
@@ -124,4 +124,76 @@ public class DataReader {
 
         return null;
     }
+
+    /**
+     * Reads 2D slices of a variable, one time index and one Z index at a time.
+     *
+     * <p>The NetCDF file is opened once. The slices are read in order,
+     * time index first, and given to the {@code sliceHandler} as soon as they are read,
+     * so only the slices retained by the handler are kept in memory.</p>
+     *
+     * @param netCDFFile the NetCDF file to read.
+     * @param metadata the {@link NetCDFMetadataBean} of the NetCDF file.
+     * @param variableId the ID of the variable we are aiming to read.
+     * @param timeIndexes the indexes on the time dimension.
+     * @param zIndexes the indexes on the Z (vertical) dimension.
+     * @param sliceHandler the handler called with each slice.
+     * @return {@code false} if the variable can not be read (missing or vector variable); {@code true} otherwise.
+     * @throws IOException if there is a problem reading the underlying data, or if the handler throws an exception.
+     */
+    public static boolean readVariableDataSlices(File netCDFFile, NetCDFMetadataBean metadata, String variableId,
+            int[] timeIndexes, int[] zIndexes, SliceHandler sliceHandler) throws IOException {
+
+        if (netCDFFile == null || metadata == null) {
+            return false;
+        }
+
+        Map<String, VariableMetadataBean> variables = metadata.getVariableMetadataBeanMap();
+        if (variables == null) {
+            return false;
+        }
+
+        VariableMetadataBean variableMetadataBean = variables.get(variableId);
+        if (variableMetadataBean == null || VectorPlugin.MAG_ROLE.equals(variableMetadataBean.getRole())) {
+            return false;
+        }
+
+        GriddedDataset dataset = NetCDFUtils.getNetCDFDataset(netCDFFile);
+        GridVariableMetadata variableMetadata = dataset.getVariableMetadata(variableId);
+        HorizontalGrid horizontalDomain = variableMetadata.getHorizontalDomain();
+        int xSize = horizontalDomain.getXSize();
+        int ySize = horizontalDomain.getYSize();
+
+        GridDataSource gridDataSource = dataset.openDataSource();
+        try {
+            for (int timeIndex : timeIndexes) {
+                for (int zIndex : zIndexes) {
+                    LOGGER.debug("readVariableDataSlices - variableId: " + variableId + ", timeIndex: " + timeIndex + ", zIndex: " + zIndex);
+                    Array4D<Number> slice = gridDataSource.read(variableId, timeIndex, timeIndex, zIndex, zIndex,
+                            0, ySize - 1,
+                            0, xSize - 1);
+                    sliceHandler.handle(timeIndex, zIndex, slice);
+                }
+            }
+        } finally {
+            gridDataSource.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Handler of the slices read by {@link #readVariableDataSlices(File, NetCDFMetadataBean, String, int[], int[], SliceHandler)}.
+     */
+    public interface SliceHandler {
+        /**
+         * Called with each slice, in the order they are read.
+         *
+         * @param timeIndex the index of the slice on the time dimension.
+         * @param zIndex the index of the slice on the Z (vertical) dimension.
+         * @param slice the data of the slice.
+         * @throws IOException if the slice can not be processed.
+         */
+        void handle(int timeIndex, int zIndex, Array4D<Number> slice) throws IOException;
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class FloatPercentilesTest {
+
+    @Test
+    public void testExactPercentiles() {
+        Random random = new Random(42);
+        // Small population, with a lot of duplicates and a few outliers
+        float[] values = new float[10001];
+        for (int i=0; i<values.length; i++) {
+            values[i] = (float)Math.round(random.nextGaussian() * 100) / 10;
+        }
+        values[10] = 1E30f;
+        values[20] = -1E30f;
+
+        FloatPercentiles percentiles = new FloatPercentiles(values.length);
+        for (float value : values) {
+            percentiles.add(value);
+        }
+        percentiles.add(Float.NaN);
+        Assert.assertTrue("The percentiles should be exact", percentiles.isExact());
+        Assert.assertEquals("NaN should be ignored", values.length, percentiles.size());
+
+        float[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+
+        // Ranks requested in random order, to exercise the reuse of the previous selection
+        long[] ranks = { 100, 9900, 0, 10000, 5000, 1, 9999, 100, 2500, 7500, 42 };
+        for (long rank : ranks) {
+            Assert.assertEquals("Wrong value at rank " + rank,
+                    sortedValues[(int)rank], percentiles.getValueAtRank(rank), 0);
+        }
+
+        Assert.assertEquals("Wrong min", -1E30f, percentiles.getMin(), 0);
+        Assert.assertEquals("Wrong max", 1E30f, percentiles.getMax(), 0);
+        Assert.assertEquals("Wrong median", sortedValues[5000], percentiles.getPercentile(50), 0);
+    }
+
+    @Test
+    public void testSketchPercentiles() {
+        Random random = new Random(42);
+        float[] values = new float[100000];
+        for (int i=0; i<values.length; i++) {
+            values[i] = (float)(random.nextGaussian() * 5 + 25);
+        }
+        values[10] = 1E30f;
+        values[20] = -1E30f;
+
+        // Exact threshold of 0: always use the sketch
+        FloatPercentiles percentiles = new FloatPercentiles(values.length, 0, FloatPercentiles.DEFAULT_PRECISION_BITS);
+        for (float value : values) {
+            percentiles.add(value);
+        }
+        Assert.assertFalse("The percentiles should be estimated", percentiles.isExact());
+        Assert.assertEquals("Wrong population size", values.length, percentiles.size());
+
+        float[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+
+        double maxRelativeError = Math.pow(2, -(FloatPercentiles.DEFAULT_PRECISION_BITS + 1));
+        for (long rank : new long[] { 1, 999, 50000, 98999, 99998 }) {
+            float expected = sortedValues[(int)rank];
+            Assert.assertEquals("Wrong value at rank " + rank,
+                    expected, percentiles.getValueAtRank(rank), Math.abs(expected) * maxRelativeError);
+        }
+
+        // Min and max are exact
+        Assert.assertEquals("Wrong min", -1E30f, percentiles.getValueAtRank(0), 0);
+        Assert.assertEquals("Wrong max", 1E30f, percentiles.getValueAtRank(values.length - 1), 0);
+    }
+
+    @Test
+    public void testSwitchToSketch() {
+        FloatPercentiles percentiles = new FloatPercentiles(10, 1000, FloatPercentiles.DEFAULT_PRECISION_BITS);
+        for (int i=0; i<1000; i++) {
+            percentiles.add(-i);
+        }
+        Assert.assertTrue("The percentiles should be exact", percentiles.isExact());
+        Assert.assertEquals("Wrong exact value", -900, percentiles.getValueAtRank(99), 0);
+
+        for (int i=1000; i<2000; i++) {
+            percentiles.add(-i);
+        }
+        Assert.assertFalse("The percentiles should be estimated", percentiles.isExact());
+        Assert.assertEquals("Wrong population size", 2000, percentiles.size());
+
+        double maxRelativeError = Math.pow(2, -(FloatPercentiles.DEFAULT_PRECISION_BITS + 1));
+        Assert.assertEquals("Wrong estimated value", -1900, percentiles.getValueAtRank(99), 1900 * maxRelativeError);
+        Assert.assertEquals("Wrong estimated value", -100, percentiles.getValueAtRank(1899), 100 * maxRelativeError);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(42);
+        float[] values = new float[30000];
+        for (int i=0; i<values.length; i++) {
+            values[i] = (float)(random.nextGaussian() * 5 + 25);
+        }
+        float[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        double maxRelativeError = Math.pow(2, -(FloatPercentiles.DEFAULT_PRECISION_BITS + 1));
+
+        // Exact populations, merged into an exact population
+        FloatPercentiles exact = new FloatPercentiles(0);
+        // Sketches, merged into a sketch
+        FloatPercentiles sketch = new FloatPercentiles(0, 0, FloatPercentiles.DEFAULT_PRECISION_BITS);
+        // Exact populations, merged into a population which exceeds its exact threshold
+        FloatPercentiles switched = new FloatPercentiles(0, 15000, FloatPercentiles.DEFAULT_PRECISION_BITS);
+
+        for (int slice=0; slice<3; slice++) {
+            FloatPercentiles exactSlice = new FloatPercentiles(10000);
+            FloatPercentiles sketchSlice = new FloatPercentiles(10000, 0, FloatPercentiles.DEFAULT_PRECISION_BITS);
+            for (int i=slice*10000; i<(slice+1)*10000; i++) {
+                exactSlice.add(values[i]);
+                sketchSlice.add(values[i]);
+            }
+            exact.merge(exactSlice);
+            sketch.merge(sketchSlice);
+            switched.merge(exactSlice);
+        }
+
+        Assert.assertTrue("The merged population should be exact", exact.isExact());
+        Assert.assertFalse("The merged sketch should not be exact", sketch.isExact());
+        Assert.assertFalse("The merged population should have switched to sketch mode", switched.isExact());
+
+        for (FloatPercentiles percentiles : new FloatPercentiles[] { exact, sketch, switched }) {
+            Assert.assertEquals("Wrong population size", values.length, percentiles.size());
+            Assert.assertEquals("Wrong min", sortedValues[0], percentiles.getMin(), 0);
+            Assert.assertEquals("Wrong max", sortedValues[values.length - 1], percentiles.getMax(), 0);
+            for (long rank : new long[] { 299, 15000, 29700 }) {
+                float expected = sortedValues[(int)rank];
+                Assert.assertEquals("Wrong value at rank " + rank, expected, percentiles.getValueAtRank(rank),
+                        percentiles.isExact() ? 0 : Math.abs(expected) * maxRelativeError);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecisions() {
+        FloatPercentiles sketch = new FloatPercentiles(0, 0, 7);
+        FloatPercentiles otherSketch = new FloatPercentiles(0, 0, 8);
+        otherSketch.add(1);
+        sketch.merge(otherSketch);
+    }
+
+    @Test
+    public void testEmpty() {
+        FloatPercentiles percentiles = new FloatPercentiles(0);
+        Assert.assertEquals("Wrong population size", 0, percentiles.size());
+        Assert.assertTrue("Min should be NaN", Float.isNaN(percentiles.getMin()));
+        Assert.assertTrue("Percentile should be NaN", Float.isNaN(percentiles.getPercentile(50)));
+
+        percentiles.add(3.5f);
+        Assert.assertEquals("Wrong single value percentile", 3.5f, percentiles.getPercentile(1), 0);
+        Assert.assertEquals("Wrong single value percentile", 3.5f, percentiles.getPercentile(99), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidRank() {
+        FloatPercentiles percentiles = new FloatPercentiles(0);
+        percentiles.add(1);
+        percentiles.getValueAtRank(1);
+    }
+}
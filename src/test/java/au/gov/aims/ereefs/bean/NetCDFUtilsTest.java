@@ -4,12 +4,18 @@
  */
 package au.gov.aims.ereefs.bean;
 
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.bean.metadata.netcdf.TemporalDomainBean;
 import au.gov.aims.ereefs.database.manager.ncanimate.ConfigManagerTestBase;
+import org.joda.time.DateTime;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class NetCDFUtilsTest {
 
@@ -20,4 +26,50 @@ public class NetCDFUtilsTest {
 
         Assert.assertTrue(NetCDFUtils.scan(netCDFFile));
     }
+
+    @Test
+    public void testComputeStatistics() throws Exception {
+        URL netCDFFileUrl = ConfigManagerTestBase.class.getClassLoader().getResource("netcdf/small.nc");
+        File netCDFFile = new File(netCDFFileUrl.getFile());
+
+        // All time slices, 2 depths
+        NetCDFUtils.VariableStatistics statistics = NetCDFUtils.computeStatistics(netCDFFile, "temp", Arrays.asList(-3890.0, -3680.0));
+        Assert.assertNotNull("Statistics not found", statistics);
+        Assert.assertEquals("Wrong number of time slices", 2, statistics.getTimeSliceCount());
+        Assert.assertEquals("Wrong depths", Arrays.asList(-3890.0, -3680.0), statistics.getDepths());
+        Assert.assertTrue("The statistics should be exact", statistics.isExact());
+        Assert.assertTrue("The population is empty", statistics.getPopulation() > 0);
+
+        NetCDFUtils.DataDomain dataDomain = statistics.getDataDomain(null);
+        Assert.assertNull("Unexpected depth for multiple depths", dataDomain.getDepth());
+        Assert.assertTrue("Wrong min", statistics.getMin() <= dataDomain.getMin());
+        Assert.assertTrue("Wrong max", statistics.getMax() >= dataDomain.getMax());
+        Assert.assertTrue("Wrong 1 and 99 percentiles", dataDomain.getMin() <= dataDomain.getMax());
+
+        // Last time slice, single depth: same result as computeMinMax
+        NetCDFMetadataBean metadata = NetCDFMetadataBean.create(null, null, netCDFFile.toURI(), netCDFFile, netCDFFile.lastModified(), false);
+        TemporalDomainBean temporalDomain = metadata.getVariableMetadataBeanMap().get("temp").getTemporalDomainBean();
+        DateTime lastTimeValue = temporalDomain.getTimeValues().get(temporalDomain.getTimeValueCount() - 1);
+
+        List<Double> depths = Collections.singletonList(-3890.0);
+        NetCDFUtils.VariableStatistics lastSliceStatistics = NetCDFUtils.computeStatistics(netCDFFile, "temp", depths,
+                lastTimeValue, null, null);
+        Assert.assertEquals("Wrong number of time slices", 1, lastSliceStatistics.getTimeSliceCount());
+
+        NetCDFUtils.DataDomain lastSliceDataDomain = lastSliceStatistics.getDataDomain(null);
+        NetCDFUtils.DataDomain minMax = NetCDFUtils.computeMinMax(netCDFFile, "temp", -3890.0);
+        Assert.assertEquals("Wrong depth", minMax.getDepth(), lastSliceDataDomain.getDepth());
+        Assert.assertEquals("Wrong min", minMax.getMin(), lastSliceDataDomain.getMin(), 0);
+        Assert.assertEquals("Wrong max", minMax.getMax(), lastSliceDataDomain.getMax(), 0);
+        Assert.assertTrue("The population of a single slice should be smaller",
+                lastSliceStatistics.getPopulation() < statistics.getPopulation());
+
+        // Variable without vertical domain and without temporal domain
+        NetCDFUtils.VariableStatistics botzStatistics = NetCDFUtils.computeStatistics(netCDFFile, "botz", null);
+        Assert.assertEquals("Wrong number of time slices", 1, botzStatistics.getTimeSliceCount());
+        Assert.assertTrue("Unexpected depths", botzStatistics.getDepths().isEmpty());
+
+        Assert.assertNull("Unexpected statistics for missing variable", NetCDFUtils.computeStatistics(netCDFFile, "missing", null));
+        Assert.assertNull("Unexpected statistics for vector variable", NetCDFUtils.computeStatistics(netCDFFile, "u:v-mag", null));
+    }
 }
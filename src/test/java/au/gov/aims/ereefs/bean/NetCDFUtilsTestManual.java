@@ -4,14 +4,17 @@
  */
 package au.gov.aims.ereefs.bean;
 
+import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Random;
 
 public class NetCDFUtilsTestManual {
+    private static final Logger LOGGER = Logger.getLogger(NetCDFUtilsTestManual.class);
 
     /**
      * A corrupted file was detected by NcAggregate.
@@ -71,4 +74,96 @@ public class NetCDFUtilsTestManual {
         File netCDFFile = new File("/home/glafond/Desktop/TMP_INPUT/netcdf/noaa/multi_1.glo_30m.dp.201811.grb2");
         Assert.assertTrue(NetCDFUtils.scan(netCDFFile));
     }
+
+    /**
+     * Compare the time spent calculating the 1 and 99 percentiles
+     * using the FullTreeSet bins (implementation used before FloatPercentiles)
+     * and using FloatPercentiles, in exact mode and in sketch mode.
+     * The values are read from a Number array, like the Array4D used by computeMinMax.
+     */
+    @Test
+    @Ignore
+    public void benchmarkPercentiles() {
+        int percentile = 1;
+        Random random = new Random(42);
+        for (int size : new int[] { 100000, 1000000, 4000000 }) {
+            Number[] values = new Number[size];
+            for (int i=0; i<size; i++) {
+                values[i] = (float)(random.nextGaussian() * 5 + 25);
+            }
+
+            for (int run=0; run<3; run++) {
+                long start = System.nanoTime();
+                float[] fullTreeSetMinMax = this.computeMinMaxFullTreeSet(values, percentile);
+                long fullTreeSetElapsed = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                float[] exactMinMax = this.computeMinMaxFloatPercentiles(values, percentile, new FloatPercentiles(size));
+                long exactElapsed = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                float[] sketchMinMax = this.computeMinMaxFloatPercentiles(values, percentile,
+                        new FloatPercentiles(size, 0, FloatPercentiles.DEFAULT_PRECISION_BITS));
+                long sketchElapsed = System.nanoTime() - start;
+
+                Assert.assertArrayEquals("Wrong exact min / max", fullTreeSetMinMax, exactMinMax, 0);
+
+                LOGGER.info(String.format("%d values: FullTreeSet %d ms [%f, %f], exact %d ms, sketch %d ms [%f, %f]",
+                        size,
+                        fullTreeSetElapsed / 1000000, fullTreeSetMinMax[0], fullTreeSetMinMax[1],
+                        exactElapsed / 1000000,
+                        sketchElapsed / 1000000, sketchMinMax[0], sketchMinMax[1]));
+            }
+        }
+    }
+
+    // Implementation of NetCDFUtils.computeMinMax before FloatPercentiles
+    private float[] computeMinMaxFullTreeSet(Number[] values, int percentile) {
+        long population = 0;
+        for (Number number : values) {
+            if (number != null) {
+                population++;
+            }
+        }
+
+        long binSize = Math.max(1, population * percentile / 100);
+        FullTreeSet<Float> minBin = new FullTreeSet<Float>();
+        FullTreeSet<Float> maxBin = new FullTreeSet<Float>();
+
+        float val;
+        for (Number number : values) {
+            if (number != null) {
+                val = number.floatValue();
+                if (minBin.realSize() < binSize || val < minBin.last()) {
+                    minBin.add(val);
+                    if (minBin.realSize() > binSize) {
+                        minBin.remove(minBin.last());
+                    }
+                }
+                if (maxBin.realSize() < binSize || val > maxBin.first()) {
+                    maxBin.add(val);
+                    if (maxBin.realSize() > binSize) {
+                        maxBin.remove(maxBin.first());
+                    }
+                }
+            }
+        }
+
+        return new float[] { minBin.last(), maxBin.first() };
+    }
+
+    private float[] computeMinMaxFloatPercentiles(Number[] values, int percentile, FloatPercentiles percentiles) {
+        for (Number number : values) {
+            if (number != null) {
+                percentiles.add(number.floatValue());
+            }
+        }
+
+        long population = percentiles.size();
+        long binSize = Math.max(1, population * percentile / 100);
+        return new float[] {
+            percentiles.getValueAtRank(binSize - 1),
+            percentiles.getValueAtRank(population - binSize)
+        };
+    }
 }
@@ -4,14 +4,17 @@
  */
 package au.gov.aims.ereefs.bean.metadata.netcdf;
 
+import com.amazonaws.util.IOUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URL;
 import java.util.Map;
@@ -19,6 +22,9 @@ import java.util.Map;
 public class ManualNetCDFMetadataBeanTest {
     private static final Logger LOGGER = Logger.getLogger(ManualNetCDFMetadataBeanTest.class);
 
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
     /**
      * Test used to manually check NetCDF file metadata.
      * It's not intended to be run as a Unit test.
@@ -140,4 +146,63 @@ public class ManualNetCDFMetadataBeanTest {
         Assert.assertEquals("Could not reclaim disk space after deleting the NetCDF file.",
                 freedSpace, fileSize, 10 * 1024);
     }
+
+    /**
+     * Compare the time spent and the memory allocated while parsing the gbr1.nc.json metadata,
+     * when only the metadata properties are used (ID, status, last modified)
+     * and when the time values of every variable are used.
+     * Each scenario is run with the legacy JSON document (version 2.0, list of ISO dates)
+     * and with the compact JSON document (time axis).
+     * @throws Exception
+     */
+    @Test
+    @Ignore
+    public void benchmarkParseMetadata() throws Exception {
+        JSONObject legacyJsonMetadata = new JSONObject(IOUtils.toString(
+                ManualNetCDFMetadataBeanTest.class.getClassLoader().getResourceAsStream("metadata/gbr1.nc.json")));
+        JSONObject compactJsonMetadata = new NetCDFMetadataBean(legacyJsonMetadata).toJSON();
+
+        for (int run=0; run<2; run++) {
+            for (boolean compact : new boolean[] { false, true }) {
+                JSONObject jsonMetadata = compact ? compactJsonMetadata : legacyJsonMetadata;
+                for (boolean timeValues : new boolean[] { false, true }) {
+                    for (int i=0; i<WARMUP_ITERATIONS; i++) {
+                        ManualNetCDFMetadataBeanTest.parseMetadata(jsonMetadata, timeValues);
+                    }
+
+                    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+                    long threadId = Thread.currentThread().getId();
+                    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+                    long start = System.nanoTime();
+                    for (int i=0; i<ITERATIONS; i++) {
+                        ManualNetCDFMetadataBeanTest.parseMetadata(jsonMetadata, timeValues);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+                    LOGGER.info(String.format("%s JSON, %s: %.3f ms, %d bytes allocated per metadata",
+                            compact ? "Compact" : "Legacy",
+                            timeValues ? "all time values" : "properties only",
+                            elapsed / 1000000.0 / ITERATIONS,
+                            allocated / ITERATIONS));
+                }
+            }
+        }
+    }
+
+    private static int parseMetadata(JSONObject jsonMetadata, boolean timeValues) {
+        NetCDFMetadataBean metadata = new NetCDFMetadataBean(jsonMetadata);
+        int count = metadata.getId().length() + metadata.getStatus().ordinal() + (int)metadata.getLastModified();
+        if (timeValues) {
+            for (VariableMetadataBean variable : metadata.getVariableMetadataBeanMap().values()) {
+                TemporalDomainBean temporalDomain = variable.getTemporalDomainBean();
+                if (temporalDomain != null) {
+                    for (DateTime timeValue : temporalDomain.getTimeValues()) {
+                        count += timeValue.getHourOfDay();
+                    }
+                }
+            }
+        }
+        return count;
+    }
 }
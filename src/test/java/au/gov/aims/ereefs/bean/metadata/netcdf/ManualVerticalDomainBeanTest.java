@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean.metadata.netcdf;
+
+import org.apache.log4j.Logger;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ManualVerticalDomainBeanTest {
+    private static final Logger LOGGER = Logger.getLogger(ManualVerticalDomainBeanTest.class);
+
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int ITERATIONS = 1000000;
+
+    /**
+     * Compare the time spent finding the closest height index using
+     * a linear search (implementation before the binary search) and using
+     * {@link VerticalDomainBean#getClosestHeightIndex(Double)},
+     * for the GBR4 z-axis (17 layers) and the GBR1 z-axis (44 layers).
+     *
+     * <p>The target heights are the typical NcAnimate target heights,
+     * which are requested for every frame.</p>
+     */
+    @Test
+    @Ignore
+    public void benchmarkClosestHeightIndex() {
+        Double[] targetHeights = { -1.5, -3.0, -5.55, -12.75, -20.0, -100.0 };
+
+        for (int run=0; run<2; run++) {
+            this.benchmark("GBR4", VerticalDomainBeanTest.GBR4_HEIGHTS, targetHeights);
+            this.benchmark("GBR1", VerticalDomainBeanTest.GBR1_HEIGHTS, targetHeights);
+        }
+    }
+
+    private void benchmark(String name, double[] heights, Double[] targetHeights) {
+        VerticalDomainBean verticalDomain = VerticalDomainBeanTest.createVerticalDomain(heights);
+        List<Double> heightValues = verticalDomain.getHeightValues();
+
+        long checksum = 0;
+        for (int i=0; i<WARMUP_ITERATIONS; i++) {
+            Double targetHeight = targetHeights[i % targetHeights.length];
+            checksum += VerticalDomainBeanTest.findClosestHeightIndexLinear(heightValues, targetHeight);
+            checksum += verticalDomain.getClosestHeightIndex(targetHeight);
+        }
+
+        long start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            checksum += VerticalDomainBeanTest.findClosestHeightIndexLinear(heightValues, targetHeights[i % targetHeights.length]);
+        }
+        long linearElapsed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i=0; i<ITERATIONS; i++) {
+            checksum += verticalDomain.getClosestHeightIndex(targetHeights[i % targetHeights.length]);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        LOGGER.info(String.format("%s (%d layers): linear search %.1f ns, getClosestHeightIndex %.1f ns per lookup (checksum %d)",
+                name, heights.length,
+                linearElapsed / (double)ITERATIONS,
+                elapsed / (double)ITERATIONS,
+                checksum));
+    }
+}
@@ -4,6 +4,7 @@
  */
 package au.gov.aims.ereefs.bean.metadata.netcdf;
 
+import com.amazonaws.util.IOUtils;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
@@ -226,4 +227,208 @@ public class NetCDFMetadataBeanTest {
 
         Assert.assertNull("Variable botz have a Vertical Domain", botzVariable.getVerticalDomainBean());
     }
+
+    @Test
+    public void testParseLegacyTimeValues() throws Exception {
+        JSONObject legacyJsonMetadata = new JSONObject(IOUtils.toString(
+                NetCDFMetadataBeanTest.class.getClassLoader().getResourceAsStream("metadata/gbr1.nc.json")));
+        Assert.assertEquals("Wrong fixture version", "2.0", legacyJsonMetadata.optString("version"));
+
+        NetCDFMetadataBean metadata = new NetCDFMetadataBean(legacyJsonMetadata);
+        Assert.assertEquals("Wrong metadata ID", "downloads/gbr1_v2/gbr1_simple_2014-12-02_nc", metadata.getId());
+
+        // The legacy time values are counted without parsing them
+        Assert.assertEquals("Wrong number of time values", 15 * 24, metadata.getTimeValueCount());
+        Assert.assertFalse("The metadata has no variables", metadata.isEmpty());
+
+        // The legacy time values are converted when the temporal domain is requested, without modifying the document
+        JSONObject legacyJsonTemporalDomain = legacyJsonMetadata.getJSONObject("variables")
+                .getJSONObject("temp").getJSONObject("temporalDomain");
+
+        TemporalDomainBean tempTemporalDomain = metadata.getVariableMetadataBeanMap().get("temp").getTemporalDomainBean();
+        Assert.assertNotNull("Variable temp have no Temporal Domain", tempTemporalDomain);
+        Assert.assertTrue("The metadata document was modified", legacyJsonTemporalDomain.has("timeValues"));
+        Assert.assertTrue("The hourly time axis should be regular", tempTemporalDomain.isRegular());
+        Assert.assertEquals("Wrong number of time values", 24, tempTemporalDomain.getTimeValueCount());
+        Assert.assertEquals("Wrong number of time values", 24, tempTemporalDomain.getTimeValues().size());
+        Assert.assertEquals("Wrong first time value",
+                new DateTime("2014-12-01T00:00:00.000+10:00"), tempTemporalDomain.getTimeValues().get(0));
+        Assert.assertEquals("Wrong last time value",
+                new DateTime("2014-12-01T23:00:00.000+10:00").getMillis(), tempTemporalDomain.getTimeValueMillis(23));
+
+        // The compact serialisation can be parsed back
+        JSONObject compactJsonMetadata = metadata.toJSON();
+        String tempTemporalDomainId = compactJsonMetadata.getJSONObject("variables")
+                .getJSONObject("temp").getString("temporalDomainId");
+        JSONObject compactJsonTemporalDomain = compactJsonMetadata.getJSONObject("temporalDomains")
+                .getJSONObject(tempTemporalDomainId);
+        Assert.assertFalse("The time values should not be serialised as a list of dates", compactJsonTemporalDomain.has("timeValues"));
+        Assert.assertTrue("The time axis is missing", compactJsonTemporalDomain.has("timeAxis"));
+
+        NetCDFMetadataBean compactMetadata = new NetCDFMetadataBean(compactJsonMetadata);
+        TemporalDomainBean compactTemporalDomain = compactMetadata.getVariableMetadataBeanMap().get("temp").getTemporalDomainBean();
+        Assert.assertEquals("Wrong time values after parsing the compact serialisation",
+                tempTemporalDomain.getTimeValues(), compactTemporalDomain.getTimeValues());
+        Assert.assertEquals(compactJsonMetadata.toString(4), compactMetadata.toJSON().toString(4));
+    }
+
+    @Test
+    public void testIrregularTimeAxis() {
+        JSONArray jsonTimeValues = new JSONArray()
+            .put("2014-12-01T00:00:00.000Z")
+            .put("2015-01-01T00:00:00.000Z")
+            .put("2015-02-01T00:00:00.000Z");
+
+        TemporalDomainBean monthlyTemporalDomain = new TemporalDomainBean(new JSONObject()
+            .put("name", "time")
+            .put("timeValues", jsonTimeValues));
+
+        Assert.assertFalse("The monthly time axis should not be regular", monthlyTemporalDomain.isRegular());
+        Assert.assertEquals("Wrong number of time values", 3, monthlyTemporalDomain.getTimeValueCount());
+
+        JSONObject jsonTimeAxis = monthlyTemporalDomain.toJSON().getJSONObject("timeAxis");
+        Assert.assertEquals("Wrong number of serialised time values", 3, jsonTimeAxis.getJSONArray("values").length());
+
+        // Large numbers may be returned by the database as {"$numberLong": "..."}
+        JSONArray jsonTimeAxisValues = new JSONArray();
+        for (long timeValueMillis : monthlyTemporalDomain.getTimeValuesMillis()) {
+            jsonTimeAxisValues.put(new JSONObject().put("$numberLong", String.valueOf(timeValueMillis)));
+        }
+        TemporalDomainBean parsedTemporalDomain = new TemporalDomainBean(new JSONObject()
+            .put("name", "time")
+            .put("timeAxis", new JSONObject().put("values", jsonTimeAxisValues)));
+
+        Assert.assertEquals("Wrong time values after parsing the compact serialisation",
+                monthlyTemporalDomain.getTimeValues(), parsedTemporalDomain.getTimeValues());
+        Assert.assertEquals("Wrong second time value",
+                new DateTime("2015-01-01T00:00:00.000Z").getMillis(), parsedTemporalDomain.getTimeValues().get(1).getMillis());
+    }
+
+    @Test
+    public void testTimeIndexLookup() {
+        long hour = 60 * 60 * 1000;
+        long start = new DateTime("2014-12-01T00:00:00.000Z").getMillis();
+
+        // Regular hourly time axis
+        TemporalDomainBean hourlyTemporalDomain = new TemporalDomainBean(new JSONObject()
+            .put("name", "time")
+            .put("timeAxis", new JSONObject()
+                .put("start", "2014-12-01T00:00:00.000Z")
+                .put("step", hour)
+                .put("count", 24)));
+        Assert.assertTrue("The hourly time axis should be regular", hourlyTemporalDomain.isRegular());
+
+        // Same time values, with an irregular time axis which is not in chronological order
+        long[] shuffledTimeValues = new long[25];
+        for (int i=0; i<24; i++) {
+            shuffledTimeValues[i] = start + ((i * 7) % 24) * hour;
+        }
+        shuffledTimeValues[24] = start + 23 * hour;
+        JSONArray jsonShuffledTimeValues = new JSONArray();
+        for (long timeValue : shuffledTimeValues) {
+            jsonShuffledTimeValues.put(timeValue);
+        }
+        TemporalDomainBean shuffledTemporalDomain = new TemporalDomainBean(new JSONObject()
+            .put("name", "time")
+            .put("timeAxis", new JSONObject().put("values", jsonShuffledTimeValues)));
+        Assert.assertFalse("The shuffled time axis should not be regular", shuffledTemporalDomain.isRegular());
+
+        Assert.assertEquals("Wrong floor index", 0, hourlyTemporalDomain.floorIndex(start));
+        Assert.assertEquals("Wrong floor index", 5, hourlyTemporalDomain.floorIndex(start + 5 * hour + 1));
+        Assert.assertEquals("Wrong floor index before the first time value", -1, hourlyTemporalDomain.floorIndex(start - 1));
+        Assert.assertEquals("Wrong floor index after the last time value", 23, hourlyTemporalDomain.floorIndex(start + 100 * hour));
+        Assert.assertEquals("Wrong floor index", 5, hourlyTemporalDomain.floorIndex(new DateTime("2014-12-01T05:30:00.000Z")));
+
+        Assert.assertEquals("Wrong ceiling index", 0, hourlyTemporalDomain.ceilingIndex(start - 100 * hour));
+        Assert.assertEquals("Wrong ceiling index", 5, hourlyTemporalDomain.ceilingIndex(start + 5 * hour));
+        Assert.assertEquals("Wrong ceiling index", 6, hourlyTemporalDomain.ceilingIndex(start + 5 * hour + 1));
+        Assert.assertEquals("Wrong ceiling index after the last time value", -1, hourlyTemporalDomain.ceilingIndex(start + 23 * hour + 1));
+
+        Assert.assertArrayEquals("Wrong range indexes", new int[] { 3, 4, 5 },
+                hourlyTemporalDomain.rangeIndexes(start + 3 * hour, start + 6 * hour));
+        Assert.assertArrayEquals("Wrong range indexes", new int[] { 22, 23 },
+                hourlyTemporalDomain.rangeIndexes(start + 21 * hour + 1, start + 100 * hour));
+        Assert.assertEquals("Wrong empty range indexes", 0,
+                hourlyTemporalDomain.rangeIndexes(start + 3 * hour + 1, start + 4 * hour).length);
+
+        // Compare the lookups with a linear search through the time values
+        for (TemporalDomainBean temporalDomain : new TemporalDomainBean[] { hourlyTemporalDomain, shuffledTemporalDomain }) {
+            for (long time = start - hour; time <= start + 25 * hour; time += hour / 2) {
+                int floorIndex = temporalDomain.floorIndex(time);
+                int ceilingIndex = temporalDomain.ceilingIndex(time);
+                long floorTime = Long.MIN_VALUE, ceilingTime = Long.MAX_VALUE;
+                for (int i=0; i<temporalDomain.getTimeValueCount(); i++) {
+                    long timeValue = temporalDomain.getTimeValueMillis(i);
+                    if (timeValue <= time) {
+                        floorTime = Math.max(floorTime, timeValue);
+                    }
+                    if (timeValue >= time) {
+                        ceilingTime = Math.min(ceilingTime, timeValue);
+                    }
+                }
+
+                if (floorTime == Long.MIN_VALUE) {
+                    Assert.assertEquals("Unexpected floor index", -1, floorIndex);
+                } else {
+                    Assert.assertEquals("Wrong floor time value", floorTime, temporalDomain.getTimeValueMillis(floorIndex));
+                }
+                if (ceilingTime == Long.MAX_VALUE) {
+                    Assert.assertEquals("Unexpected ceiling index", -1, ceilingIndex);
+                } else {
+                    Assert.assertEquals("Wrong ceiling time value", ceilingTime, temporalDomain.getTimeValueMillis(ceilingIndex));
+                }
+            }
+
+            // The range indexes are in chronological order
+            int[] rangeIndexes = temporalDomain.rangeIndexes(start, start + 24 * hour);
+            Assert.assertEquals("Wrong number of range indexes", temporalDomain.getTimeValueCount(), rangeIndexes.length);
+            for (int i=1; i<rangeIndexes.length; i++) {
+                Assert.assertTrue("The range indexes are not in chronological order",
+                        temporalDomain.getTimeValueMillis(rangeIndexes[i-1]) <= temporalDomain.getTimeValueMillis(rangeIndexes[i]));
+            }
+        }
+
+        // Duplicated time value (index 17 and 24)
+        Assert.assertEquals("Wrong ceiling index for duplicated time value", 17, shuffledTemporalDomain.ceilingIndex(start + 23 * hour));
+        Assert.assertEquals("Wrong floor index for duplicated time value", 24, shuffledTemporalDomain.floorIndex(start + 23 * hour));
+    }
+
+    @Test
+    public void testSharedDomains() throws Exception {
+        JSONObject legacyJsonMetadata = new JSONObject(IOUtils.toString(
+                NetCDFMetadataBeanTest.class.getClassLoader().getResourceAsStream("metadata/gbr1.nc.json")));
+
+        NetCDFMetadataBean metadata = new NetCDFMetadataBean(legacyJsonMetadata);
+        Map<String, VariableMetadataBean> variables = metadata.getVariableMetadataBeanMap();
+
+        // Identical domains parsed from a legacy document are shared
+        Assert.assertSame("The temporal domain is not shared",
+                variables.get("temp").getTemporalDomainBean(), variables.get("salt").getTemporalDomainBean());
+        Assert.assertSame("The vertical domain is not shared",
+                variables.get("temp").getVerticalDomainBean(), variables.get("salt").getVerticalDomainBean());
+
+        // Identical domains are serialised once
+        JSONObject jsonMetadata = metadata.toJSON();
+        Assert.assertEquals("Wrong number of serialised temporal domains", 1, jsonMetadata.getJSONObject("temporalDomains").length());
+        Assert.assertEquals("The temporal domains should be referenced by ID",
+                jsonMetadata.getJSONObject("variables").getJSONObject("temp").getString("temporalDomainId"),
+                jsonMetadata.getJSONObject("variables").getJSONObject("salt").getString("temporalDomainId"));
+        Assert.assertTrue("The serialised metadata should be smaller than the legacy document",
+                jsonMetadata.toString().length() < legacyJsonMetadata.toString().length());
+
+        // Domains parsed from the domain table are shared
+        NetCDFMetadataBean parsedMetadata = new NetCDFMetadataBean(jsonMetadata);
+        Map<String, VariableMetadataBean> parsedVariables = parsedMetadata.getVariableMetadataBeanMap();
+        Assert.assertSame("The parsed temporal domain is not shared",
+                parsedVariables.get("temp").getTemporalDomainBean(), parsedVariables.get("salt").getTemporalDomainBean());
+        Assert.assertEquals("Wrong parsed temporal domain",
+                variables.get("temp").getTemporalDomainBean(), parsedVariables.get("temp").getTemporalDomainBean());
+        Assert.assertEquals("Wrong parsed temporal domain hash code",
+                variables.get("temp").getTemporalDomainBean().hashCode(), parsedVariables.get("temp").getTemporalDomainBean().hashCode());
+        Assert.assertEquals("Wrong parsed vertical domain",
+                variables.get("temp").getVerticalDomainBean(), parsedVariables.get("temp").getVerticalDomainBean());
+        Assert.assertNull("Variable botz have a Vertical Domain", parsedVariables.get("botz").getVerticalDomainBean());
+
+        Assert.assertEquals(jsonMetadata.toString(4), parsedMetadata.toJSON().toString(4));
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean.metadata.netcdf;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class VerticalDomainBeanTest {
+    // GBR1 z-axis: 44 layers
+    static final double[] GBR1_HEIGHTS = {
+        -3885, -3660, -3430, -3195, -2965, -2730, -2495, -2265, -2035, -1805, -1575, -1345, -1115,
+        -960, -860, -750, -655, -570, -495, -430, -370, -315, -270, -230, -195, -165, -140, -120,
+        -103, -88, -73, -60, -49, -39.5, -31, -24, -18, -13, -9, -5.35, -2.35, -0.5, 0.5, 1.5
+    };
+
+    // GBR4 z-axis: 17 layers
+    static final double[] GBR4_HEIGHTS = {
+        -145, -120, -103, -88, -73, -60, -49, -39.5, -31, -24, -18, -13, -9, -5.35, -2.35, -0.5, 0.5
+    };
+
+    @Test
+    public void testClosestHeightIndex() {
+        for (double[] heights : new double[][] { GBR1_HEIGHTS, GBR4_HEIGHTS }) {
+            VerticalDomainBean verticalDomain = VerticalDomainBeanTest.createVerticalDomain(heights);
+
+            for (double targetHeight : VerticalDomainBeanTest.getTargetHeights(heights)) {
+                Assert.assertEquals(String.format("Wrong closest height index for target height %f", targetHeight),
+                        VerticalDomainBeanTest.findClosestHeightIndexLinear(verticalDomain.getHeightValues(), targetHeight),
+                        verticalDomain.getClosestHeightIndex(targetHeight));
+
+                // Cached result
+                Assert.assertEquals(String.format("Wrong cached closest height index for target height %f", targetHeight),
+                        VerticalDomainBeanTest.findClosestHeightIndexLinear(verticalDomain.getHeightValues(), targetHeight),
+                        verticalDomain.getClosestHeightIndex(targetHeight));
+            }
+        }
+    }
+
+    @Test
+    public void testClosestHeightIndexUnsortedHeights() {
+        // Unsorted heights, with duplicates and equidistant heights
+        double[] heights = { 0, -10, 5, -10, 10, -5, 5 };
+        VerticalDomainBean verticalDomain = VerticalDomainBeanTest.createVerticalDomain(heights);
+
+        for (double targetHeight : VerticalDomainBeanTest.getTargetHeights(heights)) {
+            Assert.assertEquals(String.format("Wrong closest height index for target height %f", targetHeight),
+                    VerticalDomainBeanTest.findClosestHeightIndexLinear(verticalDomain.getHeightValues(), targetHeight),
+                    verticalDomain.getClosestHeightIndex(targetHeight));
+        }
+
+        Assert.assertEquals("Wrong closest height index for duplicated height", Integer.valueOf(1), verticalDomain.getClosestHeightIndex(-10.0));
+        Assert.assertEquals("Wrong closest height index for equidistant heights", Integer.valueOf(0), verticalDomain.getClosestHeightIndex(2.5));
+        Assert.assertEquals("Wrong closest height", Double.valueOf(10), verticalDomain.getClosestHeight(100.0));
+        Assert.assertNull("Null target height", verticalDomain.getClosestHeightIndex(null));
+    }
+
+    static VerticalDomainBean createVerticalDomain(double[] heights) {
+        JSONArray jsonHeightValues = new JSONArray();
+        for (double height : heights) {
+            jsonHeightValues.put(height);
+        }
+
+        return new VerticalDomainBean(new JSONObject()
+            .put("name", "zc")
+            .put("heightValues", jsonHeightValues));
+    }
+
+    // Target heights: every height, the middle point between heights, and heights out of range
+    static double[] getTargetHeights(double[] heights) {
+        double[] targetHeights = new double[heights.length * 3 + 4];
+        int index = 0;
+        for (int i=0; i<heights.length; i++) {
+            targetHeights[index++] = heights[i];
+            targetHeights[index++] = heights[i] + 0.1;
+            targetHeights[index++] = (heights[i] + heights[(i+1) % heights.length]) / 2;
+        }
+        targetHeights[index++] = -10000;
+        targetHeights[index++] = 10000;
+        targetHeights[index++] = 0;
+        targetHeights[index] = -0.0;
+        return targetHeights;
+    }
+
+    // Implementation of getClosestHeightIndex before the binary search, used as a reference
+    static Integer findClosestHeightIndexLinear(List<Double> heightValues, Double targetHeight) {
+        int index = 0;
+        Double currentHeight, smallestDelta = null;
+        for (int i=0; i<heightValues.size(); i++) {
+            currentHeight = heightValues.get(i);
+            double currentDelta = Math.abs(currentHeight - targetHeight);
+            if (smallestDelta == null || currentDelta < smallestDelta) {
+                smallestDelta = currentDelta;
+                index = i;
+            }
+        }
+
+        return index;
+    }
+}
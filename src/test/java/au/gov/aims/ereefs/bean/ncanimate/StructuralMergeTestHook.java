@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.bean.ncanimate;
+
+/**
+ * Gives the tests of other packages access to the structural merge switch
+ * of {@link AbstractNcAnimateBean}, which is not part of the public API.
+ */
+public class StructuralMergeTestHook {
+    private StructuralMergeTestHook() {}
+
+    /**
+     * See {@link AbstractNcAnimateBean#setStructuralMergeEnabled(boolean)}
+     *
+     * @param enabled {@code false} to disable the structural merge.
+     */
+    public static void setStructuralMergeEnabled(boolean enabled) {
+        AbstractNcAnimateBean.setStructuralMergeEnabled(enabled);
+    }
+}
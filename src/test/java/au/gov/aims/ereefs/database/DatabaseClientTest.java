@@ -26,6 +26,64 @@ public class DatabaseClientTest extends DatabaseTestBase {
         Assert.assertNotNull("The database client is null", databaseClient);
     }
 
+    /**
+     * Test that the shared MongoClient is reused between calls
+     * and recreated after the DatabaseClient is closed.
+     */
+    @Test
+    public void testSharedMongoClient() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        MongoClient sharedClient = databaseClient.getSharedMongoClient();
+        Assert.assertNotNull("The shared MongoDB client is null", sharedClient);
+        Assert.assertSame("The shared MongoDB client was not reused", sharedClient, databaseClient.getSharedMongoClient());
+
+        databaseClient.createTable("sharedclient");
+        Assert.assertSame("The shared MongoDB client was recreated by createTable", sharedClient, databaseClient.getSharedMongoClient());
+
+        databaseClient.close();
+        MongoClient newSharedClient = databaseClient.getSharedMongoClient();
+        Assert.assertNotSame("The shared MongoDB client was not recreated after close", sharedClient, newSharedClient);
+
+        // The new client must be usable
+        boolean found = false;
+        for (String collectionName : databaseClient.getMongoDatabase().listCollectionNames()) {
+            if ("sharedclient".equals(collectionName)) {
+                found = true;
+            }
+        }
+        Assert.assertTrue("The table created with the old shared client could not be found", found);
+    }
+
+    /**
+     * Test that a replaced shared MongoClient is only closed
+     * once the operations using it are done.
+     */
+    @Test
+    public void testSharedMongoClientLease() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.createTable("leasedclient");
+
+        DatabaseClient.MongoClientLease lease = databaseClient.leaseSharedMongoClient();
+        MongoClient leasedClient = lease.getMongoClient();
+        Assert.assertSame("The shared MongoDB client was not leased", databaseClient.getSharedMongoClient(), leasedClient);
+
+        databaseClient.close();
+        Assert.assertNotSame("The shared MongoDB client was not replaced after close", leasedClient, databaseClient.getSharedMongoClient());
+
+        // The leased client must still be usable
+        Assert.assertNotNull("The leased MongoDB client was closed",
+                databaseClient.getMongoDatabase(leasedClient).listCollectionNames().first());
+
+        lease.close();
+        try {
+            databaseClient.getMongoDatabase(leasedClient).listCollectionNames().first();
+            Assert.fail("The replaced MongoDB client was not closed after the lease was released");
+        } catch(IllegalStateException ex) {
+            // Expected
+        }
+    }
+
 
     /**
      * Documentation about the "_id" field:
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database;
+
+import com.mongodb.MongoCredential;
+import com.mongodb.MongoSecurityException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DatabaseRetryExecutorTest extends DatabaseTestBase {
+
+    @Test
+    public void testTransientErrorIsRetried() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.setDbInitialDelayBetweenAttempt(1);
+        DatabaseRetryExecutor retryExecutor = databaseClient.getRetryExecutor();
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = retryExecutor.execute("test", () -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw new MongoSocketException("Connection refused", new ServerAddress());
+            }
+            return "success";
+        });
+
+        Assert.assertEquals("Wrong result", "success", result);
+        Assert.assertEquals("Wrong number of attempts", 2, attempts.get());
+        Assert.assertFalse("The circuit breaker should be closed", retryExecutor.isCircuitOpen());
+    }
+
+    @Test
+    public void testNonTransientErrorIsNotRetried() throws Exception {
+        DatabaseRetryExecutor retryExecutor = this.getDatabaseClient().getRetryExecutor();
+
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryExecutor.execute("test", () -> {
+                attempts.incrementAndGet();
+                throw new IllegalArgumentException("Invalid query");
+            });
+            Assert.fail("The exception was not thrown");
+        } catch(IllegalArgumentException ex) {
+            // Expected
+        }
+
+        Assert.assertEquals("Non-transient errors must not be retried", 1, attempts.get());
+
+        Assert.assertFalse("Authentication errors are not transient", DatabaseRetryExecutor.isTransient(
+                new MongoSecurityException(MongoCredential.createCredential("user", "admin", "password".toCharArray()), "Authentication failed")));
+    }
+
+    @Test
+    public void testMaximumAttempts() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.setDbRetryAttempts(1);
+        DatabaseRetryExecutor retryExecutor = databaseClient.getRetryExecutor();
+
+        try {
+            retryExecutor.execute("test", () -> {
+                throw new MongoSocketException("Connection refused", new ServerAddress());
+            });
+            Assert.fail("The exception was not thrown");
+        } catch(Exception ex) {
+            Assert.assertTrue("Wrong exception cause", ex.getCause() instanceof MongoSocketException);
+        }
+    }
+
+    @Test
+    public void testExecuteAsync() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.setDbInitialDelayBetweenAttempt(1);
+        DatabaseRetryExecutor retryExecutor = databaseClient.getRetryExecutor();
+
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<Integer> future = retryExecutor.executeAsync("test", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new MongoSocketException("Connection refused", new ServerAddress());
+            }
+            return attempts.get();
+        });
+
+        Assert.assertEquals("Wrong result", Integer.valueOf(3), future.get(30, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> failedFuture = retryExecutor.executeAsync("test", () -> {
+            throw new IllegalArgumentException("Invalid query");
+        });
+        try {
+            failedFuture.get(30, TimeUnit.SECONDS);
+            Assert.fail("The future was not completed exceptionally");
+        } catch(ExecutionException ex) {
+            Assert.assertTrue("Wrong exception cause", ex.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Test that operations exceeding the maximum number of operations in flight
+     * are queued without blocking, and that a cancelled operation keeps
+     * its permit until its running attempt is done.
+     */
+    @Test
+    public void testExecuteAsyncInFlightLimit() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.setAsyncMaxInFlightOperations(1);
+        DatabaseRetryExecutor retryExecutor = databaseClient.getRetryExecutor();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService blockedExecutor = Executors.newSingleThreadExecutor();
+        try {
+            // Started from within an operation, on the only thread of the executor
+            CompletableFuture<CompletableFuture<String>> outerFuture = retryExecutor.executeAsync("outer", () ->
+                retryExecutor.executeAsync("inner", () -> "inner", executor), executor);
+            Assert.assertEquals("Wrong result", "inner", outerFuture.get(30, TimeUnit.SECONDS).get(30, TimeUnit.SECONDS));
+
+            CountDownLatch attemptStarted = new CountDownLatch(1);
+            CountDownLatch attemptRelease = new CountDownLatch(1);
+            CompletableFuture<String> cancelledFuture = retryExecutor.executeAsync("cancelled", () -> {
+                attemptStarted.countDown();
+                attemptRelease.await();
+                return "cancelled";
+            }, blockedExecutor);
+            Assert.assertTrue("The attempt did not start", attemptStarted.await(30, TimeUnit.SECONDS));
+            cancelledFuture.cancel(false);
+
+            AtomicInteger attempts = new AtomicInteger();
+            CompletableFuture<Integer> queuedFuture = retryExecutor.executeAsync("queued", attempts::incrementAndGet, executor);
+            Thread.sleep(200);
+            Assert.assertEquals("The queued operation started while the cancelled attempt was running", 0, attempts.get());
+
+            attemptRelease.countDown();
+            Assert.assertEquals("Wrong result", Integer.valueOf(1), queuedFuture.get(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+            blockedExecutor.shutdownNow();
+        }
+    }
+}
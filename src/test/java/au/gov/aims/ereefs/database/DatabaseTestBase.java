@@ -38,6 +38,9 @@ public class DatabaseTestBase {
     @After
     public void shutdown() {
         NcAnimateConfigHelper.clearMetadataCache();
+        if (this.databaseClient != null) {
+            this.databaseClient.close();
+        }
         if (this.server != null) {
             this.server.shutdown();
         }
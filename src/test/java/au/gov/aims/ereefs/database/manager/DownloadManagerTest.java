@@ -4,17 +4,27 @@
  */
 package au.gov.aims.ereefs.database.manager;
 
+import au.gov.aims.ereefs.database.DatabaseClient;
 import au.gov.aims.ereefs.database.DatabaseTestBase;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
 import au.gov.aims.json.JSONUtils;
 import com.amazonaws.util.IOUtils;
 import org.apache.log4j.Logger;
+import org.bson.Document;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class DownloadManagerTest extends DatabaseTestBase {
     private static final Logger LOGGER = Logger.getLogger(DownloadManagerTest.class);
@@ -293,4 +303,63 @@ public class DownloadManagerTest extends DatabaseTestBase {
             }
         }
     }
+
+    /**
+     * Asynchronous operations started by a manager must not wait
+     * for a free slot on the threads running the operations.
+     */
+    @Test
+    public void testAsync() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        databaseClient.setAsyncExecutor(executor);
+        databaseClient.setAsyncMaxInFlightOperations(1);
+        try {
+            DownloadManager downloadManager = new DownloadManager(databaseClient, CACHE_STRATEGY);
+            JSONObject jsonDownload = new JSONObject(IOUtils.toString(
+                    DownloadManagerTest.class.getClassLoader().getResourceAsStream("download/gbr1_2-0.json")));
+
+            List<CompletableFuture<JSONObject>> saveFutures = new ArrayList<CompletableFuture<JSONObject>>();
+            for (int i=0; i<5; i++) {
+                saveFutures.add(downloadManager.saveAsync(new JSONObject(jsonDownload.toString())
+                        .put("_id", "downloads/async_" + i)));
+            }
+            for (CompletableFuture<JSONObject> saveFuture : saveFutures) {
+                Assert.assertNotNull("The document was not saved", saveFuture.get(30, TimeUnit.SECONDS));
+            }
+
+            Assert.assertNotNull("The document was not found",
+                    downloadManager.selectAsync("downloads/async_3").get(30, TimeUnit.SECONDS));
+            Assert.assertEquals("Wrong number of documents", 5,
+                    downloadManager.selectAllAsync().get(30, TimeUnit.SECONDS).size());
+        } finally {
+            databaseClient.setAsyncExecutor(null);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEnsureIndexes() throws Exception {
+        DownloadManager downloadManager = new DownloadManager(this.getDatabaseClient(), CACHE_STRATEGY);
+        Assert.assertEquals("Wrong number of declared indexes", 1, downloadManager.getIndexes().size());
+        Assert.assertFalse("The index should not exist yet", this.getIndexNames().contains("enabled_1"));
+
+        // The indexes are created before the first query which needs them
+        downloadManager.selectAllEnabled();
+        Assert.assertTrue("The index was not created", this.getIndexNames().contains("enabled_1"));
+
+        // Existing indexes are not created again
+        Assert.assertTrue("The existing index was created again", downloadManager.ensureIndexes().isEmpty());
+
+        // The test database may not support the explain command. Errors are logged, not thrown.
+        Assert.assertNotNull(downloadManager.checkQueryPlans());
+    }
+
+    private Set<String> getIndexNames() throws Exception {
+        Set<String> indexNames = new HashSet<String>();
+        for (Document index : this.getDatabaseClient().getMongoDatabase().getCollection(DownloadManager.TABLE_NAME).listIndexes()) {
+            indexNames.add(index.getString("name"));
+        }
+        return indexNames;
+    }
 }
@@ -7,6 +7,8 @@ package au.gov.aims.ereefs.database.manager;
 import au.gov.aims.ereefs.database.DatabaseTestBase;
 import au.gov.aims.ereefs.database.table.DatabaseTableTest;
 import au.gov.aims.ereefs.database.table.JSONObjectIterable;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
 import com.amazonaws.util.IOUtils;
 import org.json.JSONObject;
 import org.junit.Assert;
@@ -14,7 +16,10 @@ import org.junit.Test;
 
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class MetadataManagerTest extends DatabaseTestBase {
 
@@ -156,4 +161,38 @@ public class MetadataManagerTest extends DatabaseTestBase {
 
         Assert.assertEquals("Wrong number of NetCDF metadata found in the database", 3, jsonMetadatadMap.size());
     }
+
+    @Test
+    public void testSelectPrimaryKeysByDefinitionId() throws Exception {
+        MetadataManager metadataManager = new MetadataManager(this.getDatabaseClient(), CACHE_STRATEGY);
+
+        // Primary keys of the inserted documents, for the definition ID downloads/small
+        Set<PrimaryKey> expectedPrimaryKeys = new HashSet<PrimaryKey>();
+        for (String resource : new String[]{ "metadata/small.nc.json", "metadata/gbr1.nc.json", "metadata/random_data.nc.json" }) {
+            InputStream metadataInputStream = DownloadManagerTest.class.getClassLoader().getResourceAsStream(resource);
+            JSONObject jsonMetadata = new JSONObject(IOUtils.toString(metadataInputStream));
+            metadataManager.save(jsonMetadata);
+            if ("downloads/small".equals(jsonMetadata.optString("definitionId", null))) {
+                expectedPrimaryKeys.add(metadataManager.getTable().getPrimaryKey(jsonMetadata));
+            }
+        }
+        Assert.assertEquals("Wrong number of inserted documents for definition ID: downloads/small", 2, expectedPrimaryKeys.size());
+
+        List<PrimaryKey> primaryKeys = metadataManager.selectPrimaryKeysByDefinitionId(
+                MetadataManager.MetadataType.NETCDF, "downloads/small");
+        Assert.assertNotNull(primaryKeys);
+        Assert.assertEquals("Wrong primary keys found for definition ID: downloads/small",
+                expectedPrimaryKeys, new HashSet<PrimaryKey>(primaryKeys));
+
+        Set<Object> ids = new HashSet<Object>();
+        for (PrimaryKey primaryKey : primaryKeys) {
+            ids.add(((SinglePrimaryKey)primaryKey).getKeyValue());
+        }
+
+        Assert.assertEquals("Wrong number of primary keys found for definition ID: downloads/small", 2, ids.size());
+        Assert.assertTrue("Missing metadata ID: downloads/small/small_nc", ids.contains("downloads/small/small_nc"));
+        Assert.assertTrue("Missing metadata ID: downloads/small/random_data_nc", ids.contains("downloads/small/random_data_nc"));
+
+        Assert.assertEquals("Wrong number of primary keys in the table", 3, metadataManager.selectAllPrimaryKeys().size());
+    }
 }
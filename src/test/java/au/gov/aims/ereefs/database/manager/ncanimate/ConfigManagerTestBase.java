@@ -111,12 +111,11 @@ public class ConfigManagerTestBase extends DatabaseTestBase {
             jsonFakeMetadata.put("id", NetCDFMetadataBean.getUniqueDatasetId(definitionId, fakeDatasetId));
             jsonFakeMetadata.put("datasetId", datasetId);
 
-            // Change dates on variables
-            JSONObject jsonFakeVariables = jsonFakeMetadata.optJSONObject("variables");
-            if (jsonFakeVariables != null) {
-                for (String fakeVariableId : jsonFakeVariables.keySet()) {
-                    JSONObject jsonFakeVariable = jsonFakeVariables.optJSONObject(fakeVariableId);
-                    JSONObject jsonFakeTemporalDomain = jsonFakeVariable.optJSONObject("temporalDomain");
+            // Change dates on variables (the temporal domains are shared by the variables)
+            JSONObject jsonFakeTemporalDomains = jsonFakeMetadata.optJSONObject("temporalDomains");
+            if (jsonFakeTemporalDomains != null) {
+                for (String fakeTemporalDomainId : jsonFakeTemporalDomains.keySet()) {
+                    JSONObject jsonFakeTemporalDomain = jsonFakeTemporalDomains.optJSONObject(fakeTemporalDomainId);
                     if (jsonFakeTemporalDomain != null) {
                         jsonFakeTemporalDomain.put("minDate", startDate.toString());
                         jsonFakeTemporalDomain.put("maxDate", endDate.toString());
@@ -159,11 +158,10 @@ public class ConfigManagerTestBase extends DatabaseTestBase {
             jsonFakeMetadata.put("id", NetCDFMetadataBean.getUniqueDatasetId(definitionId, fakeDatasetId));
             jsonFakeMetadata.put("datasetId", datasetId);
 
-            // Change dates on variables
-            JSONObject jsonFakeVariables = jsonFakeMetadata.optJSONObject("variables");
-            for (String fakeVariableId : jsonFakeVariables.keySet()) {
-                JSONObject jsonFakeVariable = jsonFakeVariables.optJSONObject(fakeVariableId);
-                JSONObject jsonFakeTemporalDomain = jsonFakeVariable.optJSONObject("temporalDomain");
+            // Change dates on variables (the temporal domains are shared by the variables)
+            JSONObject jsonFakeTemporalDomains = jsonFakeMetadata.optJSONObject("temporalDomains");
+            for (String fakeTemporalDomainId : jsonFakeTemporalDomains.keySet()) {
+                JSONObject jsonFakeTemporalDomain = jsonFakeTemporalDomains.optJSONObject(fakeTemporalDomainId);
                 if (jsonFakeTemporalDomain != null) {
                     jsonFakeTemporalDomain.put("minDate", startDate.toString());
                     jsonFakeTemporalDomain.put("maxDate", endDate.toString());
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DatabaseTableCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        DatabaseTableCache cache = new DatabaseTableCache(new DatabaseTableCacheConfig(2, 0, 0));
+        cache.enable();
+
+        PrimaryKey key1 = new SinglePrimaryKey("_id", "1");
+        PrimaryKey key2 = new SinglePrimaryKey("_id", "2");
+        PrimaryKey key3 = new SinglePrimaryKey("_id", "3");
+
+        cache.setCache(key1, new JSONObject().put("_id", "1"));
+        cache.setCache(key2, new JSONObject().put("_id", "2"));
+
+        // Access key1, so key2 becomes the least recently used entry
+        Assert.assertNotNull("Entry 1 is missing", cache.getCache(key1));
+
+        cache.setCache(key3, new JSONObject().put("_id", "3"));
+
+        Assert.assertEquals("Wrong cache size", 2, cache.size());
+        Assert.assertNotNull("Entry 1 should not have been evicted", cache.getCache(key1));
+        Assert.assertNull("Entry 2 should have been evicted", cache.getCache(key2));
+        Assert.assertNotNull("Entry 3 should not have been evicted", cache.getCache(key3));
+
+        Assert.assertEquals("Wrong hit count", 3, cache.getHitCount());
+        Assert.assertEquals("Wrong miss count", 1, cache.getMissCount());
+        Assert.assertEquals("Wrong eviction count", 1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testWeightEviction() {
+        JSONObject entity = new JSONObject().put("_id", "1").put("value", "0123456789");
+        long entityWeight = entity.toString().length() * 2L;
+
+        // Room for 2 entities
+        DatabaseTableCache cache = new DatabaseTableCache(new DatabaseTableCacheConfig(0, entityWeight * 2, 0));
+        cache.enable();
+
+        for (int i=0; i<5; i++) {
+            cache.setCache(new SinglePrimaryKey("_id", "" + i), new JSONObject(entity.toString()));
+        }
+
+        Assert.assertEquals("Wrong cache size", 2, cache.size());
+        Assert.assertEquals("Wrong cache weight", entityWeight * 2, cache.getWeight());
+        Assert.assertEquals("Wrong eviction count", 3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        DatabaseTableCache cache = new DatabaseTableCache(new DatabaseTableCacheConfig(0, 0, 50));
+        cache.enable();
+
+        PrimaryKey key = new SinglePrimaryKey("_id", "1");
+        cache.setCache(key, new JSONObject().put("_id", "1"));
+        Assert.assertNotNull("Entry is missing", cache.getCache(key));
+
+        Thread.sleep(100);
+        Assert.assertNull("Entry should have expired", cache.getCache(key));
+        Assert.assertEquals("Wrong cache size", 0, cache.size());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.database.table;
+
+import au.gov.aims.ereefs.Utils;
+import au.gov.aims.ereefs.database.table.key.PrimaryKey;
+import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
+import au.gov.aims.json.JSONUtils;
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class DatabaseTableDiskCacheTest {
+    private File cacheDirectory;
+    private DatabaseTableDiskCache cache;
+
+    @Before
+    public void init() throws Exception {
+        this.cacheDirectory = new File(DatabaseTable.getDatabaseCacheDirectory(), "diskCacheTest");
+        this.cache = DatabaseTableDiskCache.getInstance(this.cacheDirectory);
+        this.cache.clear();
+        this.cache.setFormat(DatabaseTableDiskCache.Format.JSON);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        this.cache.close();
+        Utils.deleteDirectory(this.cacheDirectory);
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        PrimaryKey key1 = new SinglePrimaryKey("_id", "1");
+        PrimaryKey key2 = new SinglePrimaryKey("_id", "2");
+
+        Assert.assertNull("The cache should be empty", this.cache.get(key1));
+
+        this.cache.put(key1, new JSONObject().put("_id", "1").put("value", "one"));
+        this.cache.put(key2, new JSONObject().put("_id", "2").put("value", "two"));
+        this.cache.put(key1, new JSONObject().put("_id", "1").put("value", "uno"));
+
+        Assert.assertEquals("Wrong cache size", 2, this.cache.size());
+        Assert.assertEquals("Wrong cached document", "uno", this.cache.get(key1).getString("value"));
+        Assert.assertEquals("Wrong cached document", "two", this.cache.get(key2).getString("value"));
+
+        this.cache.remove(key1);
+        Assert.assertNull("The document should have been removed", this.cache.get(key1));
+        Assert.assertEquals("Wrong cache size", 1, this.cache.size());
+
+        // Re-open the segment file, the index is re-built from the file
+        this.cache.close();
+        Assert.assertNull("The document should have been removed", this.cache.get(key1));
+        Assert.assertEquals("Wrong cached document", "two", this.cache.get(key2).getString("value"));
+    }
+
+    @Test
+    public void testKeysDoNotCollide() throws Exception {
+        // Those keys used to produce the same cache filename
+        PrimaryKey key1 = new SinglePrimaryKey("_id", "a/b");
+        PrimaryKey key2 = new SinglePrimaryKey("_id", "a_b");
+
+        this.cache.put(key1, new JSONObject().put("value", "slash"));
+        this.cache.put(key2, new JSONObject().put("value", "underscore"));
+
+        Assert.assertEquals("Wrong cached document", "slash", this.cache.get(key1).getString("value"));
+        Assert.assertEquals("Wrong cached document", "underscore", this.cache.get(key2).getString("value"));
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        PrimaryKey key = new SinglePrimaryKey("_id", "missing");
+
+        this.cache.setNotFound(key);
+        Assert.assertTrue("The key should be recorded as not found", this.cache.isNotFound(key, 60000));
+        Assert.assertNull("Not found entries are not documents", this.cache.get(key));
+
+        Thread.sleep(20);
+        Assert.assertFalse("The not found entry should have expired", this.cache.isNotFound(key, 10));
+
+        this.cache.put(key, new JSONObject().put("_id", "missing"));
+        Assert.assertFalse("The not found entry should have been replaced", this.cache.isNotFound(key, 60000));
+    }
+
+    @Test
+    public void testCorruptedRecord() throws Exception {
+        PrimaryKey key1 = new SinglePrimaryKey("_id", "1");
+        PrimaryKey key2 = new SinglePrimaryKey("_id", "2");
+
+        this.cache.put(key1, new JSONObject().put("_id", "1").put("value", "one"));
+        this.cache.put(key1, new JSONObject().put("_id", "1").put("value", "uno"));
+        this.cache.close();
+
+        // Corrupt the last record, as if the process died while writing it
+        try (RandomAccessFile segmentFile = new RandomAccessFile(this.cache.getSegmentFile(), "rw")) {
+            segmentFile.seek(segmentFile.length() - 1);
+            segmentFile.write('X');
+        }
+
+        // The corrupted record must not replace the previous record
+        Assert.assertEquals("Wrong cached document", "one", this.cache.get(key1).getString("value"));
+
+        // The corrupted record is truncated by the next write
+        this.cache.put(key2, new JSONObject().put("_id", "2").put("value", "two"));
+        this.cache.close();
+        Assert.assertEquals("Wrong cached document", "one", this.cache.get(key1).getString("value"));
+        Assert.assertEquals("Wrong cached document", "two", this.cache.get(key2).getString("value"));
+        Assert.assertEquals("Wrong cache size", 2, this.cache.size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        PrimaryKey key = new SinglePrimaryKey("_id", "1");
+        StringBuilder largeValue = new StringBuilder();
+        for (int i=0; i<10000; i++) {
+            largeValue.append("0123456789");
+        }
+
+        // Overwrite the same document, about 100 kB each
+        for (int i=0; i<50; i++) {
+            this.cache.put(key, new JSONObject().put("_id", "1").put("version", i).put("value", largeValue.toString()));
+        }
+
+        Assert.assertTrue(String.format("The segment file was not compacted. Length: %d bytes", this.cache.getLength()),
+                this.cache.getLength() < 1024 * 1024 * 2);
+
+        this.cache.compact();
+        Assert.assertTrue(String.format("The segment file was not compacted. Length: %d bytes", this.cache.getLength()),
+                this.cache.getLength() < 1024 * 200);
+        Assert.assertEquals("Wrong cached document", 49, this.cache.get(key).getInt("version"));
+
+        this.cache.close();
+        Assert.assertEquals("Wrong cached document after re-opening the segment file", 49, this.cache.get(key).getInt("version"));
+    }
+
+    @Test
+    public void testFormats() throws Exception {
+        JSONArray timeValues = new JSONArray();
+        for (int i=0; i<1000; i++) {
+            timeValues.put(String.format("2021-01-01T%02d:00:00.000+10:00", i % 24));
+        }
+        JSONObject document = new JSONObject()
+            .put("_id", "1")
+            .put("count", 1000)
+            .put("size", 5000000000L)
+            .put("valid", true)
+            .put("parent", JSONObject.NULL)
+            .put("timeValues", timeValues)
+            .put("dimensions", new JSONArray()
+                .put(new JSONObject().put("name", "time").put("length", 1000)));
+
+        // Documents stored as BSON are converted the same way as documents received from the database
+        JSONObject databaseDocument = new JSONObject(Document.parse(document.toString()).toJson());
+
+        long previousLength = this.cache.getLength();
+        for (DatabaseTableDiskCache.Format format : DatabaseTableDiskCache.Format.values()) {
+            this.cache.setFormat(format);
+            PrimaryKey key = new SinglePrimaryKey("_id", format.name());
+            this.cache.put(key, document);
+
+            long recordLength = this.cache.getLength() - previousLength;
+            previousLength = this.cache.getLength();
+
+            JSONObject cached = this.cache.get(key);
+            Assert.assertNotNull(String.format("Missing document stored as %s", format), cached);
+            Assert.assertEquals(String.format("Wrong document stored as %s", format), 1000, cached.getInt("count"));
+            Assert.assertEquals(String.format("Wrong document stored as %s", format),
+                    timeValues.getString(999), cached.getJSONArray("timeValues").getString(999));
+
+            if (!DatabaseTableDiskCache.Format.JSON.equals(format)) {
+                Assert.assertTrue(String.format("Wrong document stored as %s. Expected:%n%s%nFound:%n%s%n", format, databaseDocument.toString(4), cached.toString(4)),
+                        JSONUtils.equals(databaseDocument, cached));
+            }
+
+            if (DatabaseTableDiskCache.Format.COMPRESSED_BSON.equals(format)) {
+                Assert.assertTrue(String.format("The compressed document is too large: %d bytes", recordLength),
+                        recordLength < document.toString().length() / 4);
+            }
+        }
+
+        // Documents keep their format when the cache format is changed
+        this.cache.setFormat(DatabaseTableDiskCache.Format.JSON);
+        this.cache.close();
+        for (DatabaseTableDiskCache.Format format : DatabaseTableDiskCache.Format.values()) {
+            JSONObject cached = this.cache.get(new SinglePrimaryKey("_id", format.name()));
+            Assert.assertNotNull(String.format("Missing document stored as %s", format), cached);
+            Assert.assertEquals(String.format("Wrong document stored as %s", format), "1", cached.getString("_id"));
+        }
+    }
+}
@@ -11,13 +11,23 @@ import au.gov.aims.ereefs.database.table.key.CompositePrimaryKey;
 import au.gov.aims.ereefs.database.table.key.PrimaryKey;
 import au.gov.aims.ereefs.database.table.key.SinglePrimaryKey;
 import au.gov.aims.json.JSONUtils;
+import com.mongodb.client.model.Filters;
 import org.apache.log4j.Logger;
+import org.bson.Document;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseTableTest extends DatabaseTestBase {
     private static final Logger LOGGER = Logger.getLogger(DatabaseTableTest.class);
@@ -212,4 +222,424 @@ public class DatabaseTableTest extends DatabaseTestBase {
 
         Assert.assertEquals("Wrong number of selected items", 4, counter);
     }
+
+    /**
+     * Test that documents selected using a filter are streamed
+     * from a cursor, and added to the cache as they are read.
+     */
+    @Test
+    public void testSelectStreaming() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+        table.setCursorBatchSize(2);
+        Assert.assertTrue("Select streaming should be enabled by default", table.isSelectStreaming());
+
+        for (int i=1; i<=5; i++) {
+            table.insert(new JSONObject()
+                .put("_id", i)
+                .put("team", i % 2 == 0 ? "even" : "odd"));
+        }
+
+        int counter = 0;
+        JSONObjectIterable items = table.select(Filters.eq("team", "odd"));
+        Assert.assertFalse("Selected items is empty", items.isEmpty());
+        for (JSONObject item : items) {
+            Assert.assertNotNull("Streamed item is null", item);
+            Assert.assertEquals("Wrong streamed item", "odd", item.getString("team"));
+            counter++;
+        }
+        Assert.assertEquals("Wrong number of streamed items", 3, counter);
+
+        // An interrupted cursor is re-opened, and the documents
+        //     already streamed are skipped.
+        Set<Integer> streamedIds = new HashSet<Integer>();
+        items = table.select(Filters.eq("team", "odd"));
+        Iterator<JSONObject> itemIterator = items.iterator();
+        for (int i=0; i<2; i++) {
+            Assert.assertTrue("Wrong streamed item", streamedIds.add(itemIterator.next().getInt("_id")));
+        }
+        items.closeCursor();
+        while (itemIterator.hasNext()) {
+            Assert.assertTrue("Duplicated streamed item", streamedIds.add(itemIterator.next().getInt("_id")));
+        }
+        Assert.assertEquals("Wrong resumed items", new HashSet<Integer>(Arrays.asList(1, 3, 5)), streamedIds);
+
+        // Streamed documents must be in the cache
+        DatabaseTableCache cache = table.getMemoryCache();
+        for (int i : new int[]{1, 3, 5}) {
+            PrimaryKey primaryKey = table.getPrimaryKey(new JSONObject().put("_id", i));
+            Assert.assertNotNull(String.format("Streamed document %d is not cached", i), cache.getCache(primaryKey));
+        }
+        Assert.assertNull("Document 2 should not be cached",
+            cache.getCache(table.getPrimaryKey(new JSONObject().put("_id", 2))));
+
+        // Primary key mode
+        table.setSelectStreaming(false);
+        counter = 0;
+        for (JSONObject item : table.selectAll()) {
+            Assert.assertNotNull("Selected item is null", item);
+            counter++;
+        }
+        Assert.assertEquals("Wrong number of selected items", 5, counter);
+    }
+
+    /**
+     * Test saving documents in bulk: inserts, updates and invalid primary keys.
+     */
+    @Test
+    public void testBulkSave() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+        table.setBulkWriteChunkSize(2);
+
+        table.insert(new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael"));
+
+        List<JSONObject> jsons = new ArrayList<JSONObject>();
+        jsons.add(new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael2"));
+        jsons.add(new JSONObject()
+            .put("_id", "staff2")
+            .put("givenname", "Marc"));
+        jsons.add(new JSONObject()
+            .put("_id", "invalid.id")
+            .put("givenname", "Invalid"));
+        jsons.add(new JSONObject()
+            .put("_id", "staff3")
+            .put("givenname", "Aaron"));
+
+        List<SaveResult> results = table.bulkSave(jsons, true);
+        Assert.assertEquals("Wrong number of results", 4, results.size());
+        Assert.assertEquals("Wrong status for staff1", SaveResult.Status.UPDATED, results.get(0).getStatus());
+        Assert.assertEquals("Wrong status for staff2", SaveResult.Status.INSERTED, results.get(1).getStatus());
+        Assert.assertEquals("Wrong status for invalid ID", SaveResult.Status.FAILED, results.get(2).getStatus());
+        Assert.assertNotNull("Missing error message for invalid ID", results.get(2).getErrorMessage());
+        Assert.assertEquals("Wrong status for staff3", SaveResult.Status.INSERTED, results.get(3).getStatus());
+
+        // The updated document must be returned from the cache and from the database
+        PrimaryKey primaryKeyStaff1 = table.getPrimaryKey(jsons.get(0));
+        Assert.assertEquals("Wrong cached document", "Gael2", table.select(primaryKeyStaff1).getString("givenname"));
+        Assert.assertEquals("Wrong saved document", "Gael2", table.select(primaryKeyStaff1, CacheStrategy.NONE).getString("givenname"));
+
+        Assert.assertEquals("Wrong number of documents in the table", 3, table.selectPrimaryKeys(null).size());
+    }
+
+    /**
+     * Test the atomic insert or replace of a single document.
+     */
+    @Test
+    public void testSave() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+
+        table.insert(new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael")
+            .put("surname", "Lafond"));
+
+        // Replace an existing document
+        JSONObject jsonStaff1 = new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael2");
+        PrimaryKey primaryKeyStaff1 = table.getPrimaryKey(jsonStaff1);
+        JSONObject savedStaff1 = table.save(jsonStaff1, true);
+        Assert.assertTrue(String.format("Invalid saved record. Expected:%n%s%nFound:%n%s%n", jsonStaff1.toString(4), savedStaff1.toString(4)),
+            JSONUtils.equals(jsonStaff1, savedStaff1));
+        Assert.assertEquals("Wrong cached document", "Gael2", table.getMemoryCache().getCache(primaryKeyStaff1).getString("givenname"));
+        JSONObject dbStaff1 = table.select(primaryKeyStaff1, CacheStrategy.NONE);
+        Assert.assertEquals("Wrong saved document", "Gael2", dbStaff1.getString("givenname"));
+        Assert.assertFalse("The document should have been replaced, not merged", dbStaff1.has("surname"));
+
+        // Insert a new document
+        JSONObject jsonStaff2 = new JSONObject()
+            .put("_id", "staff2")
+            .put("givenname", "Marc");
+        PrimaryKey primaryKeyStaff2 = table.getPrimaryKey(jsonStaff2);
+        Assert.assertNull("The document should not exist", table.select(primaryKeyStaff2));
+        JSONObject savedStaff2 = table.save(jsonStaff2, true);
+        Assert.assertTrue(String.format("Invalid saved record. Expected:%n%s%nFound:%n%s%n", jsonStaff2.toString(4), savedStaff2.toString(4)),
+            JSONUtils.equals(jsonStaff2, savedStaff2));
+        Assert.assertEquals("Wrong cached document", "Marc", table.getMemoryCache().getCache(primaryKeyStaff2).getString("givenname"));
+        Assert.assertEquals("Wrong saved document", "Marc", table.select(primaryKeyStaff2, CacheStrategy.NONE).getString("givenname"));
+
+        Assert.assertEquals("Wrong number of documents in the table", 2, table.selectPrimaryKeys(null).size());
+    }
+
+    /**
+     * Test that missing documents are remembered by the cache,
+     * and forgotten when the document is inserted.
+     */
+    @Test
+    public void testNotFoundCache() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+        table.setNotFoundCacheTimeToLive(60000);
+
+        JSONObject jsonStaff = new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael");
+        PrimaryKey primaryKey = table.getPrimaryKey(jsonStaff);
+
+        Assert.assertNull("The document should not exist", table.select(primaryKey));
+        Assert.assertNull("The document should not exist", table.select(primaryKey));
+        Assert.assertEquals("The second select should have been answered by the not found cache",
+            1, table.getMemoryCache().getNotFoundHitCount());
+
+        table.insert(jsonStaff);
+        JSONObject selected = table.select(primaryKey);
+        Assert.assertNotNull("The inserted document was hidden by the not found cache", selected);
+        Assert.assertEquals("Wrong selected document", "Gael", selected.getString("givenname"));
+    }
+
+    /**
+     * Test the two-tier memory and disk cache.
+     */
+    @Test
+    public void testMemoryDiskCache() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY_DISK, "_id");
+        table.clearCache();
+
+        JSONObject jsonStaff = new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael");
+        table.insert(jsonStaff);
+        PrimaryKey primaryKey = table.getPrimaryKey(jsonStaff);
+
+        Assert.assertNotNull("The document was not found", table.select(primaryKey));
+        Assert.assertNotNull("The document is missing from the memory cache", table.getMemoryCache().getCache(primaryKey));
+        Assert.assertNotNull("The document is missing from the disk cache", table.getDiskCache().get(primaryKey));
+
+        // Documents found on disk are promoted to memory
+        table.getMemoryCache().clear();
+        Assert.assertNotNull("The document was not found", table.select(primaryKey, CacheStrategy.MEMORY_DISK));
+        Assert.assertNotNull("The document was not promoted to the memory cache", table.getMemoryCache().getCache(primaryKey));
+
+        // Updates and deletes reach both tiers
+        table.update(new JSONObject(jsonStaff.toString()).put("givenname", "Marc"), primaryKey);
+        Assert.assertEquals("Wrong document in the memory cache", "Marc", table.getMemoryCache().getCache(primaryKey).getString("givenname"));
+        Assert.assertEquals("Wrong document in the disk cache", "Marc", table.getDiskCache().get(primaryKey).getString("givenname"));
+
+        table.delete(primaryKey);
+        Assert.assertNull("The document should have been removed from the memory cache", table.getMemoryCache().getCache(primaryKey));
+        Assert.assertNull("The document should have been removed from the disk cache", table.getDiskCache().get(primaryKey));
+        Assert.assertNull("The document should have been deleted", table.select(primaryKey));
+
+        table.clearCache();
+    }
+
+    /**
+     * Test that documents modified by other processes are evicted from the cache.
+     * The test server doesn't support change streams, the invalidator polls the table.
+     */
+    @Test
+    public void testCacheInvalidation() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+        // Simulate a different process, modifying the database
+        DatabaseTable otherTable = databaseClient.getTable(TABLE_NAME, CacheStrategy.NONE, "_id");
+
+        JSONObject jsonStaff = new JSONObject()
+            .put("_id", "staff1")
+            .put("givenname", "Gael")
+            .put("lastModified", "2021-01-01T00:00:00.000Z");
+        table.insert(jsonStaff);
+        PrimaryKey primaryKey = table.getPrimaryKey(jsonStaff);
+        Assert.assertEquals("Wrong document", "Gael", table.select(primaryKey).getString("givenname"));
+
+        JSONObject jsonStaff2 = new JSONObject()
+            .put("_id", "staff2")
+            .put("givenname", "Aaron")
+            .put("lastModified", "2021-01-01T00:00:00.000Z");
+        table.insert(jsonStaff2);
+        PrimaryKey primaryKey2 = table.getPrimaryKey(jsonStaff2);
+        Assert.assertEquals("Wrong document", "Aaron", table.select(primaryKey2).getString("givenname"));
+
+        DatabaseTableCacheInvalidator invalidator = table.startCacheInvalidation(50, false);
+        try {
+            // Let the invalidator find the last modified document
+            Thread.sleep(500);
+
+            otherTable.update(new JSONObject(jsonStaff.toString())
+                .put("givenname", "Marc")
+                .put("lastModified", "2021-01-02T00:00:00.000Z"), primaryKey);
+            Assert.assertEquals("The document should be served from the cache", "Gael", table.select(primaryKey).getString("givenname"));
+
+            long timeout = System.currentTimeMillis() + 10000;
+            while (invalidator.getInvalidationCount() == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+
+            Assert.assertTrue("The invalidator should be polling the test server", invalidator.isPolling());
+            Assert.assertEquals("The modified document was not evicted from the cache", "Marc", table.select(primaryKey).getString("givenname"));
+
+            // Modified with the same lastModified value as the last modified document
+            otherTable.update(new JSONObject(jsonStaff2.toString())
+                .put("givenname", "Eric")
+                .put("lastModified", "2021-01-02T00:00:00.000Z"), primaryKey2);
+
+            timeout = System.currentTimeMillis() + 10000;
+            while (invalidator.getInvalidationCount() < 2 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("The document modified in the same millisecond was not evicted from the cache", "Eric", table.select(primaryKey2).getString("givenname"));
+
+            // Modified later, with a timezone which makes the value lower than the last modified value
+            otherTable.update(new JSONObject(jsonStaff.toString())
+                .put("givenname", "Paul")
+                .put("lastModified", "2021-01-01T20:00:00.000-05:00"), primaryKey);
+
+            timeout = System.currentTimeMillis() + 10000;
+            while (invalidator.getInvalidationCount() < 3 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("The document modified with a different timezone was not evicted from the cache", "Paul", table.select(primaryKey).getString("givenname"));
+
+            // Documents already seen are not evicted again
+            Thread.sleep(500);
+            Assert.assertEquals("Wrong number of invalidations", 3, invalidator.getInvalidationCount());
+        } finally {
+            table.stopCacheInvalidation();
+        }
+        Assert.assertFalse("The invalidator should be stopped", invalidator.isRunning());
+    }
+
+    /**
+     * Test the asynchronous API, with a bound on the number of operations in flight.
+     */
+    @Test
+    public void testAsync() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+        databaseClient.setAsyncMaxInFlightOperations(2);
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+
+        List<CompletableFuture<JSONObject>> saveFutures = new ArrayList<CompletableFuture<JSONObject>>();
+        for (int i=0; i<10; i++) {
+            saveFutures.add(table.saveAsync(new JSONObject()
+                .put("_id", "staff" + i)
+                .put("index", i), true));
+        }
+        CompletableFuture.allOf(saveFutures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        table.clearCache();
+        List<CompletableFuture<JSONObject>> selectFutures = new ArrayList<CompletableFuture<JSONObject>>();
+        for (int i=0; i<10; i++) {
+            selectFutures.add(table.selectAsync(new SinglePrimaryKey("_id", "staff" + i)));
+        }
+        for (int i=0; i<10; i++) {
+            JSONObject selected = selectFutures.get(i).get(30, TimeUnit.SECONDS);
+            Assert.assertNotNull(String.format("Document %d not found", i), selected);
+            Assert.assertEquals("Wrong selected document", i, selected.getInt("index"));
+        }
+        Assert.assertEquals("Selected documents should have been cached", 10, table.getMemoryCache().size());
+        Assert.assertNull("The document should not exist",
+            table.selectAsync(new SinglePrimaryKey("_id", "missing")).get(30, TimeUnit.SECONDS));
+
+        List<JSONObject> all = table.selectAllAsync().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong number of documents", 10, all.size());
+    }
+
+    /**
+     * Test selecting multiple documents at once, using the cache first.
+     */
+    @Test
+    public void testSelectMany() throws Exception {
+        DatabaseClient databaseClient = this.getDatabaseClient();
+
+        databaseClient.createTable(TABLE_NAME);
+        DatabaseTable table = databaseClient.getTable(TABLE_NAME, CacheStrategy.MEMORY, "_id");
+        table.setNotFoundCacheTimeToLive(60000);
+
+        for (int i=0; i<5; i++) {
+            table.insert(new JSONObject()
+                .put("_id", "staff" + i)
+                .put("index", i));
+        }
+        table.clearCache();
+        Assert.assertNotNull("Document not found", table.select(new SinglePrimaryKey("_id", "staff3")));
+
+        List<PrimaryKey> primaryKeys = new ArrayList<PrimaryKey>();
+        primaryKeys.add(new SinglePrimaryKey("_id", "staff3"));
+        primaryKeys.add(new SinglePrimaryKey("_id", "missing"));
+        primaryKeys.add(new SinglePrimaryKey("_id", "staff0"));
+        primaryKeys.add(new SinglePrimaryKey("_id", "staff4"));
+
+        table.getMemoryCache().resetStatistics();
+        Map<PrimaryKey, JSONObject> selected = table.selectMany(primaryKeys);
+        Assert.assertEquals("Wrong number of selected documents", 3, selected.size());
+        Assert.assertEquals("staff3 should have been answered by the cache", 1, table.getMemoryCache().getHitCount());
+
+        List<PrimaryKey> selectedKeys = new ArrayList<PrimaryKey>(selected.keySet());
+        Assert.assertEquals("Wrong order", primaryKeys.get(0), selectedKeys.get(0));
+        Assert.assertEquals("Wrong order", primaryKeys.get(2), selectedKeys.get(1));
+        Assert.assertEquals("Wrong order", primaryKeys.get(3), selectedKeys.get(2));
+        Assert.assertEquals("Wrong selected document", 4, selected.get(primaryKeys.get(3)).getInt("index"));
+
+        Assert.assertTrue("The missing document should be in the not found cache",
+            table.getMemoryCache().isNotFound(primaryKeys.get(1)));
+        Assert.assertEquals("The selected documents should have been cached", 3, table.getMemoryCache().size());
+
+        // Composite keys are selected using a $or filter
+        databaseClient.createTable(TABLE_NAME + "_COMPOSITE");
+        DatabaseCompositeKeyTable compositeTable = databaseClient.getTable(TABLE_NAME + "_COMPOSITE", CacheStrategy.NONE, "_id", "id", "type");
+        compositeTable.insert(new JSONObject().put("_id", new JSONObject().put("id", 1).put("type", "programmer")));
+        compositeTable.insert(new JSONObject().put("_id", new JSONObject().put("id", 2).put("type", "programmer")));
+        compositeTable.insert(new JSONObject().put("_id", new JSONObject().put("id", 1).put("type", "manager")));
+
+        List<PrimaryKey> compositeKeys = new ArrayList<PrimaryKey>();
+        compositeKeys.add(compositeTable.getPrimaryKey(1, "manager"));
+        compositeKeys.add(compositeTable.getPrimaryKey(2, "manager"));
+        compositeKeys.add(compositeTable.getPrimaryKey(2, "programmer"));
+        Map<PrimaryKey, JSONObject> compositeSelected = compositeTable.selectMany(compositeKeys);
+        Assert.assertEquals("Wrong number of selected documents", 2, compositeSelected.size());
+        Assert.assertTrue("Missing document", compositeSelected.containsKey(compositeKeys.get(0)));
+        Assert.assertTrue("Missing document", compositeSelected.containsKey(compositeKeys.get(2)));
+    }
+
+    @Test
+    public void testIsCollectionScan() {
+        Document collectionScan = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "COLLSCAN")));
+        Assert.assertTrue("The collection scan was not detected", DatabaseTable.isCollectionScan(collectionScan));
+
+        Document indexScan = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "FETCH")
+                    .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "enabled_1"))));
+        Assert.assertFalse("The index scan was detected as a collection scan", DatabaseTable.isCollectionScan(indexScan));
+
+        Document orScan = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "SUBPLAN").append("inputStage", new Document("stage", "OR")
+                    .append("inputStages", Arrays.asList(
+                        new Document("stage", "IXSCAN"),
+                        new Document("stage", "COLLSCAN")
+                    )))));
+        Assert.assertTrue("The nested collection scan was not detected", DatabaseTable.isCollectionScan(orScan));
+
+        Assert.assertFalse("Empty explain result", DatabaseTable.isCollectionScan(new Document()));
+        Assert.assertFalse("Null explain result", DatabaseTable.isCollectionScan(null));
+    }
+
+    @Test
+    public void testDatabaseIndex() {
+        DatabaseIndex index = new DatabaseIndex("type", "definitionId", "status");
+        Assert.assertEquals("Wrong index name", "type_1_definitionId_1_status_1", index.getName());
+        Assert.assertEquals("Wrong number of indexed fields", 3, index.getFields().size());
+        Assert.assertEquals("Wrong index option name", index.getName(), index.getOptions().getName());
+    }
 }
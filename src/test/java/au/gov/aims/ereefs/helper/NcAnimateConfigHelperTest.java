@@ -5,13 +5,17 @@
 package au.gov.aims.ereefs.helper;
 
 import au.gov.aims.ereefs.bean.metadata.TimeIncrementUnit;
+import au.gov.aims.ereefs.bean.ncanimate.StructuralMergeTestHook;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateLegendBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateNetCDFTrueColourVariableBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMapBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderMetadataBean;
 import au.gov.aims.ereefs.bean.ncanimate.render.NcAnimateRenderVideoBean;
+import au.gov.aims.ereefs.database.manager.AbstractManager;
+import au.gov.aims.ereefs.database.manager.ncanimate.ConfigManager;
 import au.gov.aims.ereefs.database.manager.ncanimate.ConfigManagerTestBase;
+import au.gov.aims.ereefs.database.manager.ncanimate.ConfigPartManager;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateBboxBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateCanvasBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateInputBean;
@@ -23,7 +27,9 @@ import au.gov.aims.ereefs.bean.ncanimate.NcAnimateConfigBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateRegionBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimateTextBean;
 import au.gov.aims.ereefs.bean.ncanimate.NcAnimatePositionBean;
+import au.gov.aims.json.JSONUtils;
 import org.apache.log4j.Logger;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -936,4 +942,86 @@ public class NcAnimateConfigHelperTest extends ConfigManagerTestBase {
             }
         }
     }
+
+    @Test
+    public void testResolvedConfigCache() throws Exception {
+        super.insertDummyData();
+        String configId = "gbr4_v2_temp-wind-salt-current";
+
+        NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        configHelper.setResolvedConfigCacheEnabled(true);
+
+        // Some test documents do not have a lastModified, their modifications can not be detected
+        Assert.assertNotSame("Configurations using parts without lastModified must not be cached",
+                configHelper.getNcAnimateConfig(configId), configHelper.getNcAnimateConfig(configId));
+
+        ConfigManager configManager = new ConfigManager(this.getDatabaseClient(), CACHE_STRATEGY);
+        ConfigPartManager configPartManager = new ConfigPartManager(this.getDatabaseClient(), CACHE_STRATEGY);
+        this.setLastModified(configManager, "2021-01-01T00:00:00.000+10:00");
+        this.setLastModified(configPartManager, "2021-01-01T00:00:00.000+10:00");
+        configHelper.clearCache();
+
+        NcAnimateConfigBean config = configHelper.getNcAnimateConfig(configId);
+        Assert.assertSame("The resolved configuration was not cached", config, configHelper.getNcAnimateConfig(configId));
+
+        // Modify the configuration parts
+        this.setLastModified(configPartManager, "2021-02-01T00:00:00.000+10:00");
+        NcAnimateConfigBean modifiedConfig = configHelper.getNcAnimateConfig(configId);
+        Assert.assertNotSame("The modified configuration parts were not detected", config, modifiedConfig);
+        Assert.assertSame("The resolved configuration was not cached", modifiedConfig, configHelper.getNcAnimateConfig(configId));
+
+        // Modify the configuration, through a different manager.
+        // The configuration may still be in the table cache of the helper.
+        this.setLastModified(configManager, "2021-03-01T00:00:00.000+10:00");
+        NcAnimateConfigBean reModifiedConfig = configHelper.getNcAnimateConfig(configId);
+        Assert.assertNotSame("The modified configuration was not detected", modifiedConfig, reModifiedConfig);
+        Assert.assertSame("The resolved configuration was not cached", reModifiedConfig, configHelper.getNcAnimateConfig(configId));
+    }
+
+    /**
+     * The structural merge of beans must produce the same configuration
+     * as the merge of the serialised JSON documents.
+     * @throws Exception
+     */
+    @Test
+    public void testStructuralMerge() throws Exception {
+        super.insertDummyData();
+        String[] configIds = {
+            "gbr4_v2_temp-wind-salt-current",
+            "gbr4_v2_temp-wind-salt-current_maps",
+            "gbr4_v2_temp-wind-salt-current_monthly",
+            "gbr4_v2_rivers"
+        };
+
+        try {
+            for (String configId : configIds) {
+                StructuralMergeTestHook.setStructuralMergeEnabled(false);
+                NcAnimateConfigHelper jsonConfigHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+                NcAnimateConfigBean jsonConfig = jsonConfigHelper.getNcAnimateConfig(configId);
+
+                StructuralMergeTestHook.setStructuralMergeEnabled(true);
+                NcAnimateConfigHelper structuralConfigHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+                NcAnimateConfigBean structuralConfig = structuralConfigHelper.getNcAnimateConfig(configId);
+
+                Assert.assertTrue(String.format("The structural merge of configuration %s differs from the JSON merge.%nExpected: %s%nFound: %s",
+                        configId, jsonConfig.toJSON().toString(4), structuralConfig.toJSON().toString(4)),
+                        JSONUtils.equals(jsonConfig.toJSON(), structuralConfig.toJSON()));
+
+                Assert.assertEquals(String.format("Wrong never visited attributes for configuration %s", configId),
+                        jsonConfig.getNeverVisited(), structuralConfig.getNeverVisited());
+            }
+        } finally {
+            StructuralMergeTestHook.setStructuralMergeEnabled(true);
+        }
+    }
+
+    private void setLastModified(AbstractManager<?> manager, String lastModified) throws Exception {
+        List<JSONObject> jsonDocuments = new ArrayList<JSONObject>();
+        for (JSONObject jsonDocument : manager.selectAll()) {
+            jsonDocuments.add(jsonDocument);
+        }
+        for (JSONObject jsonDocument : jsonDocuments) {
+            manager.save(new JSONObject(jsonDocument.toString()).put("lastModified", lastModified));
+        }
+    }
 }
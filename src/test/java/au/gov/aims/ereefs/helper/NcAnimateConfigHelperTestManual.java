@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.ncanimate.StructuralMergeTestHook;
+import au.gov.aims.ereefs.database.manager.ncanimate.ConfigManagerTestBase;
+import org.apache.log4j.Logger;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class NcAnimateConfigHelperTestManual extends ConfigManagerTestBase {
+    private static final Logger LOGGER = Logger.getLogger(NcAnimateConfigHelperTestManual.class);
+
+    private static final String[] CONFIG_IDS = {
+        "gbr4_v2_temp-wind-salt-current",
+        "gbr4_v2_temp-wind-salt-current_maps",
+        "gbr4_v2_temp-wind-salt-current_monthly",
+        "gbr4_v2_rivers"
+    };
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int ITERATIONS = 500;
+
+    /**
+     * Compare the time spent resolving the test NcAnimate configurations
+     * when the beans are merged through JSON and when they are merged structurally.
+     * The configuration parts are cached in memory, the time is mostly spent merging beans.
+     * @throws Exception
+     */
+    @Test
+    @Ignore
+    public void benchmarkOverwrite() throws Exception {
+        super.insertDummyData();
+
+        try {
+            for (boolean structuralMerge : new boolean[] { false, true, false, true }) {
+                StructuralMergeTestHook.setStructuralMergeEnabled(structuralMerge);
+                NcAnimateConfigHelper configHelper = new NcAnimateConfigHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+
+                for (int i=0; i<WARMUP_ITERATIONS; i++) {
+                    this.resolveConfigs(configHelper);
+                }
+
+                long start = System.nanoTime();
+                for (int i=0; i<ITERATIONS; i++) {
+                    this.resolveConfigs(configHelper);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                LOGGER.info(String.format("%s merge: %.3f ms per configuration",
+                        structuralMerge ? "Structural" : "JSON",
+                        elapsed / 1000000.0 / (ITERATIONS * CONFIG_IDS.length)));
+            }
+        } finally {
+            StructuralMergeTestHook.setStructuralMergeEnabled(true);
+        }
+    }
+
+    private void resolveConfigs(NcAnimateConfigHelper configHelper) throws Exception {
+        for (String configId : CONFIG_IDS) {
+            configHelper.getNcAnimateConfig(configId);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.database.manager.MetadataManager;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class NetCDFMetadataMapCacheTest extends NetCDFMetadataTestBase {
+
+    @Test
+    public void testLoadOnce() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        NetCDFMetadataMapCache cache = metadataHelper.getNetCDFMetadataMapCache();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Map<String, NetCDFMetadataBean>>> futures = new ArrayList<Future<Map<String, NetCDFMetadataBean>>>();
+            for (int i=0; i<8; i++) {
+                futures.add(executor.submit(() -> cache.get(DEFINITION_ID, true)));
+            }
+
+            Map<String, NetCDFMetadataBean> metadataMap = futures.get(0).get();
+            Assert.assertEquals("Wrong number of metadata", 5, metadataMap.size());
+            for (Future<Map<String, NetCDFMetadataBean>> future : futures) {
+                Assert.assertSame("The metadata was loaded more than once", metadataMap, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals("Wrong number of cached definitions", 1, cache.size());
+        Assert.assertTrue("The memory size was not estimated", cache.getMemorySize() > 0);
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        NetCDFMetadataMapCache cache = metadataHelper.getNetCDFMetadataMapCache();
+
+        Map<String, NetCDFMetadataBean> metadataMap = cache.get(DEFINITION_ID, true);
+        Assert.assertEquals("Wrong number of metadata", 5, metadataMap.size());
+
+        // Nothing changed
+        cache.refresh(DEFINITION_ID, true);
+        Assert.assertSame("The metadata map should not change", metadataMap, cache.get(DEFINITION_ID, true));
+
+        // Modify a file, corrupt a file, delete a file and add a file
+        this.saveMetadata(0, "VALID", new DateTime(2021, 2, 1, 0, 0));
+        this.saveMetadata(1, "CORRUPTED", new DateTime(2021, 2, 1, 0, 0));
+        this.getMetadataManager().delete(this.getMetadataId(2));
+        this.saveMetadata(5, "VALID", new DateTime(2021, 2, 1, 0, 0));
+
+        Assert.assertSame("The metadata map should not be refreshed automatically", metadataMap, cache.get(DEFINITION_ID, true));
+
+        cache.refresh(DEFINITION_ID, true);
+        Map<String, NetCDFMetadataBean> refreshedMap = cache.get(DEFINITION_ID, true);
+        Assert.assertEquals("Wrong number of metadata", 4, refreshedMap.size());
+
+        Assert.assertNotSame("The modified metadata was not refreshed",
+                metadataMap.get(this.getMetadataId(0)), refreshedMap.get(this.getMetadataId(0)));
+        Assert.assertEquals("Wrong last modified",
+                new DateTime(2021, 2, 1, 0, 0).getMillis(), refreshedMap.get(this.getMetadataId(0)).getLastModified());
+        Assert.assertFalse("The corrupted metadata was not removed", refreshedMap.containsKey(this.getMetadataId(1)));
+        Assert.assertFalse("The deleted metadata was not removed", refreshedMap.containsKey(this.getMetadataId(2)));
+        Assert.assertSame("The unmodified metadata should not be requested",
+                metadataMap.get(this.getMetadataId(3)), refreshedMap.get(this.getMetadataId(3)));
+        Assert.assertTrue("The new metadata was not added", refreshedMap.containsKey(this.getMetadataId(5)));
+    }
+
+    /**
+     * Test that documents modified behind the table cache used by
+     * the map cache are requested from the database when refreshed.
+     */
+    @Test
+    public void testRefreshCachedDocuments() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        NetCDFMetadataMapCache cache = metadataHelper.getNetCDFMetadataMapCache();
+        MetadataManager cachedMetadataManager = metadataHelper.getMetadataManager();
+        cachedMetadataManager.setNotFoundCacheTimeToLive(60000);
+
+        Assert.assertEquals("Wrong number of metadata", 5, cache.get(DEFINITION_ID, true).size());
+
+        // Load the documents in the table cache
+        Assert.assertNotNull("Metadata not found", cachedMetadataManager.select(this.getMetadataId(0)));
+        Assert.assertNull("The metadata should not exist", cachedMetadataManager.select(this.getMetadataId(5)));
+
+        // Modified by an other process
+        this.saveMetadata(0, "VALID", new DateTime(2021, 2, 1, 0, 0));
+        this.saveMetadata(5, "VALID", new DateTime(2021, 2, 1, 0, 0));
+
+        cache.refresh(DEFINITION_ID, true);
+        Map<String, NetCDFMetadataBean> refreshedMap = cache.get(DEFINITION_ID, true);
+        Assert.assertEquals("The modified metadata was served from the table cache",
+                new DateTime(2021, 2, 1, 0, 0).getMillis(), refreshedMap.get(this.getMetadataId(0)).getLastModified());
+        Assert.assertTrue("The new metadata was hidden by the not found cache", refreshedMap.containsKey(this.getMetadataId(5)));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        NetCDFMetadataMapCache cache = metadataHelper.getNetCDFMetadataMapCache();
+
+        cache.get(DEFINITION_ID, true);
+        cache.get(DEFINITION_ID, false);
+        Assert.assertEquals("Wrong number of cached definitions", 2, cache.size());
+
+        // The definition being requested is kept
+        cache.setMaxMemorySize(1);
+        Assert.assertEquals("The definitions were not evicted", 0, cache.size());
+        Assert.assertEquals("Wrong number of metadata", 5, cache.get(DEFINITION_ID, false).size());
+        Assert.assertEquals("The requested definition should not be evicted", 1, cache.size());
+
+        NcAnimateConfigHelper.clearMetadataCache();
+        Assert.assertEquals("The cache was not cleared", 0, cache.size());
+    }
+
+    @Test
+    public void testEstimateMemorySize() {
+        NetCDFMetadataBean dailyMetadata = this.createMetadata(24);
+        NetCDFMetadataBean yearlyMetadata = this.createMetadata(24 * 365);
+
+        long dailyMemorySize = NetCDFMetadataMapCache.estimateMemorySize(dailyMetadata);
+        long yearlyMemorySize = NetCDFMetadataMapCache.estimateMemorySize(yearlyMetadata);
+        Assert.assertTrue("The size of the time axis was ignored", yearlyMemorySize > dailyMemorySize);
+
+        // Same estimation once the variables are parsed
+        Assert.assertNotNull("The variables were not parsed", yearlyMetadata.getVariableMetadataBeanMap());
+        Assert.assertEquals("Wrong estimation after parsing the variables",
+                yearlyMemorySize, NetCDFMetadataMapCache.estimateMemorySize(yearlyMetadata));
+    }
+
+    private NetCDFMetadataBean createMetadata(int timeValueCount) {
+        JSONObject jsonTemporalDomain = new JSONObject()
+            .put("name", "time")
+            .put("timeAxis", new JSONObject()
+                .put("start", "2014-12-01T00:00:00.000Z")
+                .put("step", 60 * 60 * 1000)
+                .put("count", timeValueCount));
+
+        JSONObject jsonVerticalDomain = new JSONObject()
+            .put("name", "zc")
+            .put("heightValues", new JSONArray(Arrays.asList(-1.5, -0.5)));
+
+        // Domains shared by the variables
+        return new NetCDFMetadataBean(new JSONObject()
+            .put("_id", this.getMetadataId(timeValueCount))
+            .put("definitionId", DEFINITION_ID)
+            .put("datasetId", String.format("gbr4_small_%d.nc", timeValueCount))
+            .put("lastModified", "2015-01-01T00:00:00.000Z")
+            .put("temporalDomains", new JSONObject().put("0", jsonTemporalDomain))
+            .put("verticalDomains", new JSONObject().put("0", jsonVerticalDomain))
+            .put("variables", new JSONObject()
+                .put("temp", new JSONObject()
+                    .put("id", "temp")
+                    .put("temporalDomainId", "0")
+                    .put("verticalDomainId", "0"))
+                .put("salt", new JSONObject()
+                    .put("id", "salt")
+                    .put("temporalDomainId", "0")
+                    .put("verticalDomainId", "0"))));
+    }
+}
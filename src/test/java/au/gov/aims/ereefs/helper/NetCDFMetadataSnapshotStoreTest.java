@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.Utils;
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.database.table.DatabaseTable;
+import au.gov.aims.ereefs.database.table.DatabaseTableDiskCache;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+public class NetCDFMetadataSnapshotStoreTest extends NetCDFMetadataTestBase {
+    private File snapshotDirectory;
+
+    @Before
+    public void initSnapshotDirectory() {
+        this.snapshotDirectory = new File(DatabaseTable.getDatabaseCacheDirectory(), "snapshotTest");
+    }
+
+    @After
+    public void deleteSnapshot() throws Exception {
+        DatabaseTableDiskCache.getInstance(this.snapshotDirectory).close();
+        Utils.deleteDirectory(this.snapshotDirectory);
+    }
+
+    @Test
+    public void testGetNetCDFMetadatasModifiedSince() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        long watermark = new DateTime(2021, 1, 15, 0, 0).getMillis();
+
+        Assert.assertTrue("No metadata should be modified",
+                metadataHelper.getNetCDFMetadatasModifiedSince(DEFINITION_ID, watermark).isEmpty());
+
+        this.saveMetadata(3, "VALID", new DateTime(2021, 2, 1, 0, 0));
+        List<NetCDFMetadataBean> modifiedMetadatas = metadataHelper.getNetCDFMetadatasModifiedSince(DEFINITION_ID, watermark);
+        Assert.assertEquals("Wrong number of modified metadata", 1, modifiedMetadatas.size());
+        Assert.assertEquals("Wrong modified metadata", this.getMetadataId(3), modifiedMetadatas.get(0).getId());
+
+        Assert.assertEquals("Wrong number of metadata IDs", 5, metadataHelper.getNetCDFMetadataIds(DEFINITION_ID).size());
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        MetadataHelper metadataHelper = new MetadataHelper(this.getDatabaseClient(), CACHE_STRATEGY);
+        NetCDFMetadataSnapshotStore store = new NetCDFMetadataSnapshotStore(metadataHelper, this.snapshotDirectory);
+        store.clear();
+
+        NetCDFMetadataSnapshotStore.SyncResult result = store.sync(DEFINITION_ID);
+        Assert.assertTrue("The first synchronisation should be a full synchronisation", result.isFull());
+        Assert.assertEquals("Wrong number of metadata", 5, result.getMetadatas().size());
+        NetCDFMetadataBean metadata1 = result.getMetadatas().get(this.getMetadataId(1));
+
+        // Nothing changed
+        result = store.sync(DEFINITION_ID, result.getMetadatas());
+        Assert.assertFalse("The second synchronisation should not be a full synchronisation", result.isFull());
+        Assert.assertEquals("Wrong number of metadata", 5, result.getMetadatas().size());
+        Assert.assertTrue("No metadata should be modified", result.getModifiedIds().isEmpty());
+        Assert.assertTrue("No metadata should be deleted", result.getDeletedIds().isEmpty());
+        Assert.assertSame("The unmodified metadata should not be decoded again", metadata1, result.getMetadatas().get(this.getMetadataId(1)));
+
+        // The store doesn't keep the decoded metadata
+        Assert.assertNotSame("The metadata should be decoded", metadata1, store.sync(DEFINITION_ID).getMetadatas().get(this.getMetadataId(1)));
+
+        // Modify a file, delete a file and add a file with an old timestamp
+        this.saveMetadata(0, "VALID", new DateTime(2021, 2, 1, 0, 0));
+        this.getMetadataManager().delete(this.getMetadataId(2));
+        this.saveMetadata(5, "VALID", new DateTime(2020, 1, 1, 0, 0));
+
+        // A new store (i.e. a new process) use the snapshot saved on disk
+        store = new NetCDFMetadataSnapshotStore(metadataHelper, this.snapshotDirectory);
+        result = store.sync(DEFINITION_ID);
+        Assert.assertFalse("The snapshot was not reused", result.isFull());
+        Assert.assertEquals("Wrong number of metadata", 5, result.getMetadatas().size());
+        Assert.assertEquals("Wrong number of modified metadata", 2, result.getModifiedIds().size());
+        Assert.assertTrue("The modified metadata was not found", result.getModifiedIds().contains(this.getMetadataId(0)));
+        Assert.assertTrue("The added metadata was not found", result.getModifiedIds().contains(this.getMetadataId(5)));
+        Assert.assertEquals("Wrong number of deleted metadata", 1, result.getDeletedIds().size());
+        Assert.assertTrue("The deleted metadata was not found", result.getDeletedIds().contains(this.getMetadataId(2)));
+
+        Assert.assertEquals("Wrong last modified",
+                new DateTime(2021, 2, 1, 0, 0).getMillis(), result.getMetadatas().get(this.getMetadataId(0)).getLastModified());
+        Assert.assertFalse("The deleted metadata was not removed", result.getMetadatas().containsKey(this.getMetadataId(2)));
+
+        // Modify a file, with the same store
+        NetCDFMetadataBean metadata0 = result.getMetadatas().get(this.getMetadataId(0));
+        metadata1 = result.getMetadatas().get(this.getMetadataId(1));
+        this.saveMetadata(0, "VALID", new DateTime(2021, 3, 1, 0, 0));
+
+        result = store.sync(DEFINITION_ID, result.getMetadatas());
+        Assert.assertEquals("Wrong modified metadata", Collections.singleton(this.getMetadataId(0)), result.getModifiedIds());
+        Assert.assertNotSame("The modified metadata was not decoded", metadata0, result.getMetadatas().get(this.getMetadataId(0)));
+        Assert.assertEquals("Wrong last modified",
+                new DateTime(2021, 3, 1, 0, 0).getMillis(), result.getMetadatas().get(this.getMetadataId(0)).getLastModified());
+        Assert.assertSame("The unmodified metadata should not be decoded again", metadata1, result.getMetadatas().get(this.getMetadataId(1)));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import au.gov.aims.ereefs.database.DatabaseTestBase;
+import au.gov.aims.ereefs.database.manager.MetadataManager;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import org.junit.Before;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+
+/**
+ * Inserts the metadata of 5 copies of the {@code netcdf/small.nc} file
+ * in the database, for the input definition {@link #DEFINITION_ID}.
+ */
+public class NetCDFMetadataTestBase extends DatabaseTestBase {
+    protected static final String DEFINITION_ID = "downloads/gbr4_v2";
+
+    private MetadataManager metadataManager;
+    private JSONObject jsonMetadataTemplate;
+
+    @Before
+    public void insertMetadata() throws Exception {
+        URL netCDFFileUrl = NetCDFMetadataTestBase.class.getClassLoader().getResource("netcdf/small.nc");
+        File netCDFFile = new File(netCDFFileUrl.getFile());
+        URI fileURI = new File("/tmp/netcdfFiles/gbr4_small.nc").toURI();
+
+        NetCDFMetadataBean metadata = NetCDFMetadataBean.create(DEFINITION_ID, "gbr4_small.nc", fileURI, netCDFFile, netCDFFile.lastModified());
+        this.jsonMetadataTemplate = metadata.toJSON();
+
+        this.metadataManager = new MetadataManager(this.getDatabaseClient(), CACHE_STRATEGY);
+        for (int i=0; i<5; i++) {
+            this.saveMetadata(i, "VALID", new DateTime(2021, 1, 1, 0, 0));
+        }
+    }
+
+    public MetadataManager getMetadataManager() {
+        return this.metadataManager;
+    }
+
+    public String getMetadataId(int index) {
+        return NetCDFMetadataBean.getUniqueDatasetId(DEFINITION_ID, String.format("gbr4_small_%d.nc", index));
+    }
+
+    public void saveMetadata(int index, String status, DateTime lastModified) throws Exception {
+        JSONObject jsonMetadata = new JSONObject(this.jsonMetadataTemplate.toString())
+            .put("_id", this.getMetadataId(index))
+            .put("datasetId", String.format("gbr4_small_%d.nc", index))
+            .put("status", status)
+            .put("lastModified", lastModified.toString())
+            .put("lastDownloaded", lastModified.toString());
+
+        this.metadataManager.save(jsonMetadata);
+    }
+}
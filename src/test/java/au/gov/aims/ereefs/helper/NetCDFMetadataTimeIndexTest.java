@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Australian Institute of Marine Science, 2021.
+ * @author Gael Lafond <g.lafond@aims.gov.au>
+ */
+package au.gov.aims.ereefs.helper;
+
+import au.gov.aims.ereefs.bean.metadata.netcdf.NetCDFMetadataBean;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NetCDFMetadataTimeIndexTest {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void testTimeIndex() {
+        // 3 daily files with hourly data, and a file which overlaps the second day, modified later
+        NetCDFMetadataBean day1 = this.createMetadata("gbr4_2014-12-01.nc", "2014-12-01T00:00:00.000Z", 24, "2015-01-01T00:00:00.000Z");
+        NetCDFMetadataBean day2 = this.createMetadata("gbr4_2014-12-02.nc", "2014-12-02T00:00:00.000Z", 24, "2015-01-01T00:00:00.000Z");
+        NetCDFMetadataBean day3 = this.createMetadata("gbr4_2014-12-03.nc", "2014-12-03T00:00:00.000Z", 24, "2015-01-01T00:00:00.000Z");
+        NetCDFMetadataBean rerun = this.createMetadata("gbr4_2014-12-02_rerun.nc", "2014-12-02T12:00:00.000Z", 6, "2015-02-01T00:00:00.000Z");
+
+        // Listed in random order
+        NetCDFMetadataTimeIndex timeIndex = new NetCDFMetadataTimeIndex(Arrays.asList(day3, rerun, day1, day2), "temp");
+        Assert.assertEquals("Wrong number of time values", 72, timeIndex.size());
+        Assert.assertEquals("Wrong number of indexed files", 4, timeIndex.getMetadatas().size());
+
+        NetCDFMetadataTimeIndex.TimeSlice timeSlice = timeIndex.find(new DateTime("2014-12-01T05:00:00.000Z"));
+        Assert.assertNotNull("Time slice not found", timeSlice);
+        Assert.assertEquals("Wrong file", day1.getId(), timeSlice.getMetadata().getId());
+        Assert.assertEquals("Wrong time index", 5, timeSlice.getTimeIndex());
+
+        // Overlapping time values are found in the most recently modified file
+        timeSlice = timeIndex.find(new DateTime("2014-12-02T14:00:00.000Z"));
+        Assert.assertEquals("Wrong file for overlapping time value", rerun.getId(), timeSlice.getMetadata().getId());
+        Assert.assertEquals("Wrong time index for overlapping time value", 2, timeSlice.getTimeIndex());
+        timeSlice = timeIndex.find(new DateTime("2014-12-02T18:00:00.000Z"));
+        Assert.assertEquals("Wrong file after the overlapping time values", day2.getId(), timeSlice.getMetadata().getId());
+        Assert.assertEquals("Wrong time index after the overlapping time values", 18, timeSlice.getTimeIndex());
+
+        Assert.assertNull("Unexpected time slice", timeIndex.find(new DateTime("2014-12-01T05:30:00.000Z")));
+
+        timeSlice = timeIndex.floor(new DateTime("2014-12-03T10:30:00.000Z"));
+        Assert.assertEquals("Wrong floor file", day3.getId(), timeSlice.getMetadata().getId());
+        Assert.assertEquals("Wrong floor time index", 10, timeSlice.getTimeIndex());
+        Assert.assertNull("Unexpected floor time slice", timeIndex.floor(new DateTime("2014-11-30T23:59:59.000Z")));
+
+        timeSlice = timeIndex.ceiling(new DateTime("2014-12-01T23:30:00.000Z"));
+        Assert.assertEquals("Wrong ceiling file", day2.getId(), timeSlice.getMetadata().getId());
+        Assert.assertEquals("Wrong ceiling time index", 0, timeSlice.getTimeIndex());
+        Assert.assertNull("Unexpected ceiling time slice", timeIndex.ceiling(new DateTime("2014-12-03T23:00:01.000Z")));
+
+        List<NetCDFMetadataTimeIndex.TimeSlice> timeSlices = timeIndex.range(
+                new DateTime("2014-12-01T22:00:00.000Z"), new DateTime("2014-12-02T02:00:00.000Z"));
+        Assert.assertEquals("Wrong number of time slices", 4, timeSlices.size());
+        Assert.assertEquals("Wrong first time slice", new DateTime("2014-12-01T22:00:00.000Z").getMillis(), timeSlices.get(0).getTimeMillis());
+        Assert.assertEquals("Wrong last time slice", new DateTime("2014-12-02T01:00:00.000Z").getMillis(), timeSlices.get(3).getTimeMillis());
+        Assert.assertEquals("Wrong last time slice file", day2.getId(), timeSlices.get(3).getMetadata().getId());
+    }
+
+    @Test
+    public void testMissingVariable() {
+        NetCDFMetadataBean day1 = this.createMetadata("gbr4_2014-12-01.nc", "2014-12-01T00:00:00.000Z", 24, "2015-01-01T00:00:00.000Z");
+
+        NetCDFMetadataTimeIndex timeIndex = new NetCDFMetadataTimeIndex(Arrays.asList(day1), "salt");
+        Assert.assertEquals("Unexpected time values", 0, timeIndex.size());
+        Assert.assertTrue("Unexpected indexed files", timeIndex.getMetadatas().isEmpty());
+        Assert.assertNull("Unexpected time slice", timeIndex.floor(new DateTime("2014-12-01T05:00:00.000Z")));
+        Assert.assertTrue("Unexpected time slices", timeIndex.range(0, Long.MAX_VALUE).isEmpty());
+
+        timeIndex = new NetCDFMetadataTimeIndex(new ArrayList<NetCDFMetadataBean>(), "temp");
+        Assert.assertEquals("Unexpected time values", 0, timeIndex.size());
+    }
+
+    private NetCDFMetadataBean createMetadata(String datasetId, String start, int count, String lastModified) {
+        JSONObject jsonTemporalDomain = new JSONObject()
+            .put("name", "time")
+            .put("timeAxis", new JSONObject()
+                .put("start", start)
+                .put("step", HOUR)
+                .put("count", count));
+
+        return new NetCDFMetadataBean(new JSONObject()
+            .put("_id", NetCDFMetadataBean.getUniqueDatasetId("downloads/gbr4_v2", datasetId))
+            .put("definitionId", "downloads/gbr4_v2")
+            .put("datasetId", datasetId)
+            .put("version", "2.2")
+            .put("lastModified", lastModified)
+            .put("variables", new JSONObject()
+                .put("temp", new JSONObject()
+                    .put("id", "temp")
+                    .put("temporalDomain", jsonTemporalDomain))));
+    }
+}